@@ -0,0 +1,33 @@
+plugins {
+    java
+}
+
+dependencies {
+    implementation(project(":jhat"))
+    implementation(rootProject.extra["depJmhCore"] as String)
+    annotationProcessor(rootProject.extra["depJmhGenerator"] as String)
+}
+
+configure<JavaPluginConvention> {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+}
+
+// Runs the benchmarks, with JMH options passed as -Pjmh="...", e.g.
+//   ./gradlew :jhat-jmh:jmh -Pjmh="ParseBenchmark -p objects=100000 -f 1"
+tasks.register<JavaExec>("jmh") {
+    dependsOn("classes")
+    description = "Runs the JMH benchmarks."
+    main = "org.openjdk.jmh.Main"
+    classpath = sourceSets["main"].runtimeClasspath
+    args = (project.findProperty("jmh") as String? ?: "").split(" ").filter { it.isNotEmpty() }
+}
+
+// Writes a synthetic heap dump, e.g.
+//   ./gradlew :jhat-jmh:generateDump -Pdump="/tmp/bench.hprof 1000000 8"
+tasks.register<JavaExec>("generateDump") {
+    dependsOn("classes")
+    description = "Writes a synthetic HPROF file."
+    main = "com.sun.tools.hat2.jmh.HprofGenerator"
+    classpath = sourceSets["main"].runtimeClasspath
+    args = (project.findProperty("dump") as String? ?: "").split(" ").filter { it.isNotEmpty() }
+}
@@ -0,0 +1,96 @@
+package com.sun.tools.hat2.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.sun.tools.hat2.internal.model.Snapshot;
+import com.sun.tools.hat2.internal.parser.Reader;
+import com.sun.tools.hat2.internal.util.ArrayStore;
+
+/**
+ * A synthetic dump, written once per trial.  jhat's progress output is
+ * thrown away while the benchmarks run.
+ */
+@State(Scope.Benchmark)
+public class DumpState {
+
+    @Param({"1000000"})
+    public int objects;
+
+    @Param({"8"})
+    public int identifierSize;
+
+    // Object[], primitive array and String percentages
+    @Param({"10,15,15"})
+    public String mix;
+
+    // percentage of random references that go to one of 100 hubs
+    @Param({"20"})
+    public int hubPercent;
+
+    @Param({"1"})
+    public int threads;
+
+    // keep instances and arrays in compact form
+    @Param({"false"})
+    public boolean compact;
+
+    // keep the object index and referers graph in scratch files
+    @Param({"false"})
+    public boolean offHeap;
+
+    public File file;
+
+    private PrintStream savedOut;
+
+    @Setup(Level.Trial)
+    public void writeDump() throws IOException {
+        savedOut = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        String[] percents = mix.split(",");
+        HprofGenerator generator = new HprofGenerator();
+        generator.setObjectCount(objects);
+        generator.setIdentifierSize(identifierSize);
+        generator.setMix(Integer.parseInt(percents[0].trim()),
+                         Integer.parseInt(percents[1].trim()),
+                         Integer.parseInt(percents[2].trim()));
+        generator.setFanIn(100, hubPercent);
+        file = File.createTempFile("jhat-bench", ".hprof");
+        file.deleteOnExit();
+        generator.write(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDump() {
+        file.delete();
+        System.setOut(savedOut);
+    }
+
+    public Snapshot read() throws IOException {
+        ArrayStore store = offHeap? ArrayStore.mapped(null) : ArrayStore.HEAP;
+        return Reader.readFile(file.getPath(), false, 0, false, threads, compact,
+                               store);
+    }
+
+    public Snapshot readAndResolve() throws IOException {
+        Snapshot snapshot = read();
+        snapshot.resolve(true);
+        return snapshot;
+    }
+}
@@ -0,0 +1,461 @@
+package com.sun.tools.hat2.jmh;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes synthetic HPROF 1.0.2 files for the benchmarks.  The heap holds
+ * instances of bench.Node, Object[] arrays, int[] and byte[] arrays and
+ * Strings with their char[] values, mixed in configurable proportions.
+ *
+ * Every Node refers to the next object, so most of the heap hangs off a
+ * few roots in long chains.  The other references go to random objects,
+ * except that hubPercent of them go to one of hubCount hub objects, which
+ * gives the hubs a large fan-in.
+ *
+ * The same settings and seed always give the same file.
+ */
+public class HprofGenerator {
+
+    // Record tags
+    private static final int HPROF_UTF8 = 0x01;
+    private static final int HPROF_LOAD_CLASS = 0x02;
+    private static final int HPROF_TRACE = 0x05;
+    private static final int HPROF_HEAP_DUMP_SEGMENT = 0x1c;
+    private static final int HPROF_HEAP_DUMP_END = 0x2c;
+
+    // Heap dump sub-record tags
+    private static final int HPROF_GC_ROOT_JNI_GLOBAL = 0x01;
+    private static final int HPROF_GC_ROOT_JAVA_FRAME = 0x03;
+    private static final int HPROF_GC_ROOT_STICKY_CLASS = 0x05;
+    private static final int HPROF_GC_ROOT_THREAD_OBJ = 0x08;
+    private static final int HPROF_GC_CLASS_DUMP = 0x20;
+    private static final int HPROF_GC_INSTANCE_DUMP = 0x21;
+    private static final int HPROF_GC_OBJ_ARRAY_DUMP = 0x22;
+    private static final int HPROF_GC_PRIM_ARRAY_DUMP = 0x23;
+
+    // Basic types
+    private static final int T_CLASS = 2;
+    private static final int T_CHAR = 5;
+    private static final int T_BYTE = 8;
+    private static final int T_INT = 10;
+    private static final int T_LONG = 11;
+
+    private static final int STACK_TRACE_SERIAL = 1;
+    private static final int THREAD_SERIAL = 1;
+
+    // Object ids are addresses, 16 bytes apart, and fit in 32 bits
+    private static final long OBJECT_BASE = 0x10000000L;
+    private static final long CLASS_BASE = 0x08000000L;
+
+    private int objectCount = 100000;
+    private int identifierSize = 8;
+    private int objectArrayPercent = 10;
+    private int primitiveArrayPercent = 15;
+    private int stringPercent = 15;
+    private int arrayLength = 8;
+    private int hubCount = 100;
+    private int hubPercent = 20;
+    private int rootInterval = 1000;
+    private int segmentSize = 1024 * 1024;
+    private long seed = 42;
+
+    // Set up by write()
+    private Random random;
+    private long nextNameId;
+    private final List<ClassInfo> classes = new ArrayList<ClassInfo>();
+    private ClassInfo objectClass;
+    private ClassInfo stringClass;
+    private ClassInfo nodeClass;
+    private ClassInfo objectArrayClass;
+
+    private DataOutputStream out;
+    private ByteArrayOutputStream segmentBytes;
+    private DataOutputStream segment;
+
+    /**
+     * Number of heap objects, not counting classes and the char[] values
+     * of Strings.  At most 200 million, so that ids fit in 32 bits.
+     */
+    public void setObjectCount(int objectCount) {
+        if (objectCount < 1 || objectCount > 200000000) {
+            throw new IllegalArgumentException("objectCount: " + objectCount);
+        }
+        this.objectCount = objectCount;
+    }
+
+    public void setIdentifierSize(int identifierSize) {
+        if (identifierSize != 4 && identifierSize != 8) {
+            throw new IllegalArgumentException("identifierSize: " + identifierSize);
+        }
+        this.identifierSize = identifierSize;
+    }
+
+    /**
+     * Percentages of the objects that are Object[], primitive arrays and
+     * Strings.  The rest are Nodes.
+     */
+    public void setMix(int objectArrayPercent, int primitiveArrayPercent,
+                       int stringPercent) {
+        if (objectArrayPercent < 0 || primitiveArrayPercent < 0 || stringPercent < 0
+                || objectArrayPercent + primitiveArrayPercent + stringPercent > 100) {
+            throw new IllegalArgumentException("bad object mix");
+        }
+        this.objectArrayPercent = objectArrayPercent;
+        this.primitiveArrayPercent = primitiveArrayPercent;
+        this.stringPercent = stringPercent;
+    }
+
+    public void setArrayLength(int arrayLength) {
+        if (arrayLength < 0) {
+            throw new IllegalArgumentException("arrayLength: " + arrayLength);
+        }
+        this.arrayLength = arrayLength;
+    }
+
+    /**
+     * Send hubPercent of the random references to the first hubCount
+     * objects.
+     */
+    public void setFanIn(int hubCount, int hubPercent) {
+        if (hubCount < 1 || hubPercent < 0 || hubPercent > 100) {
+            throw new IllegalArgumentException("bad fan-in");
+        }
+        this.hubCount = hubCount;
+        this.hubPercent = hubPercent;
+    }
+
+    /**
+     * Make every rootInterval-th object a JNI global root.
+     */
+    public void setRootInterval(int rootInterval) {
+        if (rootInterval < 1) {
+            throw new IllegalArgumentException("rootInterval: " + rootInterval);
+        }
+        this.rootInterval = rootInterval;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("segmentSize: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void write(File file) throws IOException {
+        random = new Random(seed);
+        nextNameId = 1;
+        classes.clear();
+        out = new DataOutputStream(new BufferedOutputStream(
+                  new FileOutputStream(file), 64 * 1024));
+        try {
+            writeHeader();
+            defineClasses();
+            writeClassRecords();
+            startSegment();
+            writeClassDumps();
+            writeRoots();
+            for (int i = 0; i < objectCount; i++) {
+                writeObject(i);
+                if (segmentBytes.size() >= segmentSize) {
+                    flushSegment();
+                    startSegment();
+                }
+            }
+            flushSegment();
+            startRecord(HPROF_HEAP_DUMP_END, 0);
+        } finally {
+            out.close();
+            out = null;
+            segment = null;
+            segmentBytes = null;
+        }
+    }
+
+    // Internals only below this point
+
+    private void writeHeader() throws IOException {
+        out.write("JAVA PROFILE 1.0.2".getBytes("US-ASCII"));
+        out.write(0);
+        out.writeInt(identifierSize);
+        out.writeLong(0L);              // time stamp, fixed for the same file
+
+        // one empty stack trace for everything
+        startRecord(HPROF_TRACE, 12);
+        out.writeInt(STACK_TRACE_SERIAL);
+        out.writeInt(THREAD_SERIAL);
+        out.writeInt(0);
+    }
+
+    private void defineClasses() {
+        objectClass = defineClass("java.lang.Object", null);
+        defineClass("java.lang.Class", objectClass);
+        defineClass("java.lang.ClassLoader", objectClass);
+        stringClass = defineClass("java.lang.String", objectClass,
+                                  "value", T_CLASS, "hash", T_INT);
+        ClassInfo reference = defineClass("java.lang.ref.Reference", objectClass,
+                                          "referent", T_CLASS, "queue", T_CLASS,
+                                          "next", T_CLASS, "discovered", T_CLASS);
+        defineClass("java.lang.ref.WeakReference", reference);
+        objectArrayClass = defineClass("[Ljava.lang.Object;", objectClass);
+        nodeClass = defineClass("bench.Node", objectClass,
+                                "id", T_INT, "payload", T_LONG,
+                                "next", T_CLASS, "ref", T_CLASS);
+    }
+
+    // fieldsAndTypes holds name, type pairs
+    private ClassInfo defineClass(String name, ClassInfo superclass,
+                                  Object... fieldsAndTypes) {
+        ClassInfo c = new ClassInfo();
+        c.id = CLASS_BASE + classes.size() * 64L;
+        c.serial = classes.size() + 1;
+        c.name = name;
+        c.superclass = superclass;
+        int numFields = fieldsAndTypes.length / 2;
+        c.fieldNames = new String[numFields];
+        c.fieldTypes = new int[numFields];
+        for (int i = 0; i < numFields; i++) {
+            c.fieldNames[i] = (String) fieldsAndTypes[2 * i];
+            c.fieldTypes[i] = (Integer) fieldsAndTypes[2 * i + 1];
+            c.instanceSize += sizeOf(c.fieldTypes[i]);
+        }
+        if (superclass != null) {
+            c.instanceSize += superclass.instanceSize;
+        }
+        classes.add(c);
+        return c;
+    }
+
+    private void writeClassRecords() throws IOException {
+        for (ClassInfo c : classes) {
+            c.nameId = writeName(c.name.replace('.', '/'));
+            c.fieldNameIds = new long[c.fieldNames.length];
+            for (int i = 0; i < c.fieldNames.length; i++) {
+                c.fieldNameIds[i] = writeName(c.fieldNames[i]);
+            }
+            startRecord(HPROF_LOAD_CLASS, 8 + 2 * identifierSize);
+            out.writeInt(c.serial);
+            writeID(out, c.id);
+            out.writeInt(STACK_TRACE_SERIAL);
+            writeID(out, c.nameId);
+        }
+    }
+
+    private long writeName(String name) throws IOException {
+        byte[] bytes = name.getBytes("UTF-8");
+        long id = nextNameId++;
+        startRecord(HPROF_UTF8, identifierSize + bytes.length);
+        writeID(out, id);
+        out.write(bytes);
+        return id;
+    }
+
+    private void writeClassDumps() throws IOException {
+        for (ClassInfo c : classes) {
+            segment.writeByte(HPROF_GC_CLASS_DUMP);
+            writeID(segment, c.id);
+            segment.writeInt(STACK_TRACE_SERIAL);
+            writeID(segment, c.superclass == null ? 0 : c.superclass.id);
+            writeID(segment, 0);        // class loader
+            writeID(segment, 0);        // signers
+            writeID(segment, 0);        // protection domain
+            writeID(segment, 0);        // reserved
+            writeID(segment, 0);        // reserved
+            segment.writeInt(c.instanceSize);
+            segment.writeShort(0);      // constant pool
+            segment.writeShort(0);      // statics
+            segment.writeShort(c.fieldNames.length);
+            for (int i = 0; i < c.fieldNames.length; i++) {
+                writeID(segment, c.fieldNameIds[i]);
+                segment.writeByte(c.fieldTypes[i]);
+            }
+
+            segment.writeByte(HPROF_GC_ROOT_STICKY_CLASS);
+            writeID(segment, c.id);
+        }
+    }
+
+    private void writeRoots() throws IOException {
+        // object 0 poses as the thread, its frame holds the first objects
+        segment.writeByte(HPROF_GC_ROOT_THREAD_OBJ);
+        writeID(segment, objectId(0));
+        segment.writeInt(THREAD_SERIAL);
+        segment.writeInt(STACK_TRACE_SERIAL);
+        for (int i = 1; i < Math.min(objectCount, 16); i++) {
+            segment.writeByte(HPROF_GC_ROOT_JAVA_FRAME);
+            writeID(segment, objectId(i));
+            segment.writeInt(THREAD_SERIAL);
+            segment.writeInt(0);        // frame depth
+        }
+        for (int i = 0; i < objectCount; i += rootInterval) {
+            segment.writeByte(HPROF_GC_ROOT_JNI_GLOBAL);
+            writeID(segment, objectId(i));
+            writeID(segment, 0);        // global ref id
+        }
+    }
+
+    private void writeObject(int i) throws IOException {
+        long id = objectId(i);
+        int kind = random.nextInt(100);
+        if (kind < objectArrayPercent) {
+            segment.writeByte(HPROF_GC_OBJ_ARRAY_DUMP);
+            writeID(segment, id);
+            segment.writeInt(STACK_TRACE_SERIAL);
+            segment.writeInt(arrayLength);
+            writeID(segment, objectArrayClass.id);
+            for (int j = 0; j < arrayLength; j++) {
+                writeID(segment, randomTarget());
+            }
+        } else if ((kind -= objectArrayPercent) < primitiveArrayPercent) {
+            boolean isInt = (kind & 1) == 0;
+            segment.writeByte(HPROF_GC_PRIM_ARRAY_DUMP);
+            writeID(segment, id);
+            segment.writeInt(STACK_TRACE_SERIAL);
+            segment.writeInt(arrayLength);
+            segment.writeByte(isInt ? T_INT : T_BYTE);
+            for (int j = 0; j < arrayLength; j++) {
+                if (isInt) {
+                    segment.writeInt(random.nextInt());
+                } else {
+                    segment.writeByte(random.nextInt());
+                }
+            }
+        } else if ((kind -= primitiveArrayPercent) < stringPercent) {
+            // the value sits between this object and the next one
+            long valueId = id + 8;
+            String value = "s" + i;
+            startInstance(id, stringClass);
+            writeID(segment, valueId);
+            segment.writeInt(value.hashCode());
+
+            segment.writeByte(HPROF_GC_PRIM_ARRAY_DUMP);
+            writeID(segment, valueId);
+            segment.writeInt(STACK_TRACE_SERIAL);
+            segment.writeInt(value.length());
+            segment.writeByte(T_CHAR);
+            segment.writeChars(value);
+        } else {
+            startInstance(id, nodeClass);
+            segment.writeInt(i);
+            segment.writeLong(random.nextLong());
+            writeID(segment, i + 1 < objectCount ? objectId(i + 1) : 0);
+            writeID(segment, randomTarget());
+        }
+    }
+
+    private void startInstance(long id, ClassInfo c) throws IOException {
+        segment.writeByte(HPROF_GC_INSTANCE_DUMP);
+        writeID(segment, id);
+        segment.writeInt(STACK_TRACE_SERIAL);
+        writeID(segment, c.id);
+        segment.writeInt(instanceBytes(c));
+    }
+
+    private int instanceBytes(ClassInfo c) {
+        int size = 0;
+        for (ClassInfo k = c; k != null; k = k.superclass) {
+            for (int type : k.fieldTypes) {
+                size += (type == T_CLASS) ? identifierSize : sizeOf(type);
+            }
+        }
+        return size;
+    }
+
+    private long randomTarget() {
+        if (random.nextInt(100) < hubPercent) {
+            return objectId(random.nextInt(Math.min(hubCount, objectCount)));
+        } else {
+            return objectId(random.nextInt(objectCount));
+        }
+    }
+
+    private static long objectId(int i) {
+        return OBJECT_BASE + i * 16L;
+    }
+
+    private int sizeOf(int type) {
+        switch (type) {
+            case T_CLASS:
+                return identifierSize;
+            case T_CHAR:
+                return 2;
+            case T_BYTE:
+                return 1;
+            case T_INT:
+                return 4;
+            case T_LONG:
+                return 8;
+            default:
+                throw new IllegalArgumentException("type: " + type);
+        }
+    }
+
+    private void writeID(DataOutputStream dos, long id) throws IOException {
+        if (identifierSize == 4) {
+            dos.writeInt((int) id);
+        } else {
+            dos.writeLong(id);
+        }
+    }
+
+    private void startRecord(int tag, int length) throws IOException {
+        out.writeByte(tag);
+        out.writeInt(0);                // time stamp
+        out.writeInt(length);
+    }
+
+    private void startSegment() {
+        segmentBytes = new ByteArrayOutputStream(segmentSize + 1024);
+        segment = new DataOutputStream(segmentBytes);
+    }
+
+    private void flushSegment() throws IOException {
+        if (segmentBytes.size() > 0) {
+            startRecord(HPROF_HEAP_DUMP_SEGMENT, segmentBytes.size());
+            segmentBytes.writeTo(out);
+        }
+    }
+
+    private static class ClassInfo {
+        long id;
+        int serial;
+        String name;
+        long nameId;
+        ClassInfo superclass;
+        String[] fieldNames;
+        long[] fieldNameIds;
+        int[] fieldTypes;
+        int instanceSize;
+    }
+
+    /**
+     * Usage: HprofGenerator file [objects [identifierSize]]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: HprofGenerator <file> [<objects> [<identifier size>]]");
+            System.exit(1);
+        }
+        HprofGenerator generator = new HprofGenerator();
+        if (args.length > 1) {
+            generator.setObjectCount(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            generator.setIdentifierSize(Integer.parseInt(args[2]));
+        }
+        File file = new File(args[0]);
+        generator.write(file);
+        System.out.println("Wrote " + file + ", " + file.length() + " bytes.");
+    }
+}
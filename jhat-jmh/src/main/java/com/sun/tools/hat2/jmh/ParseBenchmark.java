@@ -0,0 +1,55 @@
+package com.sun.tools.hat2.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.tools.hat2.internal.model.Snapshot;
+
+/**
+ * Reading a dump with HprofReader.read(), and Snapshot.resolve(true).
+ * Both are one-shot operations on a large input, so each invocation is
+ * timed on its own.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ParseBenchmark {
+
+    @Benchmark
+    public Snapshot read(DumpState dump) throws IOException {
+        return dump.read();
+    }
+
+    @Benchmark
+    public Snapshot resolve(ReadSnapshot read) {
+        read.snapshot.resolve(true);
+        return read.snapshot;
+    }
+
+    // A snapshot that has been read but not resolved.  resolve() can only
+    // be called once, so there is a fresh one for every invocation.
+    @State(Scope.Thread)
+    public static class ReadSnapshot {
+        Snapshot snapshot;
+
+        @Setup(Level.Invocation)
+        public void read(DumpState dump) throws IOException {
+            snapshot = null;
+            snapshot = dump.read();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.sun.tools.hat2.jmh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sun.tools.hat2.internal.model.JavaClass;
+import com.sun.tools.hat2.internal.model.JavaHeapObject;
+import com.sun.tools.hat2.internal.model.JavaObject;
+import com.sun.tools.hat2.internal.model.ReferenceChain;
+import com.sun.tools.hat2.internal.model.Snapshot;
+import com.sun.tools.hat2.internal.oql.OQLEngine;
+import com.sun.tools.hat2.internal.oql.OQLException;
+import com.sun.tools.hat2.internal.oql.ObjectVisitor;
+
+/**
+ * The work behind the server's pages, on a resolved snapshot: reading
+ * instance fields, finding root paths and running OQL queries.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class QueryBenchmark {
+
+    // Reads the fields of every bench.Node, as a full scan query does
+    @Benchmark
+    public void getFields(Resolved resolved, Blackhole bh) {
+        for (JavaObject node : resolved.nodes) {
+            bh.consume(node.getFields());
+        }
+    }
+
+    // Paths from the roots to objects far down the Node chains
+    @Benchmark
+    public void rootsetReferencesTo(Resolved resolved, Blackhole bh) {
+        for (JavaHeapObject target : resolved.targets) {
+            ReferenceChain[] chains = resolved.snapshot.rootsetReferencesTo(target, false);
+            bh.consume(chains);
+        }
+    }
+
+    @Benchmark
+    public void oql(Resolved resolved, final Blackhole bh) throws OQLException {
+        resolved.engine().executeQuery(resolved.query, new ObjectVisitor() {
+            public boolean visit(Object o) {
+                bh.consume(o);
+                return false;
+            }
+        });
+    }
+
+    @State(Scope.Benchmark)
+    public static class Resolved {
+
+        @Param({
+            "select n from bench.Node n where n.id % 1000 == 0",
+            "select s from java.lang.String s where s.value.length > 6"
+        })
+        public String query;
+
+        Snapshot snapshot;
+        List<JavaObject> nodes;
+        List<JavaHeapObject> targets;
+        private OQLEngine engine;
+
+        @Setup(Level.Trial)
+        public void resolve(DumpState dump) throws IOException {
+            snapshot = dump.readAndResolve();
+            JavaClass nodeClass = snapshot.findClass("bench.Node");
+            nodes = new ArrayList<JavaObject>();
+            for (Enumeration e = nodeClass.getInstances(false); e.hasMoreElements(); ) {
+                nodes.add((JavaObject) e.nextElement());
+            }
+            // the roots are every 1000th object, so these are about as
+            // far from a root as objects get
+            targets = new ArrayList<JavaHeapObject>();
+            for (int i = 999; i < nodes.size(); i += nodes.size() / 10 + 1) {
+                targets.add(nodes.get(i));
+            }
+        }
+
+        OQLEngine engine() {
+            if (engine == null) {
+                if (!OQLEngine.isOQLSupported()) {
+                    throw new IllegalStateException(
+                        "OQL needs a JavaScript engine, which this JVM does not have");
+                }
+                engine = new OQLEngine(snapshot);
+            }
+            return engine;
+        }
+    }
+}
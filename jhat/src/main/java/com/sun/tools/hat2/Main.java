@@ -38,6 +38,7 @@ import com.sun.tools.hat2.internal.model.Snapshot;
 import com.sun.tools.hat2.internal.model.ReachableExcludesImpl;
 import com.sun.tools.hat2.internal.server.QueryListener;
 import com.sun.tools.hat2.internal.parser.Reader;
+import com.sun.tools.hat2.internal.util.ArrayStore;
 
 /**
  *
@@ -53,7 +54,7 @@ public class Main {
         if ( message != null ) {
             System.err.println("ERROR: " + message);
         }
-        System.err.println("Usage:  jhat [-stack <bool>] [-refs <bool>] [-port <port>] [-baseline <file>] [-debug <int>] [-version] [-h|-help] <file>");
+        System.err.println("Usage:  jhat [-stack <bool>] [-refs <bool>] [-port <port>] [-baseline <file>] [-threads <int>] [-index <bool>] [-compact <bool>] [-scratch <dir>] [-oqlTimeout <seconds>] [-oqlMaxRows <int>] [-oqlMaxObjects <int>] [-debug <int>] [-version] [-h|-help] <file>");
         System.err.println();
         System.err.println("\t-J<flag>          Pass <flag> directly to the runtime system. For");
         System.err.println("\t\t\t  example, -J-mx512m to use a maximum heap size of 512MB");
@@ -65,6 +66,20 @@ public class Main {
         System.err.println("\t-baseline <file>: Specify a baseline object dump.  Objects in");
         System.err.println("\t\t\t  both heap dumps with the same ID and same class will");
         System.err.println("\t\t\t  be marked as not being \"new\".");
+        System.err.println("\t-threads <int>:   Set the number of threads used to read and resolve");
+        System.err.println("\t\t\t  the snapshot.  Defaults to the number of processors.");
+        System.err.println("\t-index false:     Do not read or write the index file that is kept");
+        System.err.println("\t\t\t  next to the dump to make reopening it faster.");
+        System.err.println("\t-compact true:    Keep instances and arrays as a few values each,");
+        System.err.println("\t\t\t  rather than as objects, to read large dumps with");
+        System.err.println("\t\t\t  less memory.  Defaults to false.");
+        System.err.println("\t-scratch <dir>:   Keep the object index and the references between");
+        System.err.println("\t\t\t  objects in memory-mapped files in <dir>, rather");
+        System.err.println("\t\t\t  than on the Java heap.");
+        System.err.println("\t-oqlTimeout <seconds>: Stop OQL queries that run for longer.");
+        System.err.println("\t-oqlMaxRows <int>: Show at most this many results of an OQL query.");
+        System.err.println("\t-oqlMaxObjects <int>: Stop OQL queries that look at more objects.");
+        System.err.println("\t\t\t  There are no OQL limits by default.");
         System.err.println("\t-debug <int>:     Set debug level.");
         System.err.println("\t\t\t    0:  No debug output");
         System.err.println("\t\t\t    1:  Debug hprof file parsing");
@@ -77,7 +92,7 @@ public class Main {
         System.err.println("you may specify which dump in the file");
         System.err.println("by appending \"#<number>\" to the file name, i.e. \"foo.hprof#3\".");
         System.err.println();
-        System.err.println("All boolean options default to \"true\"");
+        System.err.println("All boolean options but -compact default to \"true\"");
         System.exit(1);
     }
 
@@ -107,6 +122,13 @@ public class Main {
         String baselineDump = null;
         String excludeFileName = null;
         int debugLevel = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean useIndex = true;
+        boolean compactObjects = false;
+        ArrayStore store = ArrayStore.HEAP;
+        long oqlTimeout = 0;
+        long oqlMaxRows = 0;
+        long oqlMaxObjects = 0;
         for (int i = 0; ; i += 2) {
             if (i > (args.length - 1)) {
                 usage("Option parsing error");
@@ -136,6 +158,40 @@ public class Main {
                 excludeFileName = value;
             } else if ("-baseline".equals(key)) {
                 baselineDump = value;
+            } else if ("-threads".equals(key)) {
+                threads = Integer.parseInt(value, 10);
+                if (threads < 1) {
+                    usage("Number of threads must be positive");
+                }
+            } else if ("-index".equals(key)) {
+                useIndex = booleanValue(value);
+            } else if ("-compact".equals(key)) {
+                compactObjects = booleanValue(value);
+            } else if ("-scratch".equals(key)) {
+                File scratchDir = new File(value);
+                if (!scratchDir.isDirectory()) {
+                    usage("Scratch directory " + value + " does not exist");
+                }
+                store = ArrayStore.mapped(scratchDir);
+            } else if ("-oqlTimeout".equals(key)) {
+                oqlTimeout = Long.parseLong(value, 10);
+                if (oqlTimeout < 0) {
+                    usage("OQL timeout must not be negative");
+                }
+                if (oqlTimeout > Long.MAX_VALUE / 1000000000L) {
+                    // the query counts its time in nanoseconds
+                    usage("OQL timeout is too long");
+                }
+            } else if ("-oqlMaxRows".equals(key)) {
+                oqlMaxRows = Long.parseLong(value, 10);
+                if (oqlMaxRows < 0) {
+                    usage("OQL row limit must not be negative");
+                }
+            } else if ("-oqlMaxObjects".equals(key)) {
+                oqlMaxObjects = Long.parseLong(value, 10);
+                if (oqlMaxObjects < 0) {
+                    usage("OQL object limit must not be negative");
+                }
             } else if ("-debug".equals(key)) {
                 debugLevel = Integer.parseInt(value, 10);
             } else if ("-parseonly".equals(key)) {
@@ -157,7 +213,8 @@ public class Main {
 
         System.out.println("Reading from " + fileName + "...");
         try {
-            model = Reader.readFile(fileName, callStack, debugLevel);
+            model = Reader.readFile(fileName, callStack, debugLevel, useIndex,
+                                    threads, compactObjects, store);
         } catch (IOException ex) {
             ex.printStackTrace();
             System.exit(1);
@@ -168,6 +225,9 @@ public class Main {
         System.out.println("Snapshot read, resolving...");
         model.resolve(calculateRefs);
         System.out.println("Snapshot resolved.");
+        if (useIndex) {
+            Reader.writeIndex(fileName, model, callStack);
+        }
 
         if (excludeFile != null) {
             model.setReachableExcludes(new ReachableExcludesImpl(excludeFile));
@@ -178,7 +238,8 @@ public class Main {
             Snapshot baseline = null;
             try {
                 baseline = Reader.readFile(baselineDump, false,
-                                                      debugLevel);
+                                           debugLevel, false, threads,
+                                           compactObjects, store);
             } catch (IOException ex) {
                 ex.printStackTrace();
                 System.exit(1);
@@ -203,6 +264,7 @@ public class Main {
         }
 
         QueryListener listener = new QueryListener(portNumber);
+        listener.setOQLLimits(oqlTimeout * 1000, oqlMaxRows, oqlMaxObjects);
         listener.setModel(model);
         Thread t = new Thread(listener, "Query Listener");
         t.setPriority(Thread.NORM_PRIORITY+1);
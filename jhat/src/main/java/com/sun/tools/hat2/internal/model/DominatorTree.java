@@ -0,0 +1,484 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.sun.tools.hat2.internal.util.IntArrayList;
+import com.sun.tools.hat2.internal.util.IntGraph;
+
+/**
+ * The dominator tree of the objects in a Snapshot.  An object x dominates
+ * an object y if every path from the rootset to y passes through x; the
+ * retained size of x is the total size of the objects it dominates,
+ * including itself.  That is the memory that would be freed if x were
+ * unreachable.
+ *
+ * The tree is computed with the algorithm of Lengauer and Tarjan, on
+ * int arrays indexed by node.  Node 0 is a virtual root that refers to
+ * every object in the rootset, and node i+1 stands for the object with
+ * ordinal i.  References that are only held by the referent field of a
+ * java.lang.ref.Reference are not followed, and objects that are not
+ * reachable from the rootset are not part of the tree.
+ *
+ * A DominatorTree is immutable, and may be used by any number of threads.
+ */
+public class DominatorTree {
+
+    private static final int NONE = -1;
+
+    private final Snapshot snapshot;
+    private final int reachableCount;
+    // immediate dominator of each node, NONE if the node is unreachable
+    private final int[] dominators;
+    // retained size of each node
+    private final long[] retainedSizes;
+    // the nodes each node immediately dominates
+    private final IntGraph dominated;
+    // retained size of all instances of a class, by class index
+    private final Map<JavaClass, Integer> classIndex;
+    private final long[] classRetainedSizes;
+
+    private DominatorTree(Snapshot snapshot, int reachableCount,
+                          int[] dominators, long[] retainedSizes,
+                          IntGraph dominated, Map<JavaClass, Integer> classIndex,
+                          long[] classRetainedSizes) {
+        this.snapshot = snapshot;
+        this.reachableCount = reachableCount;
+        this.dominators = dominators;
+        this.retainedSizes = retainedSizes;
+        this.dominated = dominated;
+        this.classIndex = classIndex;
+        this.classRetainedSizes = classRetainedSizes;
+    }
+
+    /**
+     * @return the number of objects reachable from the rootset
+     */
+    public int getReachableCount() {
+        return reachableCount;
+    }
+
+    /**
+     * @return the total size of all objects reachable from the rootset
+     */
+    public long getReachableSize() {
+        return retainedSizes[0];
+    }
+
+    public boolean isReachable(JavaHeapObject ho) {
+        int node = nodeOf(ho);
+        return node != NONE && dominators[node] != NONE;
+    }
+
+    /**
+     * @return the immediate dominator of ho, or null if ho is unreachable
+     *         or only dominated by the rootset as a whole
+     */
+    public JavaHeapObject getDominator(JavaHeapObject ho) {
+        int node = nodeOf(ho);
+        if (node == NONE || dominators[node] == NONE) {
+            return null;
+        }
+        return objectAt(dominators[node]);
+    }
+
+    /**
+     * @return the retained size of ho, or 0 if ho is unreachable
+     */
+    public long getRetainedSize(JavaHeapObject ho) {
+        int node = nodeOf(ho);
+        return (node == NONE)? 0 : retainedSizes[node];
+    }
+
+    /**
+     * @return the retained size of all instances of clazz together.
+     *         Instances dominated by other instances of clazz are only
+     *         counted once.
+     */
+    public long getInstancesRetainedSize(JavaClass clazz) {
+        Integer index = classIndex.get(clazz);
+        return (index == null)? 0 : classRetainedSizes[index.intValue()];
+    }
+
+    /**
+     * @return the objects immediately dominated by ho, biggest retained
+     *         size first.  If ho is null, the objects that only the
+     *         rootset as a whole dominates.
+     */
+    public JavaHeapObject[] getDominated(JavaHeapObject ho) {
+        int node = (ho == null)? 0 : nodeOf(ho);
+        if (node == NONE || (node != 0 && dominators[node] == NONE)) {
+            return new JavaHeapObject[0];
+        }
+        Integer[] nodes = new Integer[dominated.getDegree(node)];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = dominated.getEdge(dominated.getStart(node) + i);
+        }
+        Arrays.sort(nodes, bySize());
+        return toObjects(nodes, nodes.length);
+    }
+
+    /**
+     * @return up to limit objects with the biggest retained sizes,
+     *         biggest first
+     */
+    public JavaHeapObject[] getTopRetainers(int limit) {
+        Comparator<Integer> bySize = bySize();
+        // a min heap of the biggest nodes seen so far
+        PriorityQueue<Integer> top = new PriorityQueue<Integer>(
+                Math.max(1, limit), bySize.reversed());
+        for (int node = 1; node < dominators.length && limit > 0; node++) {
+            if (dominators[node] == NONE) {
+                continue;
+            }
+            if (top.size() < limit) {
+                top.add(node);
+            } else if (retainedSizes[node] > retainedSizes[top.peek()]) {
+                top.poll();
+                top.add(node);
+            }
+        }
+        Integer[] nodes = top.toArray(new Integer[top.size()]);
+        Arrays.sort(nodes, bySize);
+        return toObjects(nodes, nodes.length);
+    }
+
+    // Internals only below this point
+
+    private int nodeOf(JavaHeapObject ho) {
+        int ordinal = ho.getOrdinal();
+        if (ordinal == -1 || ordinal + 1 >= dominators.length) {
+            return NONE;
+        }
+        return ordinal + 1;
+    }
+
+    private JavaHeapObject objectAt(int node) {
+        return (node == 0)? null : snapshot.getHeapObject(node - 1);
+    }
+
+    private JavaHeapObject[] toObjects(Integer[] nodes, int count) {
+        JavaHeapObject[] result = new JavaHeapObject[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = objectAt(nodes[i].intValue());
+        }
+        return result;
+    }
+
+    // biggest retained size first
+    private Comparator<Integer> bySize() {
+        return new Comparator<Integer>() {
+            public int compare(Integer left, Integer right) {
+                long l = retainedSizes[left.intValue()];
+                long r = retainedSizes[right.intValue()];
+                return (l == r)? 0 : ((l > r)? -1 : 1);
+            }
+        };
+    }
+
+    /**
+     * Compute the dominator tree of a resolved snapshot.  This walks the
+     * whole object graph a few times, and needs about 50 bytes per
+     * object and 4 per reference while it runs.  The graphs it builds
+     * are made by the ArrayStore of the snapshot.
+     */
+    static DominatorTree compute(Snapshot snapshot, IntGraph referers) {
+        final int objectCount = referers.getNodeCount();
+        final int nodeCount = objectCount + 1;
+
+        // Objects that may refer to others only weakly
+        BitSet weakRefs = new BitSet(objectCount);
+        JavaClass weakReferenceClass = snapshot.getWeakReferenceClass();
+        if (weakReferenceClass != null) {
+            Map<JavaClass, Boolean> isWeak = new IdentityHashMap<JavaClass, Boolean>();
+            for (int i = 0; i < objectCount; i++) {
+                JavaHeapObject ho = snapshot.getHeapObject(i);
+                if (ho instanceof JavaObject) {
+                    JavaClass clazz = ho.getClazz();
+                    Boolean weak = isWeak.get(clazz);
+                    if (weak == null) {
+                        weak = Boolean.valueOf(weakReferenceClass.isAssignableFrom(clazz));
+                        isWeak.put(clazz, weak);
+                    }
+                    if (weak.booleanValue()) {
+                        weakRefs.set(i);
+                    }
+                }
+            }
+        }
+
+        // Objects in the rootset
+        IntArrayList rootObjects = new IntArrayList();
+        BitSet isRoot = new BitSet(objectCount);
+        Enumeration<Root> roots = snapshot.getRoots();
+        while (roots.hasMoreElements()) {
+            JavaHeapObject ho = snapshot.findThing(roots.nextElement().getId());
+            if (ho != null && ho.getOrdinal() != -1 && ho.getOrdinal() < objectCount
+                    && !isRoot.get(ho.getOrdinal())) {
+                isRoot.set(ho.getOrdinal());
+                rootObjects.add(ho.getOrdinal());
+            }
+        }
+
+        // The successors of each node, by transposing the referers
+        IntGraph.Builder builder = new IntGraph.Builder(nodeCount,
+                                                        snapshot.getArrayStore());
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < rootObjects.size(); i++) {
+                if (pass == 0) {
+                    builder.count(0);
+                } else {
+                    builder.add(0, rootObjects.get(i) + 1);
+                }
+            }
+            for (int to = 0; to < objectCount; to++) {
+                for (int e = referers.getStart(to); e < referers.getEnd(to); e++) {
+                    int from = referers.getEdge(e);
+                    if (isWeakEdge(snapshot, weakRefs, from, to)) {
+                        continue;
+                    }
+                    if (pass == 0) {
+                        builder.count(from + 1);
+                    } else {
+                        builder.add(from + 1, to + 1);
+                    }
+                }
+            }
+            if (pass == 0) {
+                builder.allocate();
+            }
+        }
+        IntGraph successors = builder.build();
+        builder = null;
+
+        // Depth first search from the virtual root.  From here on most
+        // arrays are indexed by DFS number rather than by node.
+        int[] dfnum = new int[nodeCount];
+        Arrays.fill(dfnum, NONE);
+        int[] vertex = new int[nodeCount];
+        int[] parent = new int[nodeCount];
+        int[] stack = new int[nodeCount];
+        int[] cursor = new int[nodeCount];
+        int count;
+        dfnum[0] = 0;
+        vertex[0] = 0;
+        parent[0] = NONE;
+        cursor[0] = successors.getStart(0);
+        count = 1;
+        int sp = 0;
+        stack[sp++] = 0;
+        while (sp > 0) {
+            int v = stack[sp - 1];
+            int c = cursor[v];
+            if (c < successors.getEnd(vertex[v])) {
+                cursor[v] = c + 1;
+                int w = successors.getEdge(c);
+                if (dfnum[w] == NONE) {
+                    dfnum[w] = count;
+                    vertex[count] = w;
+                    parent[count] = v;
+                    cursor[count] = successors.getStart(w);
+                    stack[sp++] = count;
+                    count++;
+                }
+            } else {
+                sp--;
+            }
+        }
+        successors = null;
+        cursor = null;
+        final int reachable = count;
+
+        // Semidominators, and implicit immediate dominators
+        int[] semi = new int[reachable];
+        int[] label = new int[reachable];
+        int[] ancestor = new int[reachable];
+        int[] dom = new int[reachable];
+        int[] bucket = new int[reachable];
+        int[] bucketNext = new int[reachable];
+        for (int v = 0; v < reachable; v++) {
+            semi[v] = v;
+            label[v] = v;
+            ancestor[v] = NONE;
+            bucket[v] = NONE;
+        }
+        for (int w = reachable - 1; w > 0; w--) {
+            int ordinal = vertex[w] - 1;
+            if (isRoot.get(ordinal)) {
+                semi[w] = 0;
+            }
+            for (int e = referers.getStart(ordinal); e < referers.getEnd(ordinal); e++) {
+                int from = referers.getEdge(e);
+                int v = dfnum[from + 1];
+                if (v == NONE || isWeakEdge(snapshot, weakRefs, from, ordinal)) {
+                    continue;
+                }
+                int u = eval(v, ancestor, label, semi, stack);
+                if (semi[u] < semi[w]) {
+                    semi[w] = semi[u];
+                }
+            }
+            bucketNext[w] = bucket[semi[w]];
+            bucket[semi[w]] = w;
+            int p = parent[w];
+            ancestor[w] = p;
+            for (int v = bucket[p]; v != NONE; v = bucketNext[v]) {
+                int u = eval(v, ancestor, label, semi, stack);
+                dom[v] = (semi[u] < semi[v])? u : p;
+            }
+            bucket[p] = NONE;
+        }
+        for (int w = 1; w < reachable; w++) {
+            if (dom[w] != semi[w]) {
+                dom[w] = dom[dom[w]];
+            }
+        }
+        semi = label = ancestor = bucket = bucketNext = parent = null;
+
+        // Back from DFS numbers to nodes
+        int[] dominators = new int[nodeCount];
+        Arrays.fill(dominators, NONE);
+        for (int w = 1; w < reachable; w++) {
+            dominators[vertex[w]] = vertex[dom[w]];
+        }
+        dom = null;
+
+        // Retained sizes.  A node's DFS number is bigger than that of its
+        // dominator, so walking backwards sees all of a node's dominated
+        // nodes before the node itself.
+        Map<JavaClass, Integer> classIndex = new IdentityHashMap<JavaClass, Integer>();
+        int[] classOf = new int[nodeCount];
+        long[] retainedSizes = new long[nodeCount];
+        for (int w = reachable - 1; w > 0; w--) {
+            int node = vertex[w];
+            JavaHeapObject ho = snapshot.getHeapObject(node - 1);
+            JavaClass clazz = ho.getClazz();
+            Integer index = classIndex.get(clazz);
+            if (index == null) {
+                index = Integer.valueOf(classIndex.size());
+                classIndex.put(clazz, index);
+            }
+            classOf[node] = index.intValue();
+            retainedSizes[node] += ho.getSize();
+            retainedSizes[dominators[node]] += retainedSizes[node];
+        }
+        vertex = null;
+
+        // The dominator tree itself
+        builder = new IntGraph.Builder(nodeCount, snapshot.getArrayStore());
+        for (int node = 1; node < nodeCount; node++) {
+            if (dominators[node] != NONE) {
+                builder.count(dominators[node]);
+            }
+        }
+        builder.allocate();
+        for (int node = 1; node < nodeCount; node++) {
+            if (dominators[node] != NONE) {
+                builder.add(dominators[node], node);
+            }
+        }
+        IntGraph dominated = builder.build();
+
+        // Retained size per class.  Walk the dominator tree, and only
+        // count an instance if no other instance of its class dominates it.
+        long[] classRetainedSizes = new long[classIndex.size()];
+        int[] active = new int[classIndex.size()];
+        int[] position = dfnum;         // no longer needed, by depth now
+        stack[0] = 0;
+        position[0] = dominated.getStart(0);
+        sp = 1;
+        while (sp > 0) {
+            int top = stack[sp - 1];
+            if (position[sp - 1] < dominated.getEnd(top)) {
+                int child = dominated.getEdge(position[sp - 1]++);
+                int c = classOf[child];
+                if (active[c]++ == 0) {
+                    classRetainedSizes[c] += retainedSizes[child];
+                }
+                stack[sp] = child;
+                position[sp] = dominated.getStart(child);
+                sp++;
+            } else {
+                sp--;
+                if (top != 0) {
+                    active[classOf[top]]--;
+                }
+            }
+        }
+
+        return new DominatorTree(snapshot, reachable - 1, dominators,
+                                 retainedSizes, dominated, classIndex,
+                                 classRetainedSizes);
+    }
+
+    private static boolean isWeakEdge(Snapshot snapshot, BitSet weakRefs,
+                                      int from, int to) {
+        return weakRefs.get(from)
+            && snapshot.getHeapObject(from).refersOnlyWeaklyTo(snapshot,
+                                               snapshot.getHeapObject(to));
+    }
+
+    //
+    // The node with the smallest semidominator on the path from v up to
+    // the root of its tree in the forest built so far, excluding that
+    // root.  Compresses the path on the way.  stack is scratch space.
+    //
+    private static int eval(int v, int[] ancestor, int[] label, int[] semi,
+                            int[] stack) {
+        if (ancestor[v] == NONE) {
+            return v;
+        }
+        int sp = 0;
+        int u = v;
+        while (ancestor[ancestor[u]] != NONE) {
+            stack[sp++] = u;
+            u = ancestor[u];
+        }
+        while (sp > 0) {
+            u = stack[--sp];
+            int a = ancestor[u];
+            if (semi[label[a]] < semi[label[u]]) {
+                label[u] = label[a];
+            }
+            ancestor[u] = ancestor[a];
+        }
+        return label[v];
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+
+package com.sun.tools.hat2.internal.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Where the fields of an instance of a class are in its instance data.
+ * Fields are numbered like JavaClass.getFieldForInstance() numbers them:
+ * the fields of the topmost superclass come first.  The dump stores them
+ * the other way round, starting with the fields of the class itself.
+ *
+ * A layout never changes once built, so it can be shared by any number
+ * of threads.
+ */
+final class FieldLayout {
+
+    private final JavaField[] fields;
+    private final JavaClass[] declaringClasses;
+    private final char[] signatures;
+    private final int[] offsets;
+    // numbers of the fields that hold object ids, in increasing order
+    private final int[] referenceFields;
+    // the first field of each name, so a superclass' field hides a
+    // subclass field of the same name, as in JavaObject.getField()
+    private final Map<String, Integer> indexes;
+
+    FieldLayout(JavaClass cl, int idSize) {
+        int count = cl.getNumFieldsForInstance();
+        fields = new JavaField[count];
+        declaringClasses = new JavaClass[count];
+        signatures = new char[count];
+        offsets = new int[count];
+
+        int offset = 0;
+        int numReferences = 0;
+        int end = count;
+        for (JavaClass c = cl; c != null; c = c.getSuperclass()) {
+            JavaField[] declared = c.getFields();
+            int start = end - declared.length;
+            for (int i = 0; i < declared.length; i++) {
+                JavaField f = declared[i];
+                char sig = f.getSignature().charAt(0);
+                fields[start + i] = f;
+                declaringClasses[start + i] = c;
+                signatures[start + i] = sig;
+                offsets[start + i] = offset;
+                offset += sizeOf(sig, idSize);
+                if (sig == 'L' || sig == '[') {
+                    numReferences++;
+                }
+            }
+            end = start;
+        }
+
+        referenceFields = new int[numReferences];
+        indexes = new HashMap<String, Integer>(count * 2);
+        for (int i = 0, r = 0; i < count; i++) {
+            if (signatures[i] == 'L' || signatures[i] == '[') {
+                referenceFields[r++] = i;
+            }
+            if (!indexes.containsKey(fields[i].getName())) {
+                indexes.put(fields[i].getName(), i);
+            }
+        }
+    }
+
+    int getFieldCount() {
+        return fields.length;
+    }
+
+    JavaField getField(int index) {
+        return fields[index];
+    }
+
+    JavaClass getDeclaringClass(int index) {
+        return declaringClasses[index];
+    }
+
+    char getSignature(int index) {
+        return signatures[index];
+    }
+
+    // offset of the field in the instance data
+    int getOffset(int index) {
+        return offsets[index];
+    }
+
+    int[] getReferenceFields() {
+        return referenceFields;
+    }
+
+    int getIndex(String name) {
+        Integer index = indexes.get(name);
+        return (index == null)? -1 : index.intValue();
+    }
+
+    // Throw if field index is not of one of the given types
+    void checkType(int index, char sig, char otherSig) {
+        char actual = signatures[index];
+        if (actual != sig && actual != otherSig) {
+            throw new IllegalArgumentException("field " + fields[index].getName()
+                    + " of " + declaringClasses[index].getName()
+                    + " has signature " + actual + ", not " + sig);
+        }
+    }
+
+    private static int sizeOf(char sig, int idSize) {
+        switch (sig) {
+            case 'L':
+            case '[':
+                return idSize;
+            case 'Z':
+            case 'B':
+                return 1;
+            case 'S':
+            case 'C':
+                return 2;
+            case 'I':
+            case 'F':
+                return 4;
+            case 'J':
+            case 'D':
+                return 8;
+            default:
+                throw new RuntimeException("invalid signature: " + sig);
+        }
+    }
+}
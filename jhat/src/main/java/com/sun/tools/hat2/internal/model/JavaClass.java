@@ -34,9 +34,11 @@ package com.sun.tools.hat2.internal.model;
 
 import java.util.Vector;
 import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.function.LongConsumer;
 
-import com.sun.tools.hat2.internal.util.CompositeEnumeration;
 import com.sun.tools.hat2.internal.parser.ReadBuffer;
+import com.sun.tools.hat2.internal.util.IntArrayList;
 
 /**
  *
@@ -65,8 +67,14 @@ public class JavaClass extends com.sun.tools.hat2.internal.model.JavaHeapObject
     // my subclasses
     private JavaClass[] subclasses = EMPTY_CLASS_ARRAY;
 
-    // my instances
-    private Vector<com.sun.tools.hat2.internal.model.JavaHeapObject> instances = new Vector<com.sun.tools.hat2.internal.model.JavaHeapObject>();
+    // the ordinals of my instances in my snapshot
+    private IntArrayList instances = new IntArrayList();
+
+    // Totals over my instances, worked out once after resolve so that
+    // histograms need not visit each instance
+    private long totalInstanceSize = -1;
+    private int newInstancesCount;
+    private int[] arrayLengthCounts;
 
     // Who I belong to.  Set on resolve.
     private com.sun.tools.hat2.internal.model.Snapshot mySnapshot;
@@ -75,6 +83,9 @@ public class JavaClass extends com.sun.tools.hat2.internal.model.JavaHeapObject
     private int instanceSize;
     // Total number of fields including inherited ones
     private int totalNumFields;
+    // Where the fields are in the data of an instance.  Built on first
+    // use, after resolve.
+    private FieldLayout fieldLayout;
 
 
     public JavaClass(long id, String name, long superclassId, long loaderId,
@@ -218,6 +229,20 @@ public class JavaClass extends com.sun.tools.hat2.internal.model.JavaHeapObject
         return this;
     }
 
+    /**
+     * Get the number of the field called name among all the fields that
+     * are part of an instance of this class, as used by
+     * getFieldForInstance() and the field accessors of JavaObject.  If
+     * a class has a field with the name of a superclass field, this
+     * gives the superclass field.
+     * This can only safely be called after resolve()
+     *
+     * @return the field number, or -1 if there is no such field
+     */
+    public int getFieldIndex(String name) {
+        return getFieldLayout().getIndex(name);
+    }
+
     public long getId() {
         return id;
     }
@@ -231,15 +256,48 @@ public class JavaClass extends com.sun.tools.hat2.internal.model.JavaHeapObject
     }
 
     public Enumeration getInstances(boolean includeSubclasses) {
+        return getInstances(includeSubclasses, 0);
+    }
+
+    /**
+     * Pages through the instances without walking past the ones that
+     * are skipped.
+     *
+     * @param start the number of instances to skip
+     * @return the instances that getInstances(includeSubclasses)
+     *         returns, from the start'th on
+     */
+    public Enumeration getInstances(boolean includeSubclasses, int start) {
+        Vector<JavaClass> classes = new Vector<JavaClass>();
         if (includeSubclasses) {
-            Enumeration res = instances.elements();
-            for (int i = 0; i < subclasses.length; i++) {
-                res = new CompositeEnumeration(res,
-                              subclasses[i].getInstances(true));
-            }
-            return res;
+            addWithSubclasses(classes);
         } else {
-            return instances.elements();
+            classes.addElement(this);
+        }
+        return new InstanceEnumeration(classes, start);
+    }
+
+    /**
+     * @return this class and, if includeSubclasses, its subclasses, in
+     *         the order getInstances() goes through their instances.
+     *         With getInstance(), this lets the instances be split up to
+     *         be looked at on several threads.
+     */
+    public JavaClass[] getInstanceClasses(boolean includeSubclasses) {
+        Vector<JavaClass> classes = new Vector<JavaClass>();
+        if (includeSubclasses) {
+            addWithSubclasses(classes);
+        } else {
+            classes.addElement(this);
+        }
+        return classes.toArray(new JavaClass[classes.size()]);
+    }
+
+    // this class and its subclasses, each one followed by its own
+    private void addWithSubclasses(Vector<JavaClass> classes) {
+        classes.addElement(this);
+        for (int i = 0; i < subclasses.length; i++) {
+            subclasses[i].addWithSubclasses(classes);
         }
     }
 
@@ -364,7 +422,7 @@ public class JavaClass extends com.sun.tools.hat2.internal.model.JavaHeapObject
             com.sun.tools.hat2.internal.model.JavaField f = statics[i].getField();
             if (f.hasId()) {
                 com.sun.tools.hat2.internal.model.JavaThing other = statics[i].getValue();
-                if (other == target) {
+                if (target.equals(other)) {
                     return "static field " + f.getName();
                 }
             }
@@ -381,22 +439,87 @@ public class JavaClass extends com.sun.tools.hat2.internal.model.JavaHeapObject
     }
 
 
+    // the instance size as found in the dump
+    int getDumpedInstanceSize() {
+        return instanceSize;
+    }
+
     /**
      * @return The size of all instances of this class.  Correctly handles
      *          arrays.
      */
     public long getTotalInstanceSize() {
+        if (totalInstanceSize != -1) {
+            return totalInstanceSize;
+        }
+        return sumInstanceSizes();
+    }
+
+    /**
+     * @return the number of instances that are not in the baseline
+     *         snapshot, if there is one
+     */
+    public int getNewInstancesCount() {
+        return newInstancesCount;
+    }
+
+    /**
+     * The lengths of the instances of an array class, counted by their
+     * number of bits: element 0 counts the arrays of length 0, element
+     * 1 those of length 1, element 2 those of length 2 to 3, element 3
+     * those of length 4 to 7, and so on up to element 32.
+     *
+     * @return the counts, or null if this is not an array class
+     */
+    public int[] getArrayLengthCounts() {
+        return (arrayLengthCounts == null)? null : arrayLengthCounts.clone();
+    }
+
+    // Work out the totals over the instances once they are all resolved
+    void summarizeInstances() {
+        instances.trimToSize();
+        totalInstanceSize = sumInstanceSizes();
+        if (!isArray()) {
+            return;
+        }
+        int[] counts = new int[33];
+        for (int i = 0; i < instances.size(); i++) {
+            JavaHeapObject t = getInstance(i);
+            int length;
+            if (t instanceof JavaObjectArray) {
+                length = ((JavaObjectArray) t).getLength();
+            } else if (t instanceof JavaValueArray) {
+                length = ((JavaValueArray) t).getLength();
+            } else {
+                continue;
+            }
+            counts[32 - Integer.numberOfLeadingZeros(length)]++;
+        }
+        arrayLengthCounts = counts;
+    }
+
+    // Count the new instances once they are all marked
+    void summarizeNewInstances() {
+        int count = 0;
+        for (int i = 0; i < instances.size(); i++) {
+            if (mySnapshot.isNew(instances.get(i))) {
+                count++;
+            }
+        }
+        newInstancesCount = count;
+    }
+
+    private long sumInstanceSizes() {
         int count = instances.size();
         if (count == 0 || !isArray()) {
-            return count * instanceSize;
+            return (long) count * instanceSize;
         }
 
         // array class and non-zero count, we have to
         // get the size of each instance and sum it
         long result = 0;
         for (int i = 0; i < count; i++) {
-            com.sun.tools.hat2.internal.model.JavaThing t = (com.sun.tools.hat2.internal.model.JavaThing) instances.elementAt(i);
-            result += t.getSize();
+            result += getInstance(i).getSize();
         }
         return result;
     }
@@ -443,6 +566,24 @@ public class JavaClass extends com.sun.tools.hat2.internal.model.JavaHeapObject
         }
     }
 
+    public void forEachOutboundId(LongConsumer consumer) {
+        acceptId(consumer, getSuperclass());
+        acceptId(consumer, getLoader());
+        acceptId(consumer, getSigners());
+        acceptId(consumer, getProtectionDomain());
+        for (int i = 0; i < statics.length; i++) {
+            if (statics[i].getField().hasId()) {
+                acceptId(consumer, statics[i].getValue());
+            }
+        }
+    }
+
+    private static void acceptId(LongConsumer consumer, JavaThing other) {
+        if (other instanceof com.sun.tools.hat2.internal.model.JavaHeapObject) {
+            consumer.accept(((com.sun.tools.hat2.internal.model.JavaHeapObject) other).getId());
+        }
+    }
+
     // package-privates below this point
     final ReadBuffer getReadBuffer() {
         return mySnapshot.getReadBuffer();
@@ -468,12 +609,32 @@ public class JavaClass extends com.sun.tools.hat2.internal.model.JavaHeapObject
         return mySnapshot.getRoot(obj);
     }
 
+    final FieldLayout getFieldLayout() {
+        FieldLayout layout = fieldLayout;
+        if (layout == null) {
+            // immutable, so threads racing here build equal layouts
+            layout = new FieldLayout(this, getIdentifierSize());
+            fieldLayout = layout;
+        }
+        return layout;
+    }
+
     final Snapshot getSnapshot() {
         return mySnapshot;
     }
 
     void addInstance(com.sun.tools.hat2.internal.model.JavaHeapObject inst) {
-        instances.addElement(inst);
+        if (inst.getOrdinal() != -1) {
+            instances.add(inst.getOrdinal());
+        }
+    }
+
+    /**
+     * @return the i'th of my own instances, not counting those of
+     *         subclasses; i is less than getInstancesCount(false)
+     */
+    public JavaHeapObject getInstance(int i) {
+        return mySnapshot.getHeapObject(instances.get(i));
     }
 
     // Internals only below this point
@@ -486,19 +647,44 @@ public class JavaClass extends com.sun.tools.hat2.internal.model.JavaHeapObject
         }
     }
 
-    private void addSubclassInstances(Vector<JavaHeapObject> v) {
-        for (int i = 0; i < subclasses.length; i++) {
-            subclasses[i].addSubclassInstances(v);
-        }
-        for (int i = 0; i < instances.size(); i++) {
-            v.addElement(instances.elementAt(i));
-        }
-    }
-
     private void addSubclass(JavaClass sub) {
         JavaClass newValue[] = new JavaClass[subclasses.length + 1];
         System.arraycopy(subclasses, 0, newValue, 0, subclasses.length);
         newValue[subclasses.length] = sub;
         subclasses = newValue;
     }
+
+    // Enumerates the instances of classes, one class after the other.
+    // This stays flat however deep the class hierarchy is.
+    private static class InstanceEnumeration implements Enumeration {
+        private final Vector<JavaClass> classes;
+        private int classIndex;
+        private int index;
+
+        InstanceEnumeration(Vector<JavaClass> classes, int start) {
+            this.classes = classes;
+            while (classIndex < classes.size()
+                    && start >= classes.elementAt(classIndex).instances.size()) {
+                start -= classes.elementAt(classIndex).instances.size();
+                classIndex++;
+            }
+            this.index = start;
+        }
+
+        public boolean hasMoreElements() {
+            while (classIndex < classes.size()
+                    && index >= classes.elementAt(classIndex).instances.size()) {
+                classIndex++;
+                index = 0;
+            }
+            return classIndex < classes.size();
+        }
+
+        public Object nextElement() {
+            if (!hasMoreElements()) {
+                throw new NoSuchElementException();
+            }
+            return classes.elementAt(classIndex).getInstance(index++);
+        }
+    }
 }
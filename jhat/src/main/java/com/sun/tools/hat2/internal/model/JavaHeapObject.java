@@ -33,8 +33,7 @@
 package com.sun.tools.hat2.internal.model;
 
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.function.LongConsumer;
 
 import com.sun.tools.hat2.internal.util.Misc;
 
@@ -53,16 +52,9 @@ import com.sun.tools.hat2.internal.util.Misc;
 
 public abstract class JavaHeapObject extends com.sun.tools.hat2.internal.model.JavaThing {
 
-    //
-    // Who we refer to.  This is heavily optimized for space, because it's
-    // well worth trading a bit of speed for less swapping.
-    // referers and referersLen go through two phases:  Building and
-    // resolved.  When building, referers might have duplicates, but can
-    // be appended to.  When resolved, referers has no duplicates or
-    // empty slots.
-    //
-    private com.sun.tools.hat2.internal.model.JavaThing[] referers = null;
-    private int referersLen = 0;        // -1 when resolved
+    // position of this object in its Snapshot, -1 if it is not part of
+    // the snapshot's object index (like fake array classes)
+    private int ordinal = -1;
 
     public abstract JavaClass getClazz();
     public abstract int getSize();
@@ -79,29 +71,6 @@ public abstract class JavaHeapObject extends com.sun.tools.hat2.internal.model.J
         }
     }
 
-    //
-    //  Eliminate duplicates from referers, and size the array exactly.
-    // This sets us up to answer queries.  See the comments around the
-    // referers data member for details.
-    //
-    void setupReferers() {
-        if (referersLen > 1) {
-            // Copy referers to map, screening out duplicates
-            Map<com.sun.tools.hat2.internal.model.JavaThing, com.sun.tools.hat2.internal.model.JavaThing> map = new HashMap<com.sun.tools.hat2.internal.model.JavaThing, com.sun.tools.hat2.internal.model.JavaThing>();
-            for (int i = 0; i < referersLen; i++) {
-                if (map.get(referers[i]) == null) {
-                    map.put(referers[i], referers[i]);
-                }
-            }
-
-            // Now copy into the array
-            referers = new com.sun.tools.hat2.internal.model.JavaThing[map.size()];
-            map.keySet().toArray(referers);
-        }
-        referersLen = -1;
-    }
-
-
     /**
      * @return the id of this thing as hex string
      */
@@ -136,18 +105,24 @@ public abstract class JavaHeapObject extends com.sun.tools.hat2.internal.model.J
         v.visit(getClazz());
     }
 
-    void addReferenceFrom(JavaHeapObject other) {
-        if (referersLen == 0) {
-            referers = new com.sun.tools.hat2.internal.model.JavaThing[1];        // It was null
-        } else if (referersLen == referers.length) {
-            com.sun.tools.hat2.internal.model.JavaThing[] copy = new com.sun.tools.hat2.internal.model.JavaThing[(3 * (referersLen + 1)) / 2];
-            System.arraycopy(referers, 0, copy, 0, referersLen);
-            referers = copy;
-        }
-        referers[referersLen++] = other;
-        // We just append to referers here.  Measurements have shown that
-        // around 10% to 30% are duplicates, so it's better to just append
-        // blindly and screen out all the duplicates at once.
+    /**
+     * Give consumer the id of every object we refer to, straight from
+     * the dump.  Unlike visitReferencedObjects() this looks nothing up
+     * and creates no objects, so it suits walks over the whole heap.
+     * Null references are left out, but ids of objects that are not in
+     * the snapshot are not.  The reference to our class is left out
+     * too, as the class may be one made up by the snapshot that has no
+     * id; see getClazz().
+     */
+    public void forEachOutboundId(LongConsumer consumer) {
+    }
+
+    int getOrdinal() {
+        return ordinal;
+    }
+
+    void setOrdinal(int ordinal) {
+        this.ordinal = ordinal;
     }
 
     void addReferenceFromRoot(com.sun.tools.hat2.internal.model.Root r) {
@@ -168,21 +143,7 @@ public abstract class JavaHeapObject extends com.sun.tools.hat2.internal.model.J
      * @return an Enumeration of JavaHeapObject instances
      */
     public Enumeration getReferers() {
-        if (referersLen != -1) {
-            throw new RuntimeException("not resolved: " + getIdString());
-        }
-        return new Enumeration() {
-
-            private int num = 0;
-
-            public boolean hasMoreElements() {
-                return referers != null && num < referers.length;
-            }
-
-            public Object nextElement() {
-                return referers[num++];
-            }
-        };
+        return getClazz().getSnapshot().getReferers(this);
     }
 
     /**
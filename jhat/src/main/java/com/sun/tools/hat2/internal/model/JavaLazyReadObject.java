@@ -48,6 +48,20 @@ public abstract class JavaLazyReadObject extends JavaHeapObject {
         this.offset = offset;
     }
 
+    /**
+     * A compact snapshot makes a new object each time an object is asked
+     * for, so objects of a snapshot are equal if they start at the same
+     * place in its dump.
+     */
+    public boolean equals(Object other) {
+        return other != null && other.getClass() == getClass()
+            && ((JavaLazyReadObject) other).offset == offset;
+    }
+
+    public int hashCode() {
+        return Long.hashCode(offset);
+    }
+
     public final int getSize() {
         return getValueLength() + getClazz().getMinimumObjectSize();
     }
@@ -126,6 +140,16 @@ public abstract class JavaLazyReadObject extends JavaHeapObject {
         }
     }
 
+    // read object ID at given position in the dump
+    protected static long objectIdAt(ReadBuffer buf, long pos, int idSize)
+            throws IOException {
+        if (idSize == 4) {
+            return ((long)buf.getInt(pos)) & Snapshot.SMALL_ID_MASK;
+        } else {
+            return buf.getLong(pos);
+        }
+    }
+
     // utility methods to read primitive types from byte array
     protected static byte byteAt(int index, byte[] value) {
         return value[index];
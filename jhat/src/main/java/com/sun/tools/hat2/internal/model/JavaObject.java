@@ -33,6 +33,7 @@
 package com.sun.tools.hat2.internal.model;
 
 import java.io.IOException;
+import java.util.function.LongConsumer;
 
 import com.sun.tools.hat2.internal.parser.ReadBuffer;
 
@@ -56,6 +57,12 @@ public class JavaObject extends JavaLazyReadObject {
         this.clazz = makeId(classID);
     }
 
+    // an instance of clazz that is already resolved
+    JavaObject(com.sun.tools.hat2.internal.model.JavaClass clazz, long offset) {
+        super(offset);
+        this.clazz = clazz;
+    }
+
     public void resolve(com.sun.tools.hat2.internal.model.Snapshot snapshot) {
         if (clazz instanceof com.sun.tools.hat2.internal.model.JavaClass) {
             return;
@@ -84,10 +91,13 @@ public class JavaObject extends JavaLazyReadObject {
         com.sun.tools.hat2.internal.model.JavaClass cl = (com.sun.tools.hat2.internal.model.JavaClass) clazz;
         cl.resolve(snapshot);
 
-        // while resolving, parse fields in verbose mode.
-        // but, getFields calls parseFields in non-verbose mode
-        // to avoid printing warnings repeatedly.
-        parseFields(getValue(), true);
+        // while resolving, warn about references that cannot be
+        // resolved.  getFields() does not, to avoid printing warnings
+        // repeatedly.  A snapshot read from an index has been through
+        // this when the index was written.
+        if (!snapshot.isReadFromIndex()) {
+            checkReferences(snapshot);
+        }
 
         cl.addInstance(this);
         super.resolve(snapshot);
@@ -120,14 +130,134 @@ public class JavaObject extends JavaLazyReadObject {
 
     // returns the value of field of given name
     public com.sun.tools.hat2.internal.model.JavaThing getField(String name) {
-        com.sun.tools.hat2.internal.model.JavaThing[] flds = getFields();
-        com.sun.tools.hat2.internal.model.JavaField[] instFields = getClazz().getFieldsForInstance();
-        for (int i = 0; i < instFields.length; i++) {
-            if (instFields[i].getName().equals(name)) {
-                return flds[i];
+        int index = getFieldIndex(name);
+        return (index == -1)? null : getFieldValue(index);
+    }
+
+    //
+    // Access to single fields.  Fields are numbered as in getFields(),
+    // and getFieldIndex() finds the number of a field by name.  The
+    // primitive accessors read the dump directly, without creating any
+    // objects.  They throw IllegalArgumentException for a field of
+    // another type.
+    //
+
+    /**
+     * @return the number of the field called name, or -1
+     * @see JavaClass#getFieldIndex(String)
+     */
+    public int getFieldIndex(String name) {
+        return getClazz().getFieldIndex(name);
+    }
+
+    /**
+     * @return the value of a field, as getFields()[index] would give it
+     */
+    public com.sun.tools.hat2.internal.model.JavaThing getFieldValue(int index) {
+        FieldLayout layout = getClazz().getFieldLayout();
+        switch (layout.getSignature(index)) {
+            case 'L':
+            case '[': {
+                long id = readObjectId(layout, index);
+                JavaObjectRef ref = new JavaObjectRef(id);
+                return ref.dereference(getClazz().getSnapshot(),
+                                       layout.getField(index), false);
             }
+            case 'Z':
+                return new JavaBoolean(getBooleanField(index));
+            case 'B':
+                return new JavaByte(getByteField(index));
+            case 'S':
+                return new JavaShort(getShortField(index));
+            case 'C':
+                return new JavaChar(getCharField(index));
+            case 'I':
+                return new JavaInt(getIntField(index));
+            case 'J':
+                return new JavaLong(getLongField(index));
+            case 'F':
+                return new JavaFloat(getFloatField(index));
+            case 'D':
+                return new JavaDouble(getDoubleField(index));
+            default:
+                throw new RuntimeException("invalid signature: "
+                                           + layout.getSignature(index));
+        }
+    }
+
+    /**
+     * @return the id of the object a reference field refers to, 0 for null
+     */
+    public long getObjectIdField(int index) {
+        FieldLayout layout = getClazz().getFieldLayout();
+        layout.checkType(index, 'L', '[');
+        return readObjectId(layout, index);
+    }
+
+    public boolean getBooleanField(int index) {
+        try {
+            return getClazz().getReadBuffer().getByte(fieldPosition(index, 'Z')) != 0;
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+
+    public byte getByteField(int index) {
+        try {
+            return getClazz().getReadBuffer().getByte(fieldPosition(index, 'B'));
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+
+    public short getShortField(int index) {
+        try {
+            return getClazz().getReadBuffer().getShort(fieldPosition(index, 'S'));
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+
+    public char getCharField(int index) {
+        try {
+            return getClazz().getReadBuffer().getChar(fieldPosition(index, 'C'));
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+
+    public int getIntField(int index) {
+        try {
+            return getClazz().getReadBuffer().getInt(fieldPosition(index, 'I'));
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+
+    public long getLongField(int index) {
+        try {
+            return getClazz().getReadBuffer().getLong(fieldPosition(index, 'J'));
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+
+    public float getFloatField(int index) {
+        try {
+            return Float.intBitsToFloat(
+                getClazz().getReadBuffer().getInt(fieldPosition(index, 'F')));
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+
+    public double getDoubleField(int index) {
+        try {
+            return Double.longBitsToDouble(
+                getClazz().getReadBuffer().getLong(fieldPosition(index, 'D')));
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
         }
-        return null;
     }
 
     public int compareTo(com.sun.tools.hat2.internal.model.JavaThing other) {
@@ -140,21 +270,49 @@ public class JavaObject extends JavaLazyReadObject {
 
     public void visitReferencedObjects(JavaHeapObjectVisitor v) {
         super.visitReferencedObjects(v);
-        com.sun.tools.hat2.internal.model.JavaThing[] flds = getFields();
-        for (int i = 0; i < flds.length; i++) {
-            if (flds[i] != null) {
-                if (v.mightExclude()
-                    && v.exclude(getClazz().getClassForField(i),
-                                 getClazz().getFieldForInstance(i)))
-                {
-                    // skip it
-                } else if (flds[i] instanceof com.sun.tools.hat2.internal.model.JavaHeapObject) {
-                    v.visit((JavaHeapObject) flds[i]);
+        FieldLayout layout = getClazz().getFieldLayout();
+        Snapshot snapshot = getClazz().getSnapshot();
+        int[] refs = layout.getReferenceFields();
+        for (int i = 0; i < refs.length; i++) {
+            int index = refs[i];
+            if (v.mightExclude()
+                && v.exclude(layout.getDeclaringClass(index),
+                             layout.getField(index)))
+            {
+                continue;
+            }
+            long id = readObjectId(layout, index);
+            if (id != 0) {
+                JavaHeapObject ho = snapshot.findThing(id);
+                if (ho != null) {
+                    v.visit(ho);
                 }
             }
         }
     }
 
+    public void forEachOutboundId(LongConsumer consumer) {
+        JavaClass cl = getClazz();
+        FieldLayout layout = cl.getFieldLayout();
+        int[] refs = layout.getReferenceFields();
+        if (refs.length == 0) {
+            return;
+        }
+        ReadBuffer buf = cl.getReadBuffer();
+        int idSize = cl.getIdentifierSize();
+        long pos = getDataPosition(cl);
+        try {
+            for (int i = 0; i < refs.length; i++) {
+                long id = objectIdAt(buf, pos + layout.getOffset(refs[i]), idSize);
+                if (id != 0) {
+                    consumer.accept(id);
+                }
+            }
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+
     public boolean refersOnlyWeaklyTo(com.sun.tools.hat2.internal.model.Snapshot ss, com.sun.tools.hat2.internal.model.JavaThing other) {
         if (ss.getWeakReferenceClass() != null) {
             final int referentFieldIndex = ss.getReferentFieldIndex();
@@ -162,9 +320,11 @@ public class JavaObject extends JavaLazyReadObject {
                 //
                 // REMIND:  This introduces a dependency on the JDK
                 //      implementation that is undesirable.
-                com.sun.tools.hat2.internal.model.JavaThing[] flds = getFields();
-                for (int i = 0; i < flds.length; i++) {
-                    if (i != referentFieldIndex && flds[i] == other) {
+                FieldLayout layout = getClazz().getFieldLayout();
+                int[] refs = layout.getReferenceFields();
+                for (int i = 0; i < refs.length; i++) {
+                    if (refs[i] != referentFieldIndex
+                            && refersTo(layout, refs[i], other)) {
                         return false;
                     }
                 }
@@ -179,11 +339,11 @@ public class JavaObject extends JavaLazyReadObject {
      * be called if target is in the array returned by getChildrenForRootset.
      */
     public String describeReferenceTo(com.sun.tools.hat2.internal.model.JavaThing target, com.sun.tools.hat2.internal.model.Snapshot ss) {
-        com.sun.tools.hat2.internal.model.JavaThing[] flds = getFields();
-        for (int i = 0; i < flds.length; i++) {
-            if (flds[i] == target) {
-                com.sun.tools.hat2.internal.model.JavaField f = getClazz().getFieldForInstance(i);
-                return "field " + f.getName();
+        FieldLayout layout = getClazz().getFieldLayout();
+        int[] refs = layout.getReferenceFields();
+        for (int i = 0; i < refs.length; i++) {
+            if (refersTo(layout, refs[i], target)) {
+                return "field " + layout.getField(refs[i]).getName();
             }
         }
         return super.describeReferenceTo(target, ss);
@@ -237,89 +397,58 @@ public class JavaObject extends JavaLazyReadObject {
 
     private com.sun.tools.hat2.internal.model.JavaThing[] parseFields(byte[] data, boolean verbose) {
         com.sun.tools.hat2.internal.model.JavaClass cl = getClazz();
-        int target = cl.getNumFieldsForInstance();
-        com.sun.tools.hat2.internal.model.JavaField[] fields = cl.getFields();
-        com.sun.tools.hat2.internal.model.JavaThing[] fieldValues = new JavaThing[target];
+        FieldLayout layout = cl.getFieldLayout();
+        com.sun.tools.hat2.internal.model.JavaThing[] fieldValues = new JavaThing[layout.getFieldCount()];
         Snapshot snapshot = cl.getSnapshot();
-        int idSize = snapshot.getIdentifierSize();
-        int fieldNo = 0;
-        // In the dump file, the fields are stored in this order:
-        // fields of most derived class (immediate class) are stored
-        // first and then the super class and so on. In this object,
-        // fields are stored in the reverse ("natural") order. i.e.,
-        // fields of most super class are stored first.
-
-        // target variable is used to compensate for the fact that
-        // the dump file starts field values from the leaf working
-        // upwards in the inheritance hierarchy, whereas JavaObject
-        // starts with the top of the inheritance hierarchy and works down.
-        target -= fields.length;
-        JavaClass currClass = cl;
-        int index = 0;
-        for (int i = 0; i < fieldValues.length; i++, fieldNo++) {
-            while (fieldNo >= fields.length) {
-                currClass = currClass.getSuperclass();
-                fields = currClass.getFields();
-                fieldNo = 0;
-                target -= fields.length;
-            }
-            JavaField f = fields[fieldNo];
-            char sig = f.getSignature().charAt(0);
+        for (int i = 0; i < fieldValues.length; i++) {
+            int index = layout.getOffset(i);
+            char sig = layout.getSignature(i);
             switch (sig) {
                 case 'L':
                 case '[': {
                     long id = objectIdAt(index, data);
-                    index += idSize;
                     com.sun.tools.hat2.internal.model.JavaObjectRef ref = new JavaObjectRef(id);
-                    fieldValues[target+fieldNo] = ref.dereference(snapshot, f, verbose);
+                    fieldValues[i] = ref.dereference(snapshot, layout.getField(i), verbose);
                     break;
                 }
                 case 'Z': {
                     byte value = byteAt(index, data);
-                    index++;
-                    fieldValues[target+fieldNo] = new JavaBoolean(value != 0);
+                    fieldValues[i] = new JavaBoolean(value != 0);
                     break;
                 }
                 case 'B': {
                     byte value = byteAt(index, data);
-                    index++;
-                    fieldValues[target+fieldNo] = new JavaByte(value);
+                    fieldValues[i] = new JavaByte(value);
                     break;
                 }
                 case 'S': {
                     short value = shortAt(index, data);
-                    index += 2;
-                    fieldValues[target+fieldNo] = new JavaShort(value);
+                    fieldValues[i] = new JavaShort(value);
                     break;
                 }
                 case 'C': {
                     char value = charAt(index, data);
-                    index += 2;
-                    fieldValues[target+fieldNo] = new JavaChar(value);
+                    fieldValues[i] = new JavaChar(value);
                     break;
                 }
                 case 'I': {
                     int value = intAt(index, data);
-                    index += 4;
-                    fieldValues[target+fieldNo] = new JavaInt(value);
+                    fieldValues[i] = new JavaInt(value);
                     break;
                 }
                 case 'J': {
                     long value = longAt(index, data);
-                    index += 8;
-                    fieldValues[target+fieldNo] = new JavaLong(value);
+                    fieldValues[i] = new JavaLong(value);
                     break;
                 }
                 case 'F': {
                     float value = floatAt(index, data);
-                    index += 4;
-                    fieldValues[target+fieldNo] = new JavaFloat(value);
+                    fieldValues[i] = new JavaFloat(value);
                     break;
                 }
                 case 'D': {
                     double value = doubleAt(index, data);
-                    index += 8;
-                    fieldValues[target+fieldNo] = new JavaDouble(value);
+                    fieldValues[i] = new JavaDouble(value);
                     break;
                 }
                 default:
@@ -329,6 +458,56 @@ public class JavaObject extends JavaLazyReadObject {
         return fieldValues;
     }
 
+    // Print the warnings parseFields() prints in verbose mode, without
+    // creating the field values
+    private void checkReferences(Snapshot snapshot) {
+        FieldLayout layout = getClazz().getFieldLayout();
+        int[] refs = layout.getReferenceFields();
+        for (int i = 0; i < refs.length; i++) {
+            long id = readObjectId(layout, refs[i]);
+            if (id != 0 && snapshot.findThing(id) == null) {
+                new JavaObjectRef(id).dereference(snapshot, layout.getField(refs[i]), true);
+            }
+        }
+    }
+
+    // Does reference field index refer to thing?
+    private boolean refersTo(FieldLayout layout, int index,
+                             com.sun.tools.hat2.internal.model.JavaThing thing) {
+        long id = readObjectId(layout, index);
+        Snapshot snapshot = getClazz().getSnapshot();
+        if (id == 0) {
+            return thing == snapshot.getNullThing();
+        }
+        // compare ids first, to look up only a likely match
+        return thing instanceof JavaHeapObject
+            && ((JavaHeapObject) thing).getId() == id
+            && thing.equals(snapshot.findThing(id));
+    }
+
+    // position in the dump of the field with the given number and type
+    private long fieldPosition(int index, char sig) {
+        JavaClass cl = getClazz();
+        FieldLayout layout = cl.getFieldLayout();
+        layout.checkType(index, sig, sig);
+        return getDataPosition(cl) + layout.getOffset(index);
+    }
+
+    private long readObjectId(FieldLayout layout, int index) {
+        JavaClass cl = getClazz();
+        long pos = getDataPosition(cl) + layout.getOffset(index);
+        try {
+            return objectIdAt(cl.getReadBuffer(), pos, cl.getIdentifierSize());
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+
+    // position in the dump of the instance data, see readValue()
+    private long getDataPosition(JavaClass cl) {
+        return getOffset() + 2*cl.getIdentifierSize() + 8;
+    }
+
     private void warn(String msg) {
         System.out.println("WARNING: " + msg);
     }
@@ -33,6 +33,7 @@
 package com.sun.tools.hat2.internal.model;
 
 import java.io.IOException;
+import java.util.function.LongConsumer;
 
 import com.sun.tools.hat2.internal.parser.ReadBuffer;
 
@@ -48,6 +49,12 @@ public class JavaObjectArray extends JavaLazyReadObject {
         this.clazz = makeId(classID);
     }
 
+    // an array of class clazz that is already resolved
+    JavaObjectArray(com.sun.tools.hat2.internal.model.JavaClass clazz, long offset) {
+        super(offset);
+        this.clazz = clazz;
+    }
+
     public com.sun.tools.hat2.internal.model.JavaClass getClazz() {
         return (com.sun.tools.hat2.internal.model.JavaClass) clazz;
     }
@@ -113,13 +120,35 @@ public class JavaObjectArray extends JavaLazyReadObject {
         return getValueLength() / getClazz().getIdentifierSize();
     }
 
-    public void visitReferencedObjects(JavaHeapObjectVisitor v) {
+    public void visitReferencedObjects(final JavaHeapObjectVisitor v) {
         super.visitReferencedObjects(v);
-        com.sun.tools.hat2.internal.model.JavaThing[] elements = getElements();
-        for (int i = 0; i < elements.length; i++) {
-            if (elements[i] != null && elements[i] instanceof com.sun.tools.hat2.internal.model.JavaHeapObject) {
-                v.visit((JavaHeapObject) elements[i]);
+        final Snapshot snapshot = getClazz().getSnapshot();
+        forEachOutboundId(new LongConsumer() {
+            public void accept(long id) {
+                JavaHeapObject ho = snapshot.findThing(id);
+                if (ho != null) {
+                    v.visit(ho);
+                }
+            }
+        });
+    }
+
+    public void forEachOutboundId(LongConsumer consumer) {
+        JavaClass cl = getClazz();
+        ReadBuffer buf = cl.getReadBuffer();
+        int idSize = cl.getIdentifierSize();
+        long offset = getOffset() + idSize + 4;
+        try {
+            int len = buf.getInt(offset);
+            long pos = offset + 4 + idSize;
+            for (int i = 0; i < len; i++, pos += idSize) {
+                long id = objectIdAt(buf, pos, idSize);
+                if (id != 0) {
+                    consumer.accept(id);
+                }
             }
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
         }
     }
 
@@ -130,7 +159,7 @@ public class JavaObjectArray extends JavaLazyReadObject {
     public String describeReferenceTo(com.sun.tools.hat2.internal.model.JavaThing target, com.sun.tools.hat2.internal.model.Snapshot ss) {
         JavaThing[] elements = getElements();
         for (int i = 0; i < elements.length; i++) {
-            if (elements[i] == target) {
+            if (target.equals(elements[i])) {
                 return "Element " + i + " of " + this;
             }
         }
@@ -149,6 +149,13 @@ public class JavaValueArray extends JavaLazyReadObject
         this.data = (elementSignature & SIGNATURE_MASK);
     }
 
+    // an array of class clazz that is already resolved
+    JavaValueArray(com.sun.tools.hat2.internal.model.JavaClass clazz,
+                   byte elementSignature, long offset) {
+        this(elementSignature, offset);
+        this.clazz = clazz;
+    }
+
     public com.sun.tools.hat2.internal.model.JavaClass getClazz() {
         return clazz;
     }
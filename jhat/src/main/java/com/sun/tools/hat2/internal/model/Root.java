@@ -171,4 +171,8 @@ public class Root {
         index = i;
     }
 
+    long getRefererId() {
+        return refererId;
+    }
+
 }
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+
+package com.sun.tools.hat2.internal.model;
+
+import java.util.BitSet;
+import java.util.Enumeration;
+
+import com.sun.tools.hat2.internal.util.IntArrayList;
+import com.sun.tools.hat2.internal.util.IntGraph;
+
+/**
+ * Finds the shortest chains of references from the rootset to an object,
+ * or to any of a number of objects, such as all the instances of a
+ * class.  The search goes breadth first over the referers graph, from
+ * all the targets at once, so chains are found shortest first and one
+ * search does for any number of targets.  Each chain found starts at a
+ * different object in the rootset.
+ * <p>
+ * Some references can be left out of the search: the referent of
+ * instances of chosen subclasses of java.lang.ref.Reference, and the
+ * fields a ReachableExcludes excludes.
+ *
+ */
+public class RootPathFinder {
+
+    private final Snapshot snapshot;
+    private final IntGraph referers;
+
+    // ordinals of the classes whose instances' referent is left out
+    private final BitSet referentExcludedClasses = new BitSet();
+    // the referent field of java.lang.ref.Reference, or null
+    private final JavaField referentField;
+    private ReachableExcludes excludes;
+
+    // used to look at the references from one object to another when
+    // some fields are left out
+    private final EdgeVisitor edgeVisitor = new EdgeVisitor();
+
+    public RootPathFinder(Snapshot snapshot) {
+        this.snapshot = snapshot;
+        this.referers = snapshot.getReferersForSearch();
+        JavaClass weakReferenceClass = snapshot.getWeakReferenceClass();
+        int index = snapshot.getReferentFieldIndex();
+        if (weakReferenceClass != null
+                && index < weakReferenceClass.getNumFieldsForInstance()) {
+            referentField = weakReferenceClass.getFieldForInstance(index);
+        } else {
+            referentField = null;
+        }
+    }
+
+    /**
+     * Leave out the referent of instances of refClass and its
+     * subclasses, for example java.lang.ref.SoftReference.
+     */
+    public void excludeReferents(JavaClass refClass) {
+        if (refClass.getOrdinal() != -1) {
+            referentExcludedClasses.set(refClass.getOrdinal());
+        }
+        JavaClass[] subclasses = refClass.getSubclasses();
+        for (int i = 0; i < subclasses.length; i++) {
+            excludeReferents(subclasses[i]);
+        }
+    }
+
+    /**
+     * Leave out weak references of all kinds, weak, soft, phantom and
+     * final.
+     */
+    public void excludeWeakReferences() {
+        JavaClass weakReferenceClass = snapshot.getWeakReferenceClass();
+        if (weakReferenceClass != null) {
+            excludeReferents(weakReferenceClass);
+        }
+    }
+
+    /**
+     * Leave out the fields that excludes names.
+     */
+    public void setExcludes(ReachableExcludes excludes) {
+        this.excludes = excludes;
+    }
+
+    /**
+     * @param limit stop after this many chains, or 0 to find them all
+     * @return the chains from the rootset to target, shortest first
+     */
+    public ReferenceChain[] findPaths(JavaHeapObject target, int limit) {
+        return findPaths(new JavaHeapObject[] { target }, limit);
+    }
+
+    /**
+     * @param limit stop after this many chains, or 0 to find them all
+     * @return the chains from the rootset to instances of clazz, shortest
+     *         first
+     */
+    public ReferenceChain[] findInstancePaths(JavaClass clazz,
+                                              boolean includeSubclasses,
+                                              int limit) {
+        JavaHeapObject[] targets =
+            new JavaHeapObject[clazz.getInstancesCount(includeSubclasses)];
+        Enumeration instances = clazz.getInstances(includeSubclasses);
+        for (int i = 0; i < targets.length && instances.hasMoreElements(); i++) {
+            targets[i] = (JavaHeapObject) instances.nextElement();
+        }
+        return findPaths(targets, limit);
+    }
+
+    /**
+     * @param limit stop after this many chains, or 0 to find them all
+     * @return the chains from the rootset to any of targets, shortest
+     *         first.  Targets that are not in the snapshot are ignored.
+     */
+    public ReferenceChain[] findPaths(JavaHeapObject[] targets, int limit) {
+        if (limit <= 0) {
+            limit = Integer.MAX_VALUE;
+        }
+        // The search tree is kept in two parallel lists: the ordinals of
+        // the objects in the order they were found, which is also the
+        // fifo, and for each one the position of the object it was found
+        // from.  Nothing is ever taken off the fifo, we only move head.
+        IntArrayList found = new IntArrayList();
+        IntArrayList parents = new IntArrayList();
+        BitSet visited = new BitSet(snapshot.getThingsCount());
+        BitSet isRoot = snapshot.getRootObjects();
+        // Positions of the objects that are in the rootset
+        IntArrayList result = new IntArrayList();
+
+        for (int i = 0; i < targets.length && result.size() < limit; i++) {
+            int ordinal = (targets[i] == null)? -1 : targets[i].getOrdinal();
+            if (ordinal != -1 && !visited.get(ordinal)) {
+                visited.set(ordinal);
+                found.add(ordinal);
+                parents.add(-1);
+                if (isRoot.get(ordinal)) {
+                    result.add(found.size() - 1);
+                }
+            }
+        }
+
+        // Objects are checked for being in the rootset as they are found,
+        // which is the order they come off the fifo in, so we can stop as
+        // soon as we have enough.  Even when an object is in the rootset,
+        // we want to explore its referers, because they might be more
+        // interesting.
+    search:
+        for (int head = 0; head < found.size(); head++) {
+            if (result.size() >= limit) {
+                break;
+            }
+            int node = found.get(head);
+            if (node >= referers.getNodeCount()) {
+                continue;
+            }
+            for (int e = referers.getStart(node); e < referers.getEnd(node); e++) {
+                int from = referers.getEdge(e);
+                if (!visited.get(from) && follows(from, node)) {
+                    visited.set(from);
+                    found.add(from);
+                    parents.add(head);
+                    if (isRoot.get(from)) {
+                        result.add(found.size() - 1);
+                        if (result.size() >= limit) {
+                            break search;
+                        }
+                    }
+                }
+            }
+        }
+
+        ReferenceChain[] chains = new ReferenceChain[result.size()];
+        for (int i = 0; i < chains.length; i++) {
+            chains[i] = makeChain(found, parents, result.get(i));
+        }
+        return chains;
+    }
+
+    // The chain from found[pos] back to the target it was found from
+    private ReferenceChain makeChain(IntArrayList found, IntArrayList parents,
+                                     int pos) {
+        IntArrayList path = new IntArrayList();
+        for (int p = pos; p != -1; p = parents.get(p)) {
+            path.add(found.get(p));
+        }
+        ReferenceChain chain = null;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            chain = new ReferenceChain(snapshot.getHeapObject(path.get(i)), chain);
+        }
+        return chain;
+    }
+
+    // May the search go on from node to from, which refers to it?
+    private boolean follows(int from, int node) {
+        if (excludes == null && referentExcludedClasses.isEmpty()) {
+            return true;
+        }
+        JavaHeapObject referer = snapshot.getHeapObject(from);
+        int c = referer.getClazz().getOrdinal();
+        boolean referentExcluded = (c != -1) && referentExcludedClasses.get(c);
+        if (excludes == null) {
+            return !referentExcluded
+                || !referer.refersOnlyWeaklyTo(snapshot, snapshot.getHeapObject(node));
+        }
+        // look for a reference through a field that is not left out
+        edgeVisitor.target = snapshot.getHeapObject(node);
+        edgeVisitor.referentExcluded = referentExcluded;
+        edgeVisitor.found = false;
+        referer.visitReferencedObjects(edgeVisitor);
+        return edgeVisitor.found;
+    }
+
+    private class EdgeVisitor extends AbstractJavaHeapObjectVisitor {
+        JavaHeapObject target;
+        boolean referentExcluded;
+        boolean found;
+
+        public void visit(JavaHeapObject other) {
+            if (target.equals(other)) {
+                found = true;
+            }
+        }
+
+        public boolean mightExclude() {
+            return true;
+        }
+
+        public boolean exclude(JavaClass clazz, JavaField f) {
+            if (referentExcluded && f == referentField) {
+                return true;
+            }
+            return excludes.isExcluded(clazz.getName() + "." + f.getName());
+        }
+    }
+}
@@ -34,8 +34,19 @@ package com.sun.tools.hat2.internal.model;
 
 import java.lang.ref.SoftReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongConsumer;
 
 import com.sun.tools.hat2.internal.parser.ReadBuffer;
+import com.sun.tools.hat2.internal.util.ArrayStore;
+import com.sun.tools.hat2.internal.util.IntArray;
+import com.sun.tools.hat2.internal.util.IntArrayList;
+import com.sun.tools.hat2.internal.util.IntGraph;
+import com.sun.tools.hat2.internal.util.LongArray;
+import com.sun.tools.hat2.internal.util.LongIntHashMap;
 import com.sun.tools.hat2.internal.util.Misc;
 
 /**
@@ -57,12 +68,42 @@ public class Snapshot {
     private static final com.sun.tools.hat2.internal.model.JavaField[] EMPTY_FIELD_ARRAY = new com.sun.tools.hat2.internal.model.JavaField[0];
     private static final com.sun.tools.hat2.internal.model.JavaStatic[] EMPTY_STATIC_ARRAY = new JavaStatic[0];
 
-    // all heap objects
-    private Hashtable<Number, com.sun.tools.hat2.internal.model.JavaHeapObject> heapObjects =
-                 new Hashtable<Number, com.sun.tools.hat2.internal.model.JavaHeapObject>();
-
-    private Hashtable<Number, com.sun.tools.hat2.internal.model.JavaClass> fakeClasses =
-                 new Hashtable<Number, com.sun.tools.hat2.internal.model.JavaClass>();
+    /**
+     * Kinds of objects given to addHeapObject() by where they are in the
+     * dump.  A primitive array is of the kind of its element signature.
+     */
+    public static final byte INSTANCE = 'L';
+    public static final byte OBJECT_ARRAY = '[';
+
+    // used to size the object index when the caller has no better guess
+    private static final int DEFAULT_EXPECTED_OBJECTS = 1024;
+
+    // all heap objects, in the order they were added.  The position of
+    // an object in this array is its ordinal.  null in compact mode.
+    private com.sun.tools.hat2.internal.model.JavaHeapObject[] heapObjects;
+    private int heapObjectCount;
+
+    // In compact mode instances and arrays are kept as columns indexed
+    // by ordinal, and an object is made each time one is asked for.
+    // Objects of kind 0, the classes, are kept in storedObjects, at the
+    // position given in objectClasses.  For other objects objectClasses
+    // gives the ordinal of their class, or -1 until they are resolved,
+    // and the class ids are kept until then.
+    private boolean compactObjects;
+    private LongArray objectOffsets;
+    private byte[] objectKinds;
+    private LongArray objectClassIds;
+    private IntArray objectClasses;
+    private ArrayList<com.sun.tools.hat2.internal.model.JavaHeapObject> storedObjects;
+
+    // maps object id to the ordinal of the object in heapObjects.  This
+    // is written only while the snapshot is read and resolved, after that
+    // it is safe to read from any number of threads without locking.
+    private LongIntHashMap heapObjectIndex;
+
+    // makes the object index, the columns of compact mode and the
+    // referers graph
+    private ArrayStore arrayStore = ArrayStore.HEAP;
 
     // all Roots in this Snapshot
     private Vector<com.sun.tools.hat2.internal.model.Root> roots = new Vector<com.sun.tools.hat2.internal.model.Root>();
@@ -72,7 +113,8 @@ public class Snapshot {
                  new TreeMap<String, com.sun.tools.hat2.internal.model.JavaClass>();
 
     // new objects relative to a baseline - lazily initialized
-    private volatile Map<com.sun.tools.hat2.internal.model.JavaHeapObject, Boolean> newObjects;
+    // The ordinals of the objects that are not in the baseline snapshot
+    private volatile BitSet newObjects;
 
     // allocation site traces for all objects - lazily initialized
     private volatile Map<com.sun.tools.hat2.internal.model.JavaHeapObject, com.sun.tools.hat2.internal.model.StackTrace> siteTraces;
@@ -84,6 +126,12 @@ public class Snapshot {
     // soft cache of finalizeable objects - lazily initialized
     private SoftReference<Vector> finalizablesCache;
 
+    // ordinals of the objects in the rootset, and of the classes whose
+    // instances may refer to others only weakly.  Used to search for
+    // reference chains - lazily initialized
+    private volatile BitSet rootObjects;
+    private volatile BitSet weakReferenceClasses;
+
     // represents null reference
     private com.sun.tools.hat2.internal.model.JavaThing nullThing;
 
@@ -122,9 +170,45 @@ public class Snapshot {
     // (which is true for Sun's hotspot JVM).
     private int minimumObjectSize;
 
+    // Who refers to whom:  the row of an object's ordinal lists the
+    // ordinals of the objects that refer to it.  null until resolved.
+    private IntGraph referers;
+    // false if resolve() was told not to calculate references
+    private boolean hasReferers;
+
+    // number of objects and roots read from the dump, as opposed to the
+    // ones resolve() adds.  -1 until resolved.
+    private int parsedObjectCount = -1;
+    private int parsedRootCount = -1;
+
+    // true if the snapshot was read from an index rather than the dump
+    private boolean readFromIndex;
+
+    // computed on first use
+    private DominatorTree dominatorTree;
+
+    // indexes of instances by value, built by the queries that need them;
+    // see putValueIndexTask()
+    private final ConcurrentHashMap<String, FutureTask<ValueIndex>> valueIndexes
+        = new ConcurrentHashMap<String, FutureTask<ValueIndex>>();
+
+    // number of threads used by resolve()
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
     public Snapshot(ReadBuffer buf) {
+        this(buf, DEFAULT_EXPECTED_OBJECTS);
+    }
+
+    /**
+     * @param expectedObjects estimated number of heap objects, used to
+     *                        size the object index up front
+     */
+    public Snapshot(ReadBuffer buf, int expectedObjects) {
         nullThing = new HackJavaValue("<null>", 0);
         readBuf = buf;
+        expectedObjects = Math.max(expectedObjects, 16);
+        heapObjects = new com.sun.tools.hat2.internal.model.JavaHeapObject[expectedObjects];
+        heapObjectIndex = new LongIntHashMap(expectedObjects, -1);
     }
 
     public void setSiteTrace(com.sun.tools.hat2.internal.model.JavaHeapObject obj, com.sun.tools.hat2.internal.model.StackTrace trace) {
@@ -164,8 +248,121 @@ public class Snapshot {
         return minimumObjectSize;
     }
 
+    /**
+     * Set the number of threads resolve() uses to chase references.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: "
+                                               + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Keep instances and arrays as a few primitive values each, rather
+     * than as objects.  An object is made when it is asked for, and is
+     * equal to, but not the same as, the one made the time before.  This
+     * must be set before any object is added.
+     */
+    public void setCompactObjects(boolean compact) {
+        if (heapObjectCount != 0) {
+            throw new IllegalStateException("objects already added");
+        }
+        if (compact == compactObjects) {
+            return;
+        }
+        compactObjects = compact;
+        int capacity = compact? heapObjects.length : objectKinds.length;
+        if (compact) {
+            heapObjects = null;
+            objectOffsets = arrayStore.newLongArray(capacity);
+            objectKinds = new byte[capacity];
+            objectClassIds = arrayStore.newLongArray(capacity);
+            objectClasses = arrayStore.newIntArray(capacity);
+            storedObjects = new ArrayList<com.sun.tools.hat2.internal.model.JavaHeapObject>();
+        } else {
+            heapObjects = new com.sun.tools.hat2.internal.model.JavaHeapObject[capacity];
+            objectOffsets = null;
+            objectKinds = null;
+            objectClassIds = null;
+            objectClasses = null;
+            storedObjects = null;
+        }
+    }
+
+    public boolean isCompactObjects() {
+        return compactObjects;
+    }
+
+    /**
+     * Keep the object index, the columns of compact mode and the referers
+     * graph in tables made by store, for instance off the Java heap.
+     * This must be set before any object is added.
+     */
+    public void setArrayStore(ArrayStore store) {
+        if (heapObjectCount != 0) {
+            throw new IllegalStateException("objects already added");
+        }
+        if (store == arrayStore) {
+            return;
+        }
+        arrayStore = store;
+        int capacity = compactObjects? objectKinds.length : heapObjects.length;
+        heapObjectIndex = new LongIntHashMap(capacity, -1, store);
+        if (compactObjects) {
+            objectOffsets = store.newLongArray(capacity);
+            objectClassIds = store.newLongArray(capacity);
+            objectClasses = store.newIntArray(capacity);
+        }
+    }
+
+    public ArrayStore getArrayStore() {
+        return arrayStore;
+    }
+
     public void addHeapObject(long id, com.sun.tools.hat2.internal.model.JavaHeapObject ho) {
-        heapObjects.put(makeId(id), ho);
+        id = normalizeId(id);
+        int ordinal = heapObjectIndex.get(id);
+        if (ordinal == -1) {
+            heapObjectIndex.put(id, appendHeapObject(ho));
+        } else {
+            // a later object with the same id replaces the earlier one
+            replaceHeapObject(ordinal, ho);
+        }
+    }
+
+    /**
+     * Add an instance or array, to be read from the dump when it is
+     * looked at.
+     *
+     * @param kind    INSTANCE, OBJECT_ARRAY or the element signature of
+     *                a primitive array
+     * @param classID id of the class of an instance, or of the class or
+     *                element class of an object array
+     * @param offset  position of the object's record in the dump
+     */
+    public void addHeapObject(long id, byte kind, long classID, long offset) {
+        if (!compactObjects) {
+            addHeapObject(id, newLazyObject(kind, classID, offset));
+            return;
+        }
+        id = normalizeId(id);
+        int ordinal = heapObjectIndex.get(id);
+        if (ordinal == -1) {
+            ordinal = appendHeapObject(null);
+            heapObjectIndex.put(id, ordinal);
+        } else {
+            replaceHeapObject(ordinal, null);
+        }
+        objectKinds[ordinal] = kind;
+        objectOffsets.set(ordinal, offset);
+        objectClassIds.set(ordinal, classID);
+        objectClasses.set(ordinal, -1);
     }
 
     public void addRoot(com.sun.tools.hat2.internal.model.Root r) {
@@ -202,7 +399,8 @@ public class Snapshot {
             c = new com.sun.tools.hat2.internal.model.JavaClass(name, 0, 0, 0, 0, fields,
                                  EMPTY_STATIC_ARRAY, instSize);
         // Add the class
-        addFakeClass(makeId(classID), c);
+        addHeapObject(classID, c);
+        addFakeClass(c);
         return c;
     }
 
@@ -218,23 +416,35 @@ public class Snapshot {
     }
 
     //
-    // Used in the body of resolve()
+    // Used in the body of resolve().  Records an edge from t to every
+    // object t refers to, as pairs of ordinals.  The references are
+    // read with forEachOutboundId(), so nothing is created per edge.
     //
-    private static class MyVisitor extends AbstractJavaHeapObjectVisitor {
-        com.sun.tools.hat2.internal.model.JavaHeapObject t;
-        public void visit(com.sun.tools.hat2.internal.model.JavaHeapObject other) {
-            other.addReferenceFrom(t);
+    private class EdgeCollector implements LongConsumer {
+        final IntArrayList edges = new IntArrayList();
+        int t;
+        public void accept(long id) {
+            add(heapObjectIndex.get(normalizeId(id)));
+        }
+        void add(int o) {
+            if (o != -1) {
+                edges.add(t);
+                edges.add(o);
+            }
         }
     }
 
-    // To show heap parsing progress, we print a '.' after this limit
+    // To show heap parsing progress, we print a '.' after this limit.
+    // resolve() also hands objects to its threads in chunks of this size.
     private static final int DOT_LIMIT = 5000;
 
     /**
      * Called after reading complete, to initialize the structure
      */
     public void resolve(boolean calculateRefs) {
-        System.out.println("Resolving " + heapObjects.size() + " objects...");
+        System.out.println("Resolving " + heapObjectCount + " objects...");
+        parsedObjectCount = heapObjectCount;
+        parsedRootCount = roots.size();
 
         // First, resolve the classes.  All classes must be resolved before
         // we try any objects, because the objects use classes in their
@@ -261,21 +471,30 @@ public class Snapshot {
             addFakeClass(javaLangClassLoader);
         }
 
-        for (com.sun.tools.hat2.internal.model.JavaHeapObject t : heapObjects.values()) {
+        // Fake classes for unknown instance classes are appended while
+        // objects are resolved, so only walk what was read from the dump.
+        final int numRead = heapObjectCount;
+        for (int i = 0; i < numRead; i++) {
+            com.sun.tools.hat2.internal.model.JavaHeapObject t = getStoredObject(i);
             if (t instanceof com.sun.tools.hat2.internal.model.JavaClass) {
                 t.resolve(this);
             }
         }
 
         // Now, resolve everything else.
-        for (com.sun.tools.hat2.internal.model.JavaHeapObject t : heapObjects.values()) {
-            if (!(t instanceof com.sun.tools.hat2.internal.model.JavaClass)) {
+        for (int i = 0; i < numRead; i++) {
+            com.sun.tools.hat2.internal.model.JavaHeapObject t = getStoredObject(i);
+            if (t == null) {
+                // kept in compact form, which only needs the class
+                t = makeHeapObject(i);
+                t.resolve(this);
+                objectClasses.set(i, t.getClazz().getOrdinal());
+            } else if (!(t instanceof com.sun.tools.hat2.internal.model.JavaClass)) {
                 t.resolve(this);
             }
         }
-
-        heapObjects.putAll(fakeClasses);
-        fakeClasses.clear();
+        objectClassIds = null;
+        trimHeapObjects();
 
         weakReferenceClass = findClass("java.lang.ref.Reference");
         if (weakReferenceClass == null)  {      // JDK 1.1.x
@@ -292,46 +511,98 @@ public class Snapshot {
         }
 
         if (calculateRefs) {
-            calculateReferencesToObjects();
-            System.out.print("Eliminating duplicate references");
-            System.out.flush();
-            // This println refers to the *next* step
-        }
-        int count = 0;
-        for (com.sun.tools.hat2.internal.model.JavaHeapObject t : heapObjects.values()) {
-            t.setupReferers();
-            ++count;
-            if (calculateRefs && count % DOT_LIMIT == 0) {
-                System.out.print(".");
-                System.out.flush();
+            if (referers != null && referers.getNodeCount() == heapObjectCount) {
+                // The references were read from an index
+                resolveRoots();
+            } else {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    calculateReferencesToObjects(pool);
+                } finally {
+                    pool.shutdown();
+                }
             }
+            hasReferers = true;
+        } else {
+            referers = new IntGraph(arrayStore.newIntArray(heapObjectCount + 1),
+                                    arrayStore.newIntArray(0));
         }
-        if (calculateRefs) {
-            System.out.println("");
-        }
+
+        summarizeClasses();
 
         // to ensure that Iterator.remove() on getClasses()
         // result will throw exception..
         classes = Collections.unmodifiableMap(classes);
     }
 
-    private void calculateReferencesToObjects() {
+    // Work out the totals that histograms show for each class, in one
+    // pass after resolve instead of on every request.  The classes map
+    // keeps only one class of each name, so they are found among the
+    // heap objects.
+    private void summarizeClasses() {
+        for (int i = 0; i < heapObjectCount; i++) {
+            JavaHeapObject t = getStoredObject(i);
+            if (t instanceof JavaClass) {
+                ((JavaClass) t).summarizeInstances();
+            }
+        }
+    }
+
+    private void calculateReferencesToObjects(ForkJoinPool pool) {
         System.out.print("Chasing references, expect "
-                         + (heapObjects.size() / DOT_LIMIT) + " dots");
+                         + (heapObjectCount / DOT_LIMIT) + " dots");
         System.out.flush();
-        int count = 0;
-        MyVisitor visitor = new MyVisitor();
-        for (com.sun.tools.hat2.internal.model.JavaHeapObject t : heapObjects.values()) {
-            visitor.t = t;
-            // call addReferenceFrom(t) on all objects t references:
-            t.visitReferencedObjects(visitor);
-            ++count;
-            if (count % DOT_LIMIT == 0) {
+        // Each chunk of objects is walked by one thread, which collects
+        // the edges it finds in its own list.  The lists are then turned
+        // into the referers graph in two passes, counting and filling.
+        final IntArrayList[] edges = new IntArrayList[numChunks()];
+        forEachChunk(pool, new ChunkVisitor() {
+            public void visit(int chunk, int start, int end) {
+                EdgeCollector collector = new EdgeCollector();
+                for (int i = start; i < end; i++) {
+                    com.sun.tools.hat2.internal.model.JavaHeapObject t = getHeapObject(i);
+                    collector.t = i;
+                    // record an edge to all objects heapObjects[i] references
+                    collector.add(t.getClazz().getOrdinal());
+                    t.forEachOutboundId(collector);
+                }
+                edges[chunk] = collector.edges;
                 System.out.print(".");
                 System.out.flush();
             }
-        }
+        });
         System.out.println();
+        final IntGraph.Builder builder = new IntGraph.Builder(heapObjectCount,
+                                                              arrayStore);
+        for (IntArrayList list : edges) {
+            for (int i = 0; i < list.size(); i += 2) {
+                builder.count(list.get(i + 1));
+            }
+        }
+        builder.allocate();
+        for (int c = 0; c < edges.length; c++) {
+            IntArrayList list = edges[c];
+            for (int i = 0; i < list.size(); i += 2) {
+                builder.add(list.get(i + 1), list.get(i));
+            }
+            edges[c] = null;
+        }
+
+        System.out.print("Eliminating duplicate references");
+        System.out.flush();
+        forEachChunk(pool, new ChunkVisitor() {
+            public void visit(int chunk, int start, int end) {
+                builder.sortRows(start, end);
+                System.out.print(".");
+                System.out.flush();
+            }
+        });
+        referers = builder.build();
+        System.out.println("");
+        resolveRoots();
+    }
+
+    private void resolveRoots() {
         for (com.sun.tools.hat2.internal.model.Root r : roots) {
             r.resolve(this);
             com.sun.tools.hat2.internal.model.JavaHeapObject t = findThing(r.getId());
@@ -341,9 +612,141 @@ public class Snapshot {
         }
     }
 
+    /**
+     * @return the dominator tree of the objects in this snapshot, computed
+     *         on the first call.  The snapshot must have been resolved
+     *         with references calculated.
+     */
+    public synchronized DominatorTree getDominatorTree() {
+        if (!hasReferers) {
+            throw new IllegalStateException("references to objects were not calculated");
+        }
+        if (dominatorTree == null) {
+            System.out.println("Computing dominator tree...");
+            long start = System.currentTimeMillis();
+            dominatorTree = DominatorTree.compute(this, referers);
+            System.out.println("Dominator tree computed in "
+                               + (System.currentTimeMillis() - start) + " ms.");
+        }
+        return dominatorTree;
+    }
+
+    /**
+     * Keeps the task that builds the index of the instances of clazz by
+     * a value, unless a task for it is kept already.  The snapshot is
+     * not locked: the caller runs the task if it gets its own back, and
+     * otherwise waits for the one it gets.
+     *
+     * @param field the number of the field of clazz the index is by, or
+     *              -1 for the text of Strings
+     * @return the task kept for the index
+     */
+    public FutureTask<ValueIndex> putValueIndexTask(JavaClass clazz, int field,
+                                                    FutureTask<ValueIndex> task) {
+        FutureTask<ValueIndex> kept = valueIndexes.putIfAbsent(
+                                          valueIndexKey(clazz, field), task);
+        return (kept == null)? task : kept;
+    }
+
+    /**
+     * @return the task kept for the index of the instances of clazz by
+     *         field, which may not be done yet, or null if there is none
+     */
+    public FutureTask<ValueIndex> getValueIndexTask(JavaClass clazz, int field) {
+        return valueIndexes.get(valueIndexKey(clazz, field));
+    }
+
+    /**
+     * Forgets a task that did not build its index, so that a later query
+     * may try again.
+     */
+    public void removeValueIndexTask(JavaClass clazz, int field,
+                                     FutureTask<ValueIndex> task) {
+        valueIndexes.remove(valueIndexKey(clazz, field), task);
+    }
+
+    private static String valueIndexKey(JavaClass clazz, int field) {
+        return clazz.getIdString() + "." + field;
+    }
+
+    /**
+     * Tell who refers to ho.
+     *
+     * @return an Enumeration of JavaHeapObject instances
+     */
+    Enumeration getReferers(com.sun.tools.hat2.internal.model.JavaHeapObject ho) {
+        final IntGraph graph = referers;
+        if (graph == null) {
+            throw new RuntimeException("not resolved: " + ho.getIdString());
+        }
+        int ordinal = ho.getOrdinal();
+        boolean known = ordinal != -1 && ordinal < graph.getNodeCount();
+        final int start = known? graph.getStart(ordinal) : 0;
+        final int end = known? graph.getEnd(ordinal) : 0;
+        return new Enumeration() {
+
+            private int num = start;
+
+            public boolean hasMoreElements() {
+                return num < end;
+            }
+
+            public Object nextElement() {
+                if (num >= end) {
+                    throw new NoSuchElementException();
+                }
+                return getHeapObject(graph.getEdge(num++));
+            }
+        };
+    }
+
+    //
+    // Used by forEachChunk() to hand out the chunks of heapObjects.
+    //
+    private interface ChunkVisitor {
+        // visit heapObjects[start] up to, but excluding, heapObjects[end]
+        void visit(int chunk, int start, int end);
+    }
+
+    private int numChunks() {
+        return (heapObjectCount + DOT_LIMIT - 1) / DOT_LIMIT;
+    }
+
+    private void forEachChunk(ForkJoinPool pool, final ChunkVisitor visitor) {
+        pool.invoke(new ChunkAction(visitor, 0, numChunks()));
+    }
+
+    // Splits a range of chunks in halves until a single chunk is left.
+    private class ChunkAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ChunkVisitor visitor;
+        private final int lo;
+        private final int hi;
+
+        ChunkAction(ChunkVisitor visitor, int lo, int hi) {
+            this.visitor = visitor;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new ChunkAction(visitor, lo, mid),
+                          new ChunkAction(visitor, mid, hi));
+            } else if (hi > lo) {
+                int start = lo * DOT_LIMIT;
+                int end = Math.min(start + DOT_LIMIT, heapObjectCount);
+                visitor.visit(lo, start, end);
+            }
+        }
+    }
+
     public void markNewRelativeTo(Snapshot baseline) {
         hasNewSet = true;
-        for (com.sun.tools.hat2.internal.model.JavaHeapObject t : heapObjects.values()) {
+        for (int i = 0; i < heapObjectCount; i++) {
+            com.sun.tools.hat2.internal.model.JavaHeapObject t = getHeapObject(i);
             boolean isNew;
             long thingID = t.getId();
             if (thingID == 0L || thingID == -1L) {
@@ -358,17 +761,47 @@ public class Snapshot {
             }
             t.setNew(isNew);
         }
+        for (int i = 0; i < heapObjectCount; i++) {
+            JavaHeapObject t = getStoredObject(i);
+            if (t instanceof JavaClass) {
+                ((JavaClass) t).summarizeNewInstances();
+            }
+        }
     }
 
     public Enumeration<com.sun.tools.hat2.internal.model.JavaHeapObject> getThings() {
-        return heapObjects.elements();
+        return new Enumeration<com.sun.tools.hat2.internal.model.JavaHeapObject>() {
+            private int next = 0;
+
+            public boolean hasMoreElements() {
+                return next < heapObjectCount;
+            }
+
+            public com.sun.tools.hat2.internal.model.JavaHeapObject nextElement() {
+                if (next >= heapObjectCount) {
+                    throw new NoSuchElementException();
+                }
+                return getHeapObject(next++);
+            }
+        };
+    }
+
+    // the object with the given ordinal
+    com.sun.tools.hat2.internal.model.JavaHeapObject getHeapObject(int ordinal) {
+        com.sun.tools.hat2.internal.model.JavaHeapObject ho = getStoredObject(ordinal);
+        return (ho != null)? ho : makeHeapObject(ordinal);
     }
 
+    /**
+     * @return the number of heap objects in this snapshot
+     */
+    public int getThingsCount() {
+        return heapObjectCount;
+    }
 
     public com.sun.tools.hat2.internal.model.JavaHeapObject findThing(long id) {
-        Number idObj = makeId(id);
-        com.sun.tools.hat2.internal.model.JavaHeapObject jho = heapObjects.get(idObj);
-        return jho != null? jho : fakeClasses.get(idObj);
+        int ordinal = heapObjectIndex.get(normalizeId(id));
+        return (ordinal == -1)? null : getHeapObject(ordinal);
     }
 
     public com.sun.tools.hat2.internal.model.JavaHeapObject findThing(String id) {
@@ -442,40 +875,222 @@ public class Snapshot {
 
     public com.sun.tools.hat2.internal.model.ReferenceChain[]
     rootsetReferencesTo(com.sun.tools.hat2.internal.model.JavaHeapObject target, boolean includeWeak) {
-        Vector<com.sun.tools.hat2.internal.model.ReferenceChain> fifo = new Vector<com.sun.tools.hat2.internal.model.ReferenceChain>();  // This is slow... A real fifo would help
-            // Must be a fifo to go breadth-first
-        Hashtable<com.sun.tools.hat2.internal.model.JavaHeapObject, com.sun.tools.hat2.internal.model.JavaHeapObject> visited = new Hashtable<com.sun.tools.hat2.internal.model.JavaHeapObject, com.sun.tools.hat2.internal.model.JavaHeapObject>();
-        // Objects are added here right after being added to fifo.
-        Vector<com.sun.tools.hat2.internal.model.ReferenceChain> result = new Vector<com.sun.tools.hat2.internal.model.ReferenceChain>();
-        visited.put(target, target);
-        fifo.addElement(new com.sun.tools.hat2.internal.model.ReferenceChain(target, null));
-
-        while (fifo.size() > 0) {
-            com.sun.tools.hat2.internal.model.ReferenceChain chain = fifo.elementAt(0);
-            fifo.removeElementAt(0);
-            com.sun.tools.hat2.internal.model.JavaHeapObject curr = chain.getObj();
-            if (curr.getRoot() != null) {
-                result.addElement(chain);
-                // Even though curr is in the rootset, we want to explore its
-                // referers, because they might be more interesting.
-            }
-            Enumeration referers = curr.getReferers();
-            while (referers.hasMoreElements()) {
-                com.sun.tools.hat2.internal.model.JavaHeapObject t = (com.sun.tools.hat2.internal.model.JavaHeapObject) referers.nextElement();
-                if (t != null && !visited.containsKey(t)) {
-                    if (includeWeak || !t.refersOnlyWeaklyTo(this, curr)) {
-                        visited.put(t, t);
-                        fifo.addElement(new com.sun.tools.hat2.internal.model.ReferenceChain(t, chain));
+        return rootsetReferencesTo(target, includeWeak, 0);
+    }
+
+    /**
+     * Find chains of references from the rootset to target, searching
+     * breadth first, so that shorter chains are found first.
+     *
+     * @param limit stop after this many chains, or 0 to find them all
+     */
+    public com.sun.tools.hat2.internal.model.ReferenceChain[]
+    rootsetReferencesTo(com.sun.tools.hat2.internal.model.JavaHeapObject target,
+                        boolean includeWeak, int limit) {
+        RootPathFinder finder = new RootPathFinder(this);
+        if (!includeWeak) {
+            finder.excludeWeakReferences();
+        }
+        return finder.findPaths(target, limit);
+    }
+
+    /**
+     * Find a shortest chain of references from the rootset to target.
+     * This searches forward from the rootset and backward from target at
+     * the same time, always going on from the side with fewer objects to
+     * look at, so that less of the heap is searched when the chains are
+     * long and target has many referers.
+     *
+     * @return the chain, starting at an object in the rootset, or null
+     *         if target is not reachable from the rootset
+     */
+    public com.sun.tools.hat2.internal.model.ReferenceChain
+    shortestRootsetReferenceTo(com.sun.tools.hat2.internal.model.JavaHeapObject target,
+                               boolean includeWeak) {
+        int ordinal = target.getOrdinal();
+        if (!hasReferers || ordinal == -1 || ordinal >= referers.getNodeCount()) {
+            // there is nothing to search forward through that a search
+            // backward would find
+            com.sun.tools.hat2.internal.model.ReferenceChain[] chains
+                = rootsetReferencesTo(target, includeWeak, 1);
+            return (chains.length == 0)? null : chains[0];
+        }
+        BitSet isRoot = getRootObjects();
+        if (isRoot.get(ordinal)) {
+            return new ReferenceChain(target, null);
+        }
+        PathSearch backward = new PathSearch(false, includeWeak);
+        backward.add(ordinal, -1);
+        PathSearch forward = new PathSearch(true, includeWeak);
+        for (int i = isRoot.nextSetBit(0); i >= 0; i = isRoot.nextSetBit(i + 1)) {
+            forward.add(i, -1);
+        }
+
+        while (!forward.isDone() && !backward.isDone()) {
+            boolean goForward = forward.getLevelSize() <= backward.getLevelSize();
+            PathSearch search = goForward? forward : backward;
+            PathSearch other = goForward? backward : forward;
+            int meeting = search.expandLevel(other);
+            if (meeting != -1) {
+                // path runs from the meeting object to a root, and rest
+                // from the meeting object to target
+                IntArrayList path = new IntArrayList();
+                forward.appendPath(meeting, path);
+                IntArrayList rest = new IntArrayList();
+                backward.appendPath(meeting, rest);
+                com.sun.tools.hat2.internal.model.ReferenceChain chain = null;
+                for (int i = rest.size() - 1; i > 0; i--) {
+                    chain = new ReferenceChain(getHeapObject(rest.get(i)), chain);
+                }
+                for (int i = 0; i < path.size(); i++) {
+                    chain = new ReferenceChain(getHeapObject(path.get(i)), chain);
+                }
+                return chain;
+            }
+        }
+        return null;
+    }
+
+    // The objects in the rootset, as getRoot() != null, by ordinal
+    BitSet getRootObjects() {
+        BitSet res = rootObjects;
+        if (res == null) {
+            res = new BitSet(heapObjectCount);
+            for (com.sun.tools.hat2.internal.model.Root r : roots) {
+                com.sun.tools.hat2.internal.model.JavaHeapObject t = findThing(r.getId());
+                if (t != null && t.getOrdinal() != -1) {
+                    res.set(t.getOrdinal());
+                }
+            }
+            rootObjects = res;
+        }
+        return res;
+    }
+
+    // Does the object with ordinal referer refer to the one with ordinal
+    // referee only weakly?  Only instances of subclasses of
+    // weakReferenceClass are asked.
+    private boolean refersOnlyWeakly(int referer, int referee) {
+        BitSet weak = weakReferenceClasses;
+        if (weak == null) {
+            weak = new BitSet();
+            if (weakReferenceClass != null) {
+                for (int i = 0; i < heapObjectCount; i++) {
+                    com.sun.tools.hat2.internal.model.JavaHeapObject t = getStoredObject(i);
+                    if (t instanceof com.sun.tools.hat2.internal.model.JavaClass
+                        && weakReferenceClass.isAssignableFrom((JavaClass) t)) {
+                        weak.set(i);
                     }
                 }
             }
+            weakReferenceClasses = weak;
+        }
+        com.sun.tools.hat2.internal.model.JavaHeapObject t = getHeapObject(referer);
+        int c = t.getClazz().getOrdinal();
+        return (c == -1 || weak.get(c))
+            && t.refersOnlyWeaklyTo(this, getHeapObject(referee));
+    }
+
+    //
+    // One side of the search in shortestRootsetReferenceTo().  Like the
+    // search in rootsetReferencesTo(), it keeps the objects found in a
+    // list that is also its fifo, but it also needs to find where an
+    // object is in the list.
+    //
+    private class PathSearch implements LongConsumer {
+        private final boolean forward;
+        private final boolean includeWeak;
+        private final IntArrayList found = new IntArrayList();
+        private final IntArrayList parents = new IntArrayList();
+        // ordinal to position in found
+        private final LongIntHashMap positions = new LongIntHashMap(64, -1);
+        // found[head] and after are the objects to go on from
+        private int head;
+
+        // set while expanding: the object we go on from, and where we
+        // met the other side
+        private int currPos;
+        private PathSearch other;
+        private int meeting;
+
+        PathSearch(boolean forward, boolean includeWeak) {
+            this.forward = forward;
+            this.includeWeak = includeWeak;
+        }
+
+        void add(int ordinal, int parent) {
+            positions.put(ordinal, found.size());
+            found.add(ordinal);
+            parents.add(parent);
+        }
+
+        boolean contains(int ordinal) {
+            return positions.containsKey(ordinal);
+        }
+
+        boolean isDone() {
+            return head == found.size();
+        }
+
+        int getLevelSize() {
+            return found.size() - head;
+        }
+
+        // Go on from the objects at the current distance, until one is
+        // found that the other side has reached too.  Returns its
+        // ordinal, or -1 if there is none.
+        //
+        // As both sides go a whole distance at a time, the first such
+        // object is on a shortest path: the other side has found it at
+        // its current distance, because had it gone on from it, it
+        // would have found the object we came from.
+        int expandLevel(PathSearch other) {
+            this.other = other;
+            meeting = -1;
+            int end = found.size();
+            for (; head < end && meeting == -1; head++) {
+                currPos = head;
+                int node = found.get(head);
+                if (forward) {
+                    com.sun.tools.hat2.internal.model.JavaHeapObject curr = getHeapObject(node);
+                    reach(curr.getClazz().getOrdinal());
+                    curr.forEachOutboundId(this);
+                } else if (node < referers.getNodeCount()) {
+                    for (int e = referers.getStart(node); e < referers.getEnd(node); e++) {
+                        reach(referers.getEdge(e));
+                    }
+                }
+            }
+            return meeting;
+        }
+
+        public void accept(long id) {
+            reach(heapObjectIndex.get(normalizeId(id)));
+        }
+
+        private void reach(int ordinal) {
+            if (ordinal == -1 || meeting != -1 || contains(ordinal)) {
+                return;
+            }
+            int currOrdinal = found.get(currPos);
+            // the reference goes from referer to referee
+            int referer = forward? currOrdinal : ordinal;
+            int referee = forward? ordinal : currOrdinal;
+            if (!includeWeak && refersOnlyWeakly(referer, referee)) {
+                return;
+            }
+            add(ordinal, currPos);
+            if (other.contains(ordinal)) {
+                meeting = ordinal;
+            }
         }
 
-        com.sun.tools.hat2.internal.model.ReferenceChain[] realResult = new ReferenceChain[result.size()];
-        for (int i = 0; i < result.size(); i++) {
-            realResult[i] =  result.elementAt(i);
+        // Append the ordinals from ordinal back to the start of the search
+        void appendPath(int ordinal, IntArrayList path) {
+            for (int p = positions.get(ordinal); p != -1; p = parents.get(p)) {
+                path.add(found.get(p));
+            }
         }
-        return realResult;
     }
 
     public boolean getUnresolvedObjectsOK() {
@@ -486,6 +1101,46 @@ public class Snapshot {
         unresolvedObjectsOK = v;
     }
 
+    boolean isReadFromIndex() {
+        return readFromIndex;
+    }
+
+    void setReadFromIndex(boolean v) {
+        readFromIndex = v;
+    }
+
+    // Objects and roots with smaller indices were read from the dump
+    int getParsedObjectCount() {
+        return parsedObjectCount;
+    }
+
+    int getParsedRootCount() {
+        return parsedRootCount;
+    }
+
+    boolean hasSiteTraces() {
+        return siteTraces != null && !siteTraces.isEmpty();
+    }
+
+    // null if references were not calculated
+    IntGraph getReferersGraph() {
+        return hasReferers? referers : null;
+    }
+
+    // The referers graph to search for reference chains, which has no
+    // edges if references were not calculated
+    IntGraph getReferersForSearch() {
+        if (referers == null) {
+            throw new IllegalStateException("snapshot is not resolved");
+        }
+        return referers;
+    }
+
+    // Use referers rather than calculate them in resolve()
+    void setReferersGraph(IntGraph referers) {
+        this.referers = referers;
+    }
+
     public com.sun.tools.hat2.internal.model.JavaClass getWeakReferenceClass() {
         return weakReferenceClass;
     }
@@ -569,26 +1224,29 @@ public class Snapshot {
 
     void setNew(com.sun.tools.hat2.internal.model.JavaHeapObject obj, boolean isNew) {
         initNewObjects();
-        if (isNew) {
-            newObjects.put(obj, Boolean.TRUE);
+        if (isNew && obj.getOrdinal() != -1) {
+            newObjects.set(obj.getOrdinal());
         }
     }
 
     boolean isNew(com.sun.tools.hat2.internal.model.JavaHeapObject obj) {
+        return isNew(obj.getOrdinal());
+    }
+
+    boolean isNew(int ordinal) {
         if (newObjects != null) {
-            return newObjects.get(obj) != null;
+            return ordinal != -1 && newObjects.get(ordinal);
         } else {
             return false;
         }
     }
 
     // Internals only below this point
-    private Number makeId(long id) {
-        if (identifierSize == 4) {
-            return new Integer((int)id);
-        } else {
-            return new Long(id);
-        }
+
+    // With 4 byte identifiers, ids may reach us sign extended or not;
+    // both forms must find the same object.
+    private long normalizeId(long id) {
+        return (identifierSize == 4)? (id & SMALL_ID_MASK) : id;
     }
 
     private void putInClassesMap(com.sun.tools.hat2.internal.model.JavaClass c) {
@@ -604,19 +1262,137 @@ public class Snapshot {
 
     private void addFakeClass(com.sun.tools.hat2.internal.model.JavaClass c) {
         putInClassesMap(c);
+        if (c.getOrdinal() == -1) {
+            // Fake classes have no id, but they are heap objects for
+            // the purpose of reference chasing.
+            appendHeapObject(c);
+        }
         c.resolve(this);
     }
 
-    private void addFakeClass(Number id, JavaClass c) {
-        fakeClasses.put(id, c);
-        addFakeClass(c);
+    // ho is null for an object kept in the columns of compact mode,
+    // which the caller fills in
+    private int appendHeapObject(com.sun.tools.hat2.internal.model.JavaHeapObject ho) {
+        int ordinal = heapObjectCount;
+        if (compactObjects) {
+            if (ordinal == objectKinds.length) {
+                int newLength = ordinal + (ordinal >> 1) + 1;
+                objectOffsets = arrayStore.copyOf(objectOffsets, newLength);
+                objectKinds = Arrays.copyOf(objectKinds, newLength);
+                objectClasses = arrayStore.copyOf(objectClasses, newLength);
+                if (objectClassIds != null) {
+                    objectClassIds = arrayStore.copyOf(objectClassIds, newLength);
+                }
+            }
+            if (ho != null) {
+                objectKinds[ordinal] = 0;
+                objectClasses.set(ordinal, storedObjects.size());
+                storedObjects.add(ho);
+            }
+        } else {
+            if (ordinal == heapObjects.length) {
+                heapObjects = Arrays.copyOf(heapObjects, ordinal + (ordinal >> 1) + 1);
+            }
+            heapObjects[ordinal] = ho;
+        }
+        heapObjectCount++;
+        if (ho != null) {
+            ho.setOrdinal(ordinal);
+        }
+        return ordinal;
+    }
+
+    // ho is null as for appendHeapObject()
+    private void replaceHeapObject(int ordinal, com.sun.tools.hat2.internal.model.JavaHeapObject ho) {
+        com.sun.tools.hat2.internal.model.JavaHeapObject old = getStoredObject(ordinal);
+        if (old != null) {
+            old.setOrdinal(-1);
+        }
+        if (!compactObjects) {
+            heapObjects[ordinal] = ho;
+        } else if (old != null) {
+            storedObjects.set(objectClasses.get(ordinal), ho);
+        } else if (ho != null) {
+            objectKinds[ordinal] = 0;
+            objectClasses.set(ordinal, storedObjects.size());
+            storedObjects.add(ho);
+        }
+        if (ho != null) {
+            ho.setOrdinal(ordinal);
+        }
+    }
+
+    // The object with the given ordinal if it is kept as an object, else
+    // null
+    private com.sun.tools.hat2.internal.model.JavaHeapObject getStoredObject(int ordinal) {
+        if (!compactObjects) {
+            return heapObjects[ordinal];
+        } else if (objectKinds[ordinal] == 0) {
+            return storedObjects.get(objectClasses.get(ordinal));
+        } else {
+            return null;
+        }
+    }
+
+    // Let go of the room kept for more objects
+    private void trimHeapObjects() {
+        if (compactObjects) {
+            // the unused end of a scratch file takes no memory
+            if (arrayStore == ArrayStore.HEAP) {
+                objectOffsets = arrayStore.copyOf(objectOffsets, heapObjectCount);
+                objectClasses = arrayStore.copyOf(objectClasses, heapObjectCount);
+            }
+            objectKinds = Arrays.copyOf(objectKinds, heapObjectCount);
+            storedObjects.trimToSize();
+        } else {
+            heapObjects = Arrays.copyOf(heapObjects, heapObjectCount);
+        }
+    }
+
+    // Make an object kept in the columns of compact mode.  Until it is
+    // resolved, the object is made from its class id.
+    private com.sun.tools.hat2.internal.model.JavaHeapObject makeHeapObject(int ordinal) {
+        byte kind = objectKinds[ordinal];
+        long offset = objectOffsets.get(ordinal);
+        int clazzOrdinal = objectClasses.get(ordinal);
+        com.sun.tools.hat2.internal.model.JavaHeapObject ho;
+        if (clazzOrdinal == -1) {
+            ho = newLazyObject(kind, objectClassIds.get(ordinal), offset);
+        } else {
+            JavaClass clazz = (JavaClass) getStoredObject(clazzOrdinal);
+            switch (kind) {
+                case INSTANCE:
+                    ho = new JavaObject(clazz, offset);
+                    break;
+                case OBJECT_ARRAY:
+                    ho = new JavaObjectArray(clazz, offset);
+                    break;
+                default:
+                    ho = new JavaValueArray(clazz, kind, offset);
+                    break;
+            }
+        }
+        ho.setOrdinal(ordinal);
+        return ho;
+    }
+
+    private static com.sun.tools.hat2.internal.model.JavaHeapObject
+    newLazyObject(byte kind, long classID, long offset) {
+        switch (kind) {
+            case INSTANCE:
+                return new JavaObject(classID, offset);
+            case OBJECT_ARRAY:
+                return new JavaObjectArray(classID, offset);
+            default:
+                return new JavaValueArray(kind, offset);
+        }
     }
 
     private synchronized void initNewObjects() {
         if (newObjects == null) {
             synchronized (this) {
                 if (newObjects == null) {
-                    newObjects = new HashMap<com.sun.tools.hat2.internal.model.JavaHeapObject, Boolean>();
+                    newObjects = new BitSet(heapObjectCount);
                 }
             }
         }
@@ -0,0 +1,609 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.sun.tools.hat2.internal.parser.ReadBuffer;
+import com.sun.tools.hat2.internal.util.ArrayStore;
+import com.sun.tools.hat2.internal.util.IntArray;
+import com.sun.tools.hat2.internal.util.IntGraph;
+
+/**
+ * Reads and writes the index file of a heap dump.  The index holds what
+ * parsing the dump and calculating references produce:  where each
+ * object is in the dump, the classes, the roots and the referers graph.
+ * Reading it back is much faster than reading the dump again, because
+ * the dump itself is only touched when objects are looked at.
+ *
+ * An index belongs to one dump, identified by its length, its last
+ * modification time and the number of the heap dump in the file.  The
+ * body of the index is checked against a CRC32 stored in its header.
+ * Allocation site traces are not kept, so a snapshot that has them
+ * cannot be indexed.
+ */
+public class SnapshotIndex {
+
+    private static final long MAGIC = 0x4a48415449445831L;  // "JHATIDX1"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+
+    // kinds of entries in the object table
+    private static final byte CLASS = 1;
+    private static final byte INSTANCE = 2;
+    private static final byte OBJECT_ARRAY = 3;
+    private static final byte VALUE_ARRAY = 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final long dumpLength;
+    private final long dumpModified;
+    private final int dumpNumber;
+    private final boolean callStack;
+
+    /**
+     * @param dumpLength   length of the dump file
+     * @param dumpModified last modification time of the dump file
+     * @param dumpNumber   which heap dump of the file the index is for
+     * @param callStack    whether stack traces are read
+     */
+    public SnapshotIndex(long dumpLength, long dumpModified, int dumpNumber,
+                         boolean callStack) {
+        this.dumpLength = dumpLength;
+        this.dumpModified = dumpModified;
+        this.dumpNumber = dumpNumber;
+        this.callStack = callStack;
+    }
+
+    /**
+     * Check the header of an index.
+     *
+     * @param needReferers if true, the index must include references
+     * @return true if index belongs to our dump
+     */
+    public boolean matches(ReadBuffer index, long indexLength,
+                           boolean needReferers) throws IOException {
+        if (indexLength < HEADER_SIZE
+                || index.getLong(0) != MAGIC
+                || index.getInt(8) != FORMAT_VERSION
+                || index.getLong(12) != dumpLength
+                || index.getLong(20) != dumpModified
+                || index.getInt(28) != dumpNumber
+                || index.getByte(32) != (callStack? 1 : 0)
+                || (needReferers && index.getByte(33) == 0)) {
+            return false;
+        }
+        return index.getLong(34) == indexLength - HEADER_SIZE;
+    }
+
+    /**
+     * @return true if snapshot has nothing an index cannot hold
+     */
+    public boolean canWrite(Snapshot snapshot) {
+        return snapshot.getParsedObjectCount() != -1 && !snapshot.hasSiteTraces();
+    }
+
+    /**
+     * Read a snapshot from an index.  The caller should check that the
+     * index matches first.  The snapshot still has to be resolved, but
+     * resolve() takes the references from the index.
+     *
+     * @param dump the heap dump the index belongs to
+     * @param compactObjects whether the snapshot keeps its objects in
+     *                       compact form
+     * @param store makes the object index and the referers graph of the
+     *              snapshot
+     */
+    public Snapshot read(ReadBuffer index, long indexLength, ReadBuffer dump,
+                         boolean compactObjects, ArrayStore store)
+            throws IOException {
+        Input in = new Input(index, HEADER_SIZE, indexLength);
+        int identifierSize = in.readInt();
+        boolean newStyleArrayClass = in.readBoolean();
+        boolean unresolvedObjectsOK = in.readBoolean();
+        int objectCount = in.readInt();
+
+        Snapshot snapshot = new Snapshot(dump, objectCount);
+        snapshot.setIdentifierSize(identifierSize);
+        snapshot.setNewStyleArrayClass(newStyleArrayClass);
+        snapshot.setUnresolvedObjectsOK(unresolvedObjectsOK);
+        snapshot.setReadFromIndex(true);
+        snapshot.setCompactObjects(compactObjects);
+        snapshot.setArrayStore(store);
+
+        for (int i = 0; i < objectCount; i++) {
+            byte kind = in.readByte();
+            long id = in.readLong();
+            switch (kind) {
+                case CLASS:
+                    snapshot.addClass(id, readClass(in, id));
+                    break;
+                case INSTANCE: {
+                    long offset = in.readLong();
+                    snapshot.addHeapObject(id, Snapshot.INSTANCE, in.readLong(), offset);
+                    break;
+                }
+                case OBJECT_ARRAY: {
+                    long offset = in.readLong();
+                    snapshot.addHeapObject(id, Snapshot.OBJECT_ARRAY, in.readLong(), offset);
+                    break;
+                }
+                case VALUE_ARRAY: {
+                    long offset = in.readLong();
+                    snapshot.addHeapObject(id, in.readByte(), 0, offset);
+                    break;
+                }
+                default:
+                    throw new IOException("Bad object kind " + kind + " in index");
+            }
+        }
+
+        StackTrace[] traces = new StackTrace[in.readInt()];
+        for (int i = 0; i < traces.length; i++) {
+            StackFrame[] frames = new StackFrame[in.readInt()];
+            for (int j = 0; j < frames.length; j++) {
+                String methodName = in.readString();
+                String methodSignature = in.readString();
+                String className = in.readString();
+                String sourceFileName = in.readString();
+                frames[j] = new StackFrame(methodName, methodSignature, className,
+                                           sourceFileName, in.readInt());
+            }
+            traces[i] = new StackTrace(frames);
+        }
+        int rootCount = in.readInt();
+        for (int i = 0; i < rootCount; i++) {
+            long id = in.readLong();
+            long refererId = in.readLong();
+            int type = in.readInt();
+            String description = in.readString();
+            int trace = in.readInt();
+            snapshot.addRoot(new Root(id, refererId, type, description,
+                                      (trace == -1)? null : traces[trace]));
+        }
+
+        if (in.readBoolean()) {
+            IntArray offsets = in.readInts(store);
+            IntArray edges = in.readInts(store);
+            snapshot.setReferersGraph(new IntGraph(offsets, edges));
+        }
+
+        if (!in.atEnd()) {
+            throw new IOException("Unexpected data at the end of the index");
+        }
+        if (in.getChecksum() != index.getLong(42)) {
+            throw new IOException("Index checksum mismatch");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Write the index of a resolved snapshot.  The index is written to a
+     * temporary file first, and then renamed, so that a reader never sees
+     * a partial index.
+     */
+    public void write(Snapshot snapshot, File indexFile) throws IOException {
+        if (!canWrite(snapshot)) {
+            throw new IllegalArgumentException("snapshot cannot be indexed");
+        }
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        CRC32 crc = new CRC32();
+        boolean done = false;
+        try {
+            boolean hasReferers;
+            try {
+                fos.write(new byte[HEADER_SIZE]);
+                Output out = new Output(new BufferedOutputStream(
+                                    new CheckedOutputStream(fos, crc), 1 << 16));
+                hasReferers = writeBody(snapshot, out);
+                out.flush();
+            } finally {
+                fos.close();
+            }
+            writeHeader(tmp, hasReferers, tmp.length() - HEADER_SIZE, crc.getValue());
+            Files.move(tmp.toPath(), indexFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+            done = true;
+        } finally {
+            if (!done) {
+                tmp.delete();
+            }
+        }
+    }
+
+    // Internals only below this point
+
+    private void writeHeader(File file, boolean hasReferers, long bodyLength,
+                             long crc) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.writeLong(MAGIC);
+            raf.writeInt(FORMAT_VERSION);
+            raf.writeLong(dumpLength);
+            raf.writeLong(dumpModified);
+            raf.writeInt(dumpNumber);
+            raf.writeByte(callStack? 1 : 0);
+            raf.writeByte(hasReferers? 1 : 0);
+            raf.writeLong(bodyLength);
+            raf.writeLong(crc);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static boolean writeBody(Snapshot snapshot, Output out)
+            throws IOException {
+        ReadBuffer dump = snapshot.getReadBuffer();
+        int idSize = snapshot.getIdentifierSize();
+        out.writeInt(idSize);
+        out.writeBoolean(snapshot.isNewStyleArrayClass());
+        out.writeBoolean(snapshot.getUnresolvedObjectsOK());
+
+        int objectCount = snapshot.getParsedObjectCount();
+        out.writeInt(objectCount);
+        for (int i = 0; i < objectCount; i++) {
+            JavaHeapObject ho = snapshot.getHeapObject(i);
+            if (ho instanceof JavaClass) {
+                out.writeByte(CLASS);
+                out.writeLong(ho.getId());
+                writeClass(out, (JavaClass) ho);
+            } else if (ho instanceof JavaObject) {
+                JavaObject obj = (JavaObject) ho;
+                out.writeByte(INSTANCE);
+                out.writeLong(obj.getId());
+                out.writeLong(obj.getOffset());
+                out.writeLong(obj.getClazz().getId());
+            } else if (ho instanceof JavaObjectArray) {
+                // The array class may be made up, so take the element
+                // class id from the dump
+                JavaObjectArray arr = (JavaObjectArray) ho;
+                long offset = arr.getOffset() + idSize + 8;
+                out.writeByte(OBJECT_ARRAY);
+                out.writeLong(arr.getId());
+                out.writeLong(arr.getOffset());
+                out.writeLong((idSize == 4)?
+                              (dump.getInt(offset) & Snapshot.SMALL_ID_MASK)
+                              : dump.getLong(offset));
+            } else if (ho instanceof JavaValueArray) {
+                JavaValueArray arr = (JavaValueArray) ho;
+                out.writeByte(VALUE_ARRAY);
+                out.writeLong(arr.getId());
+                out.writeLong(arr.getOffset());
+                out.writeByte(arr.getElementType());
+            } else {
+                throw new IOException("Cannot index " + ho);
+            }
+        }
+
+        int rootCount = snapshot.getParsedRootCount();
+        Map<StackTrace, Integer> traces = new IdentityHashMap<StackTrace, Integer>();
+        for (int i = 0; i < rootCount; i++) {
+            StackTrace trace = snapshot.getRootAt(i).getStackTrace();
+            if (trace != null && !traces.containsKey(trace)) {
+                traces.put(trace, Integer.valueOf(traces.size()));
+            }
+        }
+        StackTrace[] byIndex = new StackTrace[traces.size()];
+        for (Map.Entry<StackTrace, Integer> e : traces.entrySet()) {
+            byIndex[e.getValue().intValue()] = e.getKey();
+        }
+        out.writeInt(byIndex.length);
+        for (StackTrace trace : byIndex) {
+            StackFrame[] frames = trace.getFrames();
+            out.writeInt(frames.length);
+            for (StackFrame f : frames) {
+                out.writeString(f.getMethodName());
+                out.writeString(f.getMethodSignature());
+                out.writeString(f.getClassName());
+                out.writeString(f.getSourceFileName());
+                out.writeInt(f.getLineNumberValue());
+            }
+        }
+        out.writeInt(rootCount);
+        for (int i = 0; i < rootCount; i++) {
+            Root r = snapshot.getRootAt(i);
+            out.writeLong(r.getId());
+            out.writeLong(r.getRefererId());
+            out.writeInt(r.getType());
+            out.writeString(r.getDescription());
+            StackTrace trace = r.getStackTrace();
+            out.writeInt((trace == null)? -1 : traces.get(trace).intValue());
+        }
+
+        IntGraph referers = snapshot.getReferersGraph();
+        out.writeBoolean(referers != null);
+        if (referers != null) {
+            int nodes = referers.getNodeCount();
+            out.writeInt(nodes + 1);
+            for (int n = 0; n <= nodes; n++) {
+                out.writeIntBuffered((n < nodes)? referers.getStart(n)
+                                                : referers.getEdgeCount());
+            }
+            out.flushInts();
+            int edges = referers.getEdgeCount();
+            out.writeInt(edges);
+            for (int e = 0; e < edges; e++) {
+                out.writeIntBuffered(referers.getEdge(e));
+            }
+            out.flushInts();
+        }
+        return referers != null;
+    }
+
+    private static void writeClass(Output out, JavaClass c) throws IOException {
+        out.writeString(c.getName());
+        out.writeLong(idOf(c.getSuperclass()));
+        out.writeLong(idOf(c.getLoader()));
+        out.writeLong(idOf(c.getSigners()));
+        out.writeLong(idOf(c.getProtectionDomain()));
+        out.writeInt(c.getDumpedInstanceSize());
+
+        JavaField[] fields = c.getFields();
+        out.writeInt(fields.length);
+        for (JavaField f : fields) {
+            out.writeString(f.getName());
+            out.writeByte(f.getSignature().charAt(0));
+        }
+
+        JavaStatic[] statics = c.getStatics();
+        out.writeInt(statics.length);
+        for (JavaStatic s : statics) {
+            JavaField f = s.getField();
+            char sig = f.getSignature().charAt(0);
+            out.writeString(f.getName());
+            out.writeByte(sig);
+            JavaThing value = s.getValue();
+            switch (sig) {
+                case 'Z': out.writeBoolean(((JavaBoolean) value).value); break;
+                case 'B': out.writeByte(((JavaByte) value).value); break;
+                case 'C': out.writeInt(((JavaChar) value).value); break;
+                case 'S': out.writeInt(((JavaShort) value).value); break;
+                case 'I': out.writeInt(((JavaInt) value).value); break;
+                case 'J': out.writeLong(((JavaLong) value).value); break;
+                case 'F': out.writeInt(Float.floatToRawIntBits(((JavaFloat) value).value)); break;
+                case 'D': out.writeLong(Double.doubleToRawLongBits(((JavaDouble) value).value)); break;
+                default:  out.writeLong(idOf(value)); break;
+            }
+        }
+    }
+
+    private static JavaClass readClass(Input in, long id) throws IOException {
+        String name = in.readString();
+        long superId = in.readLong();
+        long loaderId = in.readLong();
+        long signersId = in.readLong();
+        long protDomainId = in.readLong();
+        int instanceSize = in.readInt();
+
+        JavaField[] fields = new JavaField[in.readInt()];
+        for (int i = 0; i < fields.length; i++) {
+            String fieldName = in.readString();
+            fields[i] = new JavaField(fieldName, "" + (char) in.readByte());
+        }
+
+        JavaStatic[] statics = new JavaStatic[in.readInt()];
+        for (int i = 0; i < statics.length; i++) {
+            String fieldName = in.readString();
+            char sig = (char) in.readByte();
+            JavaThing value;
+            switch (sig) {
+                case 'Z': value = new JavaBoolean(in.readBoolean()); break;
+                case 'B': value = new JavaByte(in.readByte()); break;
+                case 'C': value = new JavaChar((char) in.readInt()); break;
+                case 'S': value = new JavaShort((short) in.readInt()); break;
+                case 'I': value = new JavaInt(in.readInt()); break;
+                case 'J': value = new JavaLong(in.readLong()); break;
+                case 'F': value = new JavaFloat(Float.intBitsToFloat(in.readInt())); break;
+                case 'D': value = new JavaDouble(Double.longBitsToDouble(in.readLong())); break;
+                default:  value = new JavaObjectRef(in.readLong()); break;
+            }
+            statics[i] = new JavaStatic(new JavaField(fieldName, "" + sig), value);
+        }
+        return new JavaClass(id, name, superId, loaderId, signersId,
+                             protDomainId, fields, statics, instanceSize);
+    }
+
+    // id of a resolved reference, 0 for null
+    private static long idOf(JavaThing thing) {
+        if (thing instanceof JavaHeapObject) {
+            return ((JavaHeapObject) thing).getId();
+        } else if (thing instanceof JavaObjectRef) {
+            return ((JavaObjectRef) thing).getId();
+        } else {
+            return 0;
+        }
+    }
+
+    //
+    // Writes the body of an index.  Long runs of ints go through
+    // writeIntBuffered() and flushInts(), which is a lot faster than
+    // writeInt().
+    //
+    private static class Output extends DataOutputStream {
+        private final ByteBuffer ints = ByteBuffer.allocate(1 << 16);
+
+        Output(OutputStream out) {
+            super(out);
+        }
+
+        void writeIntBuffered(int v) throws IOException {
+            if (!ints.hasRemaining()) {
+                flushInts();
+            }
+            ints.putInt(v);
+        }
+
+        void flushInts() throws IOException {
+            write(ints.array(), 0, ints.position());
+            ints.clear();
+        }
+
+        public void writeString(String s) throws IOException {
+            if (s == null) {
+                writeInt(-1);
+            } else {
+                byte[] bytes = s.getBytes(UTF8);
+                writeInt(bytes.length);
+                write(bytes, 0, bytes.length);
+            }
+        }
+    }
+
+    //
+    // Reads the body of an index in blocks, and checksums it on the way
+    //
+    private static class Input {
+        private static final int BLOCK_SIZE = 1 << 16;
+
+        private final ReadBuffer buf;
+        private final long end;
+        private long pos;
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private final ByteBuffer blockBuffer = ByteBuffer.wrap(block);
+        private final CRC32 crc = new CRC32();
+
+        Input(ReadBuffer buf, long start, long end) {
+            this.buf = buf;
+            this.pos = start;
+            this.end = end;
+            blockBuffer.limit(0);
+        }
+
+        // make at least n bytes available in blockBuffer
+        private void need(int n) throws IOException {
+            if (blockBuffer.remaining() >= n) {
+                return;
+            }
+            blockBuffer.compact();
+            int len = (int) Math.min(blockBuffer.remaining(), end - pos);
+            buf.get(pos, block, blockBuffer.position(), len);
+            crc.update(block, blockBuffer.position(), len);
+            pos += len;
+            blockBuffer.position(blockBuffer.position() + len);
+            blockBuffer.flip();
+            if (blockBuffer.remaining() < n) {
+                throw new EOFException("Index is truncated");
+            }
+        }
+
+        byte readByte() throws IOException {
+            need(1);
+            return blockBuffer.get();
+        }
+
+        boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        int readInt() throws IOException {
+            need(4);
+            return blockBuffer.getInt();
+        }
+
+        long readLong() throws IOException {
+            need(8);
+            return blockBuffer.getLong();
+        }
+
+        String readString() throws IOException {
+            int len = readInt();
+            if (len == -1) {
+                return null;
+            }
+            byte[] bytes = new byte[len];
+            int done = 0;
+            while (done < len) {
+                need(1);
+                int n = Math.min(len - done, blockBuffer.remaining());
+                blockBuffer.get(bytes, done, n);
+                done += n;
+            }
+            return new String(bytes, UTF8);
+        }
+
+        // a table of ints, preceded by its length
+        IntArray readInts(ArrayStore store) throws IOException {
+            int length = readInt();
+            if (store == ArrayStore.HEAP) {
+                int[] values = new int[length];
+                readInts(values);
+                return IntArray.wrap(values);
+            }
+            IntArray dst = store.newIntArray(length);
+            int done = 0;
+            while (done < length) {
+                need(4);
+                int n = Math.min(length - done, blockBuffer.remaining() / 4);
+                for (int i = 0; i < n; i++) {
+                    dst.set(done++, blockBuffer.getInt());
+                }
+            }
+            return dst;
+        }
+
+        void readInts(int[] dst) throws IOException {
+            int done = 0;
+            while (done < dst.length) {
+                need(4);
+                int n = Math.min(dst.length - done, blockBuffer.remaining() / 4);
+                blockBuffer.asIntBuffer().get(dst, done, n);
+                blockBuffer.position(blockBuffer.position() + 4 * n);
+                done += n;
+            }
+        }
+
+        boolean atEnd() {
+            return pos == end && !blockBuffer.hasRemaining();
+        }
+
+        long getChecksum() {
+            return crc.getValue();
+        }
+    }
+}
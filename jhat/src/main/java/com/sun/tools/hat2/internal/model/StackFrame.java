@@ -85,6 +85,10 @@ public class StackFrame {
         return sourceFileName;
     }
 
+    int getLineNumberValue() {
+        return lineNumber;
+    }
+
     public String getLineNumber() {
         switch(lineNumber) {
             case LINE_NUMBER_UNKNOWN:
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.model;
+
+
+import java.util.Arrays;
+
+/**
+ * An index of the instances of one class, not of its subclasses, by a
+ * value of theirs, such as a field of a primitive number type, or the
+ * text of a String.  It is two arrays sorted by value, the values and
+ * the numbers of the instances that have them, so the instances with a
+ * value, or with a value in a range, are found by binary search.  Text
+ * is kept by its hash code, and the instances found are checked.
+ *
+ * Whoever makes an index works out the values, as the doubles a query
+ * compares; Snapshot only keeps the indexes.  Instances whose value is
+ * NaN are left out, as nothing compares equal to or in a range with
+ * NaN.  A ValueIndex is immutable, and may be used by any number of
+ * threads.
+ */
+public class ValueIndex {
+
+    private final JavaClass clazz;
+    private final boolean text;
+    // in increasing order; the hash codes of the text of Strings
+    private final double[] values;
+    // the number of the instance with each value; those with the same
+    // value in increasing order
+    private final int[] instances;
+
+    /**
+     * @param values the value of each instance of clazz, in the order of
+     *               getInstance(), or for an index of text the hash code
+     *               of the text of each String
+     * @param text whether clazz is java.lang.String, indexed by text
+     */
+    public ValueIndex(JavaClass clazz, double[] values, boolean text) {
+        if (text && !clazz.isString()) {
+            throw new IllegalArgumentException("not java.lang.String: "
+                                               + clazz.getName());
+        }
+        this.clazz = clazz;
+        this.text = text;
+
+        // Sort the instances by value: give each value its rank among
+        // the distinct values, and sort rank and instance as one long.
+        int count = values.length;
+        double[] distinct = new double[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (!Double.isNaN(values[i])) {
+                distinct[n++] = values[i];
+            }
+        }
+        Arrays.parallelSort(distinct, 0, n);
+        int d = 0;
+        for (int i = 0; i < n; i++) {
+            if (d == 0 || Double.compare(distinct[d - 1], distinct[i]) != 0) {
+                distinct[d++] = distinct[i];
+            }
+        }
+        distinct = Arrays.copyOf(distinct, d);
+        long[] ranked = new long[n];
+        int r = 0;
+        for (int i = 0; i < count; i++) {
+            if (!Double.isNaN(values[i])) {
+                long rank = Arrays.binarySearch(distinct, values[i]);
+                ranked[r++] = (rank << 32) | i;
+            }
+        }
+        Arrays.parallelSort(ranked);
+        this.values = new double[n];
+        this.instances = new int[n];
+        for (int i = 0; i < n; i++) {
+            instances[i] = (int) ranked[i];
+            this.values[i] = values[instances[i]];
+        }
+    }
+
+    public JavaClass getClazz() {
+        return clazz;
+    }
+
+    /**
+     * @return the number of instances in the index
+     */
+    public int size() {
+        return instances.length;
+    }
+
+    /**
+     * @return the numbers of the instances whose value is in the given
+     *         range, in increasing order, for getInstance() of the class
+     */
+    public int[] find(double low, boolean includeLow, double high,
+                      boolean includeHigh) {
+        if (text) {
+            throw new IllegalStateException("index of text");
+        }
+        int from = includeLow? lowerBound(low) : upperBound(low);
+        int to = includeHigh? upperBound(high) : lowerBound(high);
+        if (from >= to) {
+            return new int[0];
+        }
+        int[] result = Arrays.copyOfRange(instances, from, to);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * @return the numbers of the Strings with the given text, in
+     *         increasing order, for getInstance() of the class
+     */
+    public int[] find(String s) {
+        if (!text) {
+            throw new IllegalStateException("index of numbers");
+        }
+        double hash = s.hashCode();
+        int from = lowerBound(hash);
+        int to = upperBound(hash);
+        int[] result = new int[to - from];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (clazz.getInstance(instances[i]).toString().equals(s)) {
+                result[n++] = instances[i];
+            }
+        }
+        // the same hash code keeps the instances in order
+        return Arrays.copyOf(result, n);
+    }
+
+    // Internals only below this point
+
+    // the first position whose value is not below v
+    private int lowerBound(double v) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < v) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // the first position whose value is above v
+    private int upperBound(double v) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] <= v) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
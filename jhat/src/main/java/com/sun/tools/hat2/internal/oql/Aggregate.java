@@ -0,0 +1,478 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.oql;
+
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+import com.sun.tools.hat2.internal.model.*;
+
+/**
+ * One of the hat.js aggregates count, length, sum, min, max, top and
+ * countBy, over the instances heap.objects() gives.  The script would
+ * wrap each instance and pass it through the enumerations of
+ * heap.objects(), filter() and map(); here the instances are folded
+ * straight into primitive accumulators, and only the result becomes a
+ * value.
+ *
+ * The instances are folded in ranges, on the threads of the query if it
+ * has them, and the ranges are put together in the order of the
+ * instances.  So a sum adds up the same doubles in the same order as the
+ * script, and min, max and top keep the same one of equal elements.
+ *
+ * top gives its elements as a List and countBy its counts as a
+ * LinkedHashMap, which stand for the array and object the script gives.
+ */
+class Aggregate extends Expr {
+
+    enum Kind {
+        COUNT,          // also length()
+        SUM, MIN, MAX, TOP, COUNT_BY
+    }
+
+    /**
+     * What the aggregates of a query run with: the snapshot when they
+     * are parsed, and the control and threads of the query when it runs.
+     */
+    static class Context {
+        final Snapshot snapshot;
+        private QueryControl control;
+        private ForkJoinPool pool;
+
+        Context(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * @param pool the threads to fold ranges on, or null
+         */
+        void bind(QueryControl control, ForkJoinPool pool) {
+            this.control = control;
+            this.pool = pool;
+        }
+    }
+
+    /**
+     * The elements an aggregate goes through: the instances of some
+     * classes that the filter takes, or what map gives for them.
+     */
+    static class Source {
+        final JavaClass[] classes;
+        final JavaClass clazz;                      // or null
+        final Predicate<JavaHeapObject> filter;     // or null
+        final Expr map;                             // or null
+
+        Source(JavaClass clazz, boolean includeSubtypes) {
+            this(clazz, (clazz == null)? new JavaClass[0]
+                                       : clazz.getInstanceClasses(includeSubtypes),
+                 null, null);
+        }
+
+        private Source(JavaClass clazz, JavaClass[] classes,
+                       Predicate<JavaHeapObject> filter, Expr map) {
+            this.clazz = clazz;
+            this.classes = classes;
+            this.filter = filter;
+            this.map = map;
+        }
+
+        Source filter(final Predicate<JavaHeapObject> test) {
+            final Predicate<JavaHeapObject> previous = filter;
+            return new Source(clazz, classes,
+                              (previous == null)? test
+                                  : it -> previous.test(it) && test.test(it),
+                              null);
+        }
+
+        Source map(Expr map) {
+            return new Source(clazz, classes, filter, map);
+        }
+    }
+
+    // top's order: larger values first, then earlier elements
+    private static final Comparator<Ranked> RANK = (a, b) -> {
+        if (a.value != b.value) {
+            return (a.value > b.value)? -1 : 1;
+        }
+        return Long.compare(a.position, b.position);
+    };
+
+    final Kind kind;
+    private final Context context;
+    private final Source source;
+    private final Expr code;        // or null
+    private final int limit;        // of top
+
+    /**
+     * @param code what count tests, sum adds up, top ranks or countBy
+     *        groups by for each instance; null if the aggregate has none
+     */
+    Aggregate(Kind kind, Context context, Source source, Expr code, int limit) {
+        super(typeOf(kind));
+        this.kind = kind;
+        this.context = context;
+        this.source = source;
+        this.code = code;
+        this.limit = limit;
+    }
+
+    private static Type typeOf(Kind kind) {
+        switch (kind) {
+            case COUNT:
+            case SUM:
+                return Type.NUMBER;
+            case TOP:
+            case COUNT_BY:
+                // not heap objects, but no more to be compared or added
+                return Type.OBJECT;
+            default:
+                return Type.ANY;
+        }
+    }
+
+    // The lambdas of the elements are compiled once, and the instances
+    // looked at again each time the aggregate is.
+    Function<JavaHeapObject, Object> compileValue() {
+        switch (kind) {
+            case COUNT: {
+                final Predicate<JavaHeapObject> test = tests();
+                return it -> Double.valueOf(count(test));
+            }
+            case SUM: {
+                final ToDoubleFunction<JavaHeapObject> number = numbers();
+                return it -> sum(number);
+            }
+            case MIN:
+            case MAX: {
+                final Function<JavaHeapObject, Object> element = elements();
+                return it -> extreme(element);
+            }
+            case TOP: {
+                final Function<JavaHeapObject, Object> element = elements();
+                final ToDoubleFunction<JavaHeapObject> number = numbers();
+                return it -> top(element, number);
+            }
+            default: {
+                final Function<JavaHeapObject, Object> key = code.compileValue();
+                return it -> countBy(key);
+            }
+        }
+    }
+
+    // what count counts, besides the filter; null for all
+    private Predicate<JavaHeapObject> tests() {
+        if (code != null) {
+            return code.compileTest();
+        } else if (source.map != null) {
+            // the script works out each mapped value, and may fail
+            final Function<JavaHeapObject, Object> map = source.map.compileValue();
+            return it -> {
+                map.apply(it);
+                return true;
+            };
+        } else {
+            return null;
+        }
+    }
+
+    // the value of each element
+    private Function<JavaHeapObject, Object> elements() {
+        return (source.map != null)? source.map.compileValue() : it -> it;
+    }
+
+    // the number of each element, or of code for it
+    private ToDoubleFunction<JavaHeapObject> numbers() {
+        if (code != null) {
+            return code.compileNumber();
+        } else if (source.map != null) {
+            return source.map.compileNumber();
+        } else {
+            // Number() of a heap object
+            return it -> Double.NaN;
+        }
+    }
+
+    private <P> void scan(InstanceScan.Folder<P> folder, boolean ordered,
+                          InstanceScan.PartVisitor<P> visitor) {
+        InstanceScan<P> scan = new InstanceScan<P>(source.classes, context.control,
+                                                   folder);
+        ForkJoinPool pool = (scan.getRangeCount() > 1)? context.pool : null;
+        try {
+            scan.run(pool, ordered, visitor);
+        } catch (OQLException exp) {
+            throw new InstanceScan.Stopped(exp);
+        }
+    }
+
+    private long count(final Predicate<JavaHeapObject> test) {
+        final Predicate<JavaHeapObject> filter = source.filter;
+        final long[] total = new long[1];
+        scan(new InstanceScan.Folder<long[]>() {
+            public long[] newPart(int range) {
+                return new long[1];
+            }
+
+            public void add(long[] count, JavaHeapObject obj) {
+                if ((filter == null || filter.test(obj))
+                        && (test == null || test.test(obj))) {
+                    count[0]++;
+                }
+            }
+        }, false, count -> {
+            total[0] += count[0];
+            return false;
+        });
+        return total[0];
+    }
+
+    private Object sum(final ToDoubleFunction<JavaHeapObject> number) {
+        final Predicate<JavaHeapObject> filter = source.filter;
+        // the script adds up Number(element) from 0, one at a time
+        final double[] total = new double[1];
+        final boolean[] any = new boolean[1];
+        scan(new InstanceScan.Folder<Numbers>() {
+            public Numbers newPart(int range) {
+                return new Numbers();
+            }
+
+            public void add(Numbers numbers, JavaHeapObject obj) {
+                if (filter == null || filter.test(obj)) {
+                    numbers.add(number.applyAsDouble(obj));
+                }
+            }
+        }, true, numbers -> {
+            for (int i = 0; i < numbers.size; i++) {
+                total[0] += numbers.values[i];
+            }
+            any[0] |= numbers.size > 0;
+            return false;
+        });
+        return any[0]? (Object) Double.valueOf(total[0]) : (Object) Integer.valueOf(0);
+    }
+
+    // The script's min and max keep the first element, and then each
+    // element that compares below or above the one kept.  Nothing
+    // compares with NaN, so an extreme of a range is looked for among
+    // the others, and a NaN first element is kept to the end.
+    private Object extreme(final Function<JavaHeapObject, Object> element) {
+        final Predicate<JavaHeapObject> filter = source.filter;
+        final boolean numeric = source.map.type == Type.NUMBER;
+        final Extreme total = new Extreme();
+        scan(new InstanceScan.Folder<Extreme>() {
+            public Extreme newPart(int range) {
+                return new Extreme();
+            }
+
+            public void add(Extreme part, JavaHeapObject obj) {
+                if (filter == null || filter.test(obj)) {
+                    Object value = element.apply(obj);
+                    double key = numeric? Values.toNumber(value) : 0;
+                    if (!part.any) {
+                        part.any = true;
+                        part.first = value;
+                        part.firstKey = key;
+                    }
+                    if ((!numeric || !Double.isNaN(key))
+                            && (!part.hasBest
+                                || isBetter(value, key, part.best, part.bestKey))) {
+                        part.hasBest = true;
+                        part.best = value;
+                        part.bestKey = key;
+                    }
+                }
+            }
+        }, true, part -> {
+            if (!part.any) {
+                return false;
+            }
+            if (!total.any) {
+                total.any = true;
+                total.first = part.first;
+                total.firstKey = part.firstKey;
+            }
+            if (part.hasBest
+                    && isBetter(part.best, part.bestKey, total.first, total.firstKey)) {
+                total.first = part.best;
+                total.firstKey = part.bestKey;
+            }
+            return false;
+        });
+        return total.any? total.first : Values.UNDEFINED;
+    }
+
+    private boolean isBetter(Object value, double key, Object kept, double keptKey) {
+        if (source.map.type == Type.NUMBER) {
+            return (kind == Kind.MAX)? key > keptKey : key < keptKey;
+        }
+        int c = ((String) value).compareTo((String) kept);
+        return (kind == Kind.MAX)? c > 0 : c < 0;
+    }
+
+    private Object top(final Function<JavaHeapObject, Object> element,
+                       final ToDoubleFunction<JavaHeapObject> number) {
+        final Predicate<JavaHeapObject> filter = source.filter;
+        final PriorityQueue<Ranked> total = new PriorityQueue<Ranked>(RANK.reversed());
+        scan(new InstanceScan.Folder<Ranks>() {
+            public Ranks newPart(int range) {
+                return new Ranks((long) range * InstanceScan.RANGE_SIZE);
+            }
+
+            public void add(Ranks part, JavaHeapObject obj) {
+                long position = part.position++;
+                if (filter == null || filter.test(obj)) {
+                    double value = number.applyAsDouble(obj);
+                    if (!Double.isNaN(value)) {
+                        keep(part.ranked, new Ranked(value, position, element, obj));
+                    }
+                }
+            }
+        }, false, part -> {
+            for (Ranked r : part.ranked) {
+                keep(total, r);
+            }
+            return false;
+        });
+        List<Ranked> ranked = new ArrayList<Ranked>(total);
+        ranked.sort(RANK);
+        List<Object> result = new ArrayList<Object>(ranked.size());
+        for (Ranked r : ranked) {
+            result.add(r.element);
+        }
+        return result;
+    }
+
+    // keeps the limit best of queue, the worst first
+    private void keep(PriorityQueue<Ranked> queue, Ranked r) {
+        queue.add(r);
+        if (queue.size() > limit) {
+            queue.poll();
+        }
+    }
+
+    private Object countBy(final Function<JavaHeapObject, Object> key) {
+        final Predicate<JavaHeapObject> filter = source.filter;
+        final Map<String, long[]> total = new LinkedHashMap<String, long[]>();
+        scan(new InstanceScan.Folder<Map<String, long[]>>() {
+            public Map<String, long[]> newPart(int range) {
+                return new LinkedHashMap<String, long[]>();
+            }
+
+            public void add(Map<String, long[]> counts, JavaHeapObject obj) {
+                if (filter == null || filter.test(obj)) {
+                    // String() of a wrapper is what its toString() gives
+                    Object value = key.apply(obj);
+                    String k = (value instanceof JavaHeapObject)? Values.callToString(value)
+                                                                : Values.toString(value);
+                    long[] count = counts.get(k);
+                    if (count == null) {
+                        counts.put(k, new long[] { 1 });
+                    } else {
+                        count[0]++;
+                    }
+                }
+            }
+        }, true, counts -> {
+            for (Map.Entry<String, long[]> e : counts.entrySet()) {
+                long[] count = total.get(e.getKey());
+                if (count == null) {
+                    total.put(e.getKey(), e.getValue());
+                } else {
+                    count[0] += e.getValue()[0];
+                }
+            }
+            return false;
+        });
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, long[]> e : total.entrySet()) {
+            long count = e.getValue()[0];
+            result.put(e.getKey(), (count == (int) count)? (Object) Integer.valueOf((int) count)
+                                                         : (Object) Double.valueOf(count));
+        }
+        return Values.scriptObject(result);
+    }
+
+    // the numbers of a range, in order
+    private static class Numbers {
+        double[] values = new double[64];
+        int size;
+
+        void add(double value) {
+            if (size == values.length) {
+                double[] tmp = new double[size * 2];
+                System.arraycopy(values, 0, tmp, 0, size);
+                values = tmp;
+            }
+            values[size++] = value;
+        }
+    }
+
+    private static class Extreme {
+        boolean any;
+        Object first;
+        double firstKey;
+        boolean hasBest;
+        Object best;
+        double bestKey;
+    }
+
+    private static class Ranked {
+        final double value;
+        final long position;
+        final Object element;
+
+        Ranked(double value, long position,
+               Function<JavaHeapObject, Object> element, JavaHeapObject obj) {
+            this.value = value;
+            this.position = position;
+            this.element = element.apply(obj);
+        }
+    }
+
+    private static class Ranks {
+        final PriorityQueue<Ranked> ranked = new PriorityQueue<Ranked>(RANK.reversed());
+        long position;
+
+        Ranks(long position) {
+            this.position = position;
+        }
+    }
+}
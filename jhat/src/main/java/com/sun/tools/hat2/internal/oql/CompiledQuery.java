@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.oql;
+
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+import com.sun.tools.hat2.internal.model.*;
+
+/**
+ * An OQL query whose select and where expressions are compiled to
+ * lambdas, so that it runs without the script engine.  Only queries that
+ * ExprParser takes can be compiled; they give the same results the
+ * script would.
+ *
+ * The lambdas keep no state, so the instances of a large class can be
+ * looked at on several threads.  Aggregates over heap.objects() in a
+ * query without a from clause use the threads themselves.
+ *
+ * If the where clause needs a field of a primitive number type to equal
+ * a number or be in a range, or a String to have some text, the
+ * instances of a large class are found with the snapshot's ValueIndex
+ * rather than by looking at them all.  The whole where clause is still
+ * tested on the instances found, which come in the usual order.
+ */
+class CompiledQuery {
+
+    private final JavaClass clazz;
+    private final boolean isInstanceOf;
+    private final Function<JavaHeapObject, Object> select;
+    private final Predicate<JavaHeapObject> where;
+    // how long a query waits for another to build an index between
+    // checks of its own limits
+    private static final long WAIT_MILLIS = 100;
+    // roughly what building an index costs for each instance, as
+    // measured on one core
+    private static final long NUMBER_BUILD_NANOS = 1000;
+    private static final long TEXT_BUILD_NANOS = 10000;
+
+    private final Aggregate.Context context;
+    // instances to look at, if an index can find them, or null
+    private final Lookup lookup;
+
+    private CompiledQuery(JavaClass clazz, boolean isInstanceOf,
+                          Function<JavaHeapObject, Object> select,
+                          Predicate<JavaHeapObject> where,
+                          Aggregate.Context context, Lookup lookup) {
+        this.clazz = clazz;
+        this.isInstanceOf = isInstanceOf;
+        this.select = select;
+        this.where = where;
+        this.context = context;
+        this.lookup = lookup;
+    }
+
+    /**
+     * @param clazz the class of the from clause, or null if there is none
+     * @throws ExprParser.Unsupported if the query is left to the script
+     */
+    static CompiledQuery compile(OQLQuery q, JavaClass clazz, Snapshot snapshot)
+            throws ExprParser.Unsupported {
+        Aggregate.Context context = new Aggregate.Context(snapshot);
+        Expr selectExpr = new ExprParser(q.selectExpr, q.identifier, clazz,
+                                         context).parse();
+        Predicate<JavaHeapObject> where = null;
+        Lookup lookup = null;
+        if (q.whereExpr != null) {
+            Expr whereExpr = new ExprParser(q.whereExpr, q.identifier, clazz,
+                                            context).parse();
+            if (clazz != null) {
+                lookup = Lookup.plan(whereExpr, clazz);
+            }
+            if (whereExpr.type == Expr.Type.BOOLEAN) {
+                where = whereExpr.compileTest();
+            } else {
+                // OQLEngine's test of the result, not JavaScript's
+                final Function<JavaHeapObject, Object> value = whereExpr.compileValue();
+                where = it -> Values.isSelected(value.apply(it));
+            }
+        }
+        return new CompiledQuery(clazz, q.isInstanceOf, selectExpr.compileValue(),
+                                 where, context, lookup);
+    }
+
+    /**
+     * @param pool the threads to scan a large class with, or null
+     */
+    void execute(ObjectVisitor visitor, QueryControl control, ForkJoinPool pool)
+            throws OQLException {
+        if (pool != null && pool.getParallelism() <= 1) {
+            pool = null;
+        }
+        // The aggregates of a query with a from clause run on the thread
+        // that looks at the object, which may be one of the pool's.
+        context.bind(control, (clazz == null)? pool : null);
+        try {
+            control.start();
+            if (clazz == null) {
+                Object value = result(select.apply(null));
+                control.row();
+                visitor.visit(value);
+                return;
+            }
+            if (lookup != null) {
+                scanFound(visitor, control, pool);
+                return;
+            }
+            if (pool != null
+                    && clazz.getInstancesCount(isInstanceOf) >= 2 * InstanceScan.RANGE_SIZE) {
+                scanInParallel(clazz.getInstanceClasses(isInstanceOf), visitor, control, pool);
+                return;
+            }
+            Enumeration objects = clazz.getInstances(isInstanceOf);
+            while (objects.hasMoreElements()) {
+                JavaHeapObject obj = (JavaHeapObject) objects.nextElement();
+                control.scan();
+                if (where == null || where.test(obj)) {
+                    if (control.row() || visitor.visit(result(select.apply(obj)))) {
+                        return;
+                    }
+                }
+            }
+        } catch (InstanceScan.Stopped exp) {
+            throw exp.exception;
+        } catch (RuntimeException exp) {
+            throw new OQLException(exp);
+        }
+    }
+
+    // Looks at the instances of classes in ranges, each one a task of
+    // the pool.  The caller visits the results of each range once it is
+    // done: in the order of the instances, or in the order the ranges
+    // are done if the control lets it.  Returns true if the visitor or
+    // the control stopped the query.
+    private boolean scanInParallel(JavaClass[] classes, final ObjectVisitor visitor,
+                                   final QueryControl control, ForkJoinPool pool)
+            throws OQLException {
+        final boolean[] stopped = new boolean[1];
+        InstanceScan<List<Object>> scan = new InstanceScan<List<Object>>(
+            classes, control,
+            new InstanceScan.Folder<List<Object>>() {
+                public List<Object> newPart(int range) {
+                    return new ArrayList<Object>();
+                }
+
+                public void add(List<Object> results, JavaHeapObject obj) {
+                    if (where == null || where.test(obj)) {
+                        results.add(result(select.apply(obj)));
+                    }
+                }
+            });
+        scan.run(pool, control.isOrdered(), results -> {
+            for (Object value : results) {
+                if (control.row() || visitor.visit(value)) {
+                    stopped[0] = true;
+                    return true;
+                }
+            }
+            return false;
+        });
+        return stopped[0];
+    }
+
+    // Looks at the instances the lookup finds in each class large enough
+    // to be worth an index, and at all the instances of the others: on
+    // the threads of the pool for a large class whose index could not
+    // be had.
+    private void scanFound(ObjectVisitor visitor, QueryControl control,
+                           ForkJoinPool pool) throws OQLException {
+        for (JavaClass c : clazz.getInstanceClasses(isInstanceOf)) {
+            int count = c.getInstancesCount(false);
+            ValueIndex index = (count >= InstanceScan.RANGE_SIZE)?
+                                   getIndex(c, control, pool) : null;
+            if (index == null && pool != null && count >= 2 * InstanceScan.RANGE_SIZE) {
+                if (scanInParallel(new JavaClass[] { c }, visitor, control, pool)) {
+                    return;
+                }
+                continue;
+            }
+            int[] found = (index == null)? null : lookup.find(index);
+            int n = (found == null)? count : found.length;
+            for (int i = 0; i < n; i++) {
+                JavaHeapObject obj = c.getInstance((found == null)? i : found[i]);
+                control.scan();
+                if (where.test(obj)) {
+                    if (control.row() || visitor.visit(result(select.apply(obj)))) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // The index of the instances of c the lookup needs, or null to look
+    // at all of them.  The first query to need an index builds it, and
+    // the others wait for it.  One that fails to build it throws, but
+    // the others just go without.
+    private ValueIndex getIndex(final JavaClass c, final QueryControl control,
+                                final ForkJoinPool pool) throws OQLException {
+        Snapshot snapshot = context.snapshot;
+        FutureTask<ValueIndex> task = snapshot.getValueIndexTask(c, lookup.field);
+        if (task == null) {
+            if (!mayBuildIndex(c, control)) {
+                return null;
+            }
+            FutureTask<ValueIndex> mine = new FutureTask<ValueIndex>(
+                () -> buildIndex(c, control, pool));
+            task = snapshot.putValueIndexTask(c, lookup.field, mine);
+            if (task == mine) {
+                mine.run();
+                try {
+                    return mine.get();
+                } catch (ExecutionException exp) {
+                    snapshot.removeValueIndexTask(c, lookup.field, mine);
+                    Throwable cause = exp.getCause();
+                    if (cause instanceof OQLException) {
+                        throw (OQLException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new OQLException(cause);
+                } catch (InterruptedException exp) {
+                    throw new OQLException(exp);
+                }
+            }
+        }
+        for (;;) {
+            try {
+                return task.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException exp) {
+                control.check();
+            } catch (ExecutionException exp) {
+                return null;
+            } catch (InterruptedException exp) {
+                throw new OQLException(exp);
+            }
+        }
+    }
+
+    // A build looks at each instance once, as a scan would, and so is
+    // left out if the query may not look at all of them or could not
+    // in the time it has left.
+    private boolean mayBuildIndex(JavaClass c, QueryControl control) {
+        long count = c.getInstancesCount(false);
+        long nanosEach = (lookup.field == -1)? TEXT_BUILD_NANOS : NUMBER_BUILD_NANOS;
+        return count <= control.remainingObjects()
+            && count <= control.remainingNanos() / nanosEach;
+    }
+
+    // Works out the value of each instance of c on the threads of the
+    // pool, in ranges, checking the query's limits between them.
+    private ValueIndex buildIndex(JavaClass c, QueryControl control,
+                                  ForkJoinPool pool) throws OQLException {
+        final double[] values = new double[c.getInstancesCount(false)];
+        final ToDoubleFunction<JavaHeapObject> value = lookup.value;
+        InstanceScan<int[]> scan = new InstanceScan<int[]>(
+            new JavaClass[] { c }, control,
+            new InstanceScan.Folder<int[]>() {
+                // the position of the next instance of the range
+                public int[] newPart(int range) {
+                    return new int[] { range * InstanceScan.RANGE_SIZE };
+                }
+
+                public void add(int[] position, JavaHeapObject obj) {
+                    values[position[0]++] = value.applyAsDouble(obj);
+                }
+            });
+        scan.run((scan.getRangeCount() > 1)? pool : null, false, position -> false);
+        return new ValueIndex(c, values, lookup.field == -1);
+    }
+
+    // A term of the where clause that an index answers: a number field
+    // equal to a number or in a range, or the text of a String.  Every
+    // instance the query selects passes it.
+    private static class Lookup {
+        // the field, or -1 for the text of a String
+        final int field;
+        final String text;
+        // what the index is by: the field, or the hash code of the text
+        final ToDoubleFunction<JavaHeapObject> value;
+        double low = Double.NEGATIVE_INFINITY;
+        boolean includeLow = true;
+        double high = Double.POSITIVE_INFINITY;
+        boolean includeHigh = true;
+
+        private Lookup(int field, String text,
+                       ToDoubleFunction<JavaHeapObject> value) {
+            this.field = field;
+            this.text = text;
+            this.value = value;
+        }
+
+        int[] find(ValueIndex index) {
+            if (field == -1) {
+                return index.find(text);
+            }
+            return index.find(low, includeLow, high, includeHigh);
+        }
+
+        // The terms of a chain of && must all be true for an instance
+        // to be selected: && gives its left operand if that is false.
+        // Of the terms an index can answer, text is taken first, then
+        // a field that must equal a number, then a range.
+        static Lookup plan(Expr where, JavaClass clazz) {
+            List<Expr> terms = new ArrayList<Expr>();
+            addTerms(where, terms);
+            Lookup best = null;
+            for (Expr term : terms) {
+                Lookup l = of(term, clazz);
+                if (l == null) {
+                    continue;
+                }
+                if (best != null && best.field == l.field && l.field != -1) {
+                    best.restrict(l);
+                } else if (best == null || l.rank() > best.rank()) {
+                    best = l;
+                }
+            }
+            return best;
+        }
+
+        private static void addTerms(Expr e, List<Expr> terms) {
+            if (e instanceof Expr.Logical && ((Expr.Logical) e).and) {
+                addTerms(((Expr.Logical) e).left, terms);
+                addTerms(((Expr.Logical) e).right, terms);
+            } else {
+                terms.add(e);
+            }
+        }
+
+        private static Lookup of(Expr term, JavaClass clazz) {
+            Expr left;
+            Expr right;
+            String op;
+            if (term instanceof Expr.Equality && !((Expr.Equality) term).negated) {
+                left = ((Expr.Equality) term).left;
+                right = ((Expr.Equality) term).right;
+                op = "==";
+            } else if (term instanceof Expr.Relational) {
+                left = ((Expr.Relational) term).left;
+                right = ((Expr.Relational) term).right;
+                op = ((Expr.Relational) term).op;
+            } else {
+                return null;
+            }
+            if (left instanceof Expr.Literal) {
+                Expr e = left;
+                left = right;
+                right = e;
+                op = op.replace('<', '#').replace('>', '<').replace('#', '>');
+            }
+            if (!(right instanceof Expr.Literal)) {
+                return null;
+            }
+            Object value = ((Expr.Literal) right).value;
+            if (op.equals("==") && clazz.isString() && value instanceof String
+                    && left instanceof Expr.Call
+                    && ((Expr.Call) left).function.equals("toString")
+                    && ((Expr.Call) left).args[0] instanceof Expr.Variable) {
+                return new Lookup(-1, (String) value,
+                                  it -> it.toString().hashCode());
+            }
+            if (!(left instanceof Expr.Field) || !(value instanceof Number)
+                    || "SIJFD".indexOf(((Expr.Field) left).signature) == -1) {
+                return null;
+            }
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d)) {
+                return null;
+            }
+            Lookup l = new Lookup(((Expr.Field) left).index, null,
+                                  left.compileNumber());
+            if (!op.startsWith(">")) {
+                l.high = d;
+                l.includeHigh = !op.equals("<");
+            }
+            if (!op.startsWith("<")) {
+                l.low = d;
+                l.includeLow = !op.equals(">");
+            }
+            return l;
+        }
+
+        private void restrict(Lookup other) {
+            if (other.low > low || (other.low == low && !other.includeLow)) {
+                low = other.low;
+                includeLow = other.includeLow;
+            }
+            if (other.high < high || (other.high == high && !other.includeHigh)) {
+                high = other.high;
+                includeHigh = other.includeHigh;
+            }
+        }
+
+        private int rank() {
+            if (field == -1) {
+                return 3;
+            } else if (low == high) {
+                return 2;
+            } else if (low != Double.NEGATIVE_INFINITY
+                       && high != Double.POSITIVE_INFINITY) {
+                return 1;
+            }
+            return 0;
+        }
+    }
+
+    // undefined reaches Java from the script engine as null
+    private static Object result(Object value) {
+        return (value == Values.UNDEFINED)? null : value;
+    }
+}
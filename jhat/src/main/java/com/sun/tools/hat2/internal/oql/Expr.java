@@ -0,0 +1,503 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.oql;
+
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+import com.sun.tools.hat2.internal.model.*;
+
+/**
+ * A node of the typed syntax tree of an OQL expression that is compiled
+ * rather than given to the script engine.  ExprParser builds the tree
+ * and works out the type of each node.  Each node then compiles itself
+ * into a lambda over the object the query is looking at, which is null
+ * for a query without a from clause.
+ *
+ * A node compiles to a value, as Values describes it.  A node of type
+ * NUMBER also compiles to a double, and any node to a test of
+ * JavaScript's truth, so that comparisons of fields need not box.
+ */
+abstract class Expr {
+
+    enum Type {
+        NUMBER, STRING, BOOLEAN,
+        OBJECT,         // a heap object, or null
+        ANY
+    }
+
+    final Type type;
+
+    Expr(Type type) {
+        this.type = type;
+    }
+
+    abstract Function<JavaHeapObject, Object> compileValue();
+
+    ToDoubleFunction<JavaHeapObject> compileNumber() {
+        final Function<JavaHeapObject, Object> value = compileValue();
+        return it -> Values.toNumber(value.apply(it));
+    }
+
+    Predicate<JavaHeapObject> compileTest() {
+        final Function<JavaHeapObject, Object> value = compileValue();
+        return it -> Values.toBoolean(value.apply(it));
+    }
+
+    static Type typeOf(Object value) {
+        if (value instanceof Number) {
+            return Type.NUMBER;
+        } else if (value instanceof String) {
+            return Type.STRING;
+        } else if (value instanceof Boolean) {
+            return Type.BOOLEAN;
+        } else {
+            return Type.ANY;
+        }
+    }
+
+    static class Literal extends Expr {
+        final Object value;
+
+        Literal(Object value) {
+            super(typeOf(value));
+            this.value = value;
+        }
+
+        Function<JavaHeapObject, Object> compileValue() {
+            final Object v = value;
+            return it -> v;
+        }
+
+        ToDoubleFunction<JavaHeapObject> compileNumber() {
+            final double d = Values.toNumber(value);
+            return it -> d;
+        }
+
+        Predicate<JavaHeapObject> compileTest() {
+            final boolean b = Values.toBoolean(value);
+            return it -> b;
+        }
+    }
+
+    // the identifier of the from clause
+    static class Variable extends Expr {
+        Variable() {
+            super(Type.OBJECT);
+        }
+
+        Function<JavaHeapObject, Object> compileValue() {
+            return it -> it;
+        }
+    }
+
+    // A field of the identifier of the from clause, found in its class.
+    // Superclass fields come first in every class, so the field has the
+    // same number in all the instances a query looks at.
+    static class Field extends Expr {
+        final String name;
+        final int index;
+        final char signature;
+
+        Field(String name, int index, char signature) {
+            super(typeOf(signature));
+            this.name = name;
+            this.index = index;
+            this.signature = signature;
+        }
+
+        static Type typeOf(char signature) {
+            switch (signature) {
+                case 'Z':
+                    return Type.BOOLEAN;
+                case 'C':
+                    return Type.STRING;
+                case 'L':
+                case '[':
+                    return Type.OBJECT;
+                default:
+                    return Type.NUMBER;
+            }
+        }
+
+        Function<JavaHeapObject, Object> compileValue() {
+            final String n = name;
+            final int i = index;
+            switch (signature) {
+                case 'Z':
+                    return it -> (it instanceof JavaObject)?
+                                    Boolean.valueOf(((JavaObject) it).getBooleanField(i))
+                                  : Values.getProperty(it, n);
+                case 'C':
+                    return it -> (it instanceof JavaObject)?
+                                    String.valueOf(((JavaObject) it).getCharField(i))
+                                  : Values.getProperty(it, n);
+                case 'L':
+                case '[':
+                    return it -> (it instanceof JavaObject)?
+                                    Values.fromThing(((JavaObject) it).getFieldValue(i))
+                                  : Values.getProperty(it, n);
+                default: {
+                    final ToDoubleFunction<JavaHeapObject> number = compileNumber();
+                    return it -> (it instanceof JavaObject)?
+                                    Double.valueOf(number.applyAsDouble(it))
+                                  : Values.getProperty(it, n);
+                }
+            }
+        }
+
+        ToDoubleFunction<JavaHeapObject> compileNumber() {
+            final int i = index;
+            final ToDoubleFunction<JavaObject> read;
+            switch (signature) {
+                case 'S':
+                    read = o -> o.getShortField(i);
+                    break;
+                case 'I':
+                    read = o -> o.getIntField(i);
+                    break;
+                case 'J':
+                    read = o -> o.getLongField(i);
+                    break;
+                case 'F':
+                    // a script sees the float through its decimal form
+                    read = o -> Double.parseDouble(Float.toString(o.getFloatField(i)));
+                    break;
+                case 'D':
+                    read = o -> o.getDoubleField(i);
+                    break;
+                default:
+                    return super.compileNumber();
+            }
+            final String n = name;
+            return it -> (it instanceof JavaObject)?
+                            read.applyAsDouble((JavaObject) it)
+                          : Values.toNumber(Values.getProperty(it, n));
+        }
+    }
+
+    // target.name, looked up when the query runs
+    static class Property extends Expr {
+        final Expr target;
+        final String name;
+
+        Property(Expr target, String name) {
+            super((target.type == Type.STRING && name.equals("length"))?
+                    Type.NUMBER : Type.ANY);
+            this.target = target;
+            this.name = name;
+        }
+
+        Function<JavaHeapObject, Object> compileValue() {
+            final Function<JavaHeapObject, Object> t = target.compileValue();
+            final String n = name;
+            return it -> Values.getProperty(t.apply(it), n);
+        }
+    }
+
+    // target[index]
+    static class Index extends Expr {
+        final Expr target;
+        final Expr index;
+
+        Index(Expr target, Expr index) {
+            super(Type.ANY);
+            this.target = target;
+            this.index = index;
+        }
+
+        Function<JavaHeapObject, Object> compileValue() {
+            final Function<JavaHeapObject, Object> t = target.compileValue();
+            final Function<JavaHeapObject, Object> i = index.compileValue();
+            return it -> Values.getElement(t.apply(it), i.apply(it));
+        }
+    }
+
+    // one of the functions of hat.js that are compiled, see ExprParser
+    static class Call extends Expr {
+        final String function;
+        final Expr[] args;
+
+        Call(String function, Expr[] args, Type type) {
+            super(type);
+            this.function = function;
+            this.args = args;
+        }
+
+        Function<JavaHeapObject, Object> compileValue() {
+            final Function<JavaHeapObject, Object> a = args[0].compileValue();
+            switch (function) {
+                case "sizeof":
+                    return it -> {
+                        Object o = a.apply(it);
+                        return (o instanceof JavaHeapObject)?
+                                    Integer.valueOf(((JavaHeapObject) o).getSize()) : null;
+                    };
+                case "objectid":
+                    return it -> Values.objectId(a.apply(it));
+                case "classof":
+                    return it -> {
+                        Object o = a.apply(it);
+                        if (!(o instanceof JavaHeapObject)) {
+                            throw new Values.ScriptError("classof: not a heap object: " + o);
+                        }
+                        return ((JavaHeapObject) o).getClazz();
+                    };
+                case "identical": {
+                    final Predicate<JavaHeapObject> test = compileTest();
+                    return it -> Boolean.valueOf(test.test(it));
+                }
+                case "toString":
+                    return it -> Values.callToString(a.apply(it));
+                default:
+                    throw new IllegalStateException(function);
+            }
+        }
+
+        Predicate<JavaHeapObject> compileTest() {
+            if (!function.equals("identical")) {
+                return super.compileTest();
+            }
+            final Function<JavaHeapObject, Object> a = args[0].compileValue();
+            final Function<JavaHeapObject, Object> b = args[1].compileValue();
+            return it -> {
+                String x = Values.objectId(a.apply(it));
+                String y = Values.objectId(b.apply(it));
+                return (x == null)? y == null : x.equals(y);
+            };
+        }
+    }
+
+    static class Not extends Expr {
+        final Expr operand;
+
+        Not(Expr operand) {
+            super(Type.BOOLEAN);
+            this.operand = operand;
+        }
+
+        Function<JavaHeapObject, Object> compileValue() {
+            final Predicate<JavaHeapObject> test = compileTest();
+            return it -> Boolean.valueOf(test.test(it));
+        }
+
+        Predicate<JavaHeapObject> compileTest() {
+            return operand.compileTest().negate();
+        }
+    }
+
+    // the arithmetic operators, and unary minus as 0 - operand.  Numbers
+    // that are not constant are doubles, as the script engine makes them.
+    static class Arithmetic extends Expr {
+        final char op;
+        final Expr left;
+        final Expr right;
+
+        Arithmetic(char op, Expr left, Expr right) {
+            super((op == '+' && (left.type != Type.NUMBER || right.type != Type.NUMBER))?
+                    ((left.type == Type.STRING || right.type == Type.STRING)?
+                        Type.STRING : Type.ANY)
+                  : Type.NUMBER);
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        Function<JavaHeapObject, Object> compileValue() {
+            if (type == Type.NUMBER || op != '+') {
+                final ToDoubleFunction<JavaHeapObject> number = compileNumber();
+                return it -> Double.valueOf(number.applyAsDouble(it));
+            }
+            final Function<JavaHeapObject, Object> l = left.compileValue();
+            final Function<JavaHeapObject, Object> r = right.compileValue();
+            return it -> Values.add(l.apply(it), r.apply(it));
+        }
+
+        ToDoubleFunction<JavaHeapObject> compileNumber() {
+            if (type != Type.NUMBER && op == '+') {
+                return super.compileNumber();
+            }
+            final ToDoubleFunction<JavaHeapObject> l = left.compileNumber();
+            final ToDoubleFunction<JavaHeapObject> r = right.compileNumber();
+            switch (op) {
+                case '+':
+                    return it -> l.applyAsDouble(it) + r.applyAsDouble(it);
+                case '-':
+                    return it -> l.applyAsDouble(it) - r.applyAsDouble(it);
+                case '*':
+                    return it -> l.applyAsDouble(it) * r.applyAsDouble(it);
+                case '/':
+                    return it -> l.applyAsDouble(it) / r.applyAsDouble(it);
+                case '%':
+                    return it -> l.applyAsDouble(it) % r.applyAsDouble(it);
+                default:
+                    throw new IllegalStateException("operator " + op);
+            }
+        }
+    }
+
+    // < <= > >=
+    static class Relational extends Expr {
+        final String op;
+        final Expr left;
+        final Expr right;
+
+        Relational(String op, Expr left, Expr right) {
+            super(Type.BOOLEAN);
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        Function<JavaHeapObject, Object> compileValue() {
+            final Predicate<JavaHeapObject> test = compileTest();
+            return it -> Boolean.valueOf(test.test(it));
+        }
+
+        Predicate<JavaHeapObject> compileTest() {
+            if (left.type == Type.NUMBER && right.type == Type.NUMBER) {
+                final ToDoubleFunction<JavaHeapObject> l = left.compileNumber();
+                final ToDoubleFunction<JavaHeapObject> r = right.compileNumber();
+                switch (op) {
+                    case "<":
+                        return it -> l.applyAsDouble(it) < r.applyAsDouble(it);
+                    case "<=":
+                        return it -> l.applyAsDouble(it) <= r.applyAsDouble(it);
+                    case ">":
+                        return it -> l.applyAsDouble(it) > r.applyAsDouble(it);
+                    default:
+                        return it -> l.applyAsDouble(it) >= r.applyAsDouble(it);
+                }
+            }
+            final Function<JavaHeapObject, Object> l = left.compileValue();
+            final Function<JavaHeapObject, Object> r = right.compileValue();
+            final String o = op;
+            return it -> {
+                Integer c = Values.compare(l.apply(it), r.apply(it));
+                if (c == null) {
+                    return false;
+                }
+                switch (o) {
+                    case "<":
+                        return c.intValue() < 0;
+                    case "<=":
+                        return c.intValue() <= 0;
+                    case ">":
+                        return c.intValue() > 0;
+                    default:
+                        return c.intValue() >= 0;
+                }
+            };
+        }
+    }
+
+    // == != === !==
+    static class Equality extends Expr {
+        final boolean strict;
+        final boolean negated;
+        final Expr left;
+        final Expr right;
+
+        Equality(boolean strict, boolean negated, Expr left, Expr right) {
+            super(Type.BOOLEAN);
+            this.strict = strict;
+            this.negated = negated;
+            this.left = left;
+            this.right = right;
+        }
+
+        Function<JavaHeapObject, Object> compileValue() {
+            final Predicate<JavaHeapObject> test = compileTest();
+            return it -> Boolean.valueOf(test.test(it));
+        }
+
+        Predicate<JavaHeapObject> compileTest() {
+            Predicate<JavaHeapObject> test;
+            if (left instanceof Variable && right instanceof Variable) {
+                // the same script wrapper on both sides
+                test = it -> true;
+            } else if (left.type == Type.NUMBER && right.type == Type.NUMBER) {
+                final ToDoubleFunction<JavaHeapObject> l = left.compileNumber();
+                final ToDoubleFunction<JavaHeapObject> r = right.compileNumber();
+                test = it -> l.applyAsDouble(it) == r.applyAsDouble(it);
+            } else {
+                final Function<JavaHeapObject, Object> l = left.compileValue();
+                final Function<JavaHeapObject, Object> r = right.compileValue();
+                if (strict) {
+                    test = it -> Values.strictEquals(l.apply(it), r.apply(it));
+                } else {
+                    test = it -> Values.looseEquals(l.apply(it), r.apply(it));
+                }
+            }
+            return negated? test.negate() : test;
+        }
+    }
+
+    // && and ||, which give one of their operands rather than a boolean
+    static class Logical extends Expr {
+        final boolean and;
+        final Expr left;
+        final Expr right;
+
+        Logical(boolean and, Expr left, Expr right) {
+            super((left.type == right.type)? left.type : Type.ANY);
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        Function<JavaHeapObject, Object> compileValue() {
+            final Function<JavaHeapObject, Object> l = left.compileValue();
+            final Function<JavaHeapObject, Object> r = right.compileValue();
+            if (and) {
+                return it -> {
+                    Object v = l.apply(it);
+                    return Values.toBoolean(v)? r.apply(it) : v;
+                };
+            } else {
+                return it -> {
+                    Object v = l.apply(it);
+                    return Values.toBoolean(v)? v : r.apply(it);
+                };
+            }
+        }
+
+        Predicate<JavaHeapObject> compileTest() {
+            Predicate<JavaHeapObject> l = left.compileTest();
+            Predicate<JavaHeapObject> r = right.compileTest();
+            return and? l.and(r) : l.or(r);
+        }
+    }
+}
@@ -0,0 +1,703 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.oql;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.tools.hat2.internal.model.*;
+import com.sun.tools.hat2.internal.oql.Expr.Type;
+
+/**
+ * Parses the select and where expressions of an OQL query into Expr
+ * trees.  It takes the part of JavaScript that queries mostly use:
+ * literals, fields and array elements, arithmetic, comparisons, the
+ * logical operators, toString() and the hat.js functions sizeof,
+ * objectid, classof and identical.  It also takes the aggregates count,
+ * length, sum, min, max, top and countBy over heap.objects(), possibly
+ * passed through filter() and then map(), with their code given as
+ * strings.  For anything else, and for operations whose result in the
+ * script this cannot be sure of, it throws Unsupported and the query is
+ * left to the script engine.
+ *
+ * Constant parts of an expression are worked out here, with the integer
+ * arithmetic the script engine uses for them.
+ */
+class ExprParser {
+
+    /**
+     * Thrown for an expression the compiler does not take.
+     */
+    static class Unsupported extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String msg) {
+            super(msg);
+        }
+    }
+
+    // the properties of a class wrapper that are functions or lists
+    private static final String[] CLASS_MEMBERS = {
+        "statics", "fields", "isSubclassOf", "isSuperclassOf",
+        "superclasses", "subclasses"
+    };
+
+    private static final String[] RESERVED = {
+        "this", "new", "function", "typeof", "instanceof", "in", "void",
+        "delete", "var"
+    };
+
+    private static final int EOF = 0;
+    private static final int NUMBER = 1;
+    private static final int STRING = 2;
+    private static final int NAME = 3;
+    private static final int OPERATOR = 4;
+
+    private final String text;
+    private final String identifier;
+    private final JavaClass clazz;
+    private final Aggregate.Context context;
+
+    private int pos;
+    private int kind;
+    private String token;
+    private Object literal;
+
+    /**
+     * @param identifier the identifier of the from clause, or null
+     * @param clazz the class of the from clause, or null
+     * @param context what aggregates run with, or null if the expression
+     *        may have none
+     */
+    ExprParser(String text, String identifier, JavaClass clazz,
+               Aggregate.Context context) {
+        this.text = text;
+        this.identifier = identifier;
+        this.clazz = clazz;
+        this.context = context;
+    }
+
+    Expr parse() throws Unsupported {
+        next();
+        Expr expr = parseOr();
+        if (kind != EOF) {
+            throw new Unsupported("unexpected " + token);
+        }
+        return expr;
+    }
+
+    private Expr parseOr() throws Unsupported {
+        Expr expr = parseAnd();
+        while (accept("||")) {
+            expr = fold(new Expr.Logical(false, expr, parseAnd()));
+        }
+        return expr;
+    }
+
+    private Expr parseAnd() throws Unsupported {
+        Expr expr = parseEquality();
+        while (accept("&&")) {
+            expr = fold(new Expr.Logical(true, expr, parseEquality()));
+        }
+        return expr;
+    }
+
+    private Expr parseEquality() throws Unsupported {
+        Expr expr = parseRelational();
+        while (kind == OPERATOR) {
+            boolean strict = token.length() == 3;
+            boolean negated = token.startsWith("!");
+            if (!token.equals("==") && !token.equals("!=")
+                    && !token.equals("===") && !token.equals("!==")) {
+                break;
+            }
+            next();
+            Expr right = parseRelational();
+            if (isObject(expr) && isPrimitive(right)
+                    || isPrimitive(expr) && isObject(right)) {
+                // compared by the script through the wrapper's toString
+                throw new Unsupported("object compared to a value");
+            }
+            expr = fold(new Expr.Equality(strict, negated, expr, right));
+        }
+        return expr;
+    }
+
+    private Expr parseRelational() throws Unsupported {
+        Expr expr = parseAdditive();
+        while (kind == OPERATOR
+               && (token.equals("<") || token.equals("<=")
+                   || token.equals(">") || token.equals(">="))) {
+            String op = token;
+            next();
+            Expr right = parseAdditive();
+            checkNotObject(expr, op);
+            checkNotObject(right, op);
+            expr = fold(new Expr.Relational(op, expr, right));
+        }
+        return expr;
+    }
+
+    private Expr parseAdditive() throws Unsupported {
+        Expr expr = parseMultiplicative();
+        while (kind == OPERATOR && (token.equals("+") || token.equals("-"))) {
+            char op = token.charAt(0);
+            next();
+            Expr right = parseMultiplicative();
+            checkNotObject(expr, String.valueOf(op));
+            checkNotObject(right, String.valueOf(op));
+            expr = fold(new Expr.Arithmetic(op, expr, right));
+        }
+        return expr;
+    }
+
+    private Expr parseMultiplicative() throws Unsupported {
+        Expr expr = parseUnary();
+        while (kind == OPERATOR
+               && (token.equals("*") || token.equals("/") || token.equals("%"))) {
+            char op = token.charAt(0);
+            next();
+            Expr right = parseUnary();
+            checkNotObject(expr, String.valueOf(op));
+            checkNotObject(right, String.valueOf(op));
+            expr = fold(new Expr.Arithmetic(op, expr, right));
+        }
+        return expr;
+    }
+
+    private Expr parseUnary() throws Unsupported {
+        if (accept("!")) {
+            return fold(new Expr.Not(parseUnary()));
+        } else if (accept("-")) {
+            Expr operand = parseUnary();
+            checkNotObject(operand, "-");
+            if (operand instanceof Expr.Literal) {
+                double d = Values.toNumber(((Expr.Literal) operand).value);
+                // -0 is not an integer
+                Object value = (d == 0 || d == Integer.MIN_VALUE || d != (int) d)?
+                                    (Object) Double.valueOf(-d)
+                                  : (Object) Integer.valueOf(-(int) d);
+                return new Expr.Literal(value);
+            }
+            return new Expr.Arithmetic('-', new Expr.Literal(Integer.valueOf(0)),
+                                       operand);
+        } else if (accept("+")) {
+            Expr operand = parseUnary();
+            checkNotObject(operand, "+");
+            if (operand.type == Type.NUMBER) {
+                return operand;
+            }
+            return fold(new Expr.Arithmetic('-', operand,
+                                            new Expr.Literal(Integer.valueOf(0))));
+        }
+        return parsePostfix(parsePrimary());
+    }
+
+    private Expr parsePostfix(Expr expr) throws Unsupported {
+        for (;;) {
+            if (accept(".")) {
+                if (kind != NAME) {
+                    throw new Unsupported("expected a name after .");
+                }
+                String name = token;
+                next();
+                if (accept("(")) {
+                    if (!name.equals("toString") || !accept(")")) {
+                        throw new Unsupported("method " + name);
+                    }
+                    expr = new Expr.Call("toString", new Expr[] { expr },
+                                         Type.STRING);
+                } else {
+                    expr = property(expr, name);
+                }
+            } else if (accept("[")) {
+                Expr index = parseOr();
+                expect("]");
+                if (index instanceof Expr.Literal
+                        && ((Expr.Literal) index).value instanceof String) {
+                    expr = property(expr, (String) ((Expr.Literal) index).value);
+                } else {
+                    if (expr.type != Type.OBJECT && expr.type != Type.ANY) {
+                        throw new Unsupported("index of a value");
+                    }
+                    expr = new Expr.Index(expr, index);
+                }
+            } else {
+                return expr;
+            }
+        }
+    }
+
+    private Expr property(Expr target, String name) throws Unsupported {
+        if (target instanceof Expr.Variable && clazz != null) {
+            int index = clazz.getFieldIndex(name);
+            if (index != -1) {
+                char sig = clazz.getFieldForInstance(index).getSignature().charAt(0);
+                if (sig == 'B') {
+                    // the script cannot read these, see Values.fromThing()
+                    throw new Unsupported("byte field " + name);
+                }
+                return new Expr.Field(name, index, sig);
+            }
+        }
+        for (String member : CLASS_MEMBERS) {
+            if (member.equals(name)) {
+                throw new Unsupported("property " + name);
+            }
+        }
+        if (target.type == Type.NUMBER || target.type == Type.BOOLEAN
+                || target.type == Type.STRING && !name.equals("length")) {
+            throw new Unsupported("property " + name + " of a value");
+        }
+        return new Expr.Property(target, name);
+    }
+
+    private Expr parsePrimary() throws Unsupported {
+        switch (kind) {
+            case NUMBER:
+            case STRING: {
+                Object value = literal;
+                next();
+                return new Expr.Literal(value);
+            }
+            case NAME:
+                break;
+            case OPERATOR:
+                if (!accept("(")) {
+                    throw new Unsupported("unexpected " + token);
+                }
+                Expr expr = parseOr();
+                expect(")");
+                return expr;
+            default:
+                throw new Unsupported("unexpected " + token);
+        }
+        String name = token;
+        next();
+        if (name.equals(identifier)) {
+            return new Expr.Variable();
+        }
+        switch (name) {
+            case "true":
+                return new Expr.Literal(Boolean.TRUE);
+            case "false":
+                return new Expr.Literal(Boolean.FALSE);
+            case "null":
+                return new Expr.Literal(null);
+            case "undefined":
+                return new Expr.Literal(Values.UNDEFINED);
+            case "sizeof":
+                return new Expr.Call(name, parseArgs(1), Type.NUMBER);
+            case "objectid":
+                return new Expr.Call(name, parseArgs(1), Type.ANY);
+            case "classof":
+                return new Expr.Call(name, parseArgs(1), Type.OBJECT);
+            case "identical":
+                return new Expr.Call(name, parseArgs(2), Type.BOOLEAN);
+            case "count":
+            case "length":
+            case "sum":
+            case "min":
+            case "max":
+            case "top":
+            case "countBy":
+                if (context == null) {
+                    throw new Unsupported("name " + name);
+                }
+                return parseAggregate(name);
+            default:
+                throw new Unsupported("name " + name);
+        }
+    }
+
+    private Expr parseAggregate(String name) throws Unsupported {
+        expect("(");
+        Aggregate.Source source = parseSource();
+        Aggregate.Kind aggregate;
+        Expr code = null;
+        int limit = 0;
+        switch (name) {
+            case "count":
+                aggregate = Aggregate.Kind.COUNT;
+                if (accept(",")) {
+                    code = parseCode(source);
+                }
+                break;
+            case "length":
+                aggregate = Aggregate.Kind.COUNT;
+                break;
+            case "sum":
+                aggregate = Aggregate.Kind.SUM;
+                if (accept(",")) {
+                    code = parseCode(source);
+                }
+                break;
+            case "min":
+            case "max":
+                // elements the script may compare other than by number
+                // or by string are left to it
+                if (source.map == null || source.map.type != Type.NUMBER
+                                           && source.map.type != Type.STRING) {
+                    throw new Unsupported(name + " of what may not be numbers or strings");
+                }
+                aggregate = name.equals("min")? Aggregate.Kind.MIN : Aggregate.Kind.MAX;
+                break;
+            case "top": {
+                aggregate = Aggregate.Kind.TOP;
+                expect(",");
+                Expr k = parseOr();
+                if (!(k instanceof Expr.Literal)
+                        || !(((Expr.Literal) k).value instanceof Integer)
+                        || (Integer) ((Expr.Literal) k).value < 0) {
+                    throw new Unsupported("number of elements of top");
+                }
+                limit = (Integer) ((Expr.Literal) k).value;
+                if (accept(",")) {
+                    code = parseCode(source);
+                }
+                break;
+            }
+            default:
+                aggregate = Aggregate.Kind.COUNT_BY;
+                expect(",");
+                code = parseCode(source);
+                break;
+        }
+        expect(")");
+        return new Aggregate(aggregate, context, source, code, limit);
+    }
+
+    // heap.objects(), filter() of a source or map() of a source
+    private Aggregate.Source parseSource() throws Unsupported {
+        if (kind != NAME || token.equals(identifier)) {
+            throw new Unsupported("aggregate of " + token);
+        }
+        String name = token;
+        next();
+        switch (name) {
+            case "heap": {
+                expect(".");
+                if (kind != NAME || !token.equals("objects")) {
+                    throw new Unsupported("heap." + token);
+                }
+                next();
+                expect("(");
+                String className = parseString();
+                boolean includeSubtypes = true;
+                String where = null;
+                if (accept(",")) {
+                    Expr e = parseOr();
+                    if (!(e instanceof Expr.Literal)
+                            || !(((Expr.Literal) e).value instanceof Boolean)) {
+                        throw new Unsupported("includeSubtypes of heap.objects");
+                    }
+                    includeSubtypes = (Boolean) ((Expr.Literal) e).value;
+                    if (accept(",")) {
+                        where = parseString();
+                    }
+                }
+                expect(")");
+                if (className.startsWith("0x")) {
+                    throw new Unsupported("class id " + className);
+                }
+                Aggregate.Source source = new Aggregate.Source(
+                    context.snapshot.findClass(className), includeSubtypes);
+                return (where == null)? source
+                                      : source.filter(code(where, source).compileTest());
+            }
+            case "filter":
+            case "map": {
+                expect("(");
+                Aggregate.Source source = parseSource();
+                expect(",");
+                Expr code = parseCode(source);
+                expect(")");
+                return name.equals("filter")? source.filter(code.compileTest())
+                                            : source.map(code);
+            }
+            default:
+                throw new Unsupported("aggregate of " + name);
+        }
+    }
+
+    // A string of code that the script makes into a function of it.
+    // The code of a mapped source would be given the mapped values,
+    // which compiled code does not take.
+    private Expr parseCode(Aggregate.Source source) throws Unsupported {
+        return code(parseString(), source);
+    }
+
+    private static Expr code(String code, Aggregate.Source source) throws Unsupported {
+        if (source.map != null) {
+            throw new Unsupported("code over the elements of map");
+        }
+        return new ExprParser(code, "it", source.clazz, null).parse();
+    }
+
+    private String parseString() throws Unsupported {
+        Expr e = parseOr();
+        if (!(e instanceof Expr.Literal) || !(((Expr.Literal) e).value instanceof String)) {
+            throw new Unsupported("expected a string");
+        }
+        return (String) ((Expr.Literal) e).value;
+    }
+
+    private Expr[] parseArgs(int count) throws Unsupported {
+        expect("(");
+        List<Expr> args = new ArrayList<Expr>();
+        if (!accept(")")) {
+            do {
+                args.add(parseOr());
+            } while (accept(","));
+            expect(")");
+        }
+        if (args.size() != count) {
+            throw new Unsupported("wrong number of arguments");
+        }
+        return args.toArray(new Expr[count]);
+    }
+
+    private static boolean isObject(Expr expr) {
+        return expr.type == Type.OBJECT;
+    }
+
+    private static boolean isPrimitive(Expr expr) {
+        return expr.type == Type.NUMBER || expr.type == Type.STRING
+               || expr.type == Type.BOOLEAN;
+    }
+
+    private static void checkNotObject(Expr expr, String op) throws Unsupported {
+        if (isObject(expr)) {
+            throw new Unsupported("object operand of " + op);
+        }
+    }
+
+    // Works out an operation on constants.  Integers stay integers where
+    // the script engine keeps them so, which shows in how they print.
+    private static Expr fold(Expr expr) {
+        Expr[] operands;
+        if (expr instanceof Expr.Arithmetic) {
+            Expr.Arithmetic a = (Expr.Arithmetic) expr;
+            if (a.left instanceof Expr.Literal && a.right instanceof Expr.Literal) {
+                Object l = ((Expr.Literal) a.left).value;
+                Object r = ((Expr.Literal) a.right).value;
+                if (l instanceof Integer && r instanceof Integer) {
+                    return new Expr.Literal(intArithmetic(a.op, (Integer) l,
+                                                          (Integer) r));
+                }
+            }
+            operands = new Expr[] { a.left, a.right };
+        } else if (expr instanceof Expr.Relational) {
+            operands = new Expr[] { ((Expr.Relational) expr).left,
+                                    ((Expr.Relational) expr).right };
+        } else if (expr instanceof Expr.Equality) {
+            operands = new Expr[] { ((Expr.Equality) expr).left,
+                                    ((Expr.Equality) expr).right };
+        } else if (expr instanceof Expr.Logical) {
+            operands = new Expr[] { ((Expr.Logical) expr).left,
+                                    ((Expr.Logical) expr).right };
+        } else if (expr instanceof Expr.Not) {
+            operands = new Expr[] { ((Expr.Not) expr).operand };
+        } else {
+            return expr;
+        }
+        for (Expr operand : operands) {
+            if (!(operand instanceof Expr.Literal)) {
+                return expr;
+            }
+        }
+        try {
+            return new Expr.Literal(expr.compileValue().apply(null));
+        } catch (RuntimeException exp) {
+            // left for the query to report
+            return expr;
+        }
+    }
+
+    private static Object intArithmetic(char op, int l, int r) {
+        long value;
+        switch (op) {
+            case '+':
+                value = (long) l + r;
+                break;
+            case '-':
+                value = (long) l - r;
+                break;
+            case '*':
+                value = (long) l * r;
+                if (value == 0 && (l < 0 || r < 0)) {
+                    return Double.valueOf((double) l * r);
+                }
+                break;
+            case '/':
+                if (r == 0 || l % r != 0 || l == 0 && r < 0) {
+                    return Double.valueOf((double) l / r);
+                }
+                value = (long) l / r;
+                break;
+            default:
+                if (r == 0 || l < 0 && l % r == 0) {
+                    return Double.valueOf((double) l % r);
+                }
+                value = l % r;
+                break;
+        }
+        return (value == (int) value)? (Object) Integer.valueOf((int) value)
+                                     : (Object) Double.valueOf(value);
+    }
+
+    private boolean accept(String op) throws Unsupported {
+        if (kind == OPERATOR && token.equals(op)) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String op) throws Unsupported {
+        if (!accept(op)) {
+            throw new Unsupported("expected " + op);
+        }
+    }
+
+    private void next() throws Unsupported {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        literal = null;
+        if (pos == text.length()) {
+            kind = EOF;
+            token = "end of expression";
+            return;
+        }
+        int start = pos;
+        char c = text.charAt(pos);
+        if (Character.isJavaIdentifierStart(c)) {
+            while (pos < text.length()
+                   && Character.isJavaIdentifierPart(text.charAt(pos))) {
+                pos++;
+            }
+            kind = NAME;
+            token = text.substring(start, pos);
+            for (String word : RESERVED) {
+                if (word.equals(token)) {
+                    throw new Unsupported(token);
+                }
+            }
+        } else if (Character.isDigit(c)
+                   || c == '.' && pos + 1 < text.length()
+                      && Character.isDigit(text.charAt(pos + 1))) {
+            scanNumber();
+        } else if (c == '\'' || c == '"') {
+            scanString(c);
+        } else {
+            kind = OPERATOR;
+            for (String op : new String[] { "===", "!==", "==", "!=", "<=",
+                                            ">=", "&&", "||" }) {
+                if (text.startsWith(op, pos)) {
+                    token = op;
+                    pos += op.length();
+                    return;
+                }
+            }
+            if ("+-*/%<>!.()[],".indexOf(c) == -1) {
+                throw new Unsupported("operator " + c);
+            }
+            token = String.valueOf(c);
+            pos++;
+        }
+    }
+
+    private void scanNumber() throws Unsupported {
+        int start = pos;
+        if (text.charAt(pos) == '0' && pos + 1 < text.length()
+                && Character.isLetterOrDigit(text.charAt(pos + 1))) {
+            // octal and hex
+            throw new Unsupported("number " + text.substring(pos));
+        }
+        while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+            pos++;
+        }
+        if (pos < text.length() && text.charAt(pos) == '.') {
+            pos++;
+            while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                pos++;
+            }
+        }
+        if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+            pos++;
+            if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+                pos++;
+            }
+            while (pos < text.length() && Character.isDigit(text.charAt(pos))) {
+                pos++;
+            }
+        }
+        if (pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos))) {
+            throw new Unsupported("number " + text.substring(start));
+        }
+        kind = NUMBER;
+        token = text.substring(start, pos);
+        double d;
+        try {
+            d = Double.parseDouble(token);
+        } catch (NumberFormatException exp) {
+            throw new Unsupported("number " + token);
+        }
+        // 1e3 is an integer to the script engine, but 1.0 is not
+        literal = (d == (int) d && token.indexOf('.') == -1)?
+                        (Object) Integer.valueOf((int) d) : (Object) Double.valueOf(d);
+    }
+
+    private void scanString(char quote) throws Unsupported {
+        StringBuilder buf = new StringBuilder();
+        pos++;
+        for (;;) {
+            if (pos == text.length()) {
+                throw new Unsupported("unterminated string");
+            }
+            char c = text.charAt(pos++);
+            if (c == quote) {
+                break;
+            } else if (c == '\\') {
+                // escapes are left to the script engine
+                throw new Unsupported("escape in string");
+            }
+            buf.append(c);
+        }
+        kind = STRING;
+        token = buf.toString();
+        literal = token;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.oql;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.sun.tools.hat2.internal.model.*;
+
+/**
+ * Goes through the instances of some classes in ranges, which the
+ * threads of a pool can look at side by side.  Each range is folded
+ * into a part of its own, and the caller is then given the parts one
+ * by one: in the order of the instances, or else in the order they are
+ * done.  Once the caller stops, or a range fails, the ranges not yet
+ * done are dropped, and a range cut off on its way is never given.
+ * Without a pool, the caller does the ranges itself, in order.
+ */
+class InstanceScan<P> {
+
+    static final int RANGE_SIZE = 4096;
+
+    interface Folder<P> {
+        // the part of the range'th range, which holds no instances yet
+        P newPart(int range);
+
+        void add(P part, JavaHeapObject obj);
+    }
+
+    interface PartVisitor<P> {
+        // return true to stop
+        boolean visit(P part) throws OQLException;
+    }
+
+    /**
+     * Carries an OQLException out of a lambda, such as a scan of its own
+     * that an expression makes.  run() throws the exception it carries.
+     */
+    static class Stopped extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final OQLException exception;
+
+        Stopped(OQLException exception) {
+            super(exception);
+            this.exception = exception;
+        }
+    }
+
+    private final JavaClass[] classes;
+    private final QueryControl control;
+    private final Folder<P> folder;
+    private final List<Range> ranges = new ArrayList<Range>();
+    private final BlockingQueue<Range> done = new LinkedBlockingQueue<Range>();
+    private volatile boolean stopped;
+
+    InstanceScan(JavaClass[] classes, QueryControl control, Folder<P> folder) {
+        this.classes = classes;
+        this.control = control;
+        this.folder = folder;
+        for (JavaClass c : classes) {
+            int instances = c.getInstancesCount(false);
+            for (int start = 0; start < instances; start += RANGE_SIZE) {
+                ranges.add(new Range(ranges.size(), c, start,
+                                     Math.min(start + RANGE_SIZE, instances)));
+            }
+        }
+    }
+
+    int getRangeCount() {
+        return ranges.size();
+    }
+
+    /**
+     * @param pool the threads to look at the ranges with, or null
+     */
+    void run(ForkJoinPool pool, boolean ordered, PartVisitor<P> visitor)
+            throws OQLException {
+        if (pool == null) {
+            try {
+                for (Range range : ranges) {
+                    control.scan(range.end - range.start);
+                    P part = range.fold();
+                    if (visitor.visit(part)) {
+                        return;
+                    }
+                }
+            } catch (Stopped exp) {
+                throw exp.exception;
+            }
+            return;
+        }
+        for (Range range : ranges) {
+            pool.execute(range);
+        }
+        try {
+            for (int i = 0; i < ranges.size(); i++) {
+                Range range = ordered? ranges.get(i) : done.take();
+                range.finished.await();
+                if (range.failure instanceof OQLException) {
+                    throw (OQLException) range.failure;
+                } else if (range.failure instanceof Error) {
+                    throw (Error) range.failure;
+                } else if (range.failure != null) {
+                    throw new OQLException(range.failure);
+                }
+                if (range.skipped) {
+                    // another range failed, and is yet to be taken
+                    continue;
+                }
+                P part = range.part;
+                range.part = null;
+                if (visitor.visit(part)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException exp) {
+            throw new OQLException(exp);
+        } finally {
+            stopped = true;
+        }
+    }
+
+    private class Range implements Runnable {
+        private final int number;
+        private final JavaClass owner;
+        private final int start;
+        private final int end;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private P part;
+        private boolean skipped;    // dropped or cut off, so without a part
+        private Throwable failure;
+
+        Range(int number, JavaClass owner, int start, int end) {
+            this.number = number;
+            this.owner = owner;
+            this.start = start;
+            this.end = end;
+        }
+
+        // the part of all the instances, or null if cut off on the way
+        P fold() {
+            P p = folder.newPart(number);
+            for (int i = start; i < end; i++) {
+                if (stopped) {
+                    return null;
+                }
+                folder.add(p, owner.getInstance(i));
+            }
+            return p;
+        }
+
+        public void run() {
+            try {
+                if (!stopped) {
+                    control.scan(end - start);
+                    part = fold();
+                }
+                skipped = (part == null);
+            } catch (Stopped exp) {
+                failure = exp.exception;
+                stopped = true;
+            } catch (Throwable exp) {
+                // an Error too, which run() throws on
+                failure = exp;
+                stopped = true;
+            } finally {
+                finished.countDown();
+                done.add(this);
+            }
+        }
+    }
+}
@@ -37,6 +37,7 @@ import com.sun.tools.hat2.internal.model.Snapshot;
 import java.io.*;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * This is Object Query Language Interpreter
@@ -54,22 +55,50 @@ public class OQLEngine {
             Method getEngineMethod = managerClass.getMethod("getEngineByName",
                                 new Class[] { String.class });
             Object jse = getEngineMethod.invoke(manager, new Object[] {"js"});
-            oqlSupported = (jse != null);
+            scriptSupported = (jse != null);
         } catch (Exception exp) {
-            oqlSupported = false;
+            scriptSupported = false;
         }
     }
 
-    // check OQL is supported or not before creating OQLEngine
+    // check OQL is supported or not before creating OQLEngine.  Queries
+    // that CompiledQuery takes run without a script engine; the others,
+    // and plain scripts, need javax.script with JavaScript.
     public static boolean isOQLSupported() {
-        return oqlSupported;
+        return true;
+    }
+
+    public static boolean isScriptSupported() {
+        return scriptSupported;
     }
 
     public OQLEngine(Snapshot snapshot) {
-        if (!isOQLSupported()) {
-            throw new UnsupportedOperationException("OQL not supported");
+        this.snapshot = snapshot;
+        // large classes are scanned on as many threads as the snapshot
+        // was read with; the pool is shared by the queries that run
+        int parallelism = snapshot.getParallelism();
+        this.scanPool = (parallelism > 1)? new ForkJoinPool(parallelism) : null;
+        if (isScriptSupported()) {
+            // fail now rather than at the first query
+            idleScripts.add(new Script(snapshot));
         }
-        init(snapshot);
+    }
+
+    /**
+     * Sets the limits of the queries run without a QueryControl of their
+     * own.  0 for a limit means there is none.
+     */
+    public void setDefaultLimits(long timeoutMillis, long maxRows, long maxObjects) {
+        this.timeoutMillis = timeoutMillis;
+        this.maxRows = maxRows;
+        this.maxObjects = maxObjects;
+    }
+
+    /**
+     * @return a control with the default limits, for one query
+     */
+    public QueryControl newQueryControl() {
+        return new QueryControl(timeoutMillis, maxRows, maxObjects);
     }
 
     /**
@@ -80,7 +109,17 @@ public class OQLEngine {
             [ where &lt;java script boolean expression&gt; ]
           ]
     */
-    public synchronized void executeQuery(String query, com.sun.tools.hat2.internal.oql.ObjectVisitor visitor)
+    public void executeQuery(String query, com.sun.tools.hat2.internal.oql.ObjectVisitor visitor)
+                                          throws com.sun.tools.hat2.internal.oql.OQLException {
+        executeQuery(query, visitor, newQueryControl());
+    }
+
+    /**
+     * Runs a query within the limits of control, which can also cancel
+     * it.  Any number of queries can run at once, each on its own thread.
+     */
+    public void executeQuery(String query, com.sun.tools.hat2.internal.oql.ObjectVisitor visitor,
+                             QueryControl control)
                                           throws com.sun.tools.hat2.internal.oql.OQLException {
         debugPrint("query : " + query);
         StringTokenizer st = new StringTokenizer(query);
@@ -89,11 +128,20 @@ public class OQLEngine {
             if (! first.equals("select") ) {
                 // Query does not start with 'select' keyword.
                 // Just treat it as plain JavaScript and eval it.
+                control.start();
+                Script script = takeScript();
+                currentScript.set(script);
                 try {
-                    Object res = evalScript(query);
+                    Object res = script.eval(query);
+                    control.row();
                     visitor.visit(res);
+                } catch (com.sun.tools.hat2.internal.oql.OQLException e) {
+                    throw e;
                 } catch (Exception e) {
                     throw new com.sun.tools.hat2.internal.oql.OQLException(e);
+                } finally {
+                    currentScript.remove();
+                    giveBack(script);
                 }
                 return;
             }
@@ -162,10 +210,11 @@ public class OQLEngine {
         }
 
         executeQuery(new com.sun.tools.hat2.internal.oql.OQLQuery(selectExpr, isInstanceOf, className,
-                                  identifier, whereExpr), visitor);
+                                  identifier, whereExpr), visitor, control);
     }
 
-    private void executeQuery(com.sun.tools.hat2.internal.oql.OQLQuery q, ObjectVisitor visitor)
+    private void executeQuery(com.sun.tools.hat2.internal.oql.OQLQuery q, ObjectVisitor visitor,
+                              QueryControl control)
                               throws com.sun.tools.hat2.internal.oql.OQLException {
         com.sun.tools.hat2.internal.model.JavaClass clazz = null;
         if (q.className != null) {
@@ -175,6 +224,17 @@ public class OQLEngine {
             }
         }
 
+        try {
+            CompiledQuery.compile(q, clazz, snapshot).execute(visitor, control, scanPool);
+            return;
+        } catch (ExprParser.Unsupported exp) {
+            debugPrint("not compiled: " + exp.getMessage());
+        }
+        if (!isScriptSupported()) {
+            throw new com.sun.tools.hat2.internal.oql.OQLException("query needs a JavaScript engine: " + q.selectExpr
+                                    + ((q.whereExpr != null)? " where" + q.whereExpr : ""));
+        }
+
         StringBuffer buf = new StringBuffer();
         buf.append("function __select__(");
         if (q.identifier != null) {
@@ -198,11 +258,15 @@ public class OQLEngine {
         }
         debugPrint(whereCode);
 
-        // compile select expression and where condition
+        // compile select expression and where condition, in a script
+        // engine of this query's own
+        control.start();
+        Script script = takeScript();
+        currentScript.set(script);
         try {
-            evalMethod.invoke(engine, new Object[] { selectCode });
+            script.eval(selectCode);
             if (whereCode != null) {
-                evalMethod.invoke(engine, new Object[] { whereCode });
+                script.eval(whereCode);
             }
 
             if (q.className != null) {
@@ -210,10 +274,11 @@ public class OQLEngine {
                 while (objects.hasMoreElements()) {
                     com.sun.tools.hat2.internal.model.JavaHeapObject
                         obj = (com.sun.tools.hat2.internal.model.JavaHeapObject) objects.nextElement();
-                    Object[] args = new Object[] { wrapJavaObject(obj) };
+                    control.scan();
+                    Object[] args = new Object[] { script.call("wrapJavaObject", new Object[] { obj }) };
                     boolean b = (whereCode == null);
                     if (!b) {
-                        Object res = call("__where__", args);
+                        Object res = script.call("__where__", args);
                         if (res instanceof Boolean) {
                             b = ((Boolean)res).booleanValue();
                         } else if (res instanceof Number) {
@@ -224,90 +289,199 @@ public class OQLEngine {
                     }
 
                     if (b) {
-                        Object select = call("__select__", args);
+                        if (control.row()) return;
+                        Object select = script.call("__select__", args);
                         if (visitor.visit(select)) return;
                     }
                 }
             } else {
                 // simple "select <expr>" query
-                Object select = call("__select__", new Object[] {});
+                Object select = script.call("__select__", new Object[] {});
+                control.row();
                 visitor.visit(select);
             }
+        } catch (OQLException e) {
+            throw e;
         } catch (Exception e) {
             throw new OQLException(e);
+        } finally {
+            currentScript.remove();
+            giveBack(script);
         }
     }
 
     public Object evalScript(String script) throws Exception {
-        return evalMethod.invoke(engine, new Object[] { script });
+        Script s = takeScript();
+        try {
+            return s.eval(script);
+        } finally {
+            giveBack(s);
+        }
     }
 
     public Object wrapJavaObject(com.sun.tools.hat2.internal.model.JavaHeapObject obj) throws Exception {
         return call("wrapJavaObject", new Object[] { obj });
     }
 
+    // as toHtml() in hat.js, which is called for what only scripts make
     public Object toHtml(Object obj) throws Exception {
+        if (obj == null) {
+            return "null";
+        } else if (obj instanceof com.sun.tools.hat2.internal.model.JavaClass) {
+            com.sun.tools.hat2.internal.model.JavaClass clazz =
+                (com.sun.tools.hat2.internal.model.JavaClass) obj;
+            return "<a href='/class/" + clazz.getIdString() + "'>class "
+                   + clazz.getName() + "</a>";
+        } else if (obj instanceof com.sun.tools.hat2.internal.model.JavaHeapObject) {
+            com.sun.tools.hat2.internal.model.JavaHeapObject heapObj =
+                (com.sun.tools.hat2.internal.model.JavaHeapObject) obj;
+            String id = heapObj.getIdString();
+            return "<a href='/object/" + id + "'>" + heapObj.getClazz().getName()
+                   + "@" + id + "</a>";
+        } else if (obj instanceof List) {
+            // the array of a compiled top()
+            List list = (List) obj;
+            StringBuilder buf = new StringBuilder("[ ");
+            for (int i = 0; i < list.size(); i++) {
+                buf.append(elementToHtml(list.get(i)));
+                if (i != list.size() - 1) {
+                    buf.append(", ");
+                }
+            }
+            return buf.append(" ]").toString();
+        } else if (obj instanceof LinkedHashMap) {
+            // the object of a compiled countBy()
+            StringBuilder buf = new StringBuilder("{ ");
+            for (Object o : ((Map) obj).entrySet()) {
+                Map.Entry e = (Map.Entry) o;
+                buf.append(e.getKey()).append(':')
+                   .append(elementToHtml(e.getValue())).append(", ");
+            }
+            return buf.append('}').toString();
+        } else if (obj instanceof String || obj instanceof Number
+                   || obj instanceof Boolean || !isScriptSupported()) {
+            return obj;
+        }
         return call("toHtml", new Object[] { obj });
     }
 
+    // the script adds what toHtml() gives for an element to a string
+    private String elementToHtml(Object obj) throws Exception {
+        Object html = toHtml(obj);
+        return (html instanceof String)? (String) html : Values.toString(html);
+    }
+
+    /**
+     * Calls a function of hat.js.  Within a query, as from its visitor,
+     * this is the script engine of the query, which made the results.
+     */
     public Object call(String func, Object[] args) throws Exception {
-        return invokeMethod.invoke(engine, new Object[] { func, args });
+        Script script = currentScript.get();
+        if (script != null) {
+            return script.call(func, args);
+        }
+        script = takeScript();
+        try {
+            return script.call(func, args);
+        } finally {
+            giveBack(script);
+        }
     }
 
     private static void debugPrint(String msg) {
         if (debug) System.out.println(msg);
     }
 
-    private void init(com.sun.tools.hat2.internal.model.Snapshot snapshot) throws RuntimeException {
-        this.snapshot = snapshot;
-        try {
-            // create ScriptEngineManager
-            Class<?> managerClass = Class.forName("javax.script.ScriptEngineManager");
-            Object manager = managerClass.newInstance();
+    // A script engine is used by one query at a time, as the functions
+    // of the query are globals in it.  There are as many as the most
+    // queries that have run at once; the server limits those.
+    private Script takeScript() throws OQLException {
+        if (!isScriptSupported()) {
+            throw new OQLException("no JavaScript engine for scripts");
+        }
+        synchronized (idleScripts) {
+            if (!idleScripts.isEmpty()) {
+                return idleScripts.removeFirst();
+            }
+        }
+        return new Script(snapshot);
+    }
 
-            // create JavaScript engine
-            Method getEngineMethod = managerClass.getMethod("getEngineByName",
-                                new Class[] { String.class });
-            engine = getEngineMethod.invoke(manager, new Object[] {"js"});
-
-            // initialize engine with init file (hat.js)
-            InputStream strm = getInitStream();
-            Class<?> engineClass = Class.forName("javax.script.ScriptEngine");
-            evalMethod = engineClass.getMethod("eval",
-                                new Class[] { Reader.class });
-            evalMethod.invoke(engine, new Object[] {new InputStreamReader(strm)});
-
-            // initialize ScriptEngine.eval(String) and
-            // Invocable.invokeFunction(String, Object[]) methods.
-            Class<?> invocableClass = Class.forName("javax.script.Invocable");
-
-            evalMethod = engineClass.getMethod("eval",
-                                  new Class[] { String.class });
-            invokeMethod = invocableClass.getMethod("invokeFunction",
-                                  new Class[] { String.class, Object[].class });
-
-            // initialize ScriptEngine.put(String, Object) method
-            Method putMethod = engineClass.getMethod("put",
-                                  new Class[] { String.class, Object.class });
-
-            // call ScriptEngine.put to initialize built-in heap object
-            putMethod.invoke(engine, new Object[] {
-                        "heap", call("wrapHeapSnapshot", new Object[] { snapshot })
-                    });
-        } catch (Exception e) {
-            if (debug) e.printStackTrace();
-            throw new RuntimeException(e);
+    private void giveBack(Script script) {
+        synchronized (idleScripts) {
+            idleScripts.addFirst(script);
         }
     }
 
-    private InputStream getInitStream() {
-        return getClass().getResourceAsStream("/com/sun/tools/hat/resources/hat.js");
+    /**
+     * A JavaScript engine with hat.js and the heap in it.
+     */
+    private static class Script {
+        private Object engine;
+        private Method evalMethod;
+        private Method invokeMethod;
+
+        Script(com.sun.tools.hat2.internal.model.Snapshot snapshot) throws RuntimeException {
+            try {
+                // create ScriptEngineManager
+                Class<?> managerClass = Class.forName("javax.script.ScriptEngineManager");
+                Object manager = managerClass.newInstance();
+
+                // create JavaScript engine
+                Method getEngineMethod = managerClass.getMethod("getEngineByName",
+                                    new Class[] { String.class });
+                engine = getEngineMethod.invoke(manager, new Object[] {"js"});
+
+                // initialize engine with init file (hat.js)
+                InputStream strm = getInitStream();
+                Class<?> engineClass = Class.forName("javax.script.ScriptEngine");
+                evalMethod = engineClass.getMethod("eval",
+                                    new Class[] { Reader.class });
+                evalMethod.invoke(engine, new Object[] {new InputStreamReader(strm)});
+
+                // initialize ScriptEngine.eval(String) and
+                // Invocable.invokeFunction(String, Object[]) methods.
+                Class<?> invocableClass = Class.forName("javax.script.Invocable");
+
+                evalMethod = engineClass.getMethod("eval",
+                                      new Class[] { String.class });
+                invokeMethod = invocableClass.getMethod("invokeFunction",
+                                      new Class[] { String.class, Object[].class });
+
+                // initialize ScriptEngine.put(String, Object) method
+                Method putMethod = engineClass.getMethod("put",
+                                      new Class[] { String.class, Object.class });
+
+                // call ScriptEngine.put to initialize built-in heap object
+                putMethod.invoke(engine, new Object[] {
+                            "heap", call("wrapHeapSnapshot", new Object[] { snapshot })
+                        });
+            } catch (Exception e) {
+                if (debug) e.printStackTrace();
+                throw new RuntimeException(e);
+            }
+        }
+
+        Object eval(String script) throws Exception {
+            return evalMethod.invoke(engine, new Object[] { script });
+        }
+
+        Object call(String func, Object[] args) throws Exception {
+            return invokeMethod.invoke(engine, new Object[] { func, args });
+        }
+
+        private InputStream getInitStream() {
+            return getClass().getResourceAsStream("/com/sun/tools/hat/resources/hat.js");
+        }
     }
 
-    private Object engine;
-    private Method evalMethod;
-    private Method invokeMethod;
+    private final LinkedList<Script> idleScripts = new LinkedList<Script>();
+    private final ThreadLocal<Script> currentScript = new ThreadLocal<Script>();
+    private final ForkJoinPool scanPool;
+    private volatile long timeoutMillis;
+    private volatile long maxRows;
+    private volatile long maxObjects;
     private com.sun.tools.hat2.internal.model.Snapshot snapshot;
     private static boolean debug = false;
-    private static boolean oqlSupported;
+    private static boolean scriptSupported;
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.oql;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The limits of one run of an OQL query, and the token to stop it with
+ * from another thread.  A query that is cancelled, runs out of time or
+ * looks at more objects than it may fails with an OQLException.  One
+ * that reaches its row limit just ends, and isTruncated() tells so.
+ *
+ * The query checks these between the objects of its from clause, so
+ * they cannot stop a single script call that runs for long, such as a
+ * select without a from clause that walks the whole heap.
+ */
+public class QueryControl {
+
+    // 0 for any of the limits means there is none
+    private final long timeoutMillis;
+    private final long maxRows;
+    private final long maxObjects;
+
+    private volatile boolean cancelled;
+    private boolean ordered = true;
+    private long deadline;
+    private long rows;
+    // counted by the threads of a parallel scan
+    private final AtomicLong objects = new AtomicLong();
+    private boolean truncated;
+
+    public QueryControl() {
+        this(0, 0, 0);
+    }
+
+    /**
+     * @param timeoutMillis how long the query may run
+     * @param maxRows how many results it gives at most
+     * @param maxObjects how many objects it may look at
+     */
+    public QueryControl(long timeoutMillis, long maxRows, long maxObjects) {
+        this.timeoutMillis = timeoutMillis;
+        this.maxRows = maxRows;
+        this.maxObjects = maxObjects;
+    }
+
+    /**
+     * Stops the query at its next object.  This may be called from any
+     * thread, before or while the query runs.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Lets a query whose from clause is looked at on several threads
+     * give its results in whatever order they are found, rather than
+     * in the order of the instances.  That is for results that are
+     * added up rather than listed, and it gets the first ones sooner.
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * @return whether the query stopped at its row limit
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getObjectsScanned() {
+        return objects.get();
+    }
+
+    public long getMaxRows() {
+        return maxRows;
+    }
+
+    void start() throws OQLException {
+        deadline = (timeoutMillis > 0)? System.nanoTime() + timeoutMillis * 1000000L
+                                      : 0;
+        check();
+    }
+
+    // called before the query looks at each object
+    void scan() throws OQLException {
+        long n = objects.incrementAndGet();
+        checkObjects(n);
+        if ((n & 1023) == 0) {
+            check();
+        }
+    }
+
+    // called, from any thread, before the query looks at count objects
+    void scan(int count) throws OQLException {
+        checkObjects(objects.addAndGet(count));
+        check();
+    }
+
+    private void checkObjects(long n) throws OQLException {
+        if (maxObjects > 0 && n > maxObjects) {
+            throw new OQLException("query stopped: it looked at more than "
+                                   + maxObjects + " objects");
+        }
+    }
+
+    /**
+     * Called before each result is given.
+     *
+     * @return true if the query must end here, without the result
+     */
+    boolean row() throws OQLException {
+        if (maxRows > 0 && rows >= maxRows) {
+            truncated = true;
+            return true;
+        }
+        rows++;
+        check();
+        return false;
+    }
+
+    /**
+     * @return how many more objects the query may look at, or
+     *         Long.MAX_VALUE if there is no limit
+     */
+    long remainingObjects() {
+        return (maxObjects > 0)? maxObjects - objects.get() : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return how many nanoseconds the query has left, or
+     *         Long.MAX_VALUE if there is no limit
+     */
+    long remainingNanos() {
+        return (deadline != 0)? deadline - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    // throws if the query is cancelled or out of time
+    void check() throws OQLException {
+        if (cancelled) {
+            throw new OQLException("query cancelled");
+        }
+        if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            throw new OQLException("query stopped: it ran for more than "
+                                   + timeoutMillis + " ms");
+        }
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.oql;
+
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import com.sun.tools.hat2.internal.model.*;
+
+/**
+ * The values of compiled OQL expressions, and the operations on them.
+ * They follow what the JavaScript of hat.js gives for the same
+ * expression, so that a query prints the same whichever way it runs:
+ * a field of a primitive type is a Double, a char a String and a boolean
+ * a Boolean, a reference a JavaHeapObject or null.  A property that an
+ * object does not have is UNDEFINED.  A List stands for a script array,
+ * and a LinkedHashMap from property names for a script object.
+ *
+ * Heap objects stand for the script wrappers of hat.js, which are made
+ * afresh each time an object is fetched.  So two heap objects are never
+ * equal, and a heap object is equal to no primitive value.
+ */
+final class Values {
+
+    // JavaScript's undefined
+    static final Object UNDEFINED = new Object() {
+        public String toString() {
+            return "undefined";
+        }
+    };
+
+    // the numbers JavaScript accepts in a string
+    private static final Pattern DECIMAL = Pattern.compile(
+        "[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+    private static final Pattern HEX = Pattern.compile("0[xX][0-9a-fA-F]+");
+
+    private Values() {
+    }
+
+    /**
+     * Thrown where the script would fail with a TypeError.
+     */
+    static class ScriptError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ScriptError(String msg) {
+            super(msg);
+        }
+    }
+
+    /**
+     * @return the value of a field or array element as hat.js'
+     *         wrapJavaValue() gives it to scripts
+     */
+    static Object fromThing(JavaThing thing) {
+        if (thing instanceof JavaHeapObject) {
+            return thing;
+        } else if (thing == null || thing instanceof HackJavaValue) {
+            return null;
+        } else if (thing instanceof JavaBoolean) {
+            return Boolean.valueOf(thing.toString().equals("true"));
+        } else if (thing instanceof JavaChar) {
+            return thing.toString();
+        } else if (thing instanceof JavaValue) {
+            // as the script does, which fails for a byte
+            return Double.valueOf(Double.parseDouble(thing.toString()));
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return the property name of value, as obj.name or obj[name] gives
+     *         it in hat.js
+     */
+    static Object getProperty(Object value, String name) {
+        if (value instanceof JavaObject) {
+            JavaObject obj = (JavaObject) value;
+            int index = obj.getFieldIndex(name);
+            if (index != -1) {
+                return fromThing(obj.getFieldValue(index));
+            }
+            return name.equals("class")? obj.getClazz() : UNDEFINED;
+        } else if (value instanceof JavaObjectArray) {
+            JavaObjectArray array = (JavaObjectArray) value;
+            int index = arrayIndex(name);
+            if (index != -1) {
+                JavaThing[] elements = array.getElements();
+                return (index < elements.length)? fromThing(elements[index])
+                                                 : UNDEFINED;
+            }
+            return arrayProperty(array, array.getLength(), name);
+        } else if (value instanceof JavaValueArray) {
+            JavaValueArray array = (JavaValueArray) value;
+            int index = arrayIndex(name);
+            if (index != -1) {
+                return (index < array.getLength())? getElement(array, index)
+                                                   : UNDEFINED;
+            }
+            return arrayProperty(array, array.getLength(), name);
+        } else if (value instanceof JavaClass) {
+            return getClassProperty((JavaClass) value, name);
+        } else if (value instanceof String) {
+            return name.equals("length")? Integer.valueOf(((String) value).length())
+                                        : UNDEFINED;
+        } else if (value instanceof List) {
+            List list = (List) value;
+            int index = arrayIndex(name);
+            if (index != -1) {
+                return (index < list.size())? list.get(index) : UNDEFINED;
+            }
+            return name.equals("length")? Integer.valueOf(list.size()) : UNDEFINED;
+        } else if (value instanceof LinkedHashMap) {
+            Map map = (Map) value;
+            return map.containsKey(name)? map.get(name) : UNDEFINED;
+        } else if (value == null || value == UNDEFINED) {
+            throw new ScriptError("Cannot read property \"" + name
+                                  + "\" from " + value);
+        } else {
+            return UNDEFINED;
+        }
+    }
+
+    /**
+     * @return element index of value, as obj[index] gives it in hat.js
+     */
+    static Object getElement(Object value, Object index) {
+        if (index instanceof Number
+                && (value instanceof JavaObjectArray
+                    || value instanceof JavaValueArray)) {
+            double d = ((Number) index).doubleValue();
+            int i = (int) d;
+            if (i != d || i < 0) {
+                return UNDEFINED;
+            }
+            if (value instanceof JavaValueArray) {
+                JavaValueArray array = (JavaValueArray) value;
+                return (i < array.getLength())? getElement(array, i) : UNDEFINED;
+            }
+            JavaThing[] elements = ((JavaObjectArray) value).getElements();
+            return (i < elements.length)? fromThing(elements[i]) : UNDEFINED;
+        }
+        return getProperty(value, toString(index));
+    }
+
+    /**
+     * @return the result of value.toString() in hat.js
+     */
+    static String callToString(Object value) {
+        if (value instanceof JavaValueArray) {
+            return ((JavaValueArray) value).valueString(true);
+        } else if (value instanceof JavaHeapObject) {
+            return value.toString();
+        } else if (value == null || value == UNDEFINED) {
+            throw new ScriptError("Cannot call toString() on " + value);
+        } else {
+            return toString(value);
+        }
+    }
+
+    /**
+     * @return the id string of a heap object, as objectid() in hat.js
+     *         gives it, or null for anything else
+     */
+    static String objectId(Object value) {
+        return (value instanceof JavaHeapObject)?
+                    ((JavaHeapObject) value).getIdString() : null;
+    }
+
+    /**
+     * @return whether the result of a where clause selects an object.
+     *         This is OQLEngine's test of what the script returns, not
+     *         JavaScript's.
+     */
+    static boolean isSelected(Object value) {
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue();
+        } else if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        } else {
+            return value != null && value != UNDEFINED;
+        }
+    }
+
+    // JavaScript's ToBoolean
+    static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue();
+        } else if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            return d != 0 && !Double.isNaN(d);
+        } else if (value instanceof String) {
+            return ((String) value).length() != 0;
+        } else {
+            return value != null && value != UNDEFINED;
+        }
+    }
+
+    // JavaScript's ToNumber
+    static double toNumber(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value == null) {
+            return 0;
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value).booleanValue()? 1 : 0;
+        } else if (value instanceof String) {
+            return toNumber((String) value);
+        } else {
+            return Double.NaN;
+        }
+    }
+
+    private static double toNumber(String s) {
+        s = s.trim();
+        if (s.length() == 0) {
+            return 0;
+        } else if (DECIMAL.matcher(s).matches()) {
+            return Double.parseDouble(s);
+        } else if (HEX.matcher(s).matches()) {
+            return new java.math.BigInteger(s.substring(2), 16).doubleValue();
+        } else if (s.equals("Infinity") || s.equals("+Infinity")) {
+            return Double.POSITIVE_INFINITY;
+        } else if (s.equals("-Infinity")) {
+            return Double.NEGATIVE_INFINITY;
+        } else {
+            return Double.NaN;
+        }
+    }
+
+    // JavaScript's ToString
+    static String toString(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            return numberToString(((Number) value).doubleValue());
+        } else if (value instanceof JavaHeapObject) {
+            return "[object Object]";
+        } else {
+            return String.valueOf(value);
+        }
+    }
+
+    // JavaScript's Number.prototype.toString()
+    static String numberToString(double d) {
+        if (Double.isNaN(d)) {
+            return "NaN";
+        } else if (Double.isInfinite(d)) {
+            return (d > 0)? "Infinity" : "-Infinity";
+        } else if (d == 0) {
+            return "0";
+        }
+        String s = Double.toString(d);
+        double abs = Math.abs(d);
+        if (abs >= 1e-6 && abs < 1e21) {
+            return new BigDecimal(s).stripTrailingZeros().toPlainString();
+        }
+        // d.dddE[-]n becomes d.ddde+n or d.ddde-n
+        int e = s.indexOf('E');
+        String mantissa = s.substring(0, e);
+        if (mantissa.endsWith(".0")) {
+            mantissa = mantissa.substring(0, mantissa.length() - 2);
+        }
+        String exponent = s.substring(e + 1);
+        return mantissa + (exponent.startsWith("-")? "e" : "e+") + exponent;
+    }
+
+    // JavaScript's ==
+    static boolean looseEquals(Object a, Object b) {
+        boolean aNull = (a == null || a == UNDEFINED);
+        boolean bNull = (b == null || b == UNDEFINED);
+        if (aNull || bNull) {
+            return aNull && bNull;
+        } else if (a instanceof JavaHeapObject || b instanceof JavaHeapObject) {
+            return false;
+        } else if (a instanceof Number && b instanceof Number) {
+            return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        } else if (a instanceof String && b instanceof String) {
+            return a.equals(b);
+        } else if (a instanceof Boolean && b instanceof Boolean) {
+            return a.equals(b);
+        } else {
+            // a number, a string or a boolean against one of the others
+            return toNumber(a) == toNumber(b);
+        }
+    }
+
+    // JavaScript's ===
+    static boolean strictEquals(Object a, Object b) {
+        if (a == null || a == UNDEFINED || b == null || b == UNDEFINED) {
+            return a == b;
+        } else if (a instanceof Number && b instanceof Number) {
+            return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        } else if (a instanceof JavaHeapObject) {
+            return false;
+        } else {
+            return a.equals(b);
+        }
+    }
+
+    /**
+     * JavaScript's relational comparison.
+     *
+     * @return a negative number, zero or a positive number as a is less
+     *         than, equal to or greater than b, or null if they do not
+     *         compare
+     */
+    static Integer compare(Object a, Object b) {
+        if (a instanceof String && b instanceof String) {
+            return Integer.valueOf(((String) a).compareTo((String) b));
+        }
+        double x = toNumber(a);
+        double y = toNumber(b);
+        if (Double.isNaN(x) || Double.isNaN(y)) {
+            return null;
+        }
+        return Integer.valueOf((x < y)? -1 : ((x == y)? 0 : 1));
+    }
+
+    // JavaScript's +
+    static Object add(Object a, Object b) {
+        if (a instanceof String || b instanceof String) {
+            return toString(a) + toString(b);
+        }
+        return Double.valueOf(toNumber(a) + toNumber(b));
+    }
+
+    /**
+     * @return the properties in the order a script object gives them:
+     *         array indexes first, in their order, then the others in
+     *         the order they were added
+     */
+    static LinkedHashMap<String, Object> scriptObject(Map<String, Object> properties) {
+        Map<String, Object> indexes = new TreeMap<String, Object>(
+            (a, b) -> Long.compare(Long.parseLong(a), Long.parseLong(b)));
+        Map<String, Object> others = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> e : properties.entrySet()) {
+            if (isIndex(e.getKey())) {
+                indexes.put(e.getKey(), e.getValue());
+            } else {
+                others.put(e.getKey(), e.getValue());
+            }
+        }
+        LinkedHashMap<String, Object> result = new LinkedHashMap<String, Object>(indexes);
+        result.putAll(others);
+        return result;
+    }
+
+    // Internals only below this point
+
+    // whether name is an array index of JavaScript, below 2^32 - 1
+    private static boolean isIndex(String name) {
+        int len = name.length();
+        if (len == 0 || len > 10 || (name.charAt(0) == '0' && len > 1)) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return Long.parseLong(name) < 0xFFFFFFFFL;
+    }
+
+    // name as an array index, or -1
+    private static int arrayIndex(String name) {
+        int len = name.length();
+        if (len == 0 || len > 9 || (name.charAt(0) == '0' && len > 1)) {
+            return -1;
+        }
+        for (int i = 0; i < len; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        return Integer.parseInt(name);
+    }
+
+    private static Object arrayProperty(JavaHeapObject array, int length,
+                                        String name) {
+        if (name.equals("length")) {
+            return Integer.valueOf(length);
+        } else if (name.equals("class")) {
+            return array.getClazz();
+        } else {
+            return UNDEFINED;
+        }
+    }
+
+    // a primitive array element, as a script reads it from the array
+    // of getElements()
+    private static Object getElement(JavaValueArray array, int index) {
+        switch (array.getElementType()) {
+            case 'Z':
+                return Boolean.valueOf(array.getBooleanAt(index));
+            case 'B':
+                return Byte.valueOf(array.getByteAt(index));
+            case 'C':
+                return String.valueOf(array.getCharAt(index));
+            case 'S':
+                return Short.valueOf(array.getShortAt(index));
+            case 'I':
+                return Integer.valueOf(array.getIntAt(index));
+            case 'J':
+                return Long.valueOf(array.getLongAt(index));
+            case 'F':
+                return Float.valueOf(array.getFloatAt(index));
+            case 'D':
+                return Double.valueOf(array.getDoubleAt(index));
+            default:
+                return UNDEFINED;
+        }
+    }
+
+    // the properties of the script wrapper of a class that the compiler
+    // lets through, see ExprParser
+    private static Object getClassProperty(JavaClass clazz, String name) {
+        if (name.equals("name")) {
+            return clazz.getName();
+        } else if (name.equals("superclass")) {
+            return clazz.getSuperclass();
+        } else if (name.equals("loader")) {
+            return fromThing(clazz.getLoader());
+        } else if (name.equals("signers")) {
+            return fromThing(clazz.getSigners());
+        } else if (name.equals("protectionDomain")) {
+            return fromThing(clazz.getProtectionDomain());
+        } else if (name.equals("instanceSize")) {
+            return Integer.valueOf(clazz.getInstanceSize());
+        } else {
+            return UNDEFINED;
+        }
+    }
+}
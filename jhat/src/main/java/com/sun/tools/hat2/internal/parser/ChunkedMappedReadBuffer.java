@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Implementation of ReadBuffer for files that are too big to be mapped
+ * by a single MappedByteBuffer.  The file is mapped as a sequence of
+ * equally sized chunks.  Every chunk but the last extends a few bytes
+ * into the next one, so that a primitive value that starts in a chunk
+ * can always be read from that chunk, even if it straddles the boundary.
+ * Byte array reads are split at chunk boundaries.
+ *
+ * All reads use absolute positions, so no locking is needed.
+ */
+class ChunkedMappedReadBuffer implements ReadBuffer {
+    // default chunk size is 1 GB
+    static final int DEFAULT_CHUNK_SHIFT = 30;
+
+    // chunks overlap by the size of the largest primitive value
+    private static final int OVERLAP = 8;
+
+    private final MappedByteBuffer[] chunks;
+    private final int chunkShift;
+    private final long chunkMask;
+
+    private ChunkedMappedReadBuffer(MappedByteBuffer[] chunks, int chunkShift) {
+        this.chunks = chunks;
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1L << chunkShift) - 1;
+    }
+
+    // maps the whole of the channel using chunks of 2^chunkShift bytes
+    static ChunkedMappedReadBuffer map(FileChannel ch, int chunkShift)
+            throws IOException {
+        long size = ch.size();
+        long chunkSize = 1L << chunkShift;
+        int numChunks = (int) ((size + chunkSize - 1) >>> chunkShift);
+        MappedByteBuffer[] chunks = new MappedByteBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            long start = (long) i << chunkShift;
+            long length = Math.min(chunkSize + OVERLAP, size - start);
+            chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        return new ChunkedMappedReadBuffer(chunks, chunkShift);
+    }
+
+    public void get(long pos, byte[] res) throws IOException {
+        get(pos, res, 0, res.length);
+    }
+
+    public void get(long pos, byte[] res, int off, int len) throws IOException {
+        while (len > 0) {
+            ByteBuffer chunk = chunk(pos).duplicate();
+            int index = index(pos);
+            int n = (int) Math.min(len, (chunkMask + 1) - index);
+            chunk.position(index);
+            chunk.get(res, off, n);
+            off += n;
+            len -= n;
+            pos += n;
+        }
+    }
+
+    public char getChar(long pos) throws IOException {
+        return chunk(pos).getChar(index(pos));
+    }
+
+    public byte getByte(long pos) throws IOException {
+        return chunk(pos).get(index(pos));
+    }
+
+    public short getShort(long pos) throws IOException {
+        return chunk(pos).getShort(index(pos));
+    }
+
+    public int getInt(long pos) throws IOException {
+        return chunk(pos).getInt(index(pos));
+    }
+
+    public long getLong(long pos) throws IOException {
+        return chunk(pos).getLong(index(pos));
+    }
+
+    private MappedByteBuffer chunk(long pos) {
+        return chunks[(int) (pos >>> chunkShift)];
+    }
+
+    private int index(long pos) {
+        return (int) (pos & chunkMask);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+
+package com.sun.tools.hat2.internal.parser;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Sequential, big endian reads from a ReadBuffer, like DataInput but
+ * with a position that can be set.  Each thread that reads a dump needs
+ * an input of its own.
+ *
+ * On a mapped file the values are read where they are, with the absolute
+ * reads of the buffer.  Otherwise they are copied into a window first,
+ * so that there is no file access per value.
+ */
+abstract class DumpInput {
+
+    // Bytes read from a FileReadBuffer at a time
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    protected final ReadBuffer buf;
+    protected final long length;        // length of the dump
+    protected long pos;                 // position of the next byte
+
+    protected DumpInput(ReadBuffer buf, long length) {
+        this.buf = buf;
+        this.length = length;
+    }
+
+    static DumpInput create(ReadBuffer buf, long length) {
+        if (buf instanceof FileReadBuffer) {
+            return new Windowed(buf, length);
+        } else {
+            return new Direct(buf, length);
+        }
+    }
+
+    long position() {
+        return pos;
+    }
+
+    void seek(long pos) {
+        this.pos = pos;
+    }
+
+    // Like DataInput.skipBytes(), skipping past the end of the dump is
+    // noticed by the next read.
+    void skipBytes(long n) {
+        pos += n;
+    }
+
+    int readUnsignedByte() throws IOException {
+        return readByte() & 0xff;
+    }
+
+    int readUnsignedShort() throws IOException {
+        return readShort() & 0xffff;
+    }
+
+    long readID(int identifierSize) throws IOException {
+        return (identifierSize == 4)?
+            (com.sun.tools.hat2.internal.model.Snapshot.SMALL_ID_MASK & (long)readInt()) : readLong();
+    }
+
+    void readFully(byte[] b) throws IOException {
+        check(b.length);
+        buf.get(pos, b);
+        pos += b.length;
+    }
+
+    abstract byte readByte() throws IOException;
+
+    abstract short readShort() throws IOException;
+
+    abstract int readInt() throws IOException;
+
+    abstract long readLong() throws IOException;
+
+    protected void check(int n) throws EOFException {
+        if (pos + n > length) {
+            throw new EOFException("Dump ends at " + length);
+        }
+    }
+
+    // Reads straight from a mapped buffer
+    private static class Direct extends DumpInput {
+
+        Direct(ReadBuffer buf, long length) {
+            super(buf, length);
+        }
+
+        byte readByte() throws IOException {
+            check(1);
+            return buf.getByte(pos++);
+        }
+
+        short readShort() throws IOException {
+            check(2);
+            short v = buf.getShort(pos);
+            pos += 2;
+            return v;
+        }
+
+        int readInt() throws IOException {
+            check(4);
+            int v = buf.getInt(pos);
+            pos += 4;
+            return v;
+        }
+
+        long readLong() throws IOException {
+            check(8);
+            long v = buf.getLong(pos);
+            pos += 8;
+            return v;
+        }
+    }
+
+    // Reads through a window that is refilled when a value is not in it
+    private static class Windowed extends DumpInput {
+
+        private final byte[] window = new byte[WINDOW_SIZE];
+        private long windowStart;
+        private int windowLength;
+
+        Windowed(ReadBuffer buf, long length) {
+            super(buf, length);
+        }
+
+        byte readByte() throws IOException {
+            int i = fill(1);
+            pos++;
+            return window[i];
+        }
+
+        short readShort() throws IOException {
+            int i = fill(2);
+            pos += 2;
+            return (short) (((window[i] & 0xff) << 8) | (window[i+1] & 0xff));
+        }
+
+        int readInt() throws IOException {
+            int i = fill(4);
+            pos += 4;
+            return ((window[i] & 0xff) << 24) | ((window[i+1] & 0xff) << 16)
+                 | ((window[i+2] & 0xff) << 8) | (window[i+3] & 0xff);
+        }
+
+        long readLong() throws IOException {
+            long hi = readInt();
+            return (hi << 32) | (readInt() & 0xffffffffL);
+        }
+
+        // Make sure the window holds n bytes from pos on, and return the
+        // index of pos in it.
+        private int fill(int n) throws IOException {
+            long offset = pos - windowStart;
+            if (offset >= 0 && offset + n <= windowLength) {
+                return (int) offset;
+            }
+            check(n);
+            windowLength = (int) Math.min(window.length, length - pos);
+            buf.get(pos, window, 0, windowLength);
+            windowStart = pos;
+            return 0;
+        }
+    }
+}
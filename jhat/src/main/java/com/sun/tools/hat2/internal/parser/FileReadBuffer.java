@@ -32,53 +32,78 @@
 
 package com.sun.tools.hat2.internal.parser;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
- * Implementation of ReadBuffer using a RandomAccessFile
+ * Implementation of ReadBuffer using a RandomAccessFile.  Reads use
+ * FileChannel's positional read, which leaves the channel position
+ * alone, so no locking is needed.
  *
  * @author A. Sundararajan
  */
 class FileReadBuffer implements ReadBuffer {
     // underlying file to read
-    private RandomAccessFile file;
+    private final FileChannel channel;
+
+    // per thread scratch buffer for primitive values
+    private final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(8);
+        }
+    };
 
     FileReadBuffer(RandomAccessFile file) {
-        this.file = file;
+        this.channel = file.getChannel();
+    }
+
+    public void get(long pos, byte[] buf) throws IOException {
+        get(pos, buf, 0, buf.length);
+    }
+
+    public void get(long pos, byte[] buf, int off, int len) throws IOException {
+        readFully(ByteBuffer.wrap(buf, off, len), pos);
     }
 
-    private void seek(long pos) throws IOException {
-        file.getChannel().position(pos);
+    public char getChar(long pos) throws IOException {
+        return read(pos, 2).getChar(0);
     }
 
-    public synchronized void get(long pos, byte[] buf) throws IOException {
-        seek(pos);
-        file.read(buf);
+    public byte getByte(long pos) throws IOException {
+        return read(pos, 1).get(0);
     }
 
-    public synchronized char getChar(long pos) throws IOException {
-        seek(pos);
-        return file.readChar();
+    public short getShort(long pos) throws IOException {
+        return read(pos, 2).getShort(0);
     }
 
-    public synchronized byte getByte(long pos) throws IOException {
-        seek(pos);
-        return (byte) file.read();
+    public int getInt(long pos) throws IOException {
+        return read(pos, 4).getInt(0);
     }
 
-    public synchronized short getShort(long pos) throws IOException {
-        seek(pos);
-        return file.readShort();
+    public long getLong(long pos) throws IOException {
+        return read(pos, 8).getLong(0);
     }
 
-    public synchronized int getInt(long pos) throws IOException {
-        seek(pos);
-        return file.readInt();
+    // read len bytes at pos into this thread's scratch buffer
+    private ByteBuffer read(long pos, int len) throws IOException {
+        ByteBuffer buf = scratch.get();
+        buf.clear();
+        buf.limit(len);
+        readFully(buf, pos);
+        return buf;
     }
 
-    public synchronized long getLong(long pos) throws IOException {
-        seek(pos);
-        return file.readLong();
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            pos += n;
+        }
     }
 }
@@ -33,10 +33,19 @@
 package com.sun.tools.hat2.internal.parser;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import com.sun.tools.hat2.internal.model.ArrayTypeCodes;
 import com.sun.tools.hat2.internal.model.Snapshot;
+import com.sun.tools.hat2.internal.util.ArrayStore;
+import com.sun.tools.hat2.internal.util.LongArray;
 import com.sun.tools.hat2.internal.util.Misc;
 
 /**
@@ -118,6 +127,11 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
 
     private final static int T_CLASS = 2;
 
+    // Dump bytes per heap object, used to size the snapshot's object
+    // index before reading.  Large arrays make the real ratio vary a lot
+    // between dumps, so err on the low side and let the index grow.
+    private final static int BYTES_PER_OBJECT_ESTIMATE = 128;
+
     private int version;        // The version of .hprof being read
 
     private int debugLevel;
@@ -127,7 +141,19 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
     private boolean callStack;  // If true, read the call stack of objects
 
     private int identifierSize;         // Size, in bytes, of identifiers.
-    private Hashtable<Long, String> names;
+
+    private ReadBuffer dumpBuffer;      // The whole file
+    private long fileLength;
+    private DumpInput input;            // Reads the records of the file
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    // The heap dump records of the dump being read, in file order
+    private List<HeapDumpSegment> segments;
+
+    // The maps below are filled before the heap dump is read, and are
+    // only read while segments are parsed.  So they need no locking.
+
+    private Map<Long, String> names;
 
     // Hashtable<Integer, ThreadObject>, used to map the thread sequence number
     // (aka "serial number") to the thread object ID for
@@ -135,9 +161,9 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
     // at the end of this file.
     private Hashtable<Integer, ThreadObject> threadObjects;
 
-    // Hashtable<Long, String>, maps class object ID to class name
+    // Map<Long, String>, maps class object ID to class name
     // (with / converted to .)
-    private Hashtable<Long, String> classNameFromObjectID;
+    private Map<Long, String> classNameFromObjectID;
 
     // Hashtable<Integer, Integer>, maps class serial # to class object ID
     private Hashtable<Integer, String> classNameFromSerialNo;
@@ -146,9 +172,9 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
     // Null if we're not tracking them.
     private Hashtable<Long, com.sun.tools.hat2.internal.model.StackFrame> stackFrames;
 
-    // Hashtable<Integer, StackTrace> maps stack frame ID to StackTrace
+    // Map<Integer, StackTrace> maps stack frame ID to StackTrace
     // Null if we're not tracking them.
-    private Hashtable<Integer, com.sun.tools.hat2.internal.model.StackTrace> stackTraces;
+    private Map<Integer, com.sun.tools.hat2.internal.model.StackTrace> stackTraces;
 
     private com.sun.tools.hat2.internal.model.Snapshot snapshot;
 
@@ -157,25 +183,61 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
                        throws IOException {
         super(in);
         RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        this.fileLength = file.length();
+        long expectedObjects = fileLength / BYTES_PER_OBJECT_ESTIMATE;
+        this.dumpBuffer = com.sun.tools.hat2.internal.parser.MappedReadBuffer.create(file);
         this.snapshot = new com.sun.tools.hat2.internal.model.Snapshot(
-            com.sun.tools.hat2.internal.parser.MappedReadBuffer.create(file));
+            dumpBuffer, (int) Math.min(expectedObjects, Integer.MAX_VALUE / 2));
         this.dumpsToSkip = dumpNumber - 1;
         this.callStack = callStack;
         this.debugLevel = debugLevel;
-        names = new Hashtable<Long, String>();
+        segments = new ArrayList<HeapDumpSegment>();
+        names = new HashMap<Long, String>();
         threadObjects = new Hashtable<Integer, ThreadObject>(43);
-        classNameFromObjectID = new Hashtable<Long, String>();
+        classNameFromObjectID = new HashMap<Long, String>();
         if (callStack) {
             stackFrames = new Hashtable<Long, com.sun.tools.hat2.internal.model.StackFrame>(43);
-            stackTraces = new Hashtable<Integer, com.sun.tools.hat2.internal.model.StackTrace>(43);
+            stackTraces = new HashMap<Integer, com.sun.tools.hat2.internal.model.StackTrace>(43);
             classNameFromSerialNo = new Hashtable<Integer, String>();
         }
     }
 
+    /**
+     * Set the number of threads used to parse the heap dump segments.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        snapshot.setParallelism(parallelism);
+    }
+
+    /**
+     * Keep the instances and arrays of the snapshot in compact form.
+     *
+     * @see Snapshot#setCompactObjects(boolean)
+     */
+    public void setCompactObjects(boolean compact) {
+        snapshot.setCompactObjects(compact);
+    }
+
+    /**
+     * Keep the large tables of the snapshot, and the tables of the heap
+     * dump segments while they are read, in tables made by store.
+     *
+     * @see Snapshot#setArrayStore(ArrayStore)
+     */
+    public void setArrayStore(ArrayStore store) {
+        snapshot.setArrayStore(store);
+    }
+
     public Snapshot read() throws IOException {
+        input = DumpInput.create(dumpBuffer, fileLength);
+        input.seek(4);
         currPos = 4;    // 4 because of the magic number
         version = readVersionHeader();
-        identifierSize = in.readInt();
+        identifierSize = input.readInt();
         snapshot.setIdentifierSize(identifierSize);
         if (version >= VERSION_JDK12BETA4) {
             snapshot.setNewStyleArrayClass(true);
@@ -187,20 +249,20 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
         if (identifierSize != 4 && identifierSize != 8) {
             throw new IOException("I'm sorry, but I can't deal with an identifier size of " + identifierSize + ".  I can only deal with 4 or 8.");
         }
-        System.out.println("Dump file created " + (new Date(in.readLong())));
+        System.out.println("Dump file created " + (new Date(input.readLong())));
         currPos += 8;
 
         for (;;) {
             int type;
             try {
-                type = in.readUnsignedByte();
+                type = input.readUnsignedByte();
             } catch (EOFException ignored) {
                 break;
             }
-            in.readInt();       // Timestamp of this record
+            input.readInt();       // Timestamp of this record
             // Length of record: readInt() will return negative value for record
             // length >2GB.  so store 32bit value in long to keep it unsigned.
-            long length = in.readInt() & 0xffffffffL;
+            long length = input.readInt() & 0xffffffffL;
             if (debugLevel > 0) {
                 System.out.println("Read record type " + type
                                    + ", length " + length
@@ -216,14 +278,14 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
                 case HPROF_UTF8: {
                     long id = readID();
                     byte[] chars = new byte[(int)length - identifierSize];
-                    in.readFully(chars);
+                    input.readFully(chars);
                     names.put(new Long(id), new String(chars));
                     break;
                 }
                 case HPROF_LOAD_CLASS: {
-                    int serialNo = in.readInt();        // Not used
+                    int serialNo = input.readInt();        // Not used
                     long classID = readID();
-                    int stackTraceSerialNo = in.readInt();
+                    int stackTraceSerialNo = input.readInt();
                     long classNameID = readID();
                     Long classIdI = new Long(classID);
                     String nm = getNameFromID(classNameID).replace('/', '.');
@@ -236,11 +298,9 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
 
                 case HPROF_HEAP_DUMP: {
                     if (dumpsToSkip <= 0) {
-                        try {
-                            readHeapDump(length, currPos);
-                        } catch (EOFException exp) {
-                            handleEOF(exp, snapshot);
-                        }
+                        addSegment(length);
+                        skipBytes(length);
+                        readHeapDump();
                         if (debugLevel > 0) {
                             System.out.println("    Finished processing instances in heap dump.");
                         }
@@ -256,6 +316,7 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
                     if (version >= VERSION_JDK6) {
                         if (dumpsToSkip <= 0) {
                             skipBytes(length);  // should be no-op
+                            readHeapDump();
                             return snapshot;
                         } else {
                             // skip this dump (of the end record for a sequence of dump segments)
@@ -272,12 +333,9 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
                 case HPROF_HEAP_DUMP_SEGMENT: {
                     if (version >= VERSION_JDK6) {
                         if (dumpsToSkip <= 0) {
-                            try {
-                                // read the dump segment
-                                readHeapDump(length, currPos);
-                            } catch (EOFException exp) {
-                                handleEOF(exp, snapshot);
-                            }
+                            // the segment is read with the others at the end
+                            addSegment(length);
+                            skipBytes(length);
                         } else {
                             // all segments comprising the heap dump will be skipped
                             skipBytes(length);
@@ -298,9 +356,9 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
                         String methodName = getNameFromID(readID());
                         String methodSig = getNameFromID(readID());
                         String sourceFile = getNameFromID(readID());
-                        int classSer = in.readInt();
+                        int classSer = input.readInt();
                         String className = classNameFromSerialNo.get(new Integer(classSer));
-                        int lineNumber = in.readInt();
+                        int lineNumber = input.readInt();
                         if (lineNumber < com.sun.tools.hat2.internal.model.StackFrame.LINE_NUMBER_NATIVE) {
                             warn("Weird stack frame line number:  " + lineNumber);
                             lineNumber = com.sun.tools.hat2.internal.model.StackFrame.LINE_NUMBER_UNKNOWN;
@@ -316,9 +374,9 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
                     if (stackTraces == null) {
                         skipBytes(length);
                     } else {
-                        int serialNo = in.readInt();
-                        int threadSeq = in.readInt();   // Not used
-                        com.sun.tools.hat2.internal.model.StackFrame[] frames = new com.sun.tools.hat2.internal.model.StackFrame[in.readInt()];
+                        int serialNo = input.readInt();
+                        int threadSeq = input.readInt();   // Not used
+                        com.sun.tools.hat2.internal.model.StackFrame[] frames = new com.sun.tools.hat2.internal.model.StackFrame[input.readInt()];
                         for (int i = 0; i < frames.length; i++) {
                             long fid = readID();
                             frames[i] = stackFrames.get(new Long(fid));
@@ -352,11 +410,13 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
             }
         }
 
+        // the file ended without a HPROF_HEAP_DUMP_END
+        readHeapDump();
         return snapshot;
     }
 
     private void skipBytes(long length) throws IOException {
-        in.skipBytes((int)length);
+        input.skipBytes(length);
     }
 
     private int readVersionHeader() throws IOException {
@@ -368,7 +428,7 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
 
         int pos = 0;
         while (candidatesLeft > 0) {
-            char c = (char) in.readByte();
+            char c = (char) input.readByte();
             currPos++;
             for (int i = 0; i < VERSIONS.length; i++) {
                 if (matched[i]) {
@@ -385,231 +445,121 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
         throw new IOException("Version string not recognized at byte " + (pos+3));
     }
 
-    private void readHeapDump(long bytesLeft, long posAtEnd) throws IOException {
-        while (bytesLeft > 0) {
-            int type = in.readUnsignedByte();
-            if (debugLevel > 0) {
-                System.out.println("    Read heap sub-record type " + type
-                                   + " at position "
-                                   + toHex(posAtEnd - bytesLeft));
+    //
+    // Remember the body of the heap dump record that was just skipped,
+    // it is parsed by readHeapDump()
+    //
+    private void addSegment(long length) {
+        segments.add(new HeapDumpSegment(currPos - length, currPos));
+    }
+
+    //
+    // Parse the heap dump records collected by addSegment().  The
+    // records do not depend on each other, so they are parsed by up to
+    // parallelism threads into tables of their own.  The tables are then
+    // added to the snapshot in file order, which gives the objects the
+    // same ordinals as a sequential read would.
+    //
+    private void readHeapDump() throws IOException {
+        if (segments.isEmpty()) {
+            return;
+        }
+        // keep debug output in file order
+        int threads = (debugLevel > 0)? 1 : Math.min(parallelism, segments.size());
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new SegmentAction(0, segments.size()));
+        } finally {
+            pool.shutdown();
+        }
+
+        for (HeapDumpSegment segment : segments) {
+            if (segment.failure != null) {
+                throw segment.failure;
             }
-            bytesLeft--;
-            switch(type) {
-                case HPROF_GC_ROOT_UNKNOWN: {
-                    long id = readID();
-                    bytesLeft -= identifierSize;
-                    snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(id, 0, com.sun.tools.hat2.internal.model.Root.UNKNOWN, ""));
-                    break;
-                }
-                case HPROF_GC_ROOT_THREAD_OBJ: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    int stackSeq = in.readInt();
-                    bytesLeft -= identifierSize + 8;
-                    threadObjects.put(new Integer(threadSeq),
-                                      new ThreadObject(id, stackSeq));
-                    break;
-                }
-                case HPROF_GC_ROOT_JNI_GLOBAL: {
-                    long id = readID();
-                    long globalRefId = readID();        // Ignored, for now
-                    bytesLeft -= 2*identifierSize;
-                    snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(id, 0, com.sun.tools.hat2.internal.model.Root.NATIVE_STATIC, ""));
-                    break;
-                }
-                case HPROF_GC_ROOT_JNI_LOCAL: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    int depth = in.readInt();
-                    bytesLeft -= identifierSize + 8;
-                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
-                    com.sun.tools.hat2.internal.model.StackTrace st = getStackTraceFromSerial(to.stackSeq);
-                    if (st != null) {
-                        st = st.traceForDepth(depth+1);
-                    }
-                    snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(id, to.threadId,
-                                              com.sun.tools.hat2.internal.model.Root.NATIVE_LOCAL, "", st));
-                    break;
-                }
-                case HPROF_GC_ROOT_JAVA_FRAME: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    int depth = in.readInt();
-                    bytesLeft -= identifierSize + 8;
-                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
-                    com.sun.tools.hat2.internal.model.StackTrace st = getStackTraceFromSerial(to.stackSeq);
-                    if (st != null) {
-                        st = st.traceForDepth(depth+1);
-                    }
-                    snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(id, to.threadId,
-                                              com.sun.tools.hat2.internal.model.Root.JAVA_LOCAL, "", st));
-                    break;
-                }
-                case HPROF_GC_ROOT_NATIVE_STACK: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    bytesLeft -= identifierSize + 4;
-                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
-                    com.sun.tools.hat2.internal.model.StackTrace st = getStackTraceFromSerial(to.stackSeq);
-                    snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(id, to.threadId,
-                                              com.sun.tools.hat2.internal.model.Root.NATIVE_STACK, "", st));
-                    break;
-                }
-                case HPROF_GC_ROOT_STICKY_CLASS: {
-                    long id = readID();
-                    bytesLeft -= identifierSize;
-                    snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(id, 0, com.sun.tools.hat2.internal.model.Root.SYSTEM_CLASS, ""));
-                    break;
-                }
-                case HPROF_GC_ROOT_THREAD_BLOCK: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    bytesLeft -= identifierSize + 4;
-                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
-                    com.sun.tools.hat2.internal.model.StackTrace st = getStackTraceFromSerial(to.stackSeq);
-                    snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(id, to.threadId,
-                                     com.sun.tools.hat2.internal.model.Root.THREAD_BLOCK, "", st));
-                    break;
-                }
-                case HPROF_GC_ROOT_MONITOR_USED: {
-                    long id = readID();
-                    bytesLeft -= identifierSize;
-                    snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(id, 0, com.sun.tools.hat2.internal.model.Root.BUSY_MONITOR, ""));
-                    break;
-                }
-                case HPROF_GC_CLASS_DUMP: {
-                    int bytesRead = readClass();
-                    bytesLeft -= bytesRead;
-                    break;
-                }
-                case HPROF_GC_INSTANCE_DUMP: {
-                    int bytesRead = readInstance();
-                    bytesLeft -= bytesRead;
-                    break;
-                }
-                case HPROF_GC_OBJ_ARRAY_DUMP: {
-                    int bytesRead = readArray(false);
-                    bytesLeft -= bytesRead;
-                    break;
-                }
-                case HPROF_GC_PRIM_ARRAY_DUMP: {
-                    int bytesRead = readArray(true);
-                    bytesLeft -= bytesRead;
-                    break;
-                }
-                default: {
-                    throw new IOException("Unrecognized heap dump sub-record type:  " + type);
-                }
+        }
+        // roots may refer to threads of other segments
+        for (HeapDumpSegment segment : segments) {
+            threadObjects.putAll(segment.threadObjects);
+        }
+        EOFException eof = null;
+        for (HeapDumpSegment segment : segments) {
+            segment.addTo(snapshot);
+            if (eof == null) {
+                eof = segment.eof;
             }
         }
-        if (bytesLeft != 0) {
-            warn("Error reading heap dump or heap dump segment:  Byte count is " + bytesLeft + " instead of 0");
-            skipBytes(bytesLeft);
+        segments.clear();
+        if (eof != null) {
+            handleEOF(eof, snapshot);
         }
         if (debugLevel > 0) {
             System.out.println("    Finished heap sub-records.");
         }
     }
 
-    private long readID() throws IOException {
-        return (identifierSize == 4)?
-            (com.sun.tools.hat2.internal.model.Snapshot.SMALL_ID_MASK & (long)in.readInt()) : in.readLong();
-    }
-
-    //
-    // Read a java value.  If result is non-null, it's expected to be an
-    // array of one element.  We use it to fake multiple return values.
-    // @returns the number of bytes read
-    //
-    private int readValue(com.sun.tools.hat2.internal.model.JavaThing[] resultArr) throws IOException {
-        byte type = in.readByte();
-        return 1 + readValueForType(type, resultArr);
-    }
-
-    private int readValueForType(byte type, com.sun.tools.hat2.internal.model.JavaThing[] resultArr)
-            throws IOException {
-        if (version >= VERSION_JDK12BETA4) {
-            type = signatureFromTypeId(type);
-        }
-        return readValueForTypeSignature(type, resultArr);
-    }
-
-    private int readValueForTypeSignature(byte type, com.sun.tools.hat2.internal.model.JavaThing[] resultArr)
-            throws IOException {
-        switch (type) {
-            case '[':
-            case 'L': {
-                long id = readID();
-                if (resultArr != null) {
-                    resultArr[0] = new com.sun.tools.hat2.internal.model.JavaObjectRef(id);
-                }
-                return identifierSize;
-            }
-            case 'Z': {
-                int b = in.readByte();
-                if (b != 0 && b != 1) {
-                    warn("Illegal boolean value read");
-                }
-                if (resultArr != null) {
-                    resultArr[0] = new com.sun.tools.hat2.internal.model.JavaBoolean(b != 0);
-                }
-                return 1;
+    private void addRoot(RootRecord r) throws IOException {
+        switch (r.type) {
+            case HPROF_GC_ROOT_UNKNOWN: {
+                snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(r.id, 0, com.sun.tools.hat2.internal.model.Root.UNKNOWN, ""));
+                break;
             }
-            case 'B': {
-                byte b = in.readByte();
-                if (resultArr != null) {
-                    resultArr[0] = new com.sun.tools.hat2.internal.model.JavaByte(b);
-                }
-                return 1;
+            case HPROF_GC_ROOT_JNI_GLOBAL: {
+                snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(r.id, 0, com.sun.tools.hat2.internal.model.Root.NATIVE_STATIC, ""));
+                break;
             }
-            case 'S': {
-                short s = in.readShort();
-                if (resultArr != null) {
-                    resultArr[0] = new com.sun.tools.hat2.internal.model.JavaShort(s);
+            case HPROF_GC_ROOT_JNI_LOCAL: {
+                ThreadObject to = getThreadObjectFromSequence(r.threadSeq);
+                com.sun.tools.hat2.internal.model.StackTrace st = getStackTraceFromSerial(to.stackSeq);
+                if (st != null) {
+                    st = st.traceForDepth(r.depth+1);
                 }
-                return 2;
+                snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(r.id, to.threadId,
+                                          com.sun.tools.hat2.internal.model.Root.NATIVE_LOCAL, "", st));
+                break;
             }
-            case 'C': {
-                char ch = in.readChar();
-                if (resultArr != null) {
-                    resultArr[0] = new com.sun.tools.hat2.internal.model.JavaChar(ch);
+            case HPROF_GC_ROOT_JAVA_FRAME: {
+                ThreadObject to = getThreadObjectFromSequence(r.threadSeq);
+                com.sun.tools.hat2.internal.model.StackTrace st = getStackTraceFromSerial(to.stackSeq);
+                if (st != null) {
+                    st = st.traceForDepth(r.depth+1);
                 }
-                return 2;
+                snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(r.id, to.threadId,
+                                          com.sun.tools.hat2.internal.model.Root.JAVA_LOCAL, "", st));
+                break;
             }
-            case 'I': {
-                int val = in.readInt();
-                if (resultArr != null) {
-                    resultArr[0] = new com.sun.tools.hat2.internal.model.JavaInt(val);
-                }
-                return 4;
+            case HPROF_GC_ROOT_NATIVE_STACK: {
+                ThreadObject to = getThreadObjectFromSequence(r.threadSeq);
+                com.sun.tools.hat2.internal.model.StackTrace st = getStackTraceFromSerial(to.stackSeq);
+                snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(r.id, to.threadId,
+                                          com.sun.tools.hat2.internal.model.Root.NATIVE_STACK, "", st));
+                break;
             }
-            case 'J': {
-                long val = in.readLong();
-                if (resultArr != null) {
-                    resultArr[0] = new com.sun.tools.hat2.internal.model.JavaLong(val);
-                }
-                return 8;
+            case HPROF_GC_ROOT_STICKY_CLASS: {
+                snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(r.id, 0, com.sun.tools.hat2.internal.model.Root.SYSTEM_CLASS, ""));
+                break;
             }
-            case 'F': {
-                float val = in.readFloat();
-                if (resultArr != null) {
-                    resultArr[0] = new com.sun.tools.hat2.internal.model.JavaFloat(val);
-                }
-                return 4;
+            case HPROF_GC_ROOT_THREAD_BLOCK: {
+                ThreadObject to = getThreadObjectFromSequence(r.threadSeq);
+                com.sun.tools.hat2.internal.model.StackTrace st = getStackTraceFromSerial(to.stackSeq);
+                snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(r.id, to.threadId,
+                                 com.sun.tools.hat2.internal.model.Root.THREAD_BLOCK, "", st));
+                break;
             }
-            case 'D': {
-                double val = in.readDouble();
-                if (resultArr != null) {
-                    resultArr[0] = new com.sun.tools.hat2.internal.model.JavaDouble(val);
-                }
-                return 8;
+            case HPROF_GC_ROOT_MONITOR_USED: {
+                snapshot.addRoot(new com.sun.tools.hat2.internal.model.Root(r.id, 0, com.sun.tools.hat2.internal.model.Root.BUSY_MONITOR, ""));
+                break;
             }
             default: {
-                throw new IOException("Bad value signature:  " + type);
+                throw new IOException("Unrecognized root type:  " + r.type);
             }
         }
     }
 
+    private long readID() throws IOException {
+        return (identifierSize == 4)?
+            (com.sun.tools.hat2.internal.model.Snapshot.SMALL_ID_MASK & (long)input.readInt()) : input.readLong();
+    }
     private ThreadObject getThreadObjectFromSequence(int threadSeq)
             throws IOException {
         ThreadObject to = threadObjects.get(new Integer(threadSeq));
@@ -647,193 +597,10 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
         return result;
     }
 
-    //
-    // Handle a HPROF_GC_CLASS_DUMP
-    // Return number of bytes read
-    //
-    private int readClass() throws IOException {
-        long id = readID();
-        com.sun.tools.hat2.internal.model.StackTrace stackTrace = getStackTraceFromSerial(in.readInt());
-        long superId = readID();
-        long classLoaderId = readID();
-        long signersId = readID();
-        long protDomainId = readID();
-        long reserved1 = readID();
-        long reserved2 = readID();
-        int instanceSize = in.readInt();
-        int bytesRead = 7 * identifierSize + 8;
-
-        int numConstPoolEntries = in.readUnsignedShort();
-        bytesRead += 2;
-        for (int i = 0; i < numConstPoolEntries; i++) {
-            int index = in.readUnsignedShort(); // unused
-            bytesRead += 2;
-            bytesRead += readValue(null);       // We ignore the values
-        }
-
-        int numStatics = in.readUnsignedShort();
-        bytesRead += 2;
-        com.sun.tools.hat2.internal.model.JavaThing[] valueBin = new com.sun.tools.hat2.internal.model.JavaThing[1];
-        com.sun.tools.hat2.internal.model.JavaStatic[] statics = new com.sun.tools.hat2.internal.model.JavaStatic[numStatics];
-        for (int i = 0; i < numStatics; i++) {
-            long nameId = readID();
-            bytesRead += identifierSize;
-            byte type = in.readByte();
-            bytesRead++;
-            bytesRead += readValueForType(type, valueBin);
-            String fieldName = getNameFromID(nameId);
-            if (version >= VERSION_JDK12BETA4) {
-                type = signatureFromTypeId(type);
-            }
-            String signature = "" + ((char) type);
-            com.sun.tools.hat2.internal.model.JavaField
-                f = new com.sun.tools.hat2.internal.model.JavaField(fieldName, signature);
-            statics[i] = new com.sun.tools.hat2.internal.model.JavaStatic(f, valueBin[0]);
-        }
-
-        int numFields = in.readUnsignedShort();
-        bytesRead += 2;
-        com.sun.tools.hat2.internal.model.JavaField[] fields = new com.sun.tools.hat2.internal.model.JavaField[numFields];
-        for (int i = 0; i < numFields; i++) {
-            long nameId = readID();
-            bytesRead += identifierSize;
-            byte type = in.readByte();
-            bytesRead++;
-            String fieldName = getNameFromID(nameId);
-            if (version >= VERSION_JDK12BETA4) {
-                type = signatureFromTypeId(type);
-            }
-            String signature = "" + ((char) type);
-            fields[i] = new com.sun.tools.hat2.internal.model.JavaField(fieldName, signature);
-        }
-        String name = classNameFromObjectID.get(new Long(id));
-        if (name == null) {
-            warn("Class name not found for " + toHex(id));
-            name = "unknown-name@" + toHex(id);
-        }
-        com.sun.tools.hat2.internal.model.JavaClass
-            c = new com.sun.tools.hat2.internal.model.JavaClass(id, name, superId, classLoaderId, signersId,
-                                    protDomainId, fields, statics,
-                                    instanceSize);
-        snapshot.addClass(id, c);
-        snapshot.setSiteTrace(c, stackTrace);
-
-        return bytesRead;
-    }
-
     private String toHex(long addr) {
         return Misc.toHex(addr);
     }
 
-    //
-    // Handle a HPROF_GC_INSTANCE_DUMP
-    // Return number of bytes read
-    //
-    private int readInstance() throws IOException {
-        long start = in.position();
-        long id = readID();
-        com.sun.tools.hat2.internal.model.StackTrace stackTrace = getStackTraceFromSerial(in.readInt());
-        long classID = readID();
-        int bytesFollowing = in.readInt();
-        int bytesRead = (2 * identifierSize) + 8 + bytesFollowing;
-        com.sun.tools.hat2.internal.model.JavaObject
-            jobj = new com.sun.tools.hat2.internal.model.JavaObject(classID, start);
-        skipBytes(bytesFollowing);
-        snapshot.addHeapObject(id, jobj);
-        snapshot.setSiteTrace(jobj, stackTrace);
-        return bytesRead;
-    }
-
-    //
-    // Handle a HPROF_GC_OBJ_ARRAY_DUMP or HPROF_GC_PRIM_ARRAY_DUMP
-    // Return number of bytes read
-    //
-    private int readArray(boolean isPrimitive) throws IOException {
-        long start = in.position();
-        long id = readID();
-        com.sun.tools.hat2.internal.model.StackTrace stackTrace = getStackTraceFromSerial(in.readInt());
-        int num = in.readInt();
-        int bytesRead = identifierSize + 8;
-        long elementClassID;
-        if (isPrimitive) {
-            elementClassID = in.readByte();
-            bytesRead++;
-        } else {
-            elementClassID = readID();
-            bytesRead += identifierSize;
-        }
-
-        // Check for primitive arrays:
-        byte primitiveSignature = 0x00;
-        int elSize = 0;
-        if (isPrimitive || version < VERSION_JDK12BETA4) {
-            switch ((int)elementClassID) {
-                case T_BOOLEAN: {
-                    primitiveSignature = (byte) 'Z';
-                    elSize = 1;
-                    break;
-                }
-                case T_CHAR: {
-                    primitiveSignature = (byte) 'C';
-                    elSize = 2;
-                    break;
-                }
-                case T_FLOAT: {
-                    primitiveSignature = (byte) 'F';
-                    elSize = 4;
-                    break;
-                }
-                case T_DOUBLE: {
-                    primitiveSignature = (byte) 'D';
-                    elSize = 8;
-                    break;
-                }
-                case T_BYTE: {
-                    primitiveSignature = (byte) 'B';
-                    elSize = 1;
-                    break;
-                }
-                case T_SHORT: {
-                    primitiveSignature = (byte) 'S';
-                    elSize = 2;
-                    break;
-                }
-                case T_INT: {
-                    primitiveSignature = (byte) 'I';
-                    elSize = 4;
-                    break;
-                }
-                case T_LONG: {
-                    primitiveSignature = (byte) 'J';
-                    elSize = 8;
-                    break;
-                }
-            }
-            if (version >= VERSION_JDK12BETA4 && primitiveSignature == 0x00) {
-                throw new IOException("Unrecognized typecode:  "
-                                        + elementClassID);
-            }
-        }
-        if (primitiveSignature != 0x00) {
-            int size = elSize * num;
-            bytesRead += size;
-            com.sun.tools.hat2.internal.model.JavaValueArray
-                va = new com.sun.tools.hat2.internal.model.JavaValueArray(primitiveSignature, start);
-            skipBytes(size);
-            snapshot.addHeapObject(id, va);
-            snapshot.setSiteTrace(va, stackTrace);
-        } else {
-            int sz = num * identifierSize;
-            bytesRead += sz;
-            com.sun.tools.hat2.internal.model.JavaObjectArray
-                arr = new com.sun.tools.hat2.internal.model.JavaObjectArray(elementClassID, start);
-            skipBytes(sz);
-            snapshot.addHeapObject(id, arr);
-            snapshot.setSiteTrace(arr, stackTrace);
-        }
-        return bytesRead;
-    }
-
     private byte signatureFromTypeId(byte typeId) throws IOException {
         switch (typeId) {
             case T_CLASS: {
@@ -882,6 +649,507 @@ public class HprofReader extends Reader /* imports */ implements ArrayTypeCodes
         System.out.println("WARNING: " + msg);
     }
 
+    // Parses a range of segments, splitting it in halves until a single
+    // segment is left.
+    private class SegmentAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+
+        SegmentAction(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new SegmentAction(lo, mid),
+                          new SegmentAction(mid, hi));
+            } else if (hi > lo) {
+                segments.get(lo).parse();
+            }
+        }
+    }
+
+    //
+    // A root sub-record.  Roots are turned into Root objects once all
+    // segments are parsed, because they refer to threads.
+    //
+    private static class RootRecord {
+
+        final int type;
+        final long id;
+        final int threadSeq;
+        final int depth;
+
+        RootRecord(int type, long id, int threadSeq, int depth) {
+            this.type = type;
+            this.id = id;
+            this.threadSeq = threadSeq;
+            this.depth = depth;
+        }
+    }
+
+    //
+    // The body of a HPROF_HEAP_DUMP or HPROF_HEAP_DUMP_SEGMENT record.
+    // parse() reads the sub-records from the dump buffer with an input
+    // of its own, so that any number of segments can be parsed at once.  The objects, roots and threads found are kept here until
+    // addTo() is called.  Instances and arrays are kept as where they
+    // are in the dump, classes as objects.  The tables are made by the
+    // ArrayStore of the snapshot.
+    //
+    private class HeapDumpSegment {
+
+        private final long start;       // file position of the body
+        private final long end;         // file position after the record
+        private DumpInput input;
+
+        private int count;
+        private LongArray ids;
+        private byte[] kinds;           // 0 for a class
+        private LongArray classIds;
+        private LongArray offsets;
+        private List<com.sun.tools.hat2.internal.model.JavaClass> classes
+            = new ArrayList<com.sun.tools.hat2.internal.model.JavaClass>();
+        private com.sun.tools.hat2.internal.model.StackTrace[] traces;
+
+        private final List<RootRecord> roots = new ArrayList<RootRecord>();
+        final Hashtable<Integer, ThreadObject> threadObjects
+            = new Hashtable<Integer, ThreadObject>();
+
+        EOFException eof;               // set if the file ended early
+        IOException failure;            // set if the record is malformed
+
+        HeapDumpSegment(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        void parse() {
+            input = DumpInput.create(dumpBuffer, fileLength);
+            input.seek(start);
+            int expected = (int) Math.min((end - start) / BYTES_PER_OBJECT_ESTIMATE + 16,
+                                          Integer.MAX_VALUE / 2);
+            ArrayStore store = snapshot.getArrayStore();
+            ids = store.newLongArray(expected);
+            kinds = new byte[expected];
+            classIds = store.newLongArray(expected);
+            offsets = store.newLongArray(expected);
+            try {
+                readSubRecords();
+            } catch (EOFException exp) {
+                eof = exp;
+            } catch (IOException exp) {
+                failure = exp;
+            }
+            input = null;
+        }
+
+        void addTo(com.sun.tools.hat2.internal.model.Snapshot snapshot) throws IOException {
+            int nextClass = 0;
+            for (int i = 0; i < count; i++) {
+                if (kinds[i] == 0) {
+                    snapshot.addClass(ids.get(i), classes.get(nextClass++));
+                } else {
+                    snapshot.addHeapObject(ids.get(i), kinds[i], classIds.get(i),
+                                           offsets.get(i));
+                }
+                if (traces != null && traces[i] != null) {
+                    snapshot.setSiteTrace(snapshot.findThing(ids.get(i)), traces[i]);
+                }
+            }
+            for (RootRecord r : roots) {
+                addRoot(r);
+            }
+            ids = null;
+            kinds = null;
+            classIds = null;
+            offsets = null;
+            classes = null;
+            traces = null;
+        }
+
+        private void add(long id, com.sun.tools.hat2.internal.model.JavaClass c,
+                         com.sun.tools.hat2.internal.model.StackTrace trace) {
+            classes.add(c);
+            add(id, (byte) 0, 0, 0, trace);
+        }
+
+        // kind is as for Snapshot.addHeapObject()
+        private void add(long id, byte kind, long classId, long offset,
+                         com.sun.tools.hat2.internal.model.StackTrace trace) {
+            if (count == kinds.length) {
+                int newLength = count + (count >> 1);
+                ArrayStore store = snapshot.getArrayStore();
+                ids = store.copyOf(ids, newLength);
+                kinds = Arrays.copyOf(kinds, newLength);
+                classIds = store.copyOf(classIds, newLength);
+                offsets = store.copyOf(offsets, newLength);
+                if (traces != null) {
+                    traces = Arrays.copyOf(traces, newLength);
+                }
+            }
+            if (trace != null && traces == null) {
+                traces = new com.sun.tools.hat2.internal.model.StackTrace[kinds.length];
+            }
+            ids.set(count, id);
+            kinds[count] = kind;
+            classIds.set(count, classId);
+            offsets.set(count, offset);
+            if (traces != null) {
+                traces[count] = trace;
+            }
+            count++;
+        }
+
+        private void readSubRecords() throws IOException {
+            while (input.position() < end) {
+                int type = readUnsignedByte();
+                if (debugLevel > 0) {
+                    System.out.println("    Read heap sub-record type " + type
+                                       + " at position "
+                                       + toHex(input.position() - 1));
+                }
+                switch(type) {
+                    case HPROF_GC_ROOT_UNKNOWN:
+                    case HPROF_GC_ROOT_STICKY_CLASS:
+                    case HPROF_GC_ROOT_MONITOR_USED: {
+                        long id = readID();
+                        roots.add(new RootRecord(type, id, 0, 0));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_THREAD_OBJ: {
+                        long id = readID();
+                        int threadSeq = readInt();
+                        int stackSeq = readInt();
+                        threadObjects.put(new Integer(threadSeq),
+                                          new ThreadObject(id, stackSeq));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_JNI_GLOBAL: {
+                        long id = readID();
+                        long globalRefId = readID();        // Ignored, for now
+                        roots.add(new RootRecord(type, id, 0, 0));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_JNI_LOCAL:
+                    case HPROF_GC_ROOT_JAVA_FRAME: {
+                        long id = readID();
+                        int threadSeq = readInt();
+                        int depth = readInt();
+                        roots.add(new RootRecord(type, id, threadSeq, depth));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_NATIVE_STACK:
+                    case HPROF_GC_ROOT_THREAD_BLOCK: {
+                        long id = readID();
+                        int threadSeq = readInt();
+                        roots.add(new RootRecord(type, id, threadSeq, 0));
+                        break;
+                    }
+                    case HPROF_GC_CLASS_DUMP: {
+                        readClass();
+                        break;
+                    }
+                    case HPROF_GC_INSTANCE_DUMP: {
+                        readInstance();
+                        break;
+                    }
+                    case HPROF_GC_OBJ_ARRAY_DUMP: {
+                        readArray(false);
+                        break;
+                    }
+                    case HPROF_GC_PRIM_ARRAY_DUMP: {
+                        readArray(true);
+                        break;
+                    }
+                    default: {
+                        throw new IOException("Unrecognized heap dump sub-record type:  " + type);
+                    }
+                }
+            }
+            if (input.position() != end) {
+                warn("Error reading heap dump or heap dump segment:  Byte count is " + (end - input.position()) + " instead of 0");
+            }
+        }
+
+        //
+        // Read a java value.  If result is non-null, it's expected to be an
+        // array of one element.  We use it to fake multiple return values.
+        //
+        private void readValue(com.sun.tools.hat2.internal.model.JavaThing[] resultArr) throws IOException {
+            byte type = readByte();
+            readValueForType(type, resultArr);
+        }
+
+        private void readValueForType(byte type, com.sun.tools.hat2.internal.model.JavaThing[] resultArr)
+                throws IOException {
+            if (version >= VERSION_JDK12BETA4) {
+                type = signatureFromTypeId(type);
+            }
+            readValueForTypeSignature(type, resultArr);
+        }
+
+        private void readValueForTypeSignature(byte type, com.sun.tools.hat2.internal.model.JavaThing[] resultArr)
+                throws IOException {
+            switch (type) {
+                case '[':
+                case 'L': {
+                    long id = readID();
+                    if (resultArr != null) {
+                        resultArr[0] = new com.sun.tools.hat2.internal.model.JavaObjectRef(id);
+                    }
+                    break;
+                }
+                case 'Z': {
+                    int b = readByte();
+                    if (b != 0 && b != 1) {
+                        warn("Illegal boolean value read");
+                    }
+                    if (resultArr != null) {
+                        resultArr[0] = new com.sun.tools.hat2.internal.model.JavaBoolean(b != 0);
+                    }
+                    break;
+                }
+                case 'B': {
+                    byte b = readByte();
+                    if (resultArr != null) {
+                        resultArr[0] = new com.sun.tools.hat2.internal.model.JavaByte(b);
+                    }
+                    break;
+                }
+                case 'S': {
+                    short s = readShort();
+                    if (resultArr != null) {
+                        resultArr[0] = new com.sun.tools.hat2.internal.model.JavaShort(s);
+                    }
+                    break;
+                }
+                case 'C': {
+                    char ch = (char) readShort();
+                    if (resultArr != null) {
+                        resultArr[0] = new com.sun.tools.hat2.internal.model.JavaChar(ch);
+                    }
+                    break;
+                }
+                case 'I': {
+                    int val = readInt();
+                    if (resultArr != null) {
+                        resultArr[0] = new com.sun.tools.hat2.internal.model.JavaInt(val);
+                    }
+                    break;
+                }
+                case 'J': {
+                    long val = readLong();
+                    if (resultArr != null) {
+                        resultArr[0] = new com.sun.tools.hat2.internal.model.JavaLong(val);
+                    }
+                    break;
+                }
+                case 'F': {
+                    float val = Float.intBitsToFloat(readInt());
+                    if (resultArr != null) {
+                        resultArr[0] = new com.sun.tools.hat2.internal.model.JavaFloat(val);
+                    }
+                    break;
+                }
+                case 'D': {
+                    double val = Double.longBitsToDouble(readLong());
+                    if (resultArr != null) {
+                        resultArr[0] = new com.sun.tools.hat2.internal.model.JavaDouble(val);
+                    }
+                    break;
+                }
+                default: {
+                    throw new IOException("Bad value signature:  " + type);
+                }
+            }
+        }
+
+        //
+        // Handle a HPROF_GC_CLASS_DUMP
+        //
+        private void readClass() throws IOException {
+            long id = readID();
+            com.sun.tools.hat2.internal.model.StackTrace stackTrace = getStackTraceFromSerial(readInt());
+            long superId = readID();
+            long classLoaderId = readID();
+            long signersId = readID();
+            long protDomainId = readID();
+            long reserved1 = readID();
+            long reserved2 = readID();
+            int instanceSize = readInt();
+
+            int numConstPoolEntries = readUnsignedShort();
+            for (int i = 0; i < numConstPoolEntries; i++) {
+                int index = readUnsignedShort(); // unused
+                readValue(null);                 // We ignore the values
+            }
+
+            int numStatics = readUnsignedShort();
+            com.sun.tools.hat2.internal.model.JavaThing[] valueBin = new com.sun.tools.hat2.internal.model.JavaThing[1];
+            com.sun.tools.hat2.internal.model.JavaStatic[] statics = new com.sun.tools.hat2.internal.model.JavaStatic[numStatics];
+            for (int i = 0; i < numStatics; i++) {
+                long nameId = readID();
+                byte type = readByte();
+                readValueForType(type, valueBin);
+                String fieldName = getNameFromID(nameId);
+                if (version >= VERSION_JDK12BETA4) {
+                    type = signatureFromTypeId(type);
+                }
+                String signature = "" + ((char) type);
+                com.sun.tools.hat2.internal.model.JavaField
+                    f = new com.sun.tools.hat2.internal.model.JavaField(fieldName, signature);
+                statics[i] = new com.sun.tools.hat2.internal.model.JavaStatic(f, valueBin[0]);
+            }
+
+            int numFields = readUnsignedShort();
+            com.sun.tools.hat2.internal.model.JavaField[] fields = new com.sun.tools.hat2.internal.model.JavaField[numFields];
+            for (int i = 0; i < numFields; i++) {
+                long nameId = readID();
+                byte type = readByte();
+                String fieldName = getNameFromID(nameId);
+                if (version >= VERSION_JDK12BETA4) {
+                    type = signatureFromTypeId(type);
+                }
+                String signature = "" + ((char) type);
+                fields[i] = new com.sun.tools.hat2.internal.model.JavaField(fieldName, signature);
+            }
+            String name = classNameFromObjectID.get(new Long(id));
+            if (name == null) {
+                warn("Class name not found for " + toHex(id));
+                name = "unknown-name@" + toHex(id);
+            }
+            com.sun.tools.hat2.internal.model.JavaClass
+                c = new com.sun.tools.hat2.internal.model.JavaClass(id, name, superId, classLoaderId, signersId,
+                                        protDomainId, fields, statics,
+                                        instanceSize);
+            add(id, c, stackTrace);
+        }
+
+        //
+        // Handle a HPROF_GC_INSTANCE_DUMP
+        //
+        private void readInstance() throws IOException {
+            long start = input.position();
+            long id = readID();
+            com.sun.tools.hat2.internal.model.StackTrace stackTrace = getStackTraceFromSerial(readInt());
+            long classID = readID();
+            int bytesFollowing = readInt();
+            skip(bytesFollowing);
+            add(id, Snapshot.INSTANCE, classID, start, stackTrace);
+        }
+
+        //
+        // Handle a HPROF_GC_OBJ_ARRAY_DUMP or HPROF_GC_PRIM_ARRAY_DUMP
+        //
+        private void readArray(boolean isPrimitive) throws IOException {
+            long start = input.position();
+            long id = readID();
+            com.sun.tools.hat2.internal.model.StackTrace stackTrace = getStackTraceFromSerial(readInt());
+            int num = readInt();
+            long elementClassID;
+            if (isPrimitive) {
+                elementClassID = readByte();
+            } else {
+                elementClassID = readID();
+            }
+
+            // Check for primitive arrays:
+            byte primitiveSignature = 0x00;
+            int elSize = 0;
+            if (isPrimitive || version < VERSION_JDK12BETA4) {
+                switch ((int)elementClassID) {
+                    case T_BOOLEAN: {
+                        primitiveSignature = (byte) 'Z';
+                        elSize = 1;
+                        break;
+                    }
+                    case T_CHAR: {
+                        primitiveSignature = (byte) 'C';
+                        elSize = 2;
+                        break;
+                    }
+                    case T_FLOAT: {
+                        primitiveSignature = (byte) 'F';
+                        elSize = 4;
+                        break;
+                    }
+                    case T_DOUBLE: {
+                        primitiveSignature = (byte) 'D';
+                        elSize = 8;
+                        break;
+                    }
+                    case T_BYTE: {
+                        primitiveSignature = (byte) 'B';
+                        elSize = 1;
+                        break;
+                    }
+                    case T_SHORT: {
+                        primitiveSignature = (byte) 'S';
+                        elSize = 2;
+                        break;
+                    }
+                    case T_INT: {
+                        primitiveSignature = (byte) 'I';
+                        elSize = 4;
+                        break;
+                    }
+                    case T_LONG: {
+                        primitiveSignature = (byte) 'J';
+                        elSize = 8;
+                        break;
+                    }
+                }
+                if (version >= VERSION_JDK12BETA4 && primitiveSignature == 0x00) {
+                    throw new IOException("Unrecognized typecode:  "
+                                            + elementClassID);
+                }
+            }
+            if (primitiveSignature != 0x00) {
+                skip((long) elSize * num);
+                add(id, primitiveSignature, 0, start, stackTrace);
+            } else {
+                skip((long) identifierSize * num);
+                add(id, Snapshot.OBJECT_ARRAY, elementClassID, start, stackTrace);
+            }
+        }
+
+        private long readID() throws IOException {
+            return input.readID(identifierSize);
+        }
+
+        private byte readByte() throws IOException {
+            return input.readByte();
+        }
+
+        private int readUnsignedByte() throws IOException {
+            return input.readUnsignedByte();
+        }
+
+        private short readShort() throws IOException {
+            return input.readShort();
+        }
+
+        private int readUnsignedShort() throws IOException {
+            return input.readUnsignedShort();
+        }
+
+        private int readInt() throws IOException {
+            return input.readInt();
+        }
+
+        private long readLong() throws IOException {
+            return input.readLong();
+        }
+
+        private void skip(long n) {
+            input.skipBytes(n);
+        }
+    }
+
     //
     // A trivial data-holder class for HPROF_GC_ROOT_THREAD_OBJ.
     //
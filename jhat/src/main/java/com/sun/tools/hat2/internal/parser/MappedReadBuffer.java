@@ -34,6 +34,7 @@ package com.sun.tools.hat2.internal.parser;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
@@ -43,7 +44,7 @@ import java.nio.channels.FileChannel;
  * @author A. Sundararajan
  */
 class MappedReadBuffer implements com.sun.tools.hat2.internal.parser.ReadBuffer {
-    private MappedByteBuffer buf;
+    private final MappedByteBuffer buf;
 
     MappedReadBuffer(MappedByteBuffer buf) {
         this.buf = buf;
@@ -53,14 +54,20 @@ class MappedReadBuffer implements com.sun.tools.hat2.internal.parser.ReadBuffer
     static ReadBuffer create(RandomAccessFile file) throws IOException {
         FileChannel ch = file.getChannel();
         long size = ch.size();
-        // if file size is more than 2 GB and when file mapping is
-        // configured (default), use mapped file reader
-        if (canUseFileMap() && (size <= Integer.MAX_VALUE)) {
-            MappedByteBuffer buf;
+        // when file mapping is configured (default), use mapped file
+        // reader.  Files of more than 2 GB are mapped in chunks.
+        if (canUseFileMap()) {
             try {
-                buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                ReadBuffer res;
+                if (size <= Integer.MAX_VALUE) {
+                    res = new MappedReadBuffer(
+                        ch.map(FileChannel.MapMode.READ_ONLY, 0, size));
+                } else {
+                    res = ChunkedMappedReadBuffer.map(ch,
+                        ChunkedMappedReadBuffer.DEFAULT_CHUNK_SHIFT);
+                }
                 ch.close();
-                return new MappedReadBuffer(buf);
+                return res;
             } catch (IOException exp) {
                 exp.printStackTrace();
                 System.err.println("File mapping failed, will use direct read");
@@ -77,38 +84,41 @@ class MappedReadBuffer implements com.sun.tools.hat2.internal.parser.ReadBuffer
         return prop == null || prop.equals("false");
     }
 
-    private void seek(long pos) throws IOException {
-        assert pos <= Integer.MAX_VALUE :  "position overflow";
-        buf.position((int)pos);
+    // read positions are always absolute, so no locking is needed.
+    // Byte array reads go through a private duplicate of the buffer.
+
+    public void get(long pos, byte[] res) throws IOException {
+        get(pos, res, 0, res.length);
     }
 
-    public synchronized void get(long pos, byte[] res) throws IOException {
-        seek(pos);
-        buf.get(res);
+    public void get(long pos, byte[] res, int off, int len) throws IOException {
+        ByteBuffer dup = buf.duplicate();
+        dup.position(index(pos));
+        dup.get(res, off, len);
     }
 
-    public synchronized char getChar(long pos) throws IOException {
-        seek(pos);
-        return buf.getChar();
+    public char getChar(long pos) throws IOException {
+        return buf.getChar(index(pos));
     }
 
-    public synchronized byte getByte(long pos) throws IOException {
-        seek(pos);
-        return buf.get();
+    public byte getByte(long pos) throws IOException {
+        return buf.get(index(pos));
     }
 
-    public synchronized short getShort(long pos) throws IOException {
-        seek(pos);
-        return buf.getShort();
+    public short getShort(long pos) throws IOException {
+        return buf.getShort(index(pos));
     }
 
-    public synchronized int getInt(long pos) throws IOException {
-        seek(pos);
-        return buf.getInt();
+    public int getInt(long pos) throws IOException {
+        return buf.getInt(index(pos));
     }
 
-    public synchronized long getLong(long pos) throws IOException {
-        seek(pos);
-        return buf.getLong();
+    public long getLong(long pos) throws IOException {
+        return buf.getLong(index(pos));
+    }
+
+    private static int index(long pos) {
+        assert pos <= Integer.MAX_VALUE :  "position overflow";
+        return (int) pos;
     }
 }
@@ -41,8 +41,11 @@ import java.io.IOException;
  */
 public interface ReadBuffer {
     // read methods - only byte array and int primitive types.
-    // read position has to be specified always.
+    // read position has to be specified always.  Implementations must
+    // not depend on a shared read position, so that any number of
+    // threads can read at the same time.
     public void  get(long pos, byte[] buf) throws IOException;
+    public void  get(long pos, byte[] buf, int off, int len) throws IOException;
     public char  getChar(long pos) throws IOException;
     public byte  getByte(long pos) throws IOException;
     public short getShort(long pos) throws IOException;
@@ -35,6 +35,8 @@ package com.sun.tools.hat2.internal.parser;
 import java.io.*;
 
 import com.sun.tools.hat2.internal.model.Snapshot;
+import com.sun.tools.hat2.internal.model.SnapshotIndex;
+import com.sun.tools.hat2.internal.util.ArrayStore;
 
 /**
  * Abstract base class for reading object dump files.  A reader need not be
@@ -45,6 +47,9 @@ import com.sun.tools.hat2.internal.model.Snapshot;
 
 
 public abstract class Reader {
+    // suffix of the index file written next to a dump
+    private static final String INDEX_SUFFIX = ".hatidx";
+
     protected com.sun.tools.hat2.internal.parser.PositionDataInputStream in;
 
     protected Reader(com.sun.tools.hat2.internal.parser.PositionDataInputStream in) {
@@ -66,31 +71,84 @@ public abstract class Reader {
     public static Snapshot readFile(String heapFile, boolean callStack,
                                     int debugLevel)
             throws IOException {
-        int dumpNumber = 1;
-        int pos = heapFile.lastIndexOf('#');
-        if (pos > -1) {
-            String num = heapFile.substring(pos+1, heapFile.length());
-            try {
-                dumpNumber = Integer.parseInt(num, 10);
-            } catch (java.lang.NumberFormatException ex) {
-                String msg = "In file name \"" + heapFile
-                             + "\", a dump number was "
-                             + "expected after the :, but \""
-                             + num + "\" was found instead.";
-                System.err.println(msg);
-                throw new IOException(msg);
+        return readFile(heapFile, callStack, debugLevel, false,
+                        Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Read a snapshot from a file, or from its index if it has an up to
+     * date one.
+     *
+     * @param heapFile The name of a file containing a heap dump
+     * @param callStack If true, read the call stack of allocation sites
+     * @param useIndex If true, try the index of heapFile first
+     * @param parallelism The number of threads used to read and resolve
+     *                    the snapshot
+     */
+    public static Snapshot readFile(String heapFile, boolean callStack,
+                                    int debugLevel, boolean useIndex,
+                                    int parallelism)
+            throws IOException {
+        return readFile(heapFile, callStack, debugLevel, useIndex,
+                        parallelism, false);
+    }
+
+    /**
+     * Read a snapshot from a file, or from its index if it has an up to
+     * date one.
+     *
+     * @param compactObjects If true, keep instances and arrays in compact
+     *                       form, see Snapshot.setCompactObjects()
+     */
+    public static Snapshot readFile(String heapFile, boolean callStack,
+                                    int debugLevel, boolean useIndex,
+                                    int parallelism, boolean compactObjects)
+            throws IOException {
+        return readFile(heapFile, callStack, debugLevel, useIndex,
+                        parallelism, compactObjects, ArrayStore.HEAP);
+    }
+
+    /**
+     * Read a snapshot from a file, or from its index if it has an up to
+     * date one.
+     *
+     * @param store Makes the large tables of the snapshot, see
+     *              Snapshot.setArrayStore()
+     */
+    public static Snapshot readFile(String heapFile, boolean callStack,
+                                    int debugLevel, boolean useIndex,
+                                    int parallelism, boolean compactObjects,
+                                    ArrayStore store)
+            throws IOException {
+        int dumpNumber = dumpNumber(heapFile);
+        heapFile = dumpFileName(heapFile);
+        if (useIndex) {
+            Snapshot snapshot = readIndex(heapFile, dumpNumber, callStack,
+                                          compactObjects, store);
+            if (snapshot != null) {
+                snapshot.setParallelism(parallelism);
+                return snapshot;
             }
-            heapFile = heapFile.substring(0, pos);
         }
         com.sun.tools.hat2.internal.parser.PositionDataInputStream in = new PositionDataInputStream(
             new BufferedInputStream(new FileInputStream(heapFile)));
         try {
             int i = in.readInt();
             if (i == com.sun.tools.hat2.internal.parser.HprofReader.MAGIC_NUMBER) {
-                Reader r
+                HprofReader r
                     = new HprofReader(heapFile, in, dumpNumber,
                                       callStack, debugLevel);
-                return r.read();
+                r.setParallelism(parallelism);
+                r.setCompactObjects(compactObjects);
+                r.setArrayStore(store);
+                long start = System.currentTimeMillis();
+                Snapshot snapshot = r.read();
+                long time = Math.max(System.currentTimeMillis() - start, 1);
+                long length = new File(heapFile).length();
+                System.out.println("Dump read in " + time + " ms ("
+                                   + (length * 1000 / time) / (1024 * 1024)
+                                   + " MB/s).");
+                return snapshot;
             } else {
                 throw new IOException("Unrecognized magic number: " + i);
             }
@@ -98,4 +156,127 @@ public abstract class Reader {
             in.close();
         }
     }
+
+    /**
+     * Write the index of a resolved snapshot next to its dump, unless
+     * an up to date index is already there.  Failures are reported, but
+     * are not fatal.
+     */
+    public static void writeIndex(String heapFile, Snapshot snapshot,
+                                  boolean callStack) {
+        int dumpNumber;
+        try {
+            dumpNumber = dumpNumber(heapFile);
+        } catch (IOException ex) {
+            return;
+        }
+        heapFile = dumpFileName(heapFile);
+        File dump = new File(heapFile);
+        File indexFile = indexFileFor(heapFile, dumpNumber);
+        SnapshotIndex index = new SnapshotIndex(dump.length(), dump.lastModified(),
+                                                dumpNumber, callStack);
+        if (!index.canWrite(snapshot)) {
+            System.out.println("Not writing an index: the snapshot has allocation site traces.");
+            return;
+        }
+        try {
+            if (indexFile.exists() && matches(index, indexFile, true)) {
+                return;
+            }
+            System.out.println("Writing index to " + indexFile + "...");
+            long start = System.currentTimeMillis();
+            index.write(snapshot, indexFile);
+            System.out.println("Index written in "
+                               + (System.currentTimeMillis() - start) + " ms.");
+        } catch (IOException ex) {
+            System.out.println("WARNING: could not write index "
+                               + indexFile + ": " + ex);
+        }
+    }
+
+    // Internals only below this point
+
+    private static Snapshot readIndex(String heapFile, int dumpNumber,
+                                      boolean callStack, boolean compactObjects,
+                                      ArrayStore store) {
+        File dump = new File(heapFile);
+        File indexFile = indexFileFor(heapFile, dumpNumber);
+        if (!indexFile.exists()) {
+            return null;
+        }
+        SnapshotIndex index = new SnapshotIndex(dump.length(), dump.lastModified(),
+                                                dumpNumber, callStack);
+        try {
+            RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+            try {
+                long length = file.length();
+                ReadBuffer buf = MappedReadBuffer.create(file);
+                if (!index.matches(buf, length, false)) {
+                    System.out.println("Index " + indexFile
+                                       + " does not match the dump, ignoring it.");
+                    return null;
+                }
+                System.out.println("Reading index " + indexFile + "...");
+                long start = System.currentTimeMillis();
+                Snapshot snapshot = index.read(buf, length,
+                        MappedReadBuffer.create(new RandomAccessFile(heapFile, "r")),
+                        compactObjects, store);
+                System.out.println("Index read in "
+                                   + (System.currentTimeMillis() - start) + " ms.");
+                return snapshot;
+            } finally {
+                file.close();
+            }
+        } catch (IOException ex) {
+            System.out.println("WARNING: could not read index "
+                               + indexFile + ", ignoring it: " + ex);
+            return null;
+        }
+    }
+
+    private static boolean matches(SnapshotIndex index, File indexFile,
+                                   boolean needReferers) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try {
+            long length = file.length();
+            return index.matches(MappedReadBuffer.create(file), length,
+                                 needReferers);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static File indexFileFor(String heapFile, int dumpNumber) {
+        if (dumpNumber == 1) {
+            return new File(heapFile + INDEX_SUFFIX);
+        } else {
+            return new File(heapFile + "." + dumpNumber + INDEX_SUFFIX);
+        }
+    }
+
+    // The number after '#' in heapFile, if any
+    private static int dumpNumber(String heapFile) throws IOException {
+        int dumpNumber = 1;
+        int pos = heapFile.lastIndexOf('#');
+        if (pos > -1) {
+            String num = heapFile.substring(pos+1, heapFile.length());
+            try {
+                dumpNumber = Integer.parseInt(num, 10);
+            } catch (java.lang.NumberFormatException ex) {
+                String msg = "In file name \"" + heapFile
+                             + "\", a dump number was "
+                             + "expected after the :, but \""
+                             + num + "\" was found instead.";
+                System.err.println(msg);
+                throw new IOException(msg);
+            }
+        }
+        return dumpNumber;
+    }
+
+    // heapFile without the dump number
+    private static String dumpFileName(String heapFile) {
+        int pos = heapFile.lastIndexOf('#');
+        return (pos > -1)? heapFile.substring(0, pos) : heapFile;
+    }
 }
@@ -47,6 +47,9 @@ class AllClassesQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
     boolean excludePlatform;
     boolean oqlSupported;
 
+    // How many classes are shown on a page unless ?limit= says otherwise
+    private static final int DEFAULT_LIMIT = 2000;
+
     public AllClassesQuery(boolean excludePlatform, boolean oqlSupported) {
         this.excludePlatform = excludePlatform;
         this.oqlSupported = oqlSupported;
@@ -59,14 +62,26 @@ class AllClassesQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
             startHtml("All Classes (including platform)");
         }
 
+        // the position in the classes to start at, and how many to show,
+        // or 0 for all of them
+        int start = Math.max(0, getIntParameter("start", 0));
+        int limit = Math.max(0, getIntParameter("limit", DEFAULT_LIMIT));
         Iterator classes = snapshot.getClasses();
+        int position = 0;
+        while (position < start && classes.hasNext()) {
+            classes.next();
+            position++;
+        }
+        int shown = 0;
         String lastPackage = null;
-        while (classes.hasNext()) {
+        while (classes.hasNext() && (limit == 0 || shown < limit)) {
             JavaClass clazz = (com.sun.tools.hat2.internal.model.JavaClass) classes.next();
+            position++;
             if (excludePlatform && PlatformClasses.isPlatformClass(clazz)) {
                 // skip this..
                 continue;
             }
+            shown++;
             String name = clazz.getName();
             int pos = name.lastIndexOf(".");
             String pkg;
@@ -89,6 +104,8 @@ class AllClassesQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
             }
             out.println("<br>");
         }
+        printPageLinks(excludePlatform? "" : "allClassesWithPlatform/",
+                       start, position, limit, classes.hasNext());
 
         out.println("<h2>Other Queries</h2>");
         out.println("<ul>");
@@ -134,6 +151,12 @@ class AllClassesQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
         print("Show finalizer summary");
         out.println("</a>");
 
+        out.println("<li>");
+        printAnchorStart();
+        out.print("topRetainers/\">");
+        print("Show top retainers (computes the dominator tree)");
+        out.println("</a>");
+
         if (oqlSupported) {
             out.println("<li>");
             printAnchorStart();
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import java.util.Arrays;
+
+import com.sun.tools.hat2.internal.model.JavaClass;
+
+/**
+ * The heap histogram as JSON, ordered like the /histo/ page.
+ */
+
+class ApiHistogramQuery extends ApiQuery {
+
+    void writeJson() {
+        JavaClass[] classes = snapshot.getClassesArray();
+        Arrays.sort(classes, HistogramQuery.getComparator(getQueryPath()));
+        json.beginObject();
+        json.name("classes").beginArray();
+        for (int i = 0; i < classes.length; i++) {
+            JavaClass clazz = classes[i];
+            json.beginObject();
+            json.name("id");
+            writeId(clazz);
+            json.name("name").value(clazz.getName());
+            json.name("count").value(clazz.getInstancesCount(false));
+            json.name("size").value(clazz.getTotalInstanceSize());
+            if (snapshot.getHasNewSet()) {
+                json.name("newCount").value(clazz.getNewInstancesCount());
+            }
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import java.util.Enumeration;
+
+import com.sun.tools.hat2.internal.model.JavaClass;
+import com.sun.tools.hat2.internal.model.JavaHeapObject;
+
+/**
+ * The instances of a class as JSON.  All of them are written unless
+ * ?limit= says otherwise; ?start= resumes at the position given by
+ * "next" in an earlier answer.
+ */
+
+class ApiInstancesQuery extends ApiQuery {
+
+    private boolean includeSubclasses;
+
+    public ApiInstancesQuery(boolean includeSubclasses) {
+        this.includeSubclasses = includeSubclasses;
+    }
+
+    void writeJson() {
+        JavaClass clazz = snapshot.findClass(getQueryPath());
+        if (clazz == null) {
+            error("class not found: " + getQueryPath());
+            return;
+        }
+        int start = Math.max(0, getIntParameter("start", 0));
+        int limit = Math.max(0, getIntParameter("limit", 0));
+        json.beginObject();
+        json.name("class");
+        writeClass(clazz);
+        json.name("count").value(clazz.getInstancesCount(includeSubclasses));
+        json.name("start").value(start);
+        json.name("instances").beginArray();
+        Enumeration objects = clazz.getInstances(includeSubclasses, start);
+        int position = start;
+        while (objects.hasMoreElements()
+                && (limit == 0 || position - start < limit)) {
+            writeObject((JavaHeapObject) objects.nextElement());
+            if (++position % FLUSH_INTERVAL == 0) {
+                out.flush();
+            }
+        }
+        json.endArray();
+        if (objects.hasMoreElements()) {
+            json.name("next").value(position);
+        }
+        json.endObject();
+    }
+}
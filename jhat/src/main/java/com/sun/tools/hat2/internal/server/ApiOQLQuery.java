@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.tools.hat2.internal.model.JavaThing;
+import com.sun.tools.hat2.internal.oql.OQLEngine;
+import com.sun.tools.hat2.internal.oql.OQLException;
+import com.sun.tools.hat2.internal.oql.ObjectVisitor;
+import com.sun.tools.hat2.internal.oql.QueryControl;
+
+/**
+ * The results of an OQL query, given as ?query=, as JSON.  Heap
+ * objects are written as objects, numbers, strings and booleans as
+ * themselves, the array and object of a compiled top() or countBy() as
+ * an array and an object, and anything else the way it prints.  If the query
+ * fails part way, the results so far are followed by "error".  If it
+ * stops at the server's row limit, "truncated" is true.
+ */
+
+class ApiOQLQuery extends ApiQuery {
+
+    private OQLEngine engine;
+
+    public ApiOQLQuery(OQLEngine engine) {
+        this.engine = engine;
+    }
+
+    boolean isExpensive() {
+        return true;
+    }
+
+    void writeJson() {
+        // the query is the rest, as it can have '&' in it
+        String oql = null;
+        int index = query.indexOf("?query=");
+        if (index != -1) {
+            oql = query.substring(index + 7);
+        }
+        if (oql == null || oql.equals("")) {
+            error("no query given");
+            return;
+        }
+        json.beginObject();
+        json.name("results").beginArray();
+        String failure = null;
+        QueryControl control = engine.newQueryControl();
+        try {
+            engine.executeQuery(oql, new ObjectVisitor() {
+                    private int count;
+
+                    public boolean visit(Object o) {
+                        writeResult(o);
+                        if (++count % FLUSH_INTERVAL == 0) {
+                            // stop if the client has gone away
+                            return out.checkError();
+                        }
+                        return false;
+                    }
+                }, control);
+        } catch (OQLException exp) {
+            failure = exp.getMessage();
+        }
+        json.endArray();
+        if (control.isTruncated()) {
+            json.name("truncated").value(true);
+        }
+        if (failure != null) {
+            json.name("error").value(failure);
+        }
+        json.endObject();
+    }
+
+    private void writeResult(Object o) {
+        if (o == null || o instanceof JavaThing) {
+            writeThing((JavaThing) o);
+        } else if (o instanceof Boolean) {
+            json.value(((Boolean) o).booleanValue());
+        } else if (o instanceof Long || o instanceof Integer
+                   || o instanceof Short || o instanceof Byte) {
+            json.value(((Number) o).longValue());
+        } else if (o instanceof Number) {
+            json.value(((Number) o).doubleValue());
+        } else if (o instanceof List) {
+            json.beginArray();
+            for (Object element : (List) o) {
+                writeResult(element);
+            }
+            json.endArray();
+        } else if (o instanceof LinkedHashMap) {
+            json.beginObject();
+            for (Object e : ((Map) o).entrySet()) {
+                json.name(String.valueOf(((Map.Entry) e).getKey()));
+                writeResult(((Map.Entry) e).getValue());
+            }
+            json.endObject();
+        } else {
+            json.value(o.toString());
+        }
+    }
+}
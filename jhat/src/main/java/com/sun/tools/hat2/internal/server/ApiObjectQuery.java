@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import java.util.Enumeration;
+
+import com.sun.tools.hat2.internal.model.JavaClass;
+import com.sun.tools.hat2.internal.model.JavaField;
+import com.sun.tools.hat2.internal.model.JavaHeapObject;
+import com.sun.tools.hat2.internal.model.JavaObject;
+import com.sun.tools.hat2.internal.model.JavaObjectArray;
+import com.sun.tools.hat2.internal.model.JavaStatic;
+import com.sun.tools.hat2.internal.model.JavaThing;
+import com.sun.tools.hat2.internal.model.JavaValueArray;
+import com.sun.tools.hat2.internal.model.Root;
+
+/**
+ * An object, with its contents and the objects that refer to it, as
+ * JSON.
+ */
+
+class ApiObjectQuery extends ApiQuery {
+
+    void writeJson() {
+        JavaHeapObject thing = snapshot.findThing(parseHex(getQueryPath()));
+        if (thing == null) {
+            error("object not found");
+            return;
+        }
+        json.beginObject();
+        json.name("id");
+        writeId(thing);
+        json.name("class").value(thing.getClazz().getName());
+        json.name("size").value(thing.getSize());
+        Root root = thing.getRoot();
+        if (root != null) {
+            json.name("root").beginObject();
+            json.name("type").value(root.getTypeName());
+            json.name("description").value(root.getDescription());
+            json.endObject();
+        }
+        if (thing instanceof JavaClass) {
+            writeClassContents((JavaClass) thing);
+        } else if (thing instanceof JavaValueArray) {
+            JavaValueArray arr = (JavaValueArray) thing;
+            json.name("length").value(arr.getLength());
+            json.name("value").value(arr.valueString(true));
+        } else if (thing instanceof JavaObjectArray) {
+            JavaThing[] elements = ((JavaObjectArray) thing).getElements();
+            json.name("length").value(elements.length);
+            json.name("elements").beginArray();
+            for (int i = 0; i < elements.length; i++) {
+                writeThing(elements[i]);
+            }
+            json.endArray();
+        } else if (thing instanceof JavaObject) {
+            JavaObject obj = (JavaObject) thing;
+            JavaThing[] values = obj.getFields();
+            JavaField[] fields = obj.getClazz().getFieldsForInstance();
+            json.name("fields").beginArray();
+            for (int i = 0; i < values.length; i++) {
+                json.beginObject();
+                json.name("name").value(fields[i].getName());
+                json.name("value");
+                writeThing(values[i]);
+                json.endObject();
+            }
+            json.endArray();
+        }
+        json.name("referers").beginArray();
+        Enumeration referers = thing.getReferers();
+        while (referers.hasMoreElements()) {
+            writeObject((JavaHeapObject) referers.nextElement());
+        }
+        json.endArray();
+        json.endObject();
+    }
+
+    private void writeClassContents(JavaClass clazz) {
+        json.name("name").value(clazz.getName());
+        json.name("superclass");
+        JavaClass superclass = clazz.getSuperclass();
+        if (superclass == null) {
+            json.nullValue();
+        } else {
+            writeClass(superclass);
+        }
+        json.name("loader");
+        writeThing(clazz.getLoader());
+        json.name("instances").value(clazz.getInstancesCount(false));
+        json.name("fields").beginArray();
+        JavaField[] fields = clazz.getFields();
+        for (int i = 0; i < fields.length; i++) {
+            json.beginObject();
+            json.name("name").value(fields[i].getName());
+            json.name("signature").value(fields[i].getSignature());
+            json.endObject();
+        }
+        json.endArray();
+        json.name("statics").beginArray();
+        JavaStatic[] statics = clazz.getStatics();
+        for (int i = 0; i < statics.length; i++) {
+            json.beginObject();
+            json.name("name").value(statics[i].getField().getName());
+            json.name("value");
+            writeThing(statics[i].getValue());
+            json.endObject();
+        }
+        json.endArray();
+        json.name("subclasses").beginArray();
+        JavaClass[] subclasses = clazz.getSubclasses();
+        for (int i = 0; i < subclasses.length; i++) {
+            writeClass(subclasses[i]);
+        }
+        json.endArray();
+    }
+}
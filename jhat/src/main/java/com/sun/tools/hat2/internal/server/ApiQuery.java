@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import com.sun.tools.hat2.internal.model.JavaClass;
+import com.sun.tools.hat2.internal.model.JavaHeapObject;
+import com.sun.tools.hat2.internal.model.JavaThing;
+
+/**
+ * A query of the /api/ tree, which answers with JSON instead of HTML.
+ * Objects are written as {"id": "0x...", "class": name, "size": bytes},
+ * with ids in hex so that they fit JavaScript numbers and match the
+ * ids in the URLs of the other queries.  Null references are null, and
+ * values of primitive fields and elements are written as strings, the
+ * way Java prints them.
+ */
+
+abstract class ApiQuery extends QueryHandler {
+
+    protected JsonWriter json;
+
+    // Results are sent on to the client in batches of this many
+    protected static final int FLUSH_INTERVAL = 1000;
+
+    String getContentType() {
+        return "application/json; charset=UTF-8";
+    }
+
+    void run() {
+        json = new JsonWriter(out);
+        writeJson();
+        out.println();
+    }
+
+    /**
+     * Write the one JSON value that is the answer to the query.
+     */
+    abstract void writeJson();
+
+    // A query that cannot be answered is answered with an error object
+    protected void error(String msg) {
+        json.beginObject();
+        json.name("error").value(msg);
+        json.endObject();
+    }
+
+    protected void writeThing(JavaThing thing) {
+        if (thing == null || thing == snapshot.getNullThing()) {
+            json.nullValue();
+        } else if (thing instanceof JavaHeapObject) {
+            writeObject((JavaHeapObject) thing);
+        } else {
+            json.value(thing.toString());
+        }
+    }
+
+    protected void writeObject(JavaHeapObject obj) {
+        json.beginObject();
+        json.name("id");
+        writeId(obj);
+        json.name("class").value(obj.getClazz().getName());
+        json.name("size").value(obj.getSize());
+        json.endObject();
+    }
+
+    protected void writeClass(JavaClass clazz) {
+        json.beginObject();
+        json.name("id");
+        writeId(clazz);
+        json.name("name").value(clazz.getName());
+        json.endObject();
+    }
+
+    // Fake classes have no id
+    protected void writeId(JavaHeapObject obj) {
+        if (obj.getId() == -1) {
+            json.nullValue();
+        } else {
+            json.value(obj.getIdString());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import com.sun.tools.hat2.internal.model.JavaHeapObject;
+import com.sun.tools.hat2.internal.model.JavaThing;
+import com.sun.tools.hat2.internal.model.ReachableObjects;
+
+/**
+ * The objects reachable from an object as JSON, largest first, leaving
+ * out the data members of the exclude file.
+ */
+
+class ApiReachableQuery extends ApiQuery {
+
+    boolean isExpensive() {
+        return true;
+    }
+
+    void writeJson() {
+        JavaHeapObject root = snapshot.findThing(parseHex(getQueryPath()));
+        if (root == null) {
+            error("object not found");
+            return;
+        }
+        ReachableObjects ro = new ReachableObjects(root,
+                                   snapshot.getReachableExcludes());
+        JavaThing[] things = ro.getReachables();
+        json.beginObject();
+        json.name("root");
+        writeObject(root);
+        json.name("count").value(things.length);
+        json.name("totalSize").value(ro.getTotalSize());
+        json.name("objects").beginArray();
+        for (int i = 0; i < things.length; i++) {
+            writeThing(things[i]);
+            if ((i + 1) % FLUSH_INTERVAL == 0) {
+                out.flush();
+            }
+        }
+        json.endArray();
+        writeStrings("usedFields", ro.getUsedFields());
+        writeStrings("excludedFields", ro.getExcludedFields());
+        json.endObject();
+    }
+
+    private void writeStrings(String name, String[] values) {
+        json.name(name).beginArray();
+        for (int i = 0; i < values.length; i++) {
+            json.value(values[i]);
+        }
+        json.endArray();
+    }
+}
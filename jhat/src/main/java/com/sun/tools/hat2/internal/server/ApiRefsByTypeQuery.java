@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sun.tools.hat2.internal.model.JavaClass;
+
+/**
+ * The classes of the objects that refer to the instances of a class,
+ * and of the objects that they refer to, with counts, as JSON.
+ */
+
+class ApiRefsByTypeQuery extends ApiQuery {
+
+    boolean isExpensive() {
+        return true;
+    }
+
+    void writeJson() {
+        JavaClass clazz = snapshot.findClass(getQueryPath());
+        if (clazz == null) {
+            error("class not found: " + getQueryPath());
+            return;
+        }
+        Map<JavaClass, Long> referrersStat = new HashMap<JavaClass, Long>();
+        Map<JavaClass, Long> refereesStat = new HashMap<JavaClass, Long>();
+        RefsByTypeQuery.countReferences(clazz, referrersStat, refereesStat);
+        json.beginObject();
+        json.name("class");
+        writeClass(clazz);
+        json.name("referrers");
+        writeCounts(referrersStat);
+        json.name("referees");
+        writeCounts(refereesStat);
+        json.endObject();
+    }
+
+    private void writeCounts(Map<JavaClass, Long> map) {
+        JavaClass[] classes = RefsByTypeQuery.sortByCount(map);
+        json.beginArray();
+        for (int i = 0; i < classes.length; i++) {
+            json.beginObject();
+            json.name("class");
+            writeClass(classes[i]);
+            json.name("count").value(map.get(classes[i]).longValue());
+            json.endObject();
+        }
+        json.endArray();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import com.sun.tools.hat2.internal.model.JavaHeapObject;
+import com.sun.tools.hat2.internal.model.ReferenceChain;
+import com.sun.tools.hat2.internal.model.Root;
+
+/**
+ * Reference chains from the rootset to an object as JSON, shortest
+ * first.  Each path starts at the root object and ends at the target.
+ * All chains are written unless ?limit= says otherwise.
+ */
+
+class ApiRootsQuery extends ApiQuery {
+
+    private boolean includeWeak;
+
+    public ApiRootsQuery(boolean includeWeak) {
+        this.includeWeak = includeWeak;
+    }
+
+    boolean isExpensive() {
+        return true;
+    }
+
+    void writeJson() {
+        JavaHeapObject target = snapshot.findThing(parseHex(getQueryPath()));
+        if (target == null) {
+            error("object not found");
+            return;
+        }
+        int limit = Math.max(0, getIntParameter("limit", 0));
+        ReferenceChain[] refs;
+        if (limit == 1) {
+            ReferenceChain chain = snapshot.shortestRootsetReferenceTo(target, includeWeak);
+            refs = (chain == null)? new ReferenceChain[0]
+                                  : new ReferenceChain[] { chain };
+        } else {
+            refs = snapshot.rootsetReferencesTo(target, includeWeak, limit);
+        }
+        json.beginObject();
+        json.name("target");
+        writeObject(target);
+        json.name("chains").beginArray();
+        for (int i = 0; i < refs.length; i++) {
+            Root root = refs[i].getObj().getRoot();
+            json.beginObject();
+            json.name("root").beginObject();
+            json.name("type").value(root.getTypeName());
+            json.name("description").value(root.getDescription());
+            json.endObject();
+            json.name("path").beginArray();
+            for (ReferenceChain ref = refs[i]; ref != null; ref = ref.getNext()) {
+                writeObject(ref.getObj());
+            }
+            json.endArray();
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+    }
+}
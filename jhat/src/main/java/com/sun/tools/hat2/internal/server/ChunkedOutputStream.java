@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes an HTTP/1.1 response body with the chunked transfer coding,
+ * so that a response can be streamed without knowing its length and
+ * the connection can still be kept open afterwards.  Closing this
+ * stream ends the body but leaves the underlying stream open.
+ */
+
+class ChunkedOutputStream extends FilterOutputStream {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private final byte[] buffer;
+    private int count;
+    private boolean closed;
+
+    ChunkedOutputStream(OutputStream out, int chunkSize) {
+        super(out);
+        this.buffer = new byte[chunkSize];
+    }
+
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            writeChunk(buffer, 0, count);
+            count = 0;
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= buffer.length - count) {
+            // Send what is buffered, and a large write as a chunk of its own
+            if (count > 0) {
+                writeChunk(buffer, 0, count);
+                count = 0;
+            }
+            if (len >= buffer.length) {
+                writeChunk(b, off, len);
+                return;
+            }
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    public void flush() throws IOException {
+        if (count > 0) {
+            writeChunk(buffer, 0, count);
+            count = 0;
+        }
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (count > 0) {
+            writeChunk(buffer, 0, count);
+            count = 0;
+        }
+        // The last chunk is empty, and there are no trailers
+        out.write('0');
+        out.write(CRLF);
+        out.write(CRLF);
+        out.flush();
+    }
+
+    private void writeChunk(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;     // an empty chunk would end the body
+        }
+        out.write(Integer.toHexString(len).getBytes("US-ASCII"));
+        out.write(CRLF);
+        out.write(b, off, len);
+        out.write(CRLF);
+    }
+}
@@ -109,6 +109,27 @@ class ClassQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
             out.println("<br>");
         }
 
+        int[] lengths = clazz.getArrayLengthCounts();
+        if (lengths != null) {
+            out.println("<h2>Array Lengths:</h2>");
+            out.println("<table border=1>");
+            out.println("<tr><th>Length</th><th>Instances</th></tr>");
+            for (int i = 0; i < lengths.length; i++) {
+                if (lengths[i] == 0) {
+                    continue;
+                }
+                // bucket i holds the lengths with i bits
+                long min = (i == 0)? 0 : (1L << (i - 1));
+                long max = (i == 0)? 0 : (1L << i) - 1;
+                out.print("<tr><td>");
+                print((min == max)? ("" + min) : (min + " - " + max));
+                out.print("</td><td>");
+                print("" + lengths[i]);
+                out.println("</td></tr>");
+            }
+            out.println("</table>");
+        }
+
         out.println("<h2>Instances</h2>");
 
         printAnchorStart();
@@ -136,6 +157,18 @@ class ClassQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
             out.println("Include subclasses</a><br>");
         }
 
+        out.println("<h2>Reference Chains from Rootset to Instances</h2>");
+
+        printAnchorStart();
+        print("instanceRoots/" + encodeForURL(clazz));
+        out.print("\">");
+        out.println("Exclude weak refs</a><br>");
+
+        printAnchorStart();
+        print("allInstanceRoots/" + encodeForURL(clazz));
+        out.print("\">");
+        out.println("Include weak refs</a><br>");
+
         out.println("<h2>References summary by Type</h2>");
         printAnchorStart();
         print("refsByType/" + encodeForURL(clazz));
@@ -184,6 +217,12 @@ class ClassQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
         printHex(id);
         out.print("\">");
         out.println("Objects reachable from here</a><br>");
+
+        printAnchorStart();
+        out.print("dominators/");
+        printHex(id);
+        out.print("\">");
+        out.println("Objects dominated by this object</a><br>");
     }
 
 
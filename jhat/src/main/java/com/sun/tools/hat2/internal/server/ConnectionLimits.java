@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What the connections of one QueryListener share.  A connection holds
+ * one of a few threads for as long as it is open, so only some of them
+ * may be kept open between requests, and only some may wait for a turn
+ * at an expensive query.  The others are closed after their response,
+ * or told at once that the server is busy, so that a thread is soon
+ * free for a new connection.
+ */
+class ConnectionLimits {
+
+    private final int maxKeptOpen;
+    private final AtomicInteger keptOpen = new AtomicInteger();
+    private final Semaphore expensiveQueries;
+    private final int maxWaiting;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * @param maxKeptOpen how many connections may be kept open between
+     *                    requests
+     * @param expensiveQueries how many expensive queries, like the
+     *                         rootset and OQL ones, may run at once
+     * @param maxWaiting how many connections may wait for a turn at an
+     *                   expensive query
+     */
+    ConnectionLimits(int maxKeptOpen, int expensiveQueries, int maxWaiting) {
+        this.maxKeptOpen = maxKeptOpen;
+        this.expensiveQueries = new Semaphore(expensiveQueries, true);
+        this.maxWaiting = maxWaiting;
+    }
+
+    /**
+     * Takes one of the places of the connections kept open between
+     * requests, to be given back with closed().
+     *
+     * @return false if there is none left
+     */
+    boolean keepOpen() {
+        for (;;) {
+            int n = keptOpen.get();
+            if (n >= maxKeptOpen) {
+                return false;
+            }
+            if (keptOpen.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void closed() {
+        keptOpen.decrementAndGet();
+    }
+
+    /**
+     * Waits for a turn to run an expensive query, to be ended with
+     * endExpensive().
+     *
+     * @return false if there was no turn in time, or too many others
+     *         were waiting already
+     */
+    boolean startExpensive(long seconds) throws InterruptedException {
+        if (expensiveQueries.tryAcquire(0, TimeUnit.SECONDS)) {
+            return true;
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            return false;
+        }
+        try {
+            return expensiveQueries.tryAcquire(seconds, TimeUnit.SECONDS);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    void endExpensive() {
+        expensiveQueries.release();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import com.sun.tools.hat2.internal.model.DominatorTree;
+import com.sun.tools.hat2.internal.model.JavaHeapObject;
+
+/**
+ * Shows an object's place in the dominator tree:  the chain of objects
+ * that dominate it, and the objects it dominates.  An empty query shows
+ * the objects that only the rootset as a whole dominates.
+ *
+ */
+class DominatorQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
+
+    // most objects to list on one page
+    private static final int MAX_DOMINATED = 1000;
+
+    boolean isExpensive() {
+        return true;
+    }
+
+    public void run() {
+        JavaHeapObject target = null;
+        if (query.length() > 0) {
+            target = snapshot.findThing(parseHex(query));
+            if (target == null) {
+                startHtml("Object not found for dominator tree");
+                error("object not found");
+                endHtml();
+                return;
+            }
+            startHtml("Objects dominated by " + target);
+        } else {
+            startHtml("Objects dominated by the rootset");
+        }
+
+        DominatorTree tree;
+        try {
+            tree = snapshot.getDominatorTree();
+        } catch (IllegalStateException ex) {
+            error("Retained sizes are not available: " + ex.getMessage());
+            endHtml();
+            return;
+        }
+
+        if (target != null) {
+            if (!tree.isReachable(target)) {
+                error("This object is not reachable from the rootset.");
+                endHtml();
+                return;
+            }
+            out.print("<h2>");
+            printThing(target);
+            out.println("</h2>");
+            print("Retained size: " + tree.getRetainedSize(target) + " bytes");
+            out.println("<br>");
+
+            out.println("<h2>Dominator chain:</h2>");
+            JavaHeapObject dominator = tree.getDominator(target);
+            while (dominator != null) {
+                print("<-- ");
+                printDominatorsLink(tree, dominator);
+                out.print(" ");
+                printThing(dominator);
+                out.println("<br>");
+                dominator = tree.getDominator(dominator);
+            }
+            print("<-- ");
+            printAnchorStart();
+            out.print("dominators/\">");
+            print("<rootset>");
+            out.println("</a><br>");
+        }
+
+        JavaHeapObject[] dominated = tree.getDominated(target);
+        out.println("<h2>Dominated objects (" + dominated.length + "):</h2>");
+        for (int i = 0; i < dominated.length && i < MAX_DOMINATED; i++) {
+            printDominatorsLink(tree, dominated[i]);
+            out.print(" ");
+            printThing(dominated[i]);
+            out.println("<br>");
+        }
+        if (dominated.length > MAX_DOMINATED) {
+            println("... and " + (dominated.length - MAX_DOMINATED)
+                    + " smaller objects");
+        }
+
+        out.println("<h2>Other Queries</h2>");
+        printAnchorStart();
+        out.print("topRetainers/\">");
+        print("Top retainers");
+        out.println("</a><br>");
+        endHtml();
+    }
+
+    // the retained size of obj, linked to its dominator tree page
+    private void printDominatorsLink(DominatorTree tree, JavaHeapObject obj) {
+        String size = "[" + tree.getRetainedSize(obj) + " bytes retained]";
+        if (obj.getId() == -1) {
+            print(size);
+            return;
+        }
+        printAnchorStart();
+        out.print("dominators/");
+        printHex(obj.getId());
+        out.print("\">");
+        print(size);
+        out.print("</a>");
+    }
+}
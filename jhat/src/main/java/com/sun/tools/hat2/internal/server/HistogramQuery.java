@@ -42,10 +42,11 @@ import java.util.Comparator;
  *
  */
 public class HistogramQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
-    public void run() {
-        JavaClass[] classes = snapshot.getClassesArray();
+    // The order of the histogram: by "count", by "class" name, or by
+    // total size
+    static Comparator<JavaClass> getComparator(String order) {
         Comparator<JavaClass> comparator;
-        if (query.equals("count")) {
+        if ("count".equals(order)) {
             comparator = new Comparator<JavaClass>() {
                 public int compare(JavaClass first, JavaClass second) {
                     long diff = (second.getInstancesCount(false) -
@@ -53,7 +54,7 @@ public class HistogramQuery extends com.sun.tools.hat2.internal.server.QueryHand
                     return (diff == 0)? 0: ((diff < 0)? -1 : + 1);
                 }
             };
-        } else if (query.equals("class")) {
+        } else if ("class".equals(order)) {
             comparator = new Comparator<JavaClass>() {
                 public int compare(JavaClass first, JavaClass second) {
                     return first.getName().compareTo(second.getName());
@@ -69,7 +70,12 @@ public class HistogramQuery extends com.sun.tools.hat2.internal.server.QueryHand
                 }
             };
         }
-        Arrays.sort(classes, comparator);
+        return comparator;
+    }
+
+    public void run() {
+        JavaClass[] classes = snapshot.getClassesArray();
+        Arrays.sort(classes, getComparator(query));
 
         startHtml("Heap Histogram");
 
@@ -33,21 +33,28 @@
 package com.sun.tools.hat2.internal.server;
 
 /**
- * Reads a single HTTP query from a socket, and starts up a QueryHandler
- * to server it.
+ * Reads HTTP queries from a socket, and starts up a QueryHandler
+ * to serve each of them.  HTTP/1.1 connections are kept open between
+ * queries, as many as the ConnectionLimits allow and for a short idle
+ * time, with responses sent in chunks and gzipped if the client
+ * accepts that.
  *
  * @author      Bill Foote
  */
 
 
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 
 import java.io.InputStream;
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.BufferedWriter;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.OutputStreamWriter;
+import java.util.zip.GZIPOutputStream;
 
 import com.sun.tools.hat2.internal.model.Snapshot;
 import com.sun.tools.hat2.internal.oql.OQLEngine;
@@ -55,166 +62,466 @@ import com.sun.tools.hat2.internal.util.Misc;
 
 public class HttpReader implements Runnable {
 
+    // How long a request may take to arrive
+    private static final int READ_TIMEOUT = 15000;
+
+    // How long a connection kept open may wait for its next request
+    private static final int IDLE_TIMEOUT = 2000;
+
+    // How long to wait for a turn to run an expensive query
+    private static final long EXPENSIVE_WAIT_SECONDS = 60;
+
+    private static final int MAX_LINE_LENGTH = 16 * 1024;
+    private static final int CHUNK_SIZE = 8 * 1024;
 
     private Socket socket;
     private PrintWriter out;
     private Snapshot snapshot;
     private OQLEngine engine;
+    private ConnectionLimits limits;
+    // whether this connection has one of the places of the limits for
+    // connections kept open
+    private boolean keptOpen;
 
     public HttpReader (Socket s, Snapshot snapshot, OQLEngine engine) {
+        this(s, snapshot, engine, null);
+    }
+
+    /**
+     * @param limits what this connection shares with the others, or
+     *               null to keep them all open and run all expensive
+     *               queries at once
+     */
+    HttpReader (Socket s, Snapshot snapshot, OQLEngine engine,
+                ConnectionLimits limits) {
         this.socket = s;
         this.snapshot = snapshot;
         this.engine = engine;
+        this.limits = limits;
     }
 
     public void run() {
-        InputStream in = null;
         try {
-            in = new BufferedInputStream(socket.getInputStream());
-            out = new PrintWriter(new BufferedWriter(
-                            new OutputStreamWriter(
-                                socket.getOutputStream())));
-            out.println("HTTP/1.0 200 OK");
-            out.println("Cache-Control: no-cache");
-            out.println("Pragma: no-cache");
-            out.println();
-            if (in.read() != 'G' || in.read() != 'E'
-                    || in.read() != 'T' || in.read() != ' ') {
-                outputError("Protocol error");
-            }
-            int data;
-            StringBuilder queryBuf = new StringBuilder();
-            while ((data = in.read()) != -1 && data != ' ') {
-                char ch = (char) data;
-                queryBuf.append(ch);
-            }
-            String query = queryBuf.toString();
-            query = java.net.URLDecoder.decode(query, "UTF-8");
-            com.sun.tools.hat2.internal.server.QueryHandler handler = null;
-            if (snapshot == null) {
-                outputError("The heap snapshot is still being read.");
-                return;
-            } else if (query.equals("/")) {
-                handler = new com.sun.tools.hat2.internal.server.AllClassesQuery(true, engine != null);
-                handler.setUrlStart("");
-                handler.setQuery("");
-            } else if (query.startsWith("/oql/")) {
-                if (engine != null) {
-                    handler = new com.sun.tools.hat2.internal.server.OQLQuery(engine);
-                    handler.setUrlStart("");
-                    handler.setQuery(query.substring(5));
-                }
-            } else if (query.startsWith("/oqlhelp/")) {
-                if (engine != null) {
-                    handler = new com.sun.tools.hat2.internal.server.OQLHelp();
-                    handler.setUrlStart("");
-                    handler.setQuery("");
-                }
-            } else if (query.equals("/allClassesWithPlatform/")) {
-                handler = new com.sun.tools.hat2.internal.server.AllClassesQuery(false, engine != null);
-                handler.setUrlStart("../");
-                handler.setQuery("");
-            } else if (query.equals("/showRoots/")) {
-                handler = new com.sun.tools.hat2.internal.server.AllRootsQuery();
-                handler.setUrlStart("../");
-                handler.setQuery("");
-            } else if (query.equals("/showInstanceCounts/includePlatform/")) {
-                handler = new com.sun.tools.hat2.internal.server.InstancesCountQuery(false);
-                handler.setUrlStart("../../");
-                handler.setQuery("");
-            } else if (query.equals("/showInstanceCounts/")) {
-                handler = new com.sun.tools.hat2.internal.server.InstancesCountQuery(true);
-                handler.setUrlStart("../");
-                handler.setQuery("");
-            } else if (query.startsWith("/instances/")) {
-                handler = new com.sun.tools.hat2.internal.server.InstancesQuery(false);
-                handler.setUrlStart("../");
-                handler.setQuery(query.substring(11));
-            }  else if (query.startsWith("/newInstances/")) {
-                handler = new com.sun.tools.hat2.internal.server.InstancesQuery(false, true);
-                handler.setUrlStart("../");
-                handler.setQuery(query.substring(14));
-            }  else if (query.startsWith("/allInstances/")) {
-                handler = new com.sun.tools.hat2.internal.server.InstancesQuery(true);
-                handler.setUrlStart("../");
-                handler.setQuery(query.substring(14));
-            }  else if (query.startsWith("/allNewInstances/")) {
-                handler = new com.sun.tools.hat2.internal.server.InstancesQuery(true, true);
-                handler.setUrlStart("../");
-                handler.setQuery(query.substring(17));
-            } else if (query.startsWith("/object/")) {
-                handler = new com.sun.tools.hat2.internal.server.ObjectQuery();
-                handler.setUrlStart("../");
-                handler.setQuery(query.substring(8));
-            } else if (query.startsWith("/class/")) {
-                handler = new com.sun.tools.hat2.internal.server.ClassQuery();
-                handler.setUrlStart("../");
-                handler.setQuery(query.substring(7));
-            } else if (query.startsWith("/roots/")) {
-                handler = new com.sun.tools.hat2.internal.server.RootsQuery(false);
-                handler.setUrlStart("../");
-                handler.setQuery(query.substring(7));
-            } else if (query.startsWith("/allRoots/")) {
-                handler = new com.sun.tools.hat2.internal.server.RootsQuery(true);
-                handler.setUrlStart("../");
-                handler.setQuery(query.substring(10));
-            } else if (query.startsWith("/reachableFrom/")) {
-                handler = new com.sun.tools.hat2.internal.server.ReachableQuery();
-                handler.setUrlStart("../");
-                handler.setQuery(query.substring(15));
-            } else if (query.startsWith("/rootStack/")) {
-                handler = new com.sun.tools.hat2.internal.server.RootStackQuery();
-                handler.setUrlStart("../");
-                handler.setQuery(query.substring(11));
-            } else if (query.startsWith("/histo/")) {
-                handler = new HistogramQuery();
-                handler.setUrlStart("../");
-                handler.setQuery(query.substring(7));
-            } else if (query.startsWith("/refsByType/")) {
-                handler = new RefsByTypeQuery();
-                handler.setUrlStart("../");
-                handler.setQuery(query.substring(12));
-            } else if (query.startsWith("/finalizerSummary/")) {
-                handler = new FinalizerSummaryQuery();
-                handler.setUrlStart("../");
-                handler.setQuery("");
-            } else if (query.startsWith("/finalizerObjects/")) {
-                handler = new FinalizerObjectsQuery();
-                handler.setUrlStart("../");
-                handler.setQuery("");
-            }
-
-            if (handler != null) {
-                handler.setOutput(out);
-                handler.setSnapshot(snapshot);
-                handler.run();
-            } else {
-                outputError("Query '" + query + "' not implemented");
+            socket.setSoTimeout(READ_TIMEOUT);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream rawOut =
+                new BufferedOutputStream(socket.getOutputStream());
+            boolean open = serveRequest(in, rawOut);
+            while (open && awaitRequest(in)) {
+                open = serveRequest(in, rawOut);
             }
+        } catch (SocketTimeoutException ex) {
+            // idle connection, or a client that is too slow
         } catch (IOException ex) {
+            // the client went away
+        } catch (RuntimeException ex) {
             ex.printStackTrace();
         } finally {
-            if (out != null) {
-                out.close();
+            if (keptOpen) {
+                limits.closed();
             }
             try {
-                if (in != null) {
-                    in.close();
-                }
+                socket.close();
             } catch (IOException ignored) {
             }
+        }
+    }
+
+    // Wait for the first byte of the next request on a connection kept
+    // open, for a shorter time than the request may take once started.
+    // Returns false at the end of the stream.
+    private boolean awaitRequest(InputStream in) throws IOException {
+        socket.setSoTimeout(IDLE_TIMEOUT);
+        in.mark(1);
+        int ch = in.read();
+        socket.setSoTimeout(READ_TIMEOUT);
+        if (ch == -1) {
+            return false;
+        }
+        in.reset();
+        return true;
+    }
+
+    // Whether the connection may stay open after this response.  Once
+    // it has a place among those kept open, it keeps it until it closes.
+    private boolean mayKeepOpen() {
+        if (limits == null || keptOpen) {
+            return true;
+        }
+        keptOpen = limits.keepOpen();
+        return keptOpen;
+    }
+
+    // Read one request and answer it.  Returns true if the connection
+    // can be used for another request.
+    private boolean serveRequest(InputStream in, OutputStream rawOut)
+            throws IOException {
+        String requestLine = readLine(in);
+        while (requestLine != null && requestLine.isEmpty()) {
+            requestLine = readLine(in);     // allowed before a request
+        }
+        if (requestLine == null) {
+            return false;
+        }
+        String connection = null;
+        String acceptEncoding = null;
+        String header;
+        while ((header = readLine(in)) != null && !header.isEmpty()) {
+            int colon = header.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = header.substring(0, colon).trim();
+            String value = header.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Connection")) {
+                connection = value;
+            } else if (name.equalsIgnoreCase("Accept-Encoding")) {
+                acceptEncoding = value;
+            }
+        }
+        if (header == null) {
+            return false;
+        }
+
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3 || !parts[2].startsWith("HTTP/")) {
+            respondWithError(rawOut, "400 Bad Request", false, false,
+                             "Protocol error");
+            return false;
+        }
+        String method = parts[0];
+        // Bodies of unknown length need chunks, which HTTP/1.0 lacks, so
+        // only HTTP/1.1 connections are kept open
+        boolean keepAlive = !parts[2].equals("HTTP/1.0")
+                && !"close".equalsIgnoreCase(connection)
+                && mayKeepOpen();
+        boolean gzip = acceptEncoding != null
+                && acceptEncoding.toLowerCase().contains("gzip");
+        boolean head = method.equals("HEAD");
+        if (!head && !method.equals("GET")) {
+            respondWithError(rawOut, "405 Method Not Allowed", false, false,
+                             "Method " + method + " not allowed");
+            return false;
+        }
+
+        if (snapshot == null) {
+            respondWithError(rawOut, "503 Service Unavailable", keepAlive,
+                             head, "The heap snapshot is still being read.");
+            return keepAlive;
+        }
+        String query;
+        try {
+            query = java.net.URLDecoder.decode(parts[1], "UTF-8");
+        } catch (IllegalArgumentException ex) {
+            respondWithError(rawOut, "400 Bad Request", keepAlive, head,
+                             "Malformed query " + parts[1]);
+            return keepAlive;
+        }
+        com.sun.tools.hat2.internal.server.QueryHandler handler =
+            findHandler(query);
+        if (handler == null) {
+            respondWithError(rawOut, "404 Not Found", keepAlive, head,
+                             "Query '" + query + "' not implemented");
+            return keepAlive;
+        }
+        if (head) {
+            writeHead(rawOut, "200 OK", keepAlive, false,
+                      handler.getContentType());
+            rawOut.flush();
+            return keepAlive;
+        }
+
+        boolean limited = limits != null && handler.isExpensive();
+        if (limited) {
+            boolean acquired = false;
             try {
-                socket.close();
-            } catch (IOException ignored) {
+                acquired = limits.startExpensive(EXPENSIVE_WAIT_SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (!acquired) {
+                respondWithError(rawOut, "503 Service Unavailable", false,
+                    false, "The server is busy with other queries, "
+                            + "please try again later.");
+                return false;
             }
         }
+        try {
+            writeHead(rawOut, "200 OK", keepAlive, gzip,
+                      handler.getContentType());
+            openBody(rawOut, keepAlive, gzip);
+            handler.setOutput(out);
+            handler.setSnapshot(snapshot);
+            handler.run();
+            return closeBody() && keepAlive;
+        } finally {
+            if (limited) {
+                limits.endExpensive();
+            }
+        }
+    }
+
+    // The handler for query, or null if there is none
+    private com.sun.tools.hat2.internal.server.QueryHandler findHandler(String query) {
+        com.sun.tools.hat2.internal.server.QueryHandler handler = null;
+        if (query.startsWith("/api/")) {
+            return findApiHandler(query.substring(4));
+        }
+        if (query.equals("/") || query.startsWith("/?")) {
+            handler = new com.sun.tools.hat2.internal.server.AllClassesQuery(true, engine != null);
+            handler.setUrlStart("");
+            handler.setQuery(query.substring(1));
+        } else if (query.startsWith("/oql/")) {
+            if (engine != null) {
+                handler = new com.sun.tools.hat2.internal.server.OQLQuery(engine);
+                handler.setUrlStart("");
+                handler.setQuery(query.substring(5));
+            }
+        } else if (query.startsWith("/oqlhelp/")) {
+            if (engine != null) {
+                handler = new com.sun.tools.hat2.internal.server.OQLHelp();
+                handler.setUrlStart("");
+                handler.setQuery("");
+            }
+        } else if (query.startsWith("/allClassesWithPlatform/")) {
+            handler = new com.sun.tools.hat2.internal.server.AllClassesQuery(false, engine != null);
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(24));
+        } else if (query.equals("/showRoots/")) {
+            handler = new com.sun.tools.hat2.internal.server.AllRootsQuery();
+            handler.setUrlStart("../");
+            handler.setQuery("");
+        } else if (query.equals("/showInstanceCounts/includePlatform/")) {
+            handler = new com.sun.tools.hat2.internal.server.InstancesCountQuery(false);
+            handler.setUrlStart("../../");
+            handler.setQuery("");
+        } else if (query.equals("/showInstanceCounts/")) {
+            handler = new com.sun.tools.hat2.internal.server.InstancesCountQuery(true);
+            handler.setUrlStart("../");
+            handler.setQuery("");
+        } else if (query.startsWith("/instances/")) {
+            handler = new com.sun.tools.hat2.internal.server.InstancesQuery(false);
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(11));
+        }  else if (query.startsWith("/newInstances/")) {
+            handler = new com.sun.tools.hat2.internal.server.InstancesQuery(false, true);
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(14));
+        }  else if (query.startsWith("/allInstances/")) {
+            handler = new com.sun.tools.hat2.internal.server.InstancesQuery(true);
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(14));
+        }  else if (query.startsWith("/allNewInstances/")) {
+            handler = new com.sun.tools.hat2.internal.server.InstancesQuery(true, true);
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(17));
+        } else if (query.startsWith("/object/")) {
+            handler = new com.sun.tools.hat2.internal.server.ObjectQuery();
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(8));
+        } else if (query.startsWith("/class/")) {
+            handler = new com.sun.tools.hat2.internal.server.ClassQuery();
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(7));
+        } else if (query.startsWith("/roots/")) {
+            handler = new com.sun.tools.hat2.internal.server.RootsQuery(false);
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(7));
+        } else if (query.startsWith("/allRoots/")) {
+            handler = new com.sun.tools.hat2.internal.server.RootsQuery(true);
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(10));
+        } else if (query.startsWith("/instanceRoots/")) {
+            handler = new com.sun.tools.hat2.internal.server.InstanceRootsQuery(false);
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(15));
+        } else if (query.startsWith("/allInstanceRoots/")) {
+            handler = new com.sun.tools.hat2.internal.server.InstanceRootsQuery(true);
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(18));
+        } else if (query.startsWith("/reachableFrom/")) {
+            handler = new com.sun.tools.hat2.internal.server.ReachableQuery();
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(15));
+        } else if (query.startsWith("/rootStack/")) {
+            handler = new com.sun.tools.hat2.internal.server.RootStackQuery();
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(11));
+        } else if (query.startsWith("/histo/")) {
+            handler = new HistogramQuery();
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(7));
+        } else if (query.startsWith("/refsByType/")) {
+            handler = new RefsByTypeQuery();
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(12));
+        } else if (query.startsWith("/finalizerSummary/")) {
+            handler = new FinalizerSummaryQuery();
+            handler.setUrlStart("../");
+            handler.setQuery("");
+        } else if (query.startsWith("/finalizerObjects/")) {
+            handler = new FinalizerObjectsQuery();
+            handler.setUrlStart("../");
+            handler.setQuery("");
+        } else if (query.startsWith("/topRetainers/")) {
+            handler = new TopRetainersQuery();
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(14));
+        } else if (query.startsWith("/dominators/")) {
+            handler = new DominatorQuery();
+            handler.setUrlStart("../");
+            handler.setQuery(query.substring(12));
+        }
+        return handler;
+    }
+
+    // The handler for a query of the /api/ tree, given without the
+    // leading "/api", or null if there is none
+    private com.sun.tools.hat2.internal.server.QueryHandler findApiHandler(String query) {
+        com.sun.tools.hat2.internal.server.QueryHandler handler = null;
+        if (query.startsWith("/histo/")) {
+            handler = new ApiHistogramQuery();
+            handler.setQuery(query.substring(7));
+        } else if (query.startsWith("/instances/")) {
+            handler = new ApiInstancesQuery(false);
+            handler.setQuery(query.substring(11));
+        } else if (query.startsWith("/allInstances/")) {
+            handler = new ApiInstancesQuery(true);
+            handler.setQuery(query.substring(14));
+        } else if (query.startsWith("/object/")) {
+            handler = new ApiObjectQuery();
+            handler.setQuery(query.substring(8));
+        } else if (query.startsWith("/roots/")) {
+            handler = new ApiRootsQuery(false);
+            handler.setQuery(query.substring(7));
+        } else if (query.startsWith("/allRoots/")) {
+            handler = new ApiRootsQuery(true);
+            handler.setQuery(query.substring(10));
+        } else if (query.startsWith("/refsByType/")) {
+            handler = new ApiRefsByTypeQuery();
+            handler.setQuery(query.substring(12));
+        } else if (query.startsWith("/reachableFrom/")) {
+            handler = new ApiReachableQuery();
+            handler.setQuery(query.substring(15));
+        } else if (query.startsWith("/oql/")) {
+            if (engine != null) {
+                handler = new ApiOQLQuery(engine);
+                handler.setQuery(query.substring(5));
+            }
+        }
+        if (handler != null) {
+            handler.setUrlStart("../../");
+        }
+        return handler;
+    }
+
+    private void writeHead(OutputStream rawOut, String status,
+                           boolean keepAlive, boolean gzip)
+            throws IOException {
+        writeHead(rawOut, status, keepAlive, gzip, "text/html; charset=UTF-8");
+    }
+
+    private void writeHead(OutputStream rawOut, String status,
+                           boolean keepAlive, boolean gzip,
+                           String contentType) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(status).append("\r\n");
+        head.append("Content-Type: ").append(contentType).append("\r\n");
+        head.append("Cache-Control: no-cache\r\n");
+        head.append("Pragma: no-cache\r\n");
+        if (status.startsWith("405")) {
+            head.append("Allow: GET, HEAD\r\n");
+        }
+        if (keepAlive) {
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else {
+            head.append("Connection: close\r\n");
+        }
+        if (gzip) {
+            head.append("Content-Encoding: gzip\r\n");
+            head.append("Vary: Accept-Encoding\r\n");
+        }
+        head.append("\r\n");
+        rawOut.write(head.toString().getBytes("US-ASCII"));
+    }
+
+    private void openBody(OutputStream rawOut, boolean chunked, boolean gzip)
+            throws IOException {
+        OutputStream body = chunked ? new ChunkedOutputStream(rawOut, CHUNK_SIZE)
+                                    : new NonClosingOutputStream(rawOut);
+        if (gzip) {
+            // sync flush, so that a page flushed part way is shown
+            body = new GZIPOutputStream(body, CHUNK_SIZE, true);
+        }
+        out = new PrintWriter(new BufferedWriter(
+                        new OutputStreamWriter(body, "UTF-8")));
+    }
+
+    // End the body.  Returns false if it could not all be written.
+    private boolean closeBody() {
+        out.close();
+        boolean ok = !out.checkError();
+        out = null;
+        return ok;
+    }
+
+    private void respondWithError(OutputStream rawOut, String status,
+                                  boolean keepAlive, boolean head,
+                                  String msg) throws IOException {
+        writeHead(rawOut, status, keepAlive, false);
+        if (head) {
+            rawOut.flush();
+            return;
+        }
+        openBody(rawOut, keepAlive, false);
+        outputError(msg);
+        closeBody();
+    }
+
+    // Read a line of the request head, without its line terminator.
+    // Returns null at the end of the stream.
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int ch;
+        while ((ch = in.read()) != '\n') {
+            if (ch == -1) {
+                return (line.length() == 0) ? null : line.toString();
+            }
+            if (line.length() == MAX_LINE_LENGTH) {
+                throw new IOException("request line too long");
+            }
+            line.append((char) ch);
+        }
+        int len = line.length();
+        if (len > 0 && line.charAt(len - 1) == '\r') {
+            line.setLength(len - 1);
+        }
+        return line.toString();
     }
 
     private void outputError(String msg) {
-        out.println();
         out.println("<html><body bgcolor=\"#ffffff\">");
         out.println(Misc.encodeHtml(msg));
         out.println("</body></html>");
     }
 
+    // The end of a body that is delimited by closing the connection;
+    // closing the body only flushes it so that run() still closes the
+    // socket.
+    private static class NonClosingOutputStream
+            extends java.io.FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
 }
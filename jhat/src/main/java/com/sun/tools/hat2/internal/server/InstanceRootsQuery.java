@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import com.sun.tools.hat2.internal.model.JavaClass;
+import com.sun.tools.hat2.internal.model.ReachableExcludes;
+import com.sun.tools.hat2.internal.model.ReferenceChain;
+import com.sun.tools.hat2.internal.model.RootPathFinder;
+
+/**
+ * Shortest reference chains from the rootset to the instances of a
+ * class and its subclasses, found in one search over the heap.
+ */
+
+
+class InstanceRootsQuery extends RootsQuery {
+
+    // How many chains are shown unless ?limit= says otherwise
+    private static final int DEFAULT_LIMIT = 100;
+
+    public InstanceRootsQuery(boolean includeWeak) {
+        super(includeWeak);
+    }
+
+    public void run() {
+        JavaClass clazz = snapshot.findClass(getQueryPath());
+        int limit = Math.max(0, getIntParameter("limit", DEFAULT_LIMIT));
+        if (clazz == null) {
+            startHtml("Class not found for rootset");
+            error("class not found: " + getQueryPath());
+            endHtml();
+            return;
+        }
+        if (includeWeak) {
+            startHtml("Rootset references to instances of " + clazz.getName()
+                        + " (includes weak refs)");
+        } else {
+            startHtml("Rootset references to instances of " + clazz.getName()
+                        + " (excludes weak refs)");
+        }
+        out.flush();
+
+        RootPathFinder finder = new RootPathFinder(snapshot);
+        if (!includeWeak) {
+            finder.excludeWeakReferences();
+        }
+        ReachableExcludes excludes = snapshot.getReachableExcludes();
+        if (excludes != null) {
+            finder.setExcludes(excludes);
+        }
+        ReferenceChain[] refs = finder.findInstancePaths(clazz, true, limit);
+
+        out.print("<h1>References to instances of ");
+        printClass(clazz);
+        out.println("</h1>");
+        if (limit != 0 && refs.length == limit) {
+            out.println("Showing the " + limit + " shortest chains.<br>");
+        }
+        printChains(refs);
+
+        out.println("<h2>Other queries</h2>");
+
+        if (limit != 0 && refs.length == limit) {
+            printAnchorStart();
+            print((includeWeak? "allInstanceRoots/" : "instanceRoots/")
+                  + encodeForURL(clazz));
+            out.print("?limit=0\">");
+            out.println("All reference chains</a><br>");
+        }
+
+        printAnchorStart();
+        print((includeWeak? "instanceRoots/" : "allInstanceRoots/")
+              + encodeForURL(clazz));
+        out.print("\">");
+        out.println(includeWeak? "Exclude weak refs</a><br>"
+                               : "Include weak refs</a><br>");
+        endHtml();
+    }
+}
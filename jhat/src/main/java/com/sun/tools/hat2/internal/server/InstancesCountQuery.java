@@ -35,7 +35,6 @@ package com.sun.tools.hat2.internal.server;
 import com.sun.tools.hat2.internal.model.JavaClass;
 import com.sun.tools.hat2.internal.util.ArraySorter;
 import com.sun.tools.hat2.internal.util.Comparer;
-import java.util.Enumeration;
 
 /**
  *
@@ -111,15 +110,7 @@ class InstancesCountQuery extends com.sun.tools.hat2.internal.server.QueryHandle
             }
             out.print("</a> ");
             if (snapshot.getHasNewSet()) {
-                Enumeration objects = clazz.getInstances(false);
-                int newInst = 0;
-                while (objects.hasMoreElements()) {
-                    com.sun.tools.hat2.internal.model.JavaHeapObject
-                        obj = (com.sun.tools.hat2.internal.model.JavaHeapObject)objects.nextElement();
-                    if (obj.isNew()) {
-                        newInst++;
-                    }
-                }
+                int newInst = clazz.getNewInstancesCount();
                 print("(");
                 printAnchorStart();
                 print("newInstances/" + encodeForURL(classes[i]));
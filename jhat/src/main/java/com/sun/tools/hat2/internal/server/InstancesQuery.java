@@ -47,6 +47,12 @@ class InstancesQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
     private boolean includeSubclasses;
     private boolean newObjects;
 
+    // How many instances are shown on a page unless ?limit= says otherwise
+    private static final int DEFAULT_LIMIT = 1000;
+
+    // Instances are sent on to the client in batches of this many
+    private static final int FLUSH_INTERVAL = 1000;
+
     public InstancesQuery(boolean includeSubclasses) {
         this.includeSubclasses = includeSubclasses;
     }
@@ -57,16 +63,21 @@ class InstancesQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
     }
 
     public void run() {
-        JavaClass clazz = snapshot.findClass(query);
+        String className = getQueryPath();
+        JavaClass clazz = snapshot.findClass(className);
+        // the position in the instances to start at, and how many to
+        // show, or 0 for all of them
+        int start = Math.max(0, getIntParameter("start", 0));
+        int limit = Math.max(0, getIntParameter("limit", DEFAULT_LIMIT));
         String instancesOf;
         if (newObjects)
             instancesOf = "New instances of ";
         else
             instancesOf = "Instances of ";
         if (includeSubclasses) {
-            startHtml(instancesOf + query + " (including subclasses)");
+            startHtml(instancesOf + className + " (including subclasses)");
         } else {
-            startHtml(instancesOf + query);
+            startHtml(instancesOf + className);
         }
         if (clazz == null) {
             error("Class not found");
@@ -74,21 +85,78 @@ class InstancesQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
             out.print("<strong>");
             printClass(clazz);
             out.print("</strong><br><br>");
-            Enumeration objects = clazz.getInstances(includeSubclasses);
-            long totalSize = 0;
-            long instances = 0;
-            while (objects.hasMoreElements()) {
+            out.flush();
+            Enumeration objects = clazz.getInstances(includeSubclasses, start);
+            int position = start;
+            int shown = 0;
+            while (objects.hasMoreElements() && (limit == 0 || shown < limit)) {
                 com.sun.tools.hat2.internal.model.JavaHeapObject
                     obj = (com.sun.tools.hat2.internal.model.JavaHeapObject) objects.nextElement();
+                position++;
                 if (newObjects && !obj.isNew())
                     continue;
                 printThing(obj);
                 out.println("<br>");
-                totalSize += obj.getSize();
-                instances++;
+                if (++shown % FLUSH_INTERVAL == 0) {
+                    out.flush();
+                }
+            }
+            boolean more = objects.hasMoreElements();
+
+            long totalSize = 0;
+            long instances = 0;
+            JavaClass[] classes = clazz.getInstanceClasses(includeSubclasses);
+            for (int i = 0; i < classes.length; i++) {
+                if (newObjects) {
+                    instances += classes[i].getNewInstancesCount();
+                    totalSize += getNewInstancesSize(classes[i]);
+                } else {
+                    instances += classes[i].getInstancesCount(false);
+                    totalSize += getTotalInstanceSize(classes[i]);
+                }
             }
             out.println("<h2>Total of " + instances + " instances occupying " + totalSize + " bytes.</h2>");
+            printPageLinks(getRoute() + encodeForURL(className), start,
+                           position, limit, more);
         }
         endHtml();
     }
+
+    // The sum of getSize() over the instances of clazz, not of its
+    // subclasses.  The class keeps the total of their sizes as dumped,
+    // to which each object that is not an array adds the header.
+    private static long getTotalInstanceSize(JavaClass clazz) {
+        long result = clazz.getTotalInstanceSize();
+        if (!clazz.isArray()) {
+            result += (long) clazz.getInstancesCount(false)
+                        * clazz.getMinimumObjectSize();
+        }
+        return result;
+    }
+
+    // The sum of getSize() over the new instances of clazz, not of its
+    // subclasses; only arrays are visited one by one
+    private static long getNewInstancesSize(JavaClass clazz) {
+        int count = clazz.getNewInstancesCount();
+        if (count == 0 || !clazz.isArray()) {
+            return (long) count * clazz.getInstanceSize();
+        }
+        long result = 0;
+        for (int i = 0; i < clazz.getInstancesCount(false); i++) {
+            com.sun.tools.hat2.internal.model.JavaHeapObject
+                obj = clazz.getInstance(i);
+            if (obj.isNew()) {
+                result += obj.getSize();
+            }
+        }
+        return result;
+    }
+
+    private String getRoute() {
+        if (newObjects) {
+            return includeSubclasses? "allNewInstances/" : "newInstances/";
+        } else {
+            return includeSubclasses? "allInstances/" : "instances/";
+        }
+    }
 }
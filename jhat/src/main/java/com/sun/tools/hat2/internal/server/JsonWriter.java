@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import java.io.PrintWriter;
+
+/**
+ * Writes JSON text as it goes, without building a tree of the document
+ * first, so that results of any size can be sent with constant memory.
+ * The caller is trusted to nest the calls properly; names are only
+ * written inside objects, and values only after a name or inside an
+ * array.
+ */
+
+class JsonWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final PrintWriter out;
+
+    // For each open object or array, whether it has a member yet
+    private boolean[] hasMembers = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    JsonWriter(PrintWriter out) {
+        this.out = out;
+    }
+
+    JsonWriter beginObject() {
+        return begin('{');
+    }
+
+    JsonWriter endObject() {
+        return end('}');
+    }
+
+    JsonWriter beginArray() {
+        return begin('[');
+    }
+
+    JsonWriter endArray() {
+        return end(']');
+    }
+
+    JsonWriter name(String name) {
+        separate();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        writeString(value);
+        return this;
+    }
+
+    JsonWriter value(long value) {
+        separate();
+        out.print(value);
+        return this;
+    }
+
+    // NaN and the infinities are not JSON numbers, so they are strings
+    JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return value(Double.toString(value));
+        }
+        separate();
+        out.print(value);
+        return this;
+    }
+
+    JsonWriter value(boolean value) {
+        separate();
+        out.print(value);
+        return this;
+    }
+
+    JsonWriter nullValue() {
+        separate();
+        out.write("null");
+        return this;
+    }
+
+    private JsonWriter begin(char bracket) {
+        separate();
+        out.write(bracket);
+        if (depth == hasMembers.length) {
+            boolean[] tmp = new boolean[depth * 2];
+            System.arraycopy(hasMembers, 0, tmp, 0, depth);
+            hasMembers = tmp;
+        }
+        hasMembers[depth++] = false;
+        return this;
+    }
+
+    private JsonWriter end(char bracket) {
+        depth--;
+        out.write(bracket);
+        return this;
+    }
+
+    // Write the comma before a member, unless it is the value of a name
+    // or the first member
+    private void separate() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasMembers[depth - 1]) {
+                out.write(',');
+            } else {
+                hasMembers[depth - 1] = true;
+            }
+        }
+    }
+
+    private void writeString(String s) {
+        out.write('"');
+        int len = s.length();
+        int start = 0;
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            // the line separators are escaped for JavaScript's sake
+            if (ch >= ' ' && ch != '"' && ch != '\\'
+                    && ch != '\u2028' && ch != '\u2029') {
+                continue;
+            }
+            out.write(s, start, i - start);
+            start = i + 1;
+            switch (ch) {
+                case '"':  out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    out.write("\\u");
+                    out.write(HEX[(ch >> 12) & 0xf]);
+                    out.write(HEX[(ch >> 8) & 0xf]);
+                    out.write(HEX[(ch >> 4) & 0xf]);
+                    out.write(HEX[ch & 0xf]);
+            }
+        }
+        out.write(s, start, len - start);
+        out.write('"');
+    }
+}
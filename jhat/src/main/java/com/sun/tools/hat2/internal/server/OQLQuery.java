@@ -33,6 +33,7 @@
 package com.sun.tools.hat2.internal.server;
 
 import com.sun.tools.hat2.internal.oql.ObjectVisitor;
+import com.sun.tools.hat2.internal.oql.QueryControl;
 
 /**
  * This handles Object Query Language (OQL) queries.
@@ -46,6 +47,10 @@ class OQLQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
         this.engine = engine;
     }
 
+    boolean isExpensive() {
+        return true;
+    }
+
     public void run() {
         startHtml("Object Query Language (OQL) query");
         String oql = null;
@@ -80,9 +85,12 @@ class OQLQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
     }
 
     private void executeQuery(String q) {
+        final QueryControl control = engine.newQueryControl();
         try {
             out.println("<table border='1'>");
             engine.executeQuery(q, new ObjectVisitor() {
+                     private int count;
+
                      public boolean visit(Object o) {
                          out.println("<tr><td>");
                          try {
@@ -91,14 +99,22 @@ class OQLQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
                              printException(e);
                          }
                          out.println("</td></tr>");
-                         return false;
+                         // stop if the client has gone away
+                         return ++count % FLUSH_INTERVAL == 0 && out.checkError();
                      }
-                 });
+                 }, control);
             out.println("</table>");
+            if (control.isTruncated()) {
+                out.println("<p>Only the first " + control.getMaxRows()
+                            + " results are shown.</p>");
+            }
         } catch (com.sun.tools.hat2.internal.oql.OQLException exp) {
             printException(exp);
         }
     }
 
+    // Results are sent on to the client in batches of this many
+    private static final int FLUSH_INTERVAL = 1000;
+
     private com.sun.tools.hat2.internal.oql.OQLEngine engine;
 }
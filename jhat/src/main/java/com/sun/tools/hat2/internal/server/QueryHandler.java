@@ -73,6 +73,18 @@ abstract class QueryHandler {
         this.snapshot = ss;
     }
 
+    // The media type of what run() writes
+    String getContentType() {
+        return "text/html; charset=UTF-8";
+    }
+
+    // Whether this query can take a long time and a lot of memory.  The
+    // server only runs a few of those at once, so that they do not hold
+    // up the rest.
+    boolean isExpensive() {
+        return false;
+    }
+
     protected String encodeForURL(String s) {
         try {
             s = URLEncoder.encode(s, "UTF-8");
@@ -225,6 +237,61 @@ abstract class QueryHandler {
         }
     }
 
+    // The query without the parameters after '?', if there are any
+    protected String getQueryPath() {
+        int index = query.indexOf('?');
+        return (index == -1)? query : query.substring(0, index);
+    }
+
+    // The value of a parameter after '?' in the query, as in
+    // "0x1234?limit=10", or null if it is not there
+    protected String getParameter(String name) {
+        int index = query.indexOf('?');
+        if (index == -1) {
+            return null;
+        }
+        String[] params = query.substring(index + 1).split("&");
+        for (int i = 0; i < params.length; i++) {
+            if (params[i].startsWith(name + "=")) {
+                return params[i].substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    // The value of a numeric parameter, or defaultValue if it is not
+    // there or not a number
+    protected int getIntParameter(String name, int defaultValue) {
+        String value = getParameter(name);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException ex) {
+                // use the default
+            }
+        }
+        return defaultValue;
+    }
+
+    // Print the links of a paged listing at path, whose page started at
+    // position start, and whose next page, if more, starts at next
+    protected void printPageLinks(String path, int start, int next,
+                                  int limit, boolean more) {
+        if (start > 0) {
+            printAnchorStart();
+            print(path + "?limit=" + limit);
+            out.println("\">First page</a><br>");
+        }
+        if (more) {
+            printAnchorStart();
+            print(path + "?start=" + next + "&limit=" + limit);
+            out.println("\">Next page</a><br>");
+            printAnchorStart();
+            print(path + "?start=" + next + "&limit=0");
+            out.println("\">All the rest</a><br>");
+        }
+    }
+
     protected long parseHex(String value) {
         return Misc.parseHex(value);
     }
@@ -42,27 +42,74 @@ import java.net.Socket;
 import java.net.ServerSocket;
 
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.sun.tools.hat2.internal.model.Snapshot;
 import com.sun.tools.hat2.internal.oql.OQLEngine;
 
 public class QueryListener implements Runnable {
 
+    // Connections are served by this many threads; open connections
+    // beyond that wait in a queue of MAX_WAITING.
+    private static final int DEFAULT_THREADS = 16;
+    private static final int MAX_WAITING = 64;
+
+    // A connection holds its thread while it is kept open between
+    // requests, or waits for a turn at an expensive query, so at most
+    // this part of the threads may do either.
+    private static final int KEPT_OPEN_SHARE = 4;
 
     private Snapshot snapshot;
     private OQLEngine engine;
     private int port;
+    private int threads;
+    private ConnectionLimits limits;
+    private long oqlTimeoutMillis;
+    private long oqlMaxRows;
+    private long oqlMaxObjects;
 
     public QueryListener(int port) {
+        this(port, DEFAULT_THREADS,
+             Math.max(1, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param threads how many connections are served at once
+     * @param expensiveQueries how many expensive queries, like the
+     *                         rootset and OQL ones, may run at once
+     */
+    public QueryListener(int port, int threads, int expensiveQueries) {
         this.port = port;
+        this.threads = threads;
+        int share = Math.max(1, threads / KEPT_OPEN_SHARE);
+        this.limits = new ConnectionLimits(share, expensiveQueries, share);
         this.snapshot = null;   // Client will setModel when it's ready
         this.engine = null; // created when snapshot is set
     }
 
+    /**
+     * Sets the limits of each OQL query; 0 for a limit means there is
+     * none.  A query that runs too long or looks at too many objects is
+     * stopped with an error, one with too many results is cut short.
+     * Call this before setModel.
+     */
+    public void setOQLLimits(long timeoutMillis, long maxRows, long maxObjects) {
+        this.oqlTimeoutMillis = timeoutMillis;
+        this.oqlMaxRows = maxRows;
+        this.oqlMaxObjects = maxObjects;
+    }
+
     public void setModel(Snapshot ss) {
         this.snapshot = ss;
         if (OQLEngine.isOQLSupported()) {
             this.engine = new OQLEngine(ss);
+            engine.setDefaultLimits(oqlTimeoutMillis, oqlMaxRows, oqlMaxObjects);
         }
     }
 
@@ -77,25 +124,30 @@ public class QueryListener implements Runnable {
 
     private void waitForRequests() throws IOException {
         ServerSocket ss = new ServerSocket(port);
-        Thread last = null;
+        ExecutorService pool = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_WAITING),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Query Handler "
+                                              + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
         for (;;) {
             Socket s = ss.accept();
-            Thread t = new Thread(new HttpReader(s, snapshot, engine));
-            if (snapshot == null) {
-                t.setPriority(Thread.NORM_PRIORITY+1);
-            } else {
-                t.setPriority(Thread.NORM_PRIORITY-1);
-                if (last != null) {
-                    try {
-                        last.setPriority(Thread.NORM_PRIORITY-2);
-                    } catch (Throwable ignored) {
-                    }
-                    // If the thread is no longer alive, we'll get a
-                    // NullPointerException
+            try {
+                pool.execute(new HttpReader(s, snapshot, engine, limits));
+            } catch (RejectedExecutionException ex) {
+                // Too many connections; the client can retry
+                try {
+                    s.close();
+                } catch (IOException ignored) {
                 }
             }
-            t.start();
-            last = t;
         }
     }
 
@@ -47,6 +47,10 @@ class ReachableQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
     public ReachableQuery() {
     }
 
+    boolean isExpensive() {
+        return true;
+    }
+
     public void run() {
         startHtml("Objects Reachable From " + query);
         long id = parseHex(query);
@@ -41,6 +41,10 @@ import java.util.*;
  *
  */
 public class RefsByTypeQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
+    boolean isExpensive() {
+        return true;
+    }
+
     public void run() {
         com.sun.tools.hat2.internal.model.JavaClass clazz = snapshot.findClass(query);
         if (clazz == null) {
@@ -48,45 +52,7 @@ public class RefsByTypeQuery extends com.sun.tools.hat2.internal.server.QueryHan
         } else {
             Map<com.sun.tools.hat2.internal.model.JavaClass, Long> referrersStat = new HashMap<com.sun.tools.hat2.internal.model.JavaClass, Long>();
             final Map<JavaClass, Long> refereesStat = new HashMap<com.sun.tools.hat2.internal.model.JavaClass, Long>();
-            Enumeration instances = clazz.getInstances(false);
-            while (instances.hasMoreElements()) {
-                com.sun.tools.hat2.internal.model.JavaHeapObject
-                    instance = (com.sun.tools.hat2.internal.model.JavaHeapObject) instances.nextElement();
-                if (instance.getId() == -1) {
-                    continue;
-                }
-                Enumeration e = instance.getReferers();
-                while (e.hasMoreElements()) {
-                    com.sun.tools.hat2.internal.model.JavaHeapObject
-                        ref = (com.sun.tools.hat2.internal.model.JavaHeapObject) e.nextElement();
-                    com.sun.tools.hat2.internal.model.JavaClass cl = ref.getClazz();
-                    if (cl == null) {
-                         System.out.println("null class for " + ref);
-                         continue;
-                    }
-                    Long count = referrersStat.get(cl);
-                    if (count == null) {
-                        count = new Long(1);
-                    } else {
-                        count = new Long(count.longValue() + 1);
-                    }
-                    referrersStat.put(cl, count);
-                }
-                instance.visitReferencedObjects(
-                    new com.sun.tools.hat2.internal.model.AbstractJavaHeapObjectVisitor() {
-                        public void visit(com.sun.tools.hat2.internal.model.JavaHeapObject obj) {
-                            com.sun.tools.hat2.internal.model.JavaClass cl = obj.getClazz();
-                            Long count = refereesStat.get(cl);
-                            if (count == null) {
-                                count = new Long(1);
-                            } else {
-                                count = new Long(count.longValue() + 1);
-                            }
-                            refereesStat.put(cl, count);
-                        }
-                    }
-                );
-            } // for each instance
+            countReferences(clazz, referrersStat, refereesStat);
 
             startHtml("References by Type");
             out.println("<p align='center'>");
@@ -110,8 +76,54 @@ public class RefsByTypeQuery extends com.sun.tools.hat2.internal.server.QueryHan
         }  // clazz != null
     } // run
 
-    private void print(final Map<com.sun.tools.hat2.internal.model.JavaClass, Long> map) {
-        out.println("<table border='1' align='center'>");
+    // Count the referrers and the referees of the instances of clazz by
+    // their class
+    static void countReferences(JavaClass clazz,
+                                Map<JavaClass, Long> referrersStat,
+                                final Map<JavaClass, Long> refereesStat) {
+        Enumeration instances = clazz.getInstances(false);
+        while (instances.hasMoreElements()) {
+            com.sun.tools.hat2.internal.model.JavaHeapObject
+                instance = (com.sun.tools.hat2.internal.model.JavaHeapObject) instances.nextElement();
+            if (instance.getId() == -1) {
+                continue;
+            }
+            Enumeration e = instance.getReferers();
+            while (e.hasMoreElements()) {
+                com.sun.tools.hat2.internal.model.JavaHeapObject
+                    ref = (com.sun.tools.hat2.internal.model.JavaHeapObject) e.nextElement();
+                com.sun.tools.hat2.internal.model.JavaClass cl = ref.getClazz();
+                if (cl == null) {
+                     System.out.println("null class for " + ref);
+                     continue;
+                }
+                Long count = referrersStat.get(cl);
+                if (count == null) {
+                    count = new Long(1);
+                } else {
+                    count = new Long(count.longValue() + 1);
+                }
+                referrersStat.put(cl, count);
+            }
+            instance.visitReferencedObjects(
+                new com.sun.tools.hat2.internal.model.AbstractJavaHeapObjectVisitor() {
+                    public void visit(com.sun.tools.hat2.internal.model.JavaHeapObject obj) {
+                        com.sun.tools.hat2.internal.model.JavaClass cl = obj.getClazz();
+                        Long count = refereesStat.get(cl);
+                        if (count == null) {
+                            count = new Long(1);
+                        } else {
+                            count = new Long(count.longValue() + 1);
+                        }
+                        refereesStat.put(cl, count);
+                    }
+                }
+            );
+        } // for each instance
+    }
+
+    // The classes counted in map, most counted first
+    static JavaClass[] sortByCount(final Map<JavaClass, Long> map) {
         Set<com.sun.tools.hat2.internal.model.JavaClass> keys = map.keySet();
         com.sun.tools.hat2.internal.model.JavaClass[] classes = new com.sun.tools.hat2.internal.model.JavaClass[keys.size()];
         keys.toArray(classes);
@@ -122,6 +134,12 @@ public class RefsByTypeQuery extends com.sun.tools.hat2.internal.server.QueryHan
                 return count2.compareTo(count1);
             }
         });
+        return classes;
+    }
+
+    private void print(final Map<com.sun.tools.hat2.internal.model.JavaClass, Long> map) {
+        out.println("<table border='1' align='center'>");
+        com.sun.tools.hat2.internal.model.JavaClass[] classes = sortByCount(map);
 
         out.println("<tr><th>Class</th><th>Count</th></tr>");
         for (int i = 0; i < classes.length; i++) {
@@ -44,14 +44,20 @@ import com.sun.tools.hat2.internal.util.Comparer;
 
 class RootsQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
 
-    private boolean includeWeak;
+    protected boolean includeWeak;
 
     public RootsQuery(boolean includeWeak) {
         this.includeWeak = includeWeak;
     }
 
+    boolean isExpensive() {
+        return true;
+    }
+
     public void run() {
-        long id = parseHex(query);
+        long id = parseHex(getQueryPath());
+        // show only the first limit chains found, which are the shortest
+        int limit = Math.max(0, getIntParameter("limit", 0));
         com.sun.tools.hat2.internal.model.JavaHeapObject target = snapshot.findThing(id);
         if (target == null) {
             startHtml("Object not found for rootset");
@@ -68,8 +74,53 @@ class RootsQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
         }
         out.flush();
 
-        com.sun.tools.hat2.internal.model.ReferenceChain[] refs
-            = snapshot.rootsetReferencesTo(target, includeWeak);
+        com.sun.tools.hat2.internal.model.ReferenceChain[] refs;
+        if (limit == 1) {
+            ReferenceChain chain = snapshot.shortestRootsetReferenceTo(target, includeWeak);
+            refs = (chain == null)? new ReferenceChain[0]
+                                  : new ReferenceChain[] { chain };
+        } else {
+            refs = snapshot.rootsetReferencesTo(target, includeWeak, limit);
+        }
+        out.print("<h1>References to ");
+        printThing(target);
+        out.println("</h1>");
+        printChains(refs);
+
+        out.println("<h2>Other queries</h2>");
+
+        printAnchorStart();
+        out.print(includeWeak? "allRoots/" : "roots/");
+        printHex(id);
+        if (limit == 0) {
+            out.print("?limit=1\">");
+            out.println("Shortest reference chain only</a><br>");
+        } else {
+            out.print("\">");
+            out.println("All reference chains</a><br>");
+        }
+
+        if (includeWeak) {
+            printAnchorStart();
+            out.print("roots/");
+            printHex(id);
+            out.print("\">");
+            out.println("Exclude weak refs</a><br>");
+            endHtml();
+        }
+
+        if (!includeWeak) {
+            printAnchorStart();
+            out.print("allRoots/");
+            printHex(id);
+            out.print("\">");
+            out.println("Include weak refs</a><br>");
+        }
+    }
+
+    // Print chains grouped by the type of their root, most interesting
+    // first
+    protected void printChains(com.sun.tools.hat2.internal.model.ReferenceChain[] refs) {
         ArraySorter.sort(refs, new Comparer() {
             public int compare(Object lhs, Object rhs) {
                 com.sun.tools.hat2.internal.model.ReferenceChain
@@ -86,9 +137,7 @@ class RootsQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
             }
         });
 
-        out.print("<h1>References to ");
-        printThing(target);
-        out.println("</h1>");
+
         int lastType = com.sun.tools.hat2.internal.model.Root.INVALID_TYPE;
         for (int i= 0; i < refs.length; i++) {
             ReferenceChain ref = refs[i];
@@ -123,25 +172,6 @@ class RootsQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
                 ref = next;
             }
         }
-
-        out.println("<h2>Other queries</h2>");
-
-        if (includeWeak) {
-            printAnchorStart();
-            out.print("roots/");
-            printHex(id);
-            out.print("\">");
-            out.println("Exclude weak refs</a><br>");
-            endHtml();
-        }
-
-        if (!includeWeak) {
-            printAnchorStart();
-            out.print("allRoots/");
-            printHex(id);
-            out.print("\">");
-            out.println("Include weak refs</a><br>");
-        }
     }
 
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import com.sun.tools.hat2.internal.model.DominatorTree;
+import com.sun.tools.hat2.internal.model.JavaClass;
+import com.sun.tools.hat2.internal.model.JavaHeapObject;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Lists the objects and classes that retain the most memory, according
+ * to the dominator tree.  The query is the number of rows to show.
+ *
+ */
+class TopRetainersQuery extends com.sun.tools.hat2.internal.server.QueryHandler {
+
+    private static final int DEFAULT_LIMIT = 100;
+
+    boolean isExpensive() {
+        return true;
+    }
+
+    public void run() {
+        int limit = DEFAULT_LIMIT;
+        if (query.length() > 0) {
+            try {
+                limit = Integer.parseInt(query);
+            } catch (NumberFormatException ex) {
+                // keep the default
+            }
+        }
+
+        startHtml("Top Retainers");
+
+        out.println("<p align='center'>");
+        out.println("<b><a href='/'>All Classes (excluding platform)</a></b>");
+        out.println("</p>");
+
+        final DominatorTree tree;
+        try {
+            tree = snapshot.getDominatorTree();
+        } catch (IllegalStateException ex) {
+            error("Retained sizes are not available: " + ex.getMessage());
+            endHtml();
+            return;
+        }
+
+        out.println("<p align='center'>");
+        print(tree.getReachableCount() + " objects occupying "
+              + tree.getReachableSize() + " bytes are reachable from the rootset. ");
+        printAnchorStart();
+        out.print("dominators/\">");
+        print("Show the objects dominated by the rootset");
+        out.println("</a></p>");
+
+        out.println("<h2>Objects</h2>");
+        out.println("<table align=center border=1>");
+        out.println("<tr><th>Retained Size</th><th>Object</th><th>Dominated by</th></tr>");
+        JavaHeapObject[] objects = tree.getTopRetainers(limit);
+        for (int i = 0; i < objects.length; i++) {
+            JavaHeapObject obj = objects[i];
+            out.println("<tr><td>");
+            printAnchorStart();
+            out.print("dominators/");
+            printHex(obj.getId());
+            out.print("\">");
+            out.print(tree.getRetainedSize(obj));
+            out.println("</a></td><td>");
+            printThing(obj);
+            out.println("</td><td>");
+            JavaHeapObject dominator = tree.getDominator(obj);
+            if (dominator == null) {
+                print("<rootset>");
+            } else {
+                printThing(dominator);
+            }
+            out.println("</td></tr>");
+        }
+        out.println("</table>");
+
+        out.println("<h2>Classes</h2>");
+        JavaClass[] classes = snapshot.getClassesArray();
+        Arrays.sort(classes, new Comparator<JavaClass>() {
+            public int compare(JavaClass first, JavaClass second) {
+                long diff = tree.getInstancesRetainedSize(second)
+                          - tree.getInstancesRetainedSize(first);
+                return (diff == 0)? 0: ((diff < 0)? -1 : + 1);
+            }
+        });
+        out.println("<table align=center border=1>");
+        out.println("<tr><th>Retained Size</th><th>Instance Count</th><th>Class</th></tr>");
+        for (int i = 0; i < classes.length && i < limit; i++) {
+            JavaClass clazz = classes[i];
+            out.println("<tr><td>");
+            out.println(tree.getInstancesRetainedSize(clazz));
+            out.println("</td><td>");
+            out.println(clazz.getInstancesCount(false));
+            out.println("</td><td>");
+            printClass(clazz);
+            out.println("</td></tr>");
+        }
+        out.println("</table>");
+
+        endHtml();
+    }
+}
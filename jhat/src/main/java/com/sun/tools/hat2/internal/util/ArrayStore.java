@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.util;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Makes the large primitive tables of a snapshot: the object index, the
+ * columns of compact objects and the referers graph.  HEAP keeps them on
+ * the Java heap.  A store made by mapped() keeps each table in a scratch
+ * file of its own, mapped into memory, so that the tables take no heap
+ * and the operating system pages them in and out as they are used.
+ *
+ * Scratch files are deleted as soon as they are mapped, or when the VM
+ * exits where a mapped file cannot be deleted.  Their space is given
+ * back once the tables that use them are garbage collected.
+ */
+public abstract class ArrayStore {
+
+    /**
+     * Keeps tables in ordinary Java arrays.
+     */
+    public static final ArrayStore HEAP = new ArrayStore() {
+        public IntArray newIntArray(int length) {
+            return new IntArray.OnHeap(new int[length]);
+        }
+
+        public LongArray newLongArray(int length) {
+            return new LongArray.OnHeap(new long[length]);
+        }
+
+        public String toString() {
+            return "the Java heap";
+        }
+    };
+
+    // scratch files are mapped in chunks of 1 GB
+    private static final int CHUNK_SHIFT = 30;
+
+    ArrayStore() {
+    }
+
+    /**
+     * @param directory where to make the scratch files, or null for the
+     *                  default temporary directory
+     * @return a store that keeps tables in memory-mapped scratch files
+     */
+    public static ArrayStore mapped(File directory) {
+        return new Mapped(directory);
+    }
+
+    /**
+     * @return a new table of length zeros
+     */
+    public abstract IntArray newIntArray(int length);
+
+    /**
+     * @return a new table of length zeros
+     */
+    public abstract LongArray newLongArray(int length);
+
+    /**
+     * @return a new table holding the first length values of a, padded
+     *         with zeros if a is shorter
+     */
+    public IntArray copyOf(IntArray a, int length) {
+        IntArray copy = newIntArray(length);
+        a.copyTo(0, copy, 0, Math.min(a.length(), length));
+        return copy;
+    }
+
+    /**
+     * @return a new table holding the first length values of a, padded
+     *         with zeros if a is shorter
+     */
+    public LongArray copyOf(LongArray a, int length) {
+        LongArray copy = newLongArray(length);
+        a.copyTo(0, copy, 0, Math.min(a.length(), length));
+        return copy;
+    }
+
+    // Internals only below this point
+
+    private static class Mapped extends ArrayStore {
+        private final File directory;
+
+        Mapped(File directory) {
+            this.directory = directory;
+        }
+
+        public IntArray newIntArray(int length) {
+            return new MappedInts(map((long) length << 2), length);
+        }
+
+        public LongArray newLongArray(int length) {
+            return new MappedLongs(map((long) length << 3), length);
+        }
+
+        public String toString() {
+            return "scratch files in "
+                   + ((directory == null)? System.getProperty("java.io.tmpdir")
+                                         : directory.getPath());
+        }
+
+        // a new scratch file of the given size, mapped in chunks
+        private ByteBuffer[] map(long size) {
+            long chunkSize = 1L << CHUNK_SHIFT;
+            int numChunks = (int) ((size + chunkSize - 1) >>> CHUNK_SHIFT);
+            ByteBuffer[] chunks = new ByteBuffer[numChunks];
+            if (numChunks == 0) {
+                return chunks;
+            }
+            try {
+                File file = File.createTempFile("jhat", ".scratch", directory);
+                try {
+                    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                    try {
+                        raf.setLength(size);
+                        FileChannel ch = raf.getChannel();
+                        for (int i = 0; i < numChunks; i++) {
+                            long start = (long) i << CHUNK_SHIFT;
+                            chunks[i] = ch.map(FileChannel.MapMode.READ_WRITE, start,
+                                               Math.min(chunkSize, size - start));
+                            chunks[i].order(ByteOrder.nativeOrder());
+                        }
+                    } finally {
+                        raf.close();
+                    }
+                } finally {
+                    if (!file.delete()) {
+                        file.deleteOnExit();
+                    }
+                }
+            } catch (IOException exp) {
+                throw new RuntimeException("cannot make a scratch file of "
+                                           + size + " bytes in " + this, exp);
+            }
+            return chunks;
+        }
+    }
+
+    private static class MappedInts extends IntArray {
+        private static final int SHIFT = CHUNK_SHIFT - 2;
+        private static final int MASK = (1 << SHIFT) - 1;
+
+        private final ByteBuffer[] chunks;
+        private final int length;
+
+        MappedInts(ByteBuffer[] chunks, int length) {
+            this.chunks = chunks;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public int get(int index) {
+            return chunks[index >>> SHIFT].getInt((index & MASK) << 2);
+        }
+
+        public void set(int index, int value) {
+            chunks[index >>> SHIFT].putInt((index & MASK) << 2, value);
+        }
+    }
+
+    private static class MappedLongs extends LongArray {
+        private static final int SHIFT = CHUNK_SHIFT - 3;
+        private static final int MASK = (1 << SHIFT) - 1;
+
+        private final ByteBuffer[] chunks;
+        private final int length;
+
+        MappedLongs(ByteBuffer[] chunks, int length) {
+            this.chunks = chunks;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public long get(int index) {
+            return chunks[index >>> SHIFT].getLong((index & MASK) << 3);
+        }
+
+        public void set(int index, long value) {
+            chunks[index >>> SHIFT].putLong((index & MASK) << 3, value);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.util;
+
+
+import java.util.Arrays;
+
+/**
+ * A fixed length table of int values, held on the Java heap or off it,
+ * as the ArrayStore that made it chooses.  A new table is all zeros.
+ *
+ * Like an int[], an IntArray is not synchronized, but threads may read
+ * and write disjoint parts of it at once.
+ *
+ * @see ArrayStore
+ */
+public abstract class IntArray {
+
+    IntArray() {
+    }
+
+    /**
+     * @return an IntArray backed by values, on the Java heap
+     */
+    public static IntArray wrap(int[] values) {
+        return new OnHeap(values);
+    }
+
+    public abstract int length();
+
+    public abstract int get(int index);
+
+    public abstract void set(int index, int value);
+
+    /**
+     * Sort the values from .. to-1 into ascending order.
+     */
+    public void sort(int from, int to) {
+        int[] values = new int[to - from];
+        for (int i = from; i < to; i++) {
+            values[i - from] = get(i);
+        }
+        Arrays.sort(values);
+        for (int i = from; i < to; i++) {
+            set(i, values[i - from]);
+        }
+    }
+
+    // Copy length values from index from of this table to index to of dst
+    void copyTo(int from, IntArray dst, int to, int length) {
+        for (int i = 0; i < length; i++) {
+            dst.set(to + i, get(from + i));
+        }
+    }
+
+    static class OnHeap extends IntArray {
+        final int[] values;
+
+        OnHeap(int[] values) {
+            this.values = values;
+        }
+
+        public int length() {
+            return values.length;
+        }
+
+        public int get(int index) {
+            return values[index];
+        }
+
+        public void set(int index, int value) {
+            values[index] = value;
+        }
+
+        public void sort(int from, int to) {
+            Arrays.sort(values, from, to);
+        }
+
+        void copyTo(int from, IntArray dst, int to, int length) {
+            if (dst instanceof OnHeap) {
+                System.arraycopy(values, from, ((OnHeap) dst).values, to, length);
+            } else {
+                super.copyTo(from, dst, to, length);
+            }
+        }
+    }
+}
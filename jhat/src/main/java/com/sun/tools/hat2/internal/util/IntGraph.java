@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.util;
+
+/**
+ * A directed graph over the nodes 0 .. nodeCount-1, held in compressed
+ * sparse row form.  The successors of node n are
+ * edges[offsets[n]] .. edges[offsets[n+1]-1], so the whole graph costs
+ * one int per node and one int per edge.  Both tables may be kept off
+ * the Java heap, see ArrayStore.
+ *
+ * An IntGraph is immutable once built, and may be read by any number of
+ * threads.
+ */
+public class IntGraph {
+
+    private final IntArray offsets;
+    private final IntArray edges;
+
+    /**
+     * @param offsets nodeCount+1 row offsets into edges, ascending
+     * @param edges   the successors of all nodes, row after row
+     */
+    public IntGraph(int[] offsets, int[] edges) {
+        this(IntArray.wrap(offsets), IntArray.wrap(edges));
+    }
+
+    /**
+     * @param offsets nodeCount+1 row offsets into edges, ascending
+     * @param edges   the successors of all nodes, row after row
+     */
+    public IntGraph(IntArray offsets, IntArray edges) {
+        int n = offsets.length();
+        if (n == 0 || offsets.get(n - 1) > edges.length()) {
+            throw new IllegalArgumentException("offsets do not match edges");
+        }
+        this.offsets = offsets;
+        this.edges = edges;
+    }
+
+    public int getNodeCount() {
+        return offsets.length() - 1;
+    }
+
+    public int getEdgeCount() {
+        return offsets.get(offsets.length() - 1);
+    }
+
+    /**
+     * @return the index in the edge table of the first successor of node
+     */
+    public int getStart(int node) {
+        return offsets.get(node);
+    }
+
+    /**
+     * @return the index in the edge table just past the last successor
+     *         of node
+     */
+    public int getEnd(int node) {
+        return offsets.get(node + 1);
+    }
+
+    public int getDegree(int node) {
+        return offsets.get(node + 1) - offsets.get(node);
+    }
+
+    /**
+     * @return the node at position index of the edge table
+     */
+    public int getEdge(int index) {
+        return edges.get(index);
+    }
+
+    /**
+     * Builds an IntGraph in two passes.  First every edge is announced
+     * with count(), then allocate() is called, and then every edge is
+     * added with add().  Finally the rows are sorted, and build()
+     * drops duplicate edges.
+     *
+     * count(), allocate(), add() and build() must be called from one
+     * thread at a time.  sortRows() may be called concurrently for
+     * disjoint ranges of nodes.
+     */
+    public static class Builder {
+        private static final int REMOVED = -1;
+
+        private final int nodeCount;
+        private final ArrayStore store;
+        private final IntArray offsets;
+        private IntArray edges;
+
+        public Builder(int nodeCount) {
+            this(nodeCount, ArrayStore.HEAP);
+        }
+
+        /**
+         * @param store makes the tables of the graph
+         */
+        public Builder(int nodeCount, ArrayStore store) {
+            this.nodeCount = nodeCount;
+            this.store = store;
+            this.offsets = store.newIntArray(nodeCount + 1);
+        }
+
+        public void count(int from) {
+            offsets.set(from, offsets.get(from) + 1);
+        }
+
+        public void allocate() {
+            // Make offsets[n] the end of row n.  add() fills each row
+            // backwards, which leaves offsets[n] at the start of row n.
+            int total = 0;
+            for (int n = 0; n < nodeCount; n++) {
+                total += offsets.get(n);
+                if (total < 0) {
+                    throw new IllegalStateException("too many edges");
+                }
+                offsets.set(n, total);
+            }
+            offsets.set(nodeCount, total);
+            edges = store.newIntArray(total);
+        }
+
+        public void add(int from, int to) {
+            int pos = offsets.get(from) - 1;
+            offsets.set(from, pos);
+            edges.set(pos, to);
+        }
+
+        /**
+         * Sort the rows of the nodes from .. to-1 and mark the duplicate
+         * edges in them for removal by build().
+         */
+        public void sortRows(int from, int to) {
+            for (int n = from; n < to; n++) {
+                int start = offsets.get(n);
+                int end = offsets.get(n + 1);
+                if (end - start < 2) {
+                    continue;
+                }
+                edges.sort(start, end);
+                int last = start;
+                for (int i = start + 1; i < end; i++) {
+                    int e = edges.get(i);
+                    if (e != edges.get(last)) {
+                        edges.set(++last, e);
+                    }
+                }
+                for (int i = last + 1; i < end; i++) {
+                    edges.set(i, REMOVED);
+                }
+            }
+        }
+
+        public IntGraph build() {
+            int out = 0;
+            int start = offsets.get(0);
+            for (int n = 0; n < nodeCount; n++) {
+                int end = offsets.get(n + 1);
+                offsets.set(n, out);
+                for (int i = start; i < end; i++) {
+                    int e = edges.get(i);
+                    if (e == REMOVED) {
+                        break;
+                    }
+                    edges.set(out++, e);
+                }
+                start = end;
+            }
+            offsets.set(nodeCount, out);
+            if (out < edges.length()) {
+                edges = store.copyOf(edges, out);
+            }
+            return new IntGraph(offsets, edges);
+        }
+    }
+}
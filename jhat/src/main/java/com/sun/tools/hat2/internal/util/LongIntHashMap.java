@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.util;
+
+/**
+ * An open addressing hash map from long keys to int values.  Keys and
+ * values are held in two parallel primitive arrays, so that neither
+ * entry objects nor boxed keys are created.  Collisions are resolved by
+ * linear probing.  The arrays are made by an ArrayStore, and may be
+ * kept off the Java heap.
+ *
+ * This class is not synchronized.  Any number of threads may read it
+ * concurrently, provided that no thread is modifying it.
+ */
+public class LongIntHashMap {
+
+    private static final int MAX_CAPACITY = 1 << 30;
+    // a slot holding this key is empty, the real key 0 is kept aside
+    private static final long EMPTY = 0L;
+
+    private final ArrayStore store;
+    private LongArray keys;
+    private IntArray values;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    // value returned by get() for keys that are not in the map
+    private final int missingValue;
+
+    /**
+     * @param expectedSize number of entries the map should hold without
+     *                     rehashing
+     * @param missingValue value returned for keys not in the map
+     */
+    public LongIntHashMap(int expectedSize, int missingValue) {
+        this(expectedSize, missingValue, ArrayStore.HEAP);
+    }
+
+    /**
+     * @param expectedSize number of entries the map should hold without
+     *                     rehashing
+     * @param missingValue value returned for keys not in the map
+     * @param store        makes the arrays of the map
+     */
+    public LongIntHashMap(int expectedSize, int missingValue,
+                          ArrayStore store) {
+        this.missingValue = missingValue;
+        this.store = store;
+        allocate(capacityFor(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getMissingValue() {
+        return missingValue;
+    }
+
+    public int get(long key) {
+        if (key == EMPTY) {
+            return hasZeroKey? zeroValue : missingValue;
+        }
+        final LongArray k = keys;
+        final int m = mask;
+        int i = hash(key) & m;
+        for (;;) {
+            long cur = k.get(i);
+            if (cur == key) {
+                return values.get(i);
+            }
+            if (cur == EMPTY) {
+                return missingValue;
+            }
+            i = (i + 1) & m;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (key == EMPTY) {
+            return hasZeroKey;
+        }
+        return probe(key) >= 0;
+    }
+
+    /**
+     * Associate value with key.
+     *
+     * @return the previous value for key, or the missing value if there
+     *         was none
+     */
+    public int put(long key, int value) {
+        if (key == EMPTY) {
+            int prev = hasZeroKey? zeroValue : missingValue;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return prev;
+        }
+        int i = hash(key) & mask;
+        for (;;) {
+            long cur = keys.get(i);
+            if (cur == key) {
+                int prev = values.get(i);
+                values.set(i, value);
+                return prev;
+            }
+            if (cur == EMPTY) {
+                if (size >= threshold) {
+                    // grow first, so that a full map fails rather than
+                    // filling the table
+                    rehash(keys.length() << 1);
+                    return put(key, value);
+                }
+                keys.set(i, key);
+                values.set(i, value);
+                size++;
+                return missingValue;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Make room for at least expectedSize entries without further
+     * rehashing.
+     */
+    public void ensureCapacity(int expectedSize) {
+        int capacity = capacityFor(expectedSize);
+        if (capacity > keys.length()) {
+            rehash(capacity);
+        }
+    }
+
+    // Internals only below this point
+
+    // slot index of key, or -1 if it is not present
+    private int probe(long key) {
+        int i = hash(key) & mask;
+        for (;;) {
+            long cur = keys.get(i);
+            if (cur == key) {
+                return i;
+            }
+            if (cur == EMPTY) {
+                return -1;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private static int capacityFor(int expectedSize) {
+        // keep the table at most 3/4 full
+        long wanted = Math.max(16L, (long) expectedSize * 4 / 3 + 1);
+        if (wanted >= MAX_CAPACITY) {
+            return MAX_CAPACITY;
+        }
+        return Integer.highestOneBit((int) wanted - 1) << 1;
+    }
+
+    private void allocate(int capacity) {
+        keys = store.newLongArray(capacity);
+        values = store.newIntArray(capacity);
+        mask = capacity - 1;
+        threshold = (int) ((long) capacity * 3 / 4);
+    }
+
+    private void rehash(int capacity) {
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("hash map capacity exceeded");
+        }
+        LongArray oldKeys = keys;
+        IntArray oldValues = values;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length(); j++) {
+            long key = oldKeys.get(j);
+            if (key != EMPTY) {
+                int i = hash(key) & mask;
+                while (keys.get(i) != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys.set(i, key);
+                values.set(i, oldValues.get(j));
+            }
+        }
+    }
+
+    // Object IDs are usually addresses, so the low bits carry little
+    // information.  Spread all 64 bits before masking.
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -29,7 +29,7 @@
  * at JavaSoft/Sun.
  */
 
-var hatPkg = Packages.com.sun.tools.hat.internal;
+var hatPkg = Packages.com.sun.tools.hat2.internal;
 
 /**
  * This is JavaScript interface for heap analysis using HAT
@@ -1010,7 +1010,7 @@ function toHtml(obj) {
     var tmp = unwrapJavaObject(obj);
     if (tmp != undefined) {
         var id = tmp.idString;
-        if (tmp instanceof Packages.com.sun.tools.hat.internal.model.JavaClass) {
+        if (tmp instanceof hatPkg.model.JavaClass) {
             var name = tmp.name;
             return "<a href='/class/" + id + "'>class " + name + "</a>";
         } else {
@@ -1437,6 +1437,90 @@ function sum(array, code) {
     return result;
 }
 
+/**
+ * Returns the k elements of the array/iterator/enumeration for which
+ * the given expression is largest, largest first. Elements with the
+ * same value keep their order, and elements for which the value is
+ * not a number are left out.
+ *
+ * @param array input array/iterator/enumeration that is iterated
+ * @param k number of elements returned at most
+ * @param code optional expression (or function) giving the value of
+ *             each element. by default, the element itself is used.
+ * @return array of at most k elements
+ */
+function top(array, k, code) {
+    array = wrapIterator(array);
+    if (code == undefined) {
+        code = function(it) { return it; };
+    } else if (typeof(code) == 'string') {
+        code = new Function("it", "return " + code);
+    }
+    var tmp = new Array();
+    var index = 0;
+    function add(it) {
+        var value = Number(code(it));
+        if (!isNaN(value)) {
+            tmp[tmp.length] = { it: it, value: value, index: index };
+        }
+        index++;
+    }
+    if (array instanceof java.util.Enumeration) {
+        while (array.hasMoreElements()) {
+            add(array.nextElement());
+        }
+    } else {
+        for (var i in array) {
+            add(array[i]);
+        }
+    }
+    tmp.sort(function(lhs, rhs) {
+        return (rhs.value - lhs.value) || (lhs.index - rhs.index);
+    });
+    var res = new Array();
+    for (var i = 0; i < tmp.length && i < k; i++) {
+        res[res.length] = tmp[i].it;
+    }
+    return res;
+}
+
+/**
+ * Groups the elements of the array/iterator/enumeration by the
+ * value of the given expression, and counts the elements of
+ * each group.
+ *
+ * @param array input array/iterator/enumeration that is iterated
+ * @param code expression (or function) giving the group of
+ *             each element
+ * @return object whose properties are the groups, and their
+ *         values the number of elements
+ */
+function countBy(array, code) {
+    array = wrapIterator(array);
+    if (typeof(code) == 'string') {
+        code = new Function("it", "return " + code);
+    }
+    var res = new Object();
+    function add(it) {
+        var key = String(code(it));
+        if (Object.prototype.hasOwnProperty.call(res, key)) {
+            res[key]++;
+        } else {
+            res[key] = 1;
+        }
+    }
+    if (array instanceof java.util.Enumeration) {
+        while (array.hasMoreElements()) {
+            add(array.nextElement());
+        }
+    } else {
+        for (var i in array) {
+            add(array[i]);
+        }
+    }
+    return res;
+}
+
 /**
  * Returns array of unique elements from the given input 
  * array/iterator/enumeration.
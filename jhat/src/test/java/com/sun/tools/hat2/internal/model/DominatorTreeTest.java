@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DominatorTreeTest {
+
+    @Test
+    public void diamond() throws Exception {
+        // r -> a -> (b, c) -> d
+        TestHeap heap = new TestHeap();
+        long r = heap.node();
+        long a = heap.node();
+        long b = heap.node();
+        long c = heap.node();
+        long d = heap.node();
+        heap.root(r);
+        heap.refer(r, a);
+        heap.refer(a, b);
+        heap.refer(a, c);
+        heap.refer(b, d);
+        heap.refer(c, d);
+        Snapshot snapshot = heap.read();
+        DominatorTree tree = snapshot.getDominatorTree();
+
+        assertNull(tree.getDominator(get(snapshot, r)));
+        assertSame(get(snapshot, r), tree.getDominator(get(snapshot, a)));
+        assertSame(get(snapshot, a), tree.getDominator(get(snapshot, b)));
+        assertSame(get(snapshot, a), tree.getDominator(get(snapshot, c)));
+        assertSame(get(snapshot, a), tree.getDominator(get(snapshot, d)));
+        assertEquals(3, tree.getDominated(get(snapshot, a)).length);
+
+        assertEquals(size(snapshot, d), tree.getRetainedSize(get(snapshot, d)));
+        assertEquals(size(snapshot, b), tree.getRetainedSize(get(snapshot, b)));
+        assertEquals(size(snapshot, a, b, c, d),
+                     tree.getRetainedSize(get(snapshot, a)));
+        assertEquals(size(snapshot, r, a, b, c, d),
+                     tree.getRetainedSize(get(snapshot, r)));
+    }
+
+    @Test
+    public void cycle() throws Exception {
+        // r1 -> a -> b -> c -> a, and r2 -> c
+        TestHeap heap = new TestHeap();
+        long r1 = heap.node();
+        long r2 = heap.node();
+        long a = heap.node();
+        long b = heap.node();
+        long c = heap.node();
+        heap.root(r1);
+        heap.root(r2);
+        heap.refer(r1, a);
+        heap.refer(r2, c);
+        heap.refer(a, b);
+        heap.refer(b, c);
+        heap.refer(c, a);
+        Snapshot snapshot = heap.read();
+        DominatorTree tree = snapshot.getDominatorTree();
+
+        // a and c are reached from both roots, so only the rootset
+        // dominates them
+        assertNull(tree.getDominator(get(snapshot, a)));
+        assertNull(tree.getDominator(get(snapshot, c)));
+        assertSame(get(snapshot, a), tree.getDominator(get(snapshot, b)));
+        assertEquals(size(snapshot, a, b), tree.getRetainedSize(get(snapshot, a)));
+        assertEquals(size(snapshot, r1), tree.getRetainedSize(get(snapshot, r1)));
+        assertTrue(tree.isReachable(get(snapshot, b)));
+    }
+
+    @Test
+    public void weakEdge() throws Exception {
+        // r -> a -> w -weakly-> x -> y, and r -> b -> y
+        TestHeap heap = new TestHeap();
+        long r = heap.node();
+        long a = heap.node();
+        long b = heap.node();
+        long x = heap.node();
+        long y = heap.node();
+        long w = heap.weak(x);
+        heap.root(r);
+        heap.refer(r, a);
+        heap.refer(r, b);
+        heap.refer(a, w);
+        heap.refer(x, y);
+        heap.refer(b, y);
+        Snapshot snapshot = heap.read();
+        DominatorTree tree = snapshot.getDominatorTree();
+
+        assertFalse(tree.isReachable(get(snapshot, x)));
+        assertNull(tree.getDominator(get(snapshot, x)));
+        assertEquals(0, tree.getRetainedSize(get(snapshot, x)));
+        assertSame(get(snapshot, a), tree.getDominator(get(snapshot, w)));
+        assertSame(get(snapshot, b), tree.getDominator(get(snapshot, y)));
+        assertEquals(size(snapshot, a, w), tree.getRetainedSize(get(snapshot, a)));
+        assertEquals(size(snapshot, b, y), tree.getRetainedSize(get(snapshot, b)));
+        assertEquals(size(snapshot, r, a, b, w, y),
+                     tree.getRetainedSize(get(snapshot, r)));
+    }
+
+    private static JavaHeapObject get(Snapshot snapshot, long id) {
+        JavaHeapObject ho = snapshot.findThing(id);
+        assertTrue("no object " + Long.toHexString(id), ho != null);
+        return ho;
+    }
+
+    private static long size(Snapshot snapshot, long... ids) {
+        long size = 0;
+        for (long id : ids) {
+            size += get(snapshot, id).getSize();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.model;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares two snapshots of the same heap, read in different ways.
+ */
+public class SnapshotAssert {
+
+    private SnapshotAssert() {
+    }
+
+    /**
+     * Checks that actual has the objects of expected, with the same
+     * ordinals, sizes and references both ways, and the same roots in
+     * the same order.
+     */
+    public static void assertSameSnapshot(Snapshot expected, Snapshot actual) {
+        assertEquals(expected.getThingsCount(), actual.getThingsCount());
+        Enumeration<JavaHeapObject> e = expected.getThings();
+        Enumeration<JavaHeapObject> a = actual.getThings();
+        while (e.hasMoreElements()) {
+            assertSameObject(e.nextElement(), a.nextElement());
+        }
+        Root[] expectedRoots = expected.getRootsArray();
+        Root[] actualRoots = actual.getRootsArray();
+        assertEquals(expectedRoots.length, actualRoots.length);
+        for (int i = 0; i < expectedRoots.length; i++) {
+            assertSameRoot(expectedRoots[i], actualRoots[i]);
+        }
+    }
+
+    private static void assertSameObject(JavaHeapObject expected, JavaHeapObject actual) {
+        String what = expected.toString();
+        assertEquals(what, expected.getId(), actual.getId());
+        assertEquals(what, expected.getClazz().getName(), actual.getClazz().getName());
+        assertEquals(what, expected.getSize(), actual.getSize());
+        assertEquals(what, expected.toString(), actual.toString());
+        assertEquals(what, outbound(expected), outbound(actual));
+        assertEquals(what, ids(expected.getReferers()), ids(actual.getReferers()));
+        Root root = expected.getRoot();
+        assertEquals(what, (root == null)? -1 : root.getIndex(),
+                     (actual.getRoot() == null)? -1 : actual.getRoot().getIndex());
+    }
+
+    private static void assertSameRoot(Root expected, Root actual) {
+        String what = expected.getIdString() + " " + expected.getTypeName();
+        assertEquals(what, expected.getId(), actual.getId());
+        assertEquals(what, expected.getType(), actual.getType());
+        assertEquals(what, expected.getDescription(), actual.getDescription());
+        assertEquals(what, expected.getIndex(), actual.getIndex());
+        assertEquals(what, id(expected.getReferer()), id(actual.getReferer()));
+        assertEquals(what, frames(expected.getStackTrace()), frames(actual.getStackTrace()));
+    }
+
+    private static List<Long> outbound(JavaHeapObject obj) {
+        final List<Long> result = new ArrayList<Long>();
+        obj.forEachOutboundId(id -> result.add(id));
+        return result;
+    }
+
+    private static List<Long> ids(Enumeration<?> objects) {
+        List<Long> result = new ArrayList<Long>();
+        while (objects.hasMoreElements()) {
+            result.add(((JavaHeapObject) objects.nextElement()).getId());
+        }
+        return result;
+    }
+
+    private static long id(JavaHeapObject obj) {
+        return (obj == null)? 0 : obj.getId();
+    }
+
+    // each frame as method, class and line, or null without a trace
+    private static List<String> frames(StackTrace trace) {
+        if (trace == null) {
+            return null;
+        }
+        List<String> result = new ArrayList<String>();
+        for (StackFrame f : trace.getFrames()) {
+            result.add(f.getMethodName() + " " + f.getClassName() + ":" + f.getLineNumber());
+        }
+        return result;
+    }
+}
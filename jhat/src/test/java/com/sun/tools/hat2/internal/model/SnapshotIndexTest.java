@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.tools.hat2.internal.parser.Reader;
+
+import static com.sun.tools.hat2.internal.model.SnapshotAssert.assertSameSnapshot;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a snapshot read back from its .hatidx index is the one
+ * parsed from the dump, and that an index that does not match the dump
+ * or is damaged is passed over for the dump.
+ */
+public class SnapshotIndexTest {
+
+    private File dump;
+    private File index;
+    // parsed from the dump, and resolved
+    private Snapshot parsed;
+
+    @Before
+    public void writeDump() throws Exception {
+        TestHeap heap = new TestHeap();
+        heap.defineClass("java.lang.Thread", "java.lang.Object", "name", 'L');
+        long previous = heap.node();
+        heap.root(previous);
+        for (int s = 0; s < 3; s++) {
+            heap.newSegment();
+            for (int i = 0; i < 20; i++) {
+                long node = heap.node();
+                heap.refer(previous, node);
+                previous = node;
+            }
+            heap.refer(previous, heap.weak(heap.node()));
+            heap.refer(previous, heap.objectArray(previous, heap.string("node " + s)));
+            heap.array(new double[] { s, 0.5 });
+        }
+        long thread = heap.instance("java.lang.Thread");
+        heap.set(thread, "name", heap.string("main"));
+        heap.frameRoot(previous, heap.thread(thread, "main"), 0);
+
+        dump = File.createTempFile("jhat", ".hprof");
+        index = new File(dump.getPath() + ".hatidx");
+        heap.write(dump);
+        parsed = read(false);
+        assertFalse(parsed.isReadFromIndex());
+        writeIndex();
+    }
+
+    @After
+    public void deleteFiles() {
+        dump.delete();
+        index.delete();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        assertTrue(index.exists());
+        Snapshot snapshot = read(false);
+        assertTrue(snapshot.isReadFromIndex());
+        assertSameSnapshot(parsed, snapshot);
+        assertTrue(snapshot.getReferersGraph() != null);
+    }
+
+    @Test
+    public void compactObjects() throws Exception {
+        Snapshot snapshot = read(true);
+        assertTrue(snapshot.isReadFromIndex());
+        assertTrue(snapshot.isCompactObjects());
+        assertSameSnapshot(parsed, snapshot);
+    }
+
+    @Test
+    public void badChecksum() throws Exception {
+        // a byte of the body, which the header still matches
+        flipByte(index.length() - 1);
+        assertParsed();
+        writeIndex();
+        // the CRC32 of the body, in the header
+        flipByte(42);
+        assertParsed();
+    }
+
+    @Test
+    public void badLength() throws Exception {
+        RandomAccessFile file = new RandomAccessFile(index, "rw");
+        try {
+            file.setLength(file.length() - 1);
+        } finally {
+            file.close();
+        }
+        assertParsed();
+        writeIndex();
+        // the length of the body, in the header
+        flipByte(34 + 7);
+        assertParsed();
+    }
+
+    @Test
+    public void dumpModified() throws Exception {
+        assertTrue(dump.setLastModified(dump.lastModified() - 10000));
+        assertParsed();
+        // and an index written for it again is used
+        writeIndex();
+        assertTrue(read(false).isReadFromIndex());
+    }
+
+    // an index of the dump in place of any there was
+    private void writeIndex() {
+        index.delete();
+        Reader.writeIndex(dump.getPath(), parsed, false);
+        assertTrue(index.exists());
+    }
+
+    private Snapshot read(boolean compactObjects) throws IOException {
+        Snapshot snapshot = Reader.readFile(dump.getPath(), false, 0, true, 1,
+                                            compactObjects);
+        snapshot.resolve(true);
+        return snapshot;
+    }
+
+    // the index is passed over, and the dump gives the same snapshot
+    private void assertParsed() throws IOException {
+        Snapshot snapshot = read(false);
+        assertFalse(snapshot.isReadFromIndex());
+        assertSameSnapshot(parsed, snapshot);
+    }
+
+    private void flipByte(long position) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(index, "rw");
+        try {
+            file.seek(position);
+            int b = file.read();
+            file.seek(position);
+            file.write(b ^ 0xff);
+        } finally {
+            file.close();
+        }
+    }
+}
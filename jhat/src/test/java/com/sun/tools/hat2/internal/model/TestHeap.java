@@ -0,0 +1,607 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sun.tools.hat2.internal.parser.Reader;
+
+/**
+ * Builds a small heap, writes it as an HPROF 1.0.2 file and reads it
+ * back.  The heap always has the classes java.lang.Object, Class,
+ * ClassLoader, String, ref.Reference, ref.WeakReference, Object[] and
+ * test.Node; others are added with defineClass().  A test.Node has the
+ * reference fields a, b and c, which refer() fills in turn.
+ *
+ * Fields that are not set are 0 or null.  The classes come first, in a
+ * heap dump segment with the objects, roots and threads added until
+ * newSegment() starts the next one.
+ */
+public class TestHeap {
+
+    private static final int HPROF_UTF8 = 0x01;
+    private static final int HPROF_LOAD_CLASS = 0x02;
+    private static final int HPROF_FRAME = 0x04;
+    private static final int HPROF_TRACE = 0x05;
+    private static final int HPROF_HEAP_DUMP_SEGMENT = 0x1c;
+    private static final int HPROF_HEAP_DUMP_END = 0x2c;
+
+    private static final int HPROF_GC_ROOT_JNI_GLOBAL = 0x01;
+    private static final int HPROF_GC_ROOT_JAVA_FRAME = 0x03;
+    private static final int HPROF_GC_ROOT_STICKY_CLASS = 0x05;
+    private static final int HPROF_GC_ROOT_THREAD_OBJ = 0x08;
+    private static final int HPROF_GC_CLASS_DUMP = 0x20;
+    private static final int HPROF_GC_INSTANCE_DUMP = 0x21;
+    private static final int HPROF_GC_OBJ_ARRAY_DUMP = 0x22;
+    private static final int HPROF_GC_PRIM_ARRAY_DUMP = 0x23;
+
+    private static final int ID_SIZE = 8;
+    private static final int STACK_TRACE_SERIAL = 1;
+    private static final long CLASS_BASE = 0x1000L;
+    private static final long OBJECT_BASE = 0x100000L;
+
+    private static final String OBJECT_ARRAY = "[Ljava.lang.Object;";
+
+    private final Map<String, ClassDef> classes = new LinkedHashMap<String, ClassDef>();
+    private final List<ObjectDef> objects = new ArrayList<ObjectDef>();
+    private final List<SegmentDef> segments = new ArrayList<SegmentDef>();
+    // the methods of the stack of each thread, the top one first
+    private final List<String[]> threads = new ArrayList<String[]>();
+
+    public TestHeap() {
+        segments.add(new SegmentDef());
+        defineClass("java.lang.Object", null);
+        defineClass("java.lang.Class", "java.lang.Object");
+        defineClass("java.lang.ClassLoader", "java.lang.Object");
+        defineClass("java.lang.String", "java.lang.Object",
+                    "value", 'L', "hash", 'I');
+        defineClass("java.lang.ref.Reference", "java.lang.Object",
+                    "referent", 'L', "queue", 'L', "next", 'L', "discovered", 'L');
+        defineClass("java.lang.ref.WeakReference", "java.lang.ref.Reference");
+        defineClass(OBJECT_ARRAY, "java.lang.Object");
+        defineClass("test.Node", "java.lang.Object", "a", 'L', "b", 'L', "c", 'L');
+    }
+
+    /**
+     * @param fieldsAndSignatures the name and the signature of each
+     *        field the class declares, such as "count", 'I'
+     */
+    public void defineClass(String name, String superclass,
+                            Object... fieldsAndSignatures) {
+        ClassDef c = new ClassDef();
+        c.name = name;
+        c.id = CLASS_BASE + classes.size() * 16L;
+        c.serial = classes.size() + 1;
+        if (superclass != null) {
+            c.superclass = classDef(superclass);
+            c.instanceSize = c.superclass.instanceSize;
+        }
+        int count = fieldsAndSignatures.length / 2;
+        c.fieldNames = new String[count];
+        c.signatures = new char[count];
+        for (int i = 0; i < count; i++) {
+            c.fieldNames[i] = (String) fieldsAndSignatures[2 * i];
+            c.signatures[i] = (Character) fieldsAndSignatures[2 * i + 1];
+            c.instanceSize += sizeOf(c.signatures[i]);
+        }
+        classes.put(name, c);
+    }
+
+    /**
+     * @return the id of the class called name
+     */
+    public long classId(String name) {
+        return classDef(name).id;
+    }
+
+    /**
+     * @return the id of a new instance of the class called className
+     */
+    public long instance(String className) {
+        ObjectDef obj = new ObjectDef();
+        obj.clazz = classDef(className);
+        obj.fields = new HashMap<String, Object>();
+        return add(obj);
+    }
+
+    /**
+     * Set a field of an instance.  The value of a reference field is
+     * the id of the object, as a Long.
+     */
+    public void set(long id, String field, Object value) {
+        ObjectDef obj = objectDef(id);
+        if (obj.fields == null) {
+            throw new IllegalArgumentException("not an instance");
+        }
+        obj.fields.put(field, value);
+    }
+
+    /**
+     * @return the id of a new java.lang.String with its char[] value
+     */
+    public long string(String text) {
+        long value = array(text.toCharArray());
+        long id = instance("java.lang.String");
+        set(id, "value", value);
+        set(id, "hash", text.hashCode());
+        return id;
+    }
+
+    /**
+     * @param values a primitive array, such as an int[]
+     * @return the id of a new array with these elements
+     */
+    public long array(Object values) {
+        if (!values.getClass().getComponentType().isPrimitive()) {
+            throw new IllegalArgumentException("not a primitive array");
+        }
+        ObjectDef obj = new ObjectDef();
+        obj.values = values;
+        return add(obj);
+    }
+
+    /**
+     * @return the id of a new Object[] with elements of these ids
+     */
+    public long objectArray(long... elements) {
+        ObjectDef obj = new ObjectDef();
+        obj.clazz = classDef(OBJECT_ARRAY);
+        obj.elements = elements.clone();
+        return add(obj);
+    }
+
+    /**
+     * @return the id of a new test.Node without references
+     */
+    public long node() {
+        return instance("test.Node");
+    }
+
+    /**
+     * @return the id of a new weak reference to referent
+     */
+    public long weak(long referent) {
+        long id = instance("java.lang.ref.WeakReference");
+        set(id, "referent", referent);
+        return id;
+    }
+
+    /**
+     * Make the next free field of node from refer to to.
+     */
+    public void refer(long from, long to) {
+        Map<String, Object> fields = objectDef(from).fields;
+        for (String name : new String[] { "a", "b", "c" }) {
+            if (!fields.containsKey(name)) {
+                fields.put(name, to);
+                return;
+            }
+        }
+        throw new IllegalStateException("all fields are used");
+    }
+
+    /**
+     * Make the object with the given id a JNI global root.
+     */
+    public void root(long id) {
+        addRoot(HPROF_GC_ROOT_JNI_GLOBAL, id, 0, 0);
+    }
+
+    /**
+     * Add a thread whose object is the one with the given id, and whose
+     * stack has frames of the given methods.
+     *
+     * @param methods the methods of the frames, the top one first
+     * @return the serial number of the thread
+     */
+    public int thread(long id, String... methods) {
+        threads.add(methods.clone());
+        int serial = threads.size();
+        addRoot(HPROF_GC_ROOT_THREAD_OBJ, id, serial, STACK_TRACE_SERIAL + serial);
+        return serial;
+    }
+
+    /**
+     * Make the object with the given id a local variable of a frame of a
+     * thread.  The thread may be added to a later segment.
+     *
+     * @param depth the frame, 0 for the top one
+     */
+    public void frameRoot(long id, int thread, int depth) {
+        addRoot(HPROF_GC_ROOT_JAVA_FRAME, id, thread, depth);
+    }
+
+    /**
+     * Start a heap dump segment, which holds the objects, roots and
+     * threads added from now on.
+     */
+    public void newSegment() {
+        segments.add(new SegmentDef());
+    }
+
+    /**
+     * @return the resolved snapshot of the heap, with references
+     */
+    public Snapshot read() throws IOException {
+        return read(false, 1);
+    }
+
+    /**
+     * @param callStack whether to read the stack traces
+     * @param parallelism the number of threads to parse and resolve with
+     * @return the resolved snapshot of the heap, with references
+     */
+    public Snapshot read(boolean callStack, int parallelism) throws IOException {
+        File file = File.createTempFile("jhat", ".hprof");
+        try {
+            write(file);
+            Snapshot snapshot = Reader.readFile(file.getPath(), callStack, 0,
+                                                false, parallelism);
+            snapshot.resolve(true);
+            return snapshot;
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.write("JAVA PROFILE 1.0.2".getBytes("US-ASCII"));
+            out.write(0);
+            out.writeInt(ID_SIZE);
+            out.writeLong(0L);
+
+            // one empty stack trace for everything but the threads
+            startRecord(out, HPROF_TRACE, 12);
+            out.writeInt(STACK_TRACE_SERIAL);
+            out.writeInt(1);            // thread serial
+            out.writeInt(0);
+
+            long nameId = 1;
+            for (ClassDef c : classes.values()) {
+                long classNameId = nameId++;
+                writeName(out, classNameId, c.name.replace('.', '/'));
+                c.fieldNameIds = new long[c.fieldNames.length];
+                for (int i = 0; i < c.fieldNames.length; i++) {
+                    c.fieldNameIds[i] = nameId;
+                    writeName(out, nameId++, c.fieldNames[i]);
+                }
+                startRecord(out, HPROF_LOAD_CLASS, 8 + 2 * ID_SIZE);
+                out.writeInt(c.serial);
+                out.writeLong(c.id);
+                out.writeInt(STACK_TRACE_SERIAL);
+                out.writeLong(classNameId);
+            }
+
+            // the frames of the threads, each one with the name of its
+            // method as its id, and the stack trace of each thread
+            for (int t = 0; t < threads.size(); t++) {
+                String[] methods = threads.get(t);
+                long[] frameIds = new long[methods.length];
+                for (int i = 0; i < methods.length; i++) {
+                    frameIds[i] = nameId++;
+                    writeName(out, frameIds[i], methods[i]);
+                    startRecord(out, HPROF_FRAME, 4 * ID_SIZE + 8);
+                    out.writeLong(frameIds[i]);
+                    out.writeLong(frameIds[i]);     // method name
+                    out.writeLong(0);               // signature
+                    out.writeLong(0);               // source file
+                    out.writeInt(classDef("java.lang.Object").serial);
+                    out.writeInt(i + 1);            // line number
+                }
+                startRecord(out, HPROF_TRACE, 12 + methods.length * ID_SIZE);
+                out.writeInt(STACK_TRACE_SERIAL + t + 1);
+                out.writeInt(t + 1);
+                out.writeInt(methods.length);
+                for (long id : frameIds) {
+                    out.writeLong(id);
+                }
+            }
+
+            for (SegmentDef s : segments) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream segment = new DataOutputStream(bytes);
+                if (s == segments.get(0)) {
+                    for (ClassDef c : classes.values()) {
+                        writeClass(segment, c);
+                    }
+                }
+                for (RootDef r : s.roots) {
+                    writeRoot(segment, r);
+                }
+                for (int i : s.objects) {
+                    writeObject(segment, OBJECT_BASE + i * 16L, objects.get(i));
+                }
+                startRecord(out, HPROF_HEAP_DUMP_SEGMENT, bytes.size());
+                bytes.writeTo(out);
+            }
+            startRecord(out, HPROF_HEAP_DUMP_END, 0);
+        } finally {
+            out.close();
+        }
+    }
+
+    // Internals only below this point
+
+    private long add(ObjectDef obj) {
+        objects.add(obj);
+        segments.get(segments.size() - 1).objects.add(objects.size() - 1);
+        return OBJECT_BASE + (objects.size() - 1) * 16L;
+    }
+
+    private void addRoot(int type, long id, int thread, int number) {
+        RootDef r = new RootDef();
+        r.type = type;
+        r.id = id;
+        r.thread = thread;
+        r.number = number;
+        segments.get(segments.size() - 1).roots.add(r);
+    }
+
+    private ClassDef classDef(String name) {
+        ClassDef c = classes.get(name);
+        if (c == null) {
+            throw new IllegalArgumentException("no class " + name);
+        }
+        return c;
+    }
+
+    private ObjectDef objectDef(long id) {
+        return objects.get((int) ((id - OBJECT_BASE) / 16));
+    }
+
+    private void writeClass(DataOutputStream segment, ClassDef c)
+            throws IOException {
+        segment.writeByte(HPROF_GC_CLASS_DUMP);
+        segment.writeLong(c.id);
+        segment.writeInt(STACK_TRACE_SERIAL);
+        segment.writeLong((c.superclass == null)? 0 : c.superclass.id);
+        for (int j = 0; j < 5; j++) {
+            segment.writeLong(0);       // loader, signers, domain, reserved
+        }
+        segment.writeInt(c.instanceSize);
+        segment.writeShort(0);          // constant pool
+        segment.writeShort(0);          // statics
+        segment.writeShort(c.fieldNames.length);
+        for (int i = 0; i < c.fieldNames.length; i++) {
+            segment.writeLong(c.fieldNameIds[i]);
+            segment.writeByte(typeOf(c.signatures[i]));
+        }
+        segment.writeByte(HPROF_GC_ROOT_STICKY_CLASS);
+        segment.writeLong(c.id);
+    }
+
+    private static void writeRoot(DataOutputStream segment, RootDef r)
+            throws IOException {
+        segment.writeByte(r.type);
+        segment.writeLong(r.id);
+        if (r.type == HPROF_GC_ROOT_JNI_GLOBAL) {
+            segment.writeLong(0);           // global ref id
+        } else {
+            segment.writeInt(r.thread);
+            segment.writeInt(r.number);
+        }
+    }
+
+    private void writeObject(DataOutputStream segment, long id, ObjectDef obj)
+            throws IOException {
+        if (obj.fields != null) {
+            segment.writeByte(HPROF_GC_INSTANCE_DUMP);
+            segment.writeLong(id);
+            segment.writeInt(STACK_TRACE_SERIAL);
+            segment.writeLong(obj.clazz.id);
+            segment.writeInt(obj.clazz.instanceSize);
+            // the fields of the class itself come first
+            for (ClassDef c = obj.clazz; c != null; c = c.superclass) {
+                for (int i = 0; i < c.fieldNames.length; i++) {
+                    writeValue(segment, c.signatures[i],
+                               obj.fields.get(c.fieldNames[i]));
+                }
+            }
+        } else if (obj.elements != null) {
+            segment.writeByte(HPROF_GC_OBJ_ARRAY_DUMP);
+            segment.writeLong(id);
+            segment.writeInt(STACK_TRACE_SERIAL);
+            segment.writeInt(obj.elements.length);
+            segment.writeLong(obj.clazz.id);
+            for (long element : obj.elements) {
+                segment.writeLong(element);
+            }
+        } else {
+            char sig = signatureOf(obj.values.getClass().getComponentType());
+            int length = Array.getLength(obj.values);
+            segment.writeByte(HPROF_GC_PRIM_ARRAY_DUMP);
+            segment.writeLong(id);
+            segment.writeInt(STACK_TRACE_SERIAL);
+            segment.writeInt(length);
+            segment.writeByte(typeOf(sig));
+            for (int i = 0; i < length; i++) {
+                writeValue(segment, sig, Array.get(obj.values, i));
+            }
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, char sig, Object value)
+            throws IOException {
+        switch (sig) {
+            case 'L':
+                out.writeLong((value == null)? 0 : ((Number) value).longValue());
+                break;
+            case 'Z':
+                out.writeByte((value != null && (Boolean) value)? 1 : 0);
+                break;
+            case 'C':
+                out.writeChar((value == null)? 0 : (Character) value);
+                break;
+            case 'B':
+                out.writeByte(number(value).byteValue());
+                break;
+            case 'S':
+                out.writeShort(number(value).shortValue());
+                break;
+            case 'I':
+                out.writeInt(number(value).intValue());
+                break;
+            case 'J':
+                out.writeLong(number(value).longValue());
+                break;
+            case 'F':
+                out.writeFloat(number(value).floatValue());
+                break;
+            case 'D':
+                out.writeDouble(number(value).doubleValue());
+                break;
+            default:
+                throw new IllegalArgumentException("signature " + sig);
+        }
+    }
+
+    private static Number number(Object value) {
+        return (value == null)? Integer.valueOf(0) : (Number) value;
+    }
+
+    private static char signatureOf(Class<?> type) {
+        if (type == boolean.class) {
+            return 'Z';
+        } else if (type == char.class) {
+            return 'C';
+        } else if (type == byte.class) {
+            return 'B';
+        } else if (type == short.class) {
+            return 'S';
+        } else if (type == int.class) {
+            return 'I';
+        } else if (type == long.class) {
+            return 'J';
+        } else if (type == float.class) {
+            return 'F';
+        } else {
+            return 'D';
+        }
+    }
+
+    // the basic type of HPROF for a signature
+    private static int typeOf(char sig) {
+        switch (sig) {
+            case 'L': return 2;
+            case 'Z': return 4;
+            case 'C': return 5;
+            case 'F': return 6;
+            case 'D': return 7;
+            case 'B': return 8;
+            case 'S': return 9;
+            case 'I': return 10;
+            case 'J': return 11;
+            default:
+                throw new IllegalArgumentException("signature " + sig);
+        }
+    }
+
+    private static int sizeOf(char sig) {
+        switch (sig) {
+            case 'L':
+            case 'J':
+            case 'D':
+                return 8;
+            case 'I':
+            case 'F':
+                return 4;
+            case 'C':
+            case 'S':
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    private static void writeName(DataOutputStream out, long id, String name)
+            throws IOException {
+        byte[] bytes = name.getBytes("UTF-8");
+        startRecord(out, HPROF_UTF8, ID_SIZE + bytes.length);
+        out.writeLong(id);
+        out.write(bytes);
+    }
+
+    private static void startRecord(DataOutputStream out, int tag, int length)
+            throws IOException {
+        out.writeByte(tag);
+        out.writeInt(0);
+        out.writeInt(length);
+    }
+
+    private static class ClassDef {
+        String name;
+        long id;
+        int serial;
+        ClassDef superclass;
+        String[] fieldNames;
+        char[] signatures;
+        long[] fieldNameIds;
+        int instanceSize;
+    }
+
+    // an instance if fields is set, an Object[] if elements is set, and
+    // a primitive array otherwise
+    private static class ObjectDef {
+        ClassDef clazz;
+        Map<String, Object> fields;
+        long[] elements;
+        Object values;
+    }
+
+    // a root or a thread; number is the stack trace serial of a thread,
+    // and the depth of the frame of a frame root
+    private static class RootDef {
+        int type;
+        long id;
+        int thread;
+        int number;
+    }
+
+    // the roots first, then the objects, by their index in objects
+    private static class SegmentDef {
+        final List<RootDef> roots = new ArrayList<RootDef>();
+        final List<Integer> objects = new ArrayList<Integer>();
+    }
+}
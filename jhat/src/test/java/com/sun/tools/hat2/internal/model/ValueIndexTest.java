@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ValueIndexTest {
+
+    // the value of instance i is VALUES[i]
+    private static final double[] VALUES = {
+        3, 1, Double.NaN, 2, 1, -0.0, 0.0, 5, 3
+    };
+
+    private final ValueIndex index = new ValueIndex(null, VALUES, false);
+
+    @Test
+    public void size() {
+        assertEquals(VALUES.length - 1, index.size());
+    }
+
+    @Test
+    public void bounds() {
+        assertArrayEquals(new int[] { 0, 1, 3, 4, 8 }, index.find(1, true, 3, true));
+        assertArrayEquals(new int[] { 3 }, index.find(1, false, 3, false));
+        assertArrayEquals(new int[] { 1, 3, 4 }, index.find(1, true, 3, false));
+        assertArrayEquals(new int[] { 0, 3, 8 }, index.find(1, false, 3, true));
+        assertArrayEquals(new int[] { 0, 8 }, index.find(3, true, 3, true));
+        assertArrayEquals(new int[0], index.find(3, false, 3, true));
+        assertArrayEquals(new int[0], index.find(4, true, 2, true));
+        assertArrayEquals(new int[0], index.find(6, true, 100, true));
+    }
+
+    @Test
+    public void infinities() {
+        assertArrayEquals(new int[] { 0, 1, 3, 4, 5, 6, 7, 8 },
+                          index.find(Double.NEGATIVE_INFINITY, true,
+                                     Double.POSITIVE_INFINITY, true));
+        assertArrayEquals(new int[] { 7 },
+                          index.find(3, false, Double.POSITIVE_INFINITY, false));
+    }
+
+    @Test
+    public void signedZero() {
+        // -0.0 == 0.0, as in the comparisons of a query
+        assertArrayEquals(new int[] { 5, 6 }, index.find(0.0, true, 0.0, true));
+        assertArrayEquals(new int[] { 5, 6 }, index.find(-0.0, true, -0.0, true));
+        assertArrayEquals(new int[] { 5, 6 }, index.find(-0.0, true, 0.0, true));
+        assertArrayEquals(new int[0], index.find(0.0, false, 1, false));
+        assertArrayEquals(new int[0], index.find(-1, false, -0.0, false));
+        assertArrayEquals(new int[] { 1, 4, 5, 6 }, index.find(-0.0, true, 1, true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void notText() {
+        index.find("x");
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.oql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.tools.hat2.internal.model.JavaHeapObject;
+import com.sun.tools.hat2.internal.model.Snapshot;
+import com.sun.tools.hat2.internal.model.TestHeap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the aggregates over heap.objects() against what the script of
+ * hat.js works out, going through the instances one by one.  There are
+ * enough instances for several ranges, which a pool folds side by side.
+ */
+public class AggregateTest {
+
+    private static final int ITEMS = 2 * InstanceScan.RANGE_SIZE + 1000;
+    private static final int SUB_ITEMS = 50;
+
+    private static Snapshot snapshot;
+    private static ForkJoinPool pool;
+    // the instances of test.Item and then of test.SubItem, as
+    // heap.objects('test.Item') gives them
+    private static long[] ids = new long[ITEMS + SUB_ITEMS];
+    private static double[] weights = new double[ITEMS + SUB_ITEMS];
+
+    @BeforeClass
+    public static void readHeap() throws Exception {
+        TestHeap heap = new TestHeap();
+        heap.defineClass("test.Item", "java.lang.Object",
+                         "weight", 'D', "group", 'I', "letter", 'C');
+        heap.defineClass("test.SubItem", "test.Item");
+        heap.defineClass("test.First", "java.lang.Object", "x", 'D');
+        for (int i = 0; i < ids.length; i++) {
+            boolean sub = i >= ITEMS;
+            ids[i] = heap.instance(sub? "test.SubItem" : "test.Item");
+            if (sub) {
+                weights[i] = (i - ITEMS) * 2.0;
+            } else if (i == InstanceScan.RANGE_SIZE || i == 7000) {
+                // the first element of the second range, and one inside
+                // the second range
+                weights[i] = Double.NaN;
+            } else {
+                // each value ten times over, so top has ties to break
+                weights[i] = ((i * 7919) % 1000) * 0.1;
+            }
+            heap.set(ids[i], "weight", weights[i]);
+            heap.set(ids[i], "group", (i * 3 + 3) % 5);
+            heap.set(ids[i], "letter", sub? (char) ('A' + i % 26) : (char) ('a' + i * 7 % 26));
+        }
+        for (double x : new double[] { Double.NaN, 1, 2 }) {
+            heap.set(heap.instance("test.First"), "x", x);
+        }
+        snapshot = heap.read();
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void count() throws Exception {
+        assertEquals(ITEMS + SUB_ITEMS + 0.0, aggregate("count(heap.objects('test.Item'))"));
+        assertEquals(ITEMS + 0.0, aggregate("length(heap.objects('test.Item', false))"));
+        int big = 0;
+        for (double w : weights) {
+            big += (w > 50)? 1 : 0;
+        }
+        assertEquals(big + 0.0, aggregate("count(heap.objects('test.Item'), 'it.weight > 50')"));
+        // the weights of test.SubItem are 0, 2, ... 98
+        assertEquals(24.0, aggregate("count(heap.objects('test.SubItem', true, "
+                                     + "'it.weight >= 50'), 'it.weight < 98')"));
+    }
+
+    @Test
+    public void sum() throws Exception {
+        // added up in the order of the instances, however the ranges are
+        // folded, so that the rounding is that of the script
+        double total = 0;
+        for (double w : weights) {
+            if (w >= 0) {
+                total += w;
+            }
+        }
+        assertEquals(total, aggregate("sum(filter(heap.objects('test.Item'), 'it.weight >= 0'), "
+                                      + "'it.weight')"));
+        assertEquals(total, aggregate("sum(map(filter(heap.objects('test.Item'), "
+                                      + "'it.weight >= 0'), 'it.weight'))"));
+        assertEquals(Double.NaN, aggregate("sum(heap.objects('test.Item'), 'it.weight')"));
+        // Number() of a heap object
+        assertEquals(Double.NaN, aggregate("sum(heap.objects('test.First'))"));
+        // the script's 0, when there is nothing to add
+        assertEquals(0, aggregate("sum(filter(heap.objects('test.Item'), 'it.weight > 1000'), "
+                                  + "'it.weight')"));
+        // false and true are added up as 0 and 1
+        assertEquals(0.0, aggregate("sum(heap.objects('test.Item'), 'it.weight > 1000')"));
+        assertEquals(0, aggregate("sum(filter(heap.objects('test.First'), 'it.x > 5'), 'it.x')"));
+    }
+
+    @Test
+    public void minAndMax() throws Exception {
+        assertEquals(scriptExtreme(false), aggregate("min(map(heap.objects('test.Item'), "
+                                                     + "'it.weight'))"));
+        assertEquals(scriptExtreme(true), aggregate("max(map(heap.objects('test.Item'), "
+                                                    + "'it.weight'))"));
+        assertEquals(99.9, aggregate("max(map(heap.objects('test.Item'), 'it.weight'))"));
+        // nothing compares with a NaN first element, so it is kept
+        assertEquals(Double.NaN, aggregate("max(map(heap.objects('test.First'), 'it.x'))"));
+        assertEquals(Double.NaN, aggregate("min(map(heap.objects('test.First'), 'it.x'))"));
+        assertEquals(2.0, aggregate("max(map(filter(heap.objects('test.First'), 'it.x > 0'), "
+                                    + "'it.x'))"));
+        // strings are compared as strings
+        assertEquals("A", aggregate("min(map(heap.objects('test.Item'), 'it.letter'))"));
+        assertEquals("z", aggregate("max(map(heap.objects('test.Item'), 'it.letter'))"));
+        assertEquals("Z", aggregate("max(map(heap.objects('test.SubItem'), 'it.letter'))"));
+        // undefined, which the query gives as null
+        assertNull(aggregate("min(map(heap.objects('test.Item', true, 'it.weight > 1000'), "
+                             + "'it.weight'))"));
+    }
+
+    @Test
+    public void top() throws Exception {
+        // the ten instances of 99.9 and two of 99.8; ties go to the
+        // earlier instance, across ranges
+        assertEquals(scriptTop(12), ids(aggregate("top(heap.objects('test.Item'), 12, "
+                                                  + "'it.weight')")));
+        assertEquals(scriptTop(ITEMS), ids(aggregate("top(heap.objects('test.Item'), "
+                                                     + ITEMS + ", 'it.weight')")));
+        List<Object> mapped = new ArrayList<Object>();
+        for (long id : scriptTop(3)) {
+            mapped.add(weights[index(id)]);
+        }
+        assertEquals(mapped, aggregate("top(map(heap.objects('test.Item'), 'it.weight'), 3)"));
+        assertEquals(Collections.emptyList(),
+                     aggregate("top(heap.objects('test.Item'), 0, 'it.weight')"));
+        // Number() of a heap object is NaN, which top skips
+        assertEquals(Collections.emptyList(), aggregate("top(heap.objects('test.Item'), 5)"));
+    }
+
+    @Test
+    public void countBy() throws Exception {
+        // the groups are first seen as 3, 1, 4, 2 and 0, but the keys of
+        // the script's object that are indexes come first, in order
+        Map<String, Object> groups = new LinkedHashMap<String, Object>();
+        for (int g = 0; g < 5; g++) {
+            groups.put(Integer.toString(g), 0);
+        }
+        for (int i = 0; i < weights.length; i++) {
+            groups.put(Integer.toString((i * 3 + 3) % 5),
+                       (Integer) groups.get(Integer.toString((i * 3 + 3) % 5)) + 1);
+        }
+        assertEquals(new ArrayList<Object>(groups.keySet()),
+                     new ArrayList<Object>(((Map<?, ?>) aggregate(
+                         "countBy(heap.objects('test.Item'), 'it.group')")).keySet()));
+        assertEquals(groups, aggregate("countBy(heap.objects('test.Item'), 'it.group')"));
+        Map<String, Object> big = new LinkedHashMap<String, Object>();
+        for (double w : weights) {
+            String k = Boolean.toString(w > 50);
+            big.put(k, (Integer) big.getOrDefault(k, 0) + 1);
+        }
+        assertEquals(big, aggregate("countBy(heap.objects('test.Item'), 'it.weight > 50')"));
+    }
+
+    @Test
+    public void chains() throws Exception {
+        int count = 0;
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if ((i * 3 + 3) % 5 == 1 && weights[i] > 10) {
+                count++;
+                total += weights[i];
+            }
+        }
+        String chain = "filter(filter(heap.objects('test.Item'), 'it.group == 1'), "
+                       + "'it.weight > 10')";
+        assertEquals(count + 0.0, aggregate("count(" + chain + ")"));
+        assertEquals(count + 0.0, aggregate("length(map(" + chain + ", 'it.weight'))"));
+        assertEquals(total, aggregate("sum(map(" + chain + ", 'it.weight'))"));
+        assertEquals(total, aggregate("sum(" + chain + ", 'it.weight')"));
+        assertEquals(count + 0.0, aggregate("count(heap.objects('test.Item', true, 'it.group == 1'),"
+                                            + " 'it.weight > 10')"));
+        // the code of a mapped source would be given the mapped values
+        try {
+            compile("count(map(heap.objects('test.Item'), 'it.weight'), 'it > 1')");
+            fail();
+        } catch (ExprParser.Unsupported exp) {
+        }
+    }
+
+    @Test
+    public void unknownClass() throws Exception {
+        // heap.objects() of an unknown class has no elements in hat.js
+        assertEquals(0.0, aggregate("count(heap.objects('no.Such'))"));
+        assertEquals(0.0, aggregate("length(heap.objects('no.Such', false))"));
+        assertEquals(0.0, aggregate("count(filter(heap.objects('no.Such'), 'it.x > 1'))"));
+        assertEquals(0, aggregate("sum(heap.objects('no.Such'), 'it.x')"));
+        assertEquals(Collections.emptyList(), aggregate("top(heap.objects('no.Such'), 3, 'it.x')"));
+        assertEquals(Collections.emptyMap(), aggregate("countBy(heap.objects('no.Such'), 'it.x')"));
+        // what it.x is cannot be told, so min and max are left to the script
+        try {
+            compile("min(map(heap.objects('no.Such'), 'it.x'))");
+            fail();
+        } catch (ExprParser.Unsupported exp) {
+        }
+    }
+
+    // the value of "select aggregate", which the ranges give the same
+    // with a pool as without one
+    private static Object aggregate(String aggregate) throws Exception {
+        Object alone = run(aggregate, null);
+        assertEquals(aggregate, alone, run(aggregate, pool));
+        return alone;
+    }
+
+    private static Object run(String aggregate, ForkJoinPool pool) throws Exception {
+        final List<Object> results = new ArrayList<Object>();
+        compile(aggregate).execute(o -> {
+            results.add(o);
+            return false;
+        }, new QueryControl(), pool);
+        assertEquals(1, results.size());
+        return results.get(0);
+    }
+
+    private static CompiledQuery compile(String aggregate) throws Exception {
+        return CompiledQuery.compile(new OQLQuery(aggregate, false, null, null, null),
+                                     null, snapshot);
+    }
+
+    // the script's min or max of the weights
+    private static double scriptExtreme(boolean max) {
+        double kept = weights[0];
+        for (double w : weights) {
+            if (max? w > kept : w < kept) {
+                kept = w;
+            }
+        }
+        return kept;
+    }
+
+    // the ids of the k instances with the largest weights, the earlier
+    // one first where weights are equal
+    private static List<Long> scriptTop(int k) {
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < weights.length; i++) {
+            if (!Double.isNaN(weights[i])) {
+                order.add(i);
+            }
+        }
+        order.sort((a, b) -> Double.compare(weights[b], weights[a]));
+        List<Long> result = new ArrayList<Long>();
+        for (int i : order.subList(0, Math.min(k, order.size()))) {
+            result.add(ids[i]);
+        }
+        return result;
+    }
+
+    private static List<Long> ids(Object objects) {
+        List<Long> result = new ArrayList<Long>();
+        for (Object o : (List<?>) objects) {
+            result.add(((JavaHeapObject) o).getId());
+        }
+        return result;
+    }
+
+    private static int index(long id) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        throw new AssertionError(Long.toHexString(id));
+    }
+}
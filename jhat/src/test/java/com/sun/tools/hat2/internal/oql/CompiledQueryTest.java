@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.oql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.tools.hat2.internal.model.JavaClass;
+import com.sun.tools.hat2.internal.model.JavaHeapObject;
+import com.sun.tools.hat2.internal.model.Snapshot;
+import com.sun.tools.hat2.internal.model.TestHeap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that compiled queries give the values the script of hat.js
+ * gives for the same query.
+ */
+public class CompiledQueryTest {
+
+    private static Snapshot snapshot;
+    private static long[] items;
+
+    @BeforeClass
+    public static void readHeap() throws Exception {
+        TestHeap heap = new TestHeap();
+        heap.defineClass("test.Item", "java.lang.Object",
+                         "id", 'I', "big", 'J', "small", 'S', "ratio", 'F',
+                         "weight", 'D', "flag", 'Z', "letter", 'C', "tiny", 'B',
+                         "name", 'L', "next", 'L');
+        heap.defineClass("test.SubItem", "test.Item", "extra", 'I');
+        items = new long[] {
+            heap.instance("test.Item"), heap.instance("test.Item"),
+            heap.instance("test.Item"), heap.instance("test.SubItem")
+        };
+        for (int i = 0; i < items.length; i++) {
+            heap.set(items[i], "id", i);
+            heap.set(items[i], "letter", (char) ('w' + i));
+        }
+        heap.set(items[0], "big", 1L << 40);
+        heap.set(items[0], "small", (short) -3);
+        heap.set(items[0], "ratio", 0.1f);
+        heap.set(items[0], "weight", 2.5);
+        heap.set(items[0], "flag", true);
+        heap.set(items[0], "tiny", (byte) 7);
+        heap.set(items[0], "name", heap.string("zero"));
+        heap.set(items[0], "next", items[1]);
+        heap.set(items[1], "weight", -0.0);
+        heap.set(items[1], "name", heap.string("one"));
+        heap.set(items[2], "weight", 0.5);
+        heap.set(items[2], "next", items[0]);
+        heap.set(items[3], "extra", 9);
+        snapshot = heap.read();
+    }
+
+    @Test
+    public void fieldsAreDoubles() throws Exception {
+        assertEquals(list(0.0, 1.0, 2.0), select("o.id", "test.Item", null));
+        assertEquals(list(1099511627776.0), select("o.big", "test.Item", "o.id == 0"));
+        assertEquals(list(-3.0), select("o.small", "test.Item", "o.id == 0"));
+        // a float is seen through its decimal form
+        assertEquals(list(0.1), select("o.ratio", "test.Item", "o.id == 0"));
+        assertEquals(list(2.5, -0.0, 0.5), select("o.weight", "test.Item", null));
+    }
+
+    @Test
+    public void otherFields() throws Exception {
+        assertEquals(list("w", "x", "y"), select("o.letter", "test.Item", null));
+        assertEquals(list(true, false, false), select("o.flag", "test.Item", null));
+        List<Object> next = select("o.next", "test.Item", null);
+        assertEquals(items[1], ((JavaHeapObject) next.get(0)).getId());
+        assertNull(next.get(1));
+        assertEquals(items[0], ((JavaHeapObject) next.get(2)).getId());
+    }
+
+    @Test
+    public void instanceOf() throws Exception {
+        assertEquals(list(0.0, 1.0, 2.0, 3.0), select("o.id", "instanceof test.Item", null));
+        assertEquals(list(9.0), select("o.extra", "instanceof test.SubItem", null));
+    }
+
+    @Test
+    public void constantIntArithmetic() throws Exception {
+        assertEquals(list(3), select("1 + 2", null, null));
+        assertEquals(list(2), select("6 / 3", null, null));
+        assertEquals(list(3.5), select("7 / 2", null, null));
+        assertEquals(list(2147483648.0), select("2147483647 + 1", null, null));
+        assertEquals(list(-0.0), select("0 * -1", null, null));
+        assertEquals(list(-0.0), select("-0", null, null));
+        assertEquals(list(-0.0), select("-4 % 2", null, null));
+        assertEquals(list(Double.NaN), select("5 % 0", null, null));
+        assertEquals(list(1000), select("1e3", null, null));
+        assertEquals(list(1500.0), select("1.5e3", null, null));
+        // arithmetic on fields is on doubles
+        assertEquals(list(1.0, 2.0, 3.0), select("o.id + 1", "test.Item", null));
+    }
+
+    @Test
+    public void undefined() throws Exception {
+        assertEquals(list((Object) null), select("undefined", null, null));
+        assertEquals(list((Object) null), select("o.nosuch", "test.Item", "o.id == 0"));
+        assertEquals(3, select("o", "test.Item", "o.nosuch == null").size());
+        assertEquals(0, select("o", "test.Item", "o.nosuch === null").size());
+        assertEquals(3, select("o", "test.Item", "o.nosuch === undefined").size());
+    }
+
+    @Test
+    public void equality() throws Exception {
+        assertEquals(list(true), select("'1' == 1", null, null));
+        assertEquals(list(false), select("'1' === 1", null, null));
+        assertEquals(list(true), select("true == 1", null, null));
+        assertEquals(list(false), select("null == 0", null, null));
+        assertEquals(list(true), select("null == undefined", null, null));
+        assertEquals(list(false), select("'10' < 9", null, null));
+        assertEquals(list(false), select("'x' < 1 || 'x' >= 1", null, null));
+        assertEquals(list(true), select("'a' < 'b'", null, null));
+    }
+
+    @Test
+    public void heapObjectEquality() throws Exception {
+        // the script makes a new wrapper each time it reads a field, so
+        // only the item whose next is null has o.next == o.next
+        assertEquals(3, select("o", "test.Item", "o == o").size());
+        assertEquals(list(1.0), select("o.id", "test.Item", "o.next == o.next"));
+        assertEquals(3, select("o", "test.Item", "identical(o.next, o.next)").size());
+        assertEquals(list(0.0, 2.0), select("o.id", "test.Item", "o.next != null"));
+    }
+
+    @Test
+    public void whereResult() throws Exception {
+        // OQLEngine takes the int value of a number, so 0.5 is false
+        assertEquals(list(0.0), select("o.id", "test.Item", "o.weight"));
+        assertEquals(list(0.0, 1.0), select("o.id", "test.Item", "o.name"));
+    }
+
+    @Test
+    public void strings() throws Exception {
+        assertEquals(list("zero", "one"),
+                     select("o.name.toString()", "test.Item", "o.name != null"));
+        assertEquals(list(4, 3),
+                     select("o.name.toString().length", "test.Item", "o.name != null"));
+        assertEquals(list("0", "1", "2"), select("'' + o.id", "test.Item", null));
+        assertEquals(list("0.11e+21"), select("'' + 0.1 + 1e21", null, null));
+        assertEquals(1, select("o", "java.lang.String", "o.toString() == 'one'").size());
+        // || gives one of its operands
+        List<Object> names = select("o.name || 'none'", "test.Item", null);
+        assertEquals("zero", names.get(0).toString());
+        assertEquals("none", names.get(2));
+    }
+
+    @Test
+    public void functions() throws Exception {
+        JavaHeapObject first = snapshot.findThing(items[0]);
+        assertEquals(list("test.Item"), select("classof(o).name", "test.Item", "o.id == 0"));
+        assertEquals(list(first.getIdString()), select("objectid(o)", "test.Item", "o.id == 0"));
+        assertEquals(list(first.getSize()), select("sizeof(o)", "test.Item", "o.id == 0"));
+    }
+
+    private static List<Object> list(Object... values) {
+        return Arrays.asList(values);
+    }
+
+    // the results of "select selectExpr from [instanceof] clazz o where
+    // whereExpr", compiled
+    private static List<Object> select(String selectExpr, String from, String whereExpr)
+            throws Exception {
+        JavaClass clazz = null;
+        boolean isInstanceOf = false;
+        if (from != null) {
+            isInstanceOf = from.startsWith("instanceof ");
+            clazz = snapshot.findClass(isInstanceOf? from.substring(11) : from);
+            assertTrue(from, clazz != null);
+        }
+        OQLQuery q = new OQLQuery(selectExpr, isInstanceOf,
+                                  (clazz == null)? null : clazz.getName(),
+                                  (clazz == null)? null : "o", whereExpr);
+        final List<Object> results = new ArrayList<Object>();
+        CompiledQuery.compile(q, clazz, snapshot).execute(o -> {
+            results.add(o);
+            return false;
+        }, new QueryControl(), null);
+        return results;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.oql;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.tools.hat2.internal.model.JavaClass;
+import com.sun.tools.hat2.internal.model.Snapshot;
+import com.sun.tools.hat2.internal.model.TestHeap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExprParserTest {
+
+    private static Snapshot snapshot;
+    private static JavaClass item;
+
+    @BeforeClass
+    public static void readHeap() throws Exception {
+        TestHeap heap = new TestHeap();
+        heap.defineClass("test.Item", "java.lang.Object",
+                         "id", 'I', "tiny", 'B', "next", 'L');
+        heap.instance("test.Item");
+        snapshot = heap.read();
+        item = snapshot.findClass("test.Item");
+    }
+
+    @Test
+    public void types() throws Exception {
+        assertEquals(Expr.Type.NUMBER, parse("o.id * 2").type);
+        assertEquals(Expr.Type.OBJECT, parse("o.next").type);
+        assertEquals(Expr.Type.BOOLEAN, parse("o.id < 3 && o.next != null").type);
+        assertEquals(Expr.Type.STRING, parse("'a' + o.id").type);
+        assertEquals(Expr.Type.ANY, parse("o.next.id").type);
+        assertEquals(Expr.Type.NUMBER, parse("o.next.toString().length").type);
+    }
+
+    @Test
+    public void constantsAreFolded() throws Exception {
+        Expr e = parse("(1 + 2) * 3");
+        assertTrue(e instanceof Expr.Literal);
+        assertEquals(9, ((Expr.Literal) e).value);
+        assertEquals(-0.0, ((Expr.Literal) parse("-0")).value);
+        assertEquals(true, ((Expr.Literal) parse("!0 && 'a' == 'a'")).value);
+    }
+
+    @Test
+    public void unsupported() {
+        String[] refused = {
+            // the script cannot read byte fields
+            "o.tiny",
+            // compared through the wrapper's toString by the script
+            "o == 1", "'x' != o", "o.next === 'a'",
+            "o < 2", "o + 1", "-o",
+            "o.foo()", "o.next.equals(o)", "o.fields", "o.id.foo",
+            "this", "typeof o", "function", "o ? 1 : 2",
+            "'a\\nb'", "0x10", "010", "1abc", "'open",
+            "count(heap.objects('test.Item'))",
+            "nosuch", "o.id +", "(o.id", "o.id )",
+        };
+        for (String text : refused) {
+            try {
+                parse(text);
+                fail("parsed " + text);
+            } catch (ExprParser.Unsupported exp) {
+                // expected
+            }
+        }
+    }
+
+    private static Expr parse(String text) throws ExprParser.Unsupported {
+        return new ExprParser(text, "o", item, null).parse();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.oql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.tools.hat2.internal.model.JavaClass;
+import com.sun.tools.hat2.internal.model.JavaHeapObject;
+import com.sun.tools.hat2.internal.model.Snapshot;
+import com.sun.tools.hat2.internal.model.TestHeap;
+import com.sun.tools.hat2.internal.model.ValueIndex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks how a query whose where clause an index answers gets the index:
+ * building it, waiting for the query that builds it, and looking at all
+ * the instances when it cannot be had.
+ */
+public class IndexedQueryTest {
+
+    private static final int BIG = 2 * InstanceScan.RANGE_SIZE + 500;
+    private static final int SMALL = 10;
+    private static final String QUERY = "o.n == 7";
+    // a few of the waits of a query for another's index
+    private static final long WAIT_MILLIS = 300;
+
+    private static ForkJoinPool pool;
+
+    private Snapshot snapshot;
+    private JavaClass big;
+    private int field;
+    // the ids of the instances with n == 7, in order
+    private List<Long> expected = new ArrayList<Long>();
+
+    @BeforeClass
+    public static void startPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        pool.shutdown();
+    }
+
+    // a snapshot of its own for each test, as it keeps the indexes
+    @Before
+    public void readHeap() throws Exception {
+        expected.clear();
+        TestHeap heap = new TestHeap();
+        heap.defineClass("test.Big", "java.lang.Object", "n", 'I');
+        heap.defineClass("test.Small", "test.Big");
+        for (int i = 0; i < BIG; i++) {
+            long id = heap.instance("test.Big");
+            heap.set(id, "n", i % 100);
+            if (i % 100 == 7) {
+                expected.add(id);
+            }
+        }
+        for (int i = 0; i < SMALL; i++) {
+            heap.set(heap.instance("test.Small"), "n", 50 + i);
+        }
+        snapshot = heap.read();
+        big = snapshot.findClass("test.Big");
+        field = big.getFieldIndex("n");
+    }
+
+    @Test
+    public void buildsIndex() throws Exception {
+        for (ForkJoinPool p : new ForkJoinPool[] { null, pool }) {
+            readHeap();
+            QueryControl control = new QueryControl();
+            assertEquals(expected, select(control, p));
+            // the build looks at each instance of test.Big, and the
+            // small class is looked at without an index
+            assertEquals(BIG + expected.size() + SMALL, control.getObjectsScanned());
+            FutureTask<ValueIndex> task = snapshot.getValueIndexTask(big, field);
+            assertTrue(task.isDone());
+            assertEquals(BIG, task.get().size());
+            control = new QueryControl();
+            assertEquals(expected, select(control, p));
+            assertEquals(expected.size() + SMALL, control.getObjectsScanned());
+        }
+    }
+
+    @Test
+    public void waitsForIndex() throws Exception {
+        // another query's build
+        final FutureTask<ValueIndex> task = new FutureTask<ValueIndex>(() -> {
+            Thread.sleep(WAIT_MILLIS);
+            return new ValueIndex(big, values(), false);
+        });
+        snapshot.putValueIndexTask(big, field, task);
+        new Thread(task).start();
+        QueryControl control = new QueryControl();
+        assertEquals(expected, select(control, pool));
+        assertEquals(expected.size() + SMALL, control.getObjectsScanned());
+    }
+
+    @Test
+    public void waitStopsAtTimeout() throws Exception {
+        // a build that never ends
+        snapshot.putValueIndexTask(big, field, new FutureTask<ValueIndex>(() -> null));
+        QueryControl control = new QueryControl(WAIT_MILLIS, 0, 0);
+        try {
+            select(control, null);
+            fail();
+        } catch (OQLException exp) {
+            assertTrue(exp.getMessage(), exp.getMessage().contains("ran for more"));
+        }
+    }
+
+    @Test
+    public void failedIndex() throws Exception {
+        FutureTask<ValueIndex> task = new FutureTask<ValueIndex>(() -> {
+            throw new OQLException("query cancelled");
+        });
+        task.run();
+        snapshot.putValueIndexTask(big, field, task);
+        for (ForkJoinPool p : new ForkJoinPool[] { null, pool }) {
+            QueryControl control = new QueryControl();
+            assertEquals(expected, select(control, p));
+            assertEquals(BIG + SMALL, control.getObjectsScanned());
+        }
+        // the failure is the building query's to deal with
+        assertTrue(snapshot.getValueIndexTask(big, field) == task);
+        // Without an index, a large class is looked at on the threads
+        // of the pool, a range at a time, and without a pool one
+        // instance at a time, up to the second one selected, which
+        // the row limit leaves out.
+        QueryControl control = new QueryControl(0, 1, 0);
+        assertEquals(expected.subList(0, 1), select(control, null));
+        assertEquals(108, control.getObjectsScanned());
+        control = new QueryControl(0, 1, 0);
+        assertEquals(expected.subList(0, 1), select(control, pool));
+        assertTrue(control.getObjectsScanned() >= InstanceScan.RANGE_SIZE);
+    }
+
+    @Test
+    public void refusesToBuild() throws Exception {
+        // a query that may not look at all the instances of test.Big
+        // does not build an index of them
+        for (ForkJoinPool p : new ForkJoinPool[] { null, pool }) {
+            QueryControl control = new QueryControl(0, 3, BIG - 1);
+            assertEquals(expected.subList(0, 3), select(control, p));
+            assertTrue(control.isTruncated());
+            assertNull(snapshot.getValueIndexTask(big, field));
+        }
+        QueryControl control = new QueryControl();
+        assertEquals(expected, select(control, null));
+        assertNotNull(snapshot.getValueIndexTask(big, field));
+    }
+
+    // the ids of "select o from instanceof test.Big o where o.n == 7"
+    private List<Long> select(QueryControl control, ForkJoinPool pool) throws Exception {
+        OQLQuery q = new OQLQuery("o", true, big.getName(), "o", QUERY);
+        final List<Long> results = new ArrayList<Long>();
+        CompiledQuery.compile(q, big, snapshot).execute(o -> {
+            results.add(((JavaHeapObject) o).getId());
+            return false;
+        }, control, pool);
+        return results;
+    }
+
+    private double[] values() {
+        double[] values = new double[BIG];
+        for (int i = 0; i < BIG; i++) {
+            values[i] = i % 100;
+        }
+        return values;
+    }
+}
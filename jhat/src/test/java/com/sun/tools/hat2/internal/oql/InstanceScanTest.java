@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.oql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.tools.hat2.internal.model.JavaClass;
+import com.sun.tools.hat2.internal.model.JavaHeapObject;
+import com.sun.tools.hat2.internal.model.Snapshot;
+import com.sun.tools.hat2.internal.model.TestHeap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a scan gives the parts of all its ranges, in order when
+ * asked to, and that once a range fails the caller gets the failure and
+ * no part of a range that was cut off.
+ */
+public class InstanceScanTest {
+
+    private static final int INSTANCES = 3 * InstanceScan.RANGE_SIZE - 100;
+
+    private static JavaClass[] classes;
+    private static List<Long> ids = new ArrayList<Long>();
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void readHeap() throws Exception {
+        TestHeap heap = new TestHeap();
+        heap.defineClass("test.Small", "java.lang.Object");
+        heap.defineClass("test.SubSmall", "test.Small");
+        for (int i = 0; i < INSTANCES; i++) {
+            ids.add(heap.instance((i < INSTANCES - 10)? "test.Small" : "test.SubSmall"));
+        }
+        Snapshot snapshot = heap.read();
+        classes = snapshot.findClass("test.Small").getInstanceClasses(true);
+        // a pool with a thread for each range
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void ordered() throws Exception {
+        InstanceScan<List<Long>> scan = scan(new Ids());
+        // the ranges of test.Small, and one of test.SubSmall
+        assertEquals(4, scan.getRangeCount());
+        assertEquals(ids, join(run(scan, null, true)));
+        assertEquals(ids, join(run(scan(new Ids()), pool, true)));
+    }
+
+    @Test
+    public void unordered() throws Exception {
+        List<List<Long>> parts = run(scan(new Ids()), pool, false);
+        assertEquals(4, parts.size());
+        // each part is a whole range, whichever order they are done in
+        for (List<Long> part : parts) {
+            assertWholeRange(part);
+        }
+        List<Long> all = join(parts);
+        Collections.sort(all);
+        List<Long> sorted = new ArrayList<Long>(ids);
+        Collections.sort(sorted);
+        assertEquals(sorted, all);
+    }
+
+    @Test
+    public void visitorStops() throws Exception {
+        final List<List<Long>> parts = new ArrayList<List<Long>>();
+        scan(new Ids()).run(pool, true, part -> {
+            parts.add(part);
+            return true;
+        });
+        assertEquals(1, parts.size());
+        assertEquals(ids.subList(0, InstanceScan.RANGE_SIZE), parts.get(0));
+    }
+
+    @Test
+    public void failure() throws Exception {
+        RuntimeException runtime = new IllegalStateException("runtime");
+        OQLException oql = new OQLException("oql");
+        Error error = new Error("error");
+        for (ForkJoinPool p : new ForkJoinPool[] { null, pool }) {
+            for (boolean ordered : new boolean[] { true, false }) {
+                try {
+                    run(scan(new Failing(1, new InstanceScan.Stopped(oql))), p, ordered);
+                    fail();
+                } catch (OQLException exp) {
+                    assertSame(oql, exp);
+                }
+                try {
+                    run(scan(new Failing(1, error)), p, ordered);
+                    fail();
+                } catch (Error exp) {
+                    assertSame(error, exp);
+                }
+                try {
+                    run(scan(new Failing(1, runtime)), p, ordered);
+                    fail();
+                } catch (OQLException exp) {
+                    assertSame(runtime, exp.getCause());
+                } catch (RuntimeException exp) {
+                    // which a scan without a pool lets through
+                    assertTrue(p == null);
+                    assertSame(runtime, exp);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cutOff() throws Exception {
+        for (boolean ordered : new boolean[] { true, false }) {
+            final CountDownLatch failing = new CountDownLatch(1);
+            final RuntimeException failure = new IllegalStateException("failure");
+            // The first range waits on its way for the second to fail,
+            // and is then cut off, so only the failure is to be seen.
+            Ids folder = new Ids() {
+                public void add(List<Long> part, JavaHeapObject obj) {
+                    if (part.size() == 10 && obj.getId() == ids.get(10)) {
+                        await(failing);
+                        pause();
+                    } else if (obj.getId() == ids.get(InstanceScan.RANGE_SIZE)) {
+                        failing.countDown();
+                        throw failure;
+                    }
+                    super.add(part, obj);
+                }
+            };
+            final List<List<Long>> parts = new ArrayList<List<Long>>();
+            try {
+                scan(folder).run(pool, ordered, part -> {
+                    parts.add(part);
+                    return false;
+                });
+                fail();
+            } catch (OQLException exp) {
+                assertSame(failure, exp.getCause());
+            }
+            // the ranges done before the failure, but never the first
+            for (List<Long> part : parts) {
+                assertWholeRange(part);
+                assertTrue(part.get(0) != ids.get(0).longValue());
+            }
+        }
+    }
+
+    // The instances of test.SubSmall, the last ten, are a range of
+    // their own.
+    private static void assertWholeRange(List<Long> part) {
+        int subStart = INSTANCES - 10;
+        int start = ids.indexOf(part.get(0));
+        int end = (start >= subStart)? INSTANCES
+                                     : Math.min(start + InstanceScan.RANGE_SIZE, subStart);
+        assertEquals(ids.subList(start, end), part);
+    }
+
+    // the ids of the instances of a range, in order
+    private static class Ids implements InstanceScan.Folder<List<Long>> {
+        public List<Long> newPart(int range) {
+            return new ArrayList<Long>();
+        }
+
+        public void add(List<Long> part, JavaHeapObject obj) {
+            part.add(obj.getId());
+        }
+    }
+
+    // ids, but the range'th range throws at its first instance
+    private static class Failing extends Ids {
+        private final int range;
+        private final Throwable failure;
+
+        Failing(int range, Throwable failure) {
+            this.range = range;
+            this.failure = failure;
+        }
+
+        public void add(List<Long> part, JavaHeapObject obj) {
+            if (obj.getId() == ids.get(range * InstanceScan.RANGE_SIZE)) {
+                if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+            super.add(part, obj);
+        }
+    }
+
+    private static InstanceScan<List<Long>> scan(Ids folder) {
+        return new InstanceScan<List<Long>>(classes, new QueryControl(), folder);
+    }
+
+    private static List<List<Long>> run(InstanceScan<List<Long>> scan, ForkJoinPool pool,
+                                        boolean ordered) throws OQLException {
+        final List<List<Long>> parts = new ArrayList<List<Long>>();
+        scan.run(pool, ordered, part -> {
+            parts.add(part);
+            return false;
+        });
+        return parts;
+    }
+
+    private static List<Long> join(List<List<Long>> parts) {
+        List<Long> result = new ArrayList<Long>();
+        for (List<Long> part : parts) {
+            result.addAll(part);
+        }
+        return result;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException exp) {
+            throw new AssertionError(exp);
+        }
+    }
+
+    // time for the failing range to be done with
+    private static void pause() {
+        try {
+            Thread.sleep(200);
+        } catch (InterruptedException exp) {
+            throw new AssertionError(exp);
+        }
+    }
+}
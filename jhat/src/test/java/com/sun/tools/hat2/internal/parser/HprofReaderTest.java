@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.sun.tools.hat2.internal.model.Root;
+import com.sun.tools.hat2.internal.model.Snapshot;
+import com.sun.tools.hat2.internal.model.StackFrame;
+import com.sun.tools.hat2.internal.model.TestHeap;
+
+import static com.sun.tools.hat2.internal.model.SnapshotAssert.assertSameSnapshot;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the segments of a heap dump parsed on several threads
+ * give the snapshot a single thread gives.
+ */
+public class HprofReaderTest {
+
+    @Test
+    public void parallelParse() throws Exception {
+        TestHeap heap = new TestHeap();
+        heap.defineClass("java.lang.Thread", "java.lang.Object", "name", 'L');
+        List<Long> nodes = new ArrayList<Long>();
+        long[] threadObjects = new long[2];
+        long[] locals = new long[3];
+        for (int s = 0; s < 4; s++) {
+            if (s > 0) {
+                heap.newSegment();
+            }
+            for (int i = 0; i < 50; i++) {
+                // a chain, and references back to earlier segments
+                long node = heap.node();
+                if (!nodes.isEmpty()) {
+                    heap.refer(nodes.get(nodes.size() - 1), node);
+                    if (i % 5 == 0) {
+                        heap.refer(node, nodes.get(nodes.size() / 3));
+                    }
+                }
+                nodes.add(node);
+            }
+            heap.objectArray(nodes.get(s), nodes.get(s + 1), 0);
+            heap.array(new int[] { s, s + 1 });
+            heap.string("segment " + s);
+            heap.weak(nodes.get(s * 3));
+            heap.root(nodes.get(s * 40));
+            switch (s) {
+                case 0:
+                    // frames of a thread of a later segment
+                    locals[0] = heap.node();
+                    heap.frameRoot(locals[0], 2, 0);
+                    locals[1] = heap.node();
+                    heap.frameRoot(locals[1], 2, 2);
+                    break;
+                case 1:
+                    threadObjects[0] = heap.instance("java.lang.Thread");
+                    heap.set(threadObjects[0], "name", heap.string("first"));
+                    heap.thread(threadObjects[0], "run");
+                    break;
+                case 2:
+                    threadObjects[1] = heap.instance("java.lang.Thread");
+                    heap.thread(threadObjects[1], "wait", "take", "run");
+                    break;
+                default:
+                    locals[2] = heap.node();
+                    heap.frameRoot(locals[2], 1, 0);
+                    break;
+            }
+        }
+        for (boolean callStack : new boolean[] { false, true }) {
+            Snapshot alone = heap.read(callStack, 1);
+            for (int parallelism : new int[] { 2, 4, 8 }) {
+                assertSameSnapshot(alone, heap.read(callStack, parallelism));
+            }
+        }
+
+        // the frame roots are resolved against threads of any segment
+        Snapshot snapshot = heap.read(true, 4);
+        String[][] frames = { { "wait" }, { "wait", "take", "run" }, { "run" } };
+        long[] threads = { threadObjects[1], threadObjects[1], threadObjects[0] };
+        for (int i = 0; i < locals.length; i++) {
+            Root root = snapshot.findThing(locals[i]).getRoot();
+            assertEquals(Root.JAVA_LOCAL, root.getType());
+            assertEquals(threads[i], root.getReferer().getId());
+            List<String> methods = new ArrayList<String>();
+            for (StackFrame f : root.getStackTrace().getFrames()) {
+                methods.add(f.getMethodName());
+            }
+            assertEquals(Arrays.asList(frames[i]), methods);
+        }
+    }
+}
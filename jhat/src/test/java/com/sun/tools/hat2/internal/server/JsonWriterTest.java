@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.server;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonWriterTest {
+
+    @Test
+    public void nesting() {
+        StringWriter text = new StringWriter();
+        JsonWriter json = new JsonWriter(new PrintWriter(text));
+        json.beginObject()
+            .name("a").value(1)
+            .name("b").beginArray().value(true).nullValue().value("x").endArray()
+            .name("c").beginObject().endObject()
+            .endObject();
+        assertEquals("{\"a\":1,\"b\":[true,null,\"x\"],\"c\":{}}", text.toString());
+    }
+
+    @Test
+    public void escapes() {
+        assertEquals("\"a\\\"b\\\\c\"", string("a\"b\\c"));
+        assertEquals("\"\\n\\r\\t\"", string("\n\r\t"));
+        assertEquals("\"\\u0000\\u0001\\u001f \"", string("\u0000\u0001\u001f "));
+        assertEquals("\"x\\u2028y\\u2029z\"", string("x\u2028y\u2029z"));
+        assertEquals("\"\u00e9\u20ac/\"", string("\u00e9\u20ac/"));
+    }
+
+    @Test
+    public void doubles() {
+        StringWriter text = new StringWriter();
+        JsonWriter json = new JsonWriter(new PrintWriter(text));
+        json.beginArray()
+            .value(1.5).value(Double.NaN).value(Double.NEGATIVE_INFINITY)
+            .endArray();
+        assertEquals("[1.5,\"NaN\",\"-Infinity\"]", text.toString());
+    }
+
+    private static String string(String s) {
+        StringWriter text = new StringWriter();
+        new JsonWriter(new PrintWriter(text)).value(s);
+        return text.toString();
+    }
+}
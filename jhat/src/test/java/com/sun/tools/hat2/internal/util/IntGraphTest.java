@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class IntGraphTest {
+
+    @Test
+    public void build() {
+        // 0 -> 1, 2;  1 -> 2;  2 -> nothing;  3 -> 0, 0 (a duplicate)
+        int[][] edges = { { 0, 1 }, { 0, 2 }, { 1, 2 }, { 3, 0 }, { 3, 0 } };
+        IntGraph.Builder builder = new IntGraph.Builder(4);
+        for (int[] e : edges) {
+            builder.count(e[0]);
+        }
+        builder.allocate();
+        for (int[] e : edges) {
+            builder.add(e[0], e[1]);
+        }
+        builder.sortRows(0, 4);
+        IntGraph graph = builder.build();
+
+        assertEquals(4, graph.getNodeCount());
+        assertEquals(4, graph.getEdgeCount());
+        assertArrayEquals(new int[] { 1, 2 }, row(graph, 0));
+        assertArrayEquals(new int[] { 2 }, row(graph, 1));
+        assertArrayEquals(new int[0], row(graph, 2));
+        assertArrayEquals(new int[] { 0 }, row(graph, 3));
+    }
+
+    @Test
+    public void fromArrays() {
+        IntGraph graph = new IntGraph(new int[] { 0, 2, 2, 3 },
+                                      new int[] { 1, 2, 0 });
+        assertEquals(3, graph.getNodeCount());
+        assertEquals(3, graph.getEdgeCount());
+        assertEquals(2, graph.getDegree(0));
+        assertEquals(0, graph.getDegree(1));
+        assertArrayEquals(new int[] { 0 }, row(graph, 2));
+    }
+
+    private static int[] row(IntGraph graph, int node) {
+        int[] result = new int[graph.getDegree(node)];
+        for (int i = graph.getStart(node); i < graph.getEnd(node); i++) {
+            result[i - graph.getStart(node)] = graph.getEdge(i);
+        }
+        return result;
+    }
+}
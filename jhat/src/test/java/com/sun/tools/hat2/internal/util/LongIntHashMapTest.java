@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 1997, 2008, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.  Oracle designates this
+ * particular file as subject to the "Classpath" exception as provided
+ * by Oracle in the LICENSE file that accompanied this code.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+
+/*
+ * The Original Code is HAT. The Initial Developer of the
+ * Original Code is Bill Foote, with contributions from others
+ * at JavaSoft/Sun.
+ */
+
+package com.sun.tools.hat2.internal.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongIntHashMapTest {
+
+    private static final int MISSING = -1;
+
+    @Test
+    public void putAndGet() {
+        LongIntHashMap map = new LongIntHashMap(4, MISSING);
+        assertEquals(MISSING, map.put(17L, 1));
+        assertEquals(MISSING, map.put(-17L, 2));
+        assertEquals(MISSING, map.put(Long.MIN_VALUE, 3));
+        assertEquals(1, map.put(17L, 4));
+        assertEquals(3, map.size());
+        assertEquals(4, map.get(17L));
+        assertEquals(2, map.get(-17L));
+        assertEquals(3, map.get(Long.MIN_VALUE));
+        assertEquals(MISSING, map.get(18L));
+        assertFalse(map.containsKey(18L));
+    }
+
+    @Test
+    public void zeroKey() {
+        LongIntHashMap map = new LongIntHashMap(4, MISSING);
+        assertFalse(map.containsKey(0L));
+        assertEquals(MISSING, map.get(0L));
+        assertEquals(MISSING, map.put(0L, 5));
+        assertTrue(map.containsKey(0L));
+        assertEquals(5, map.get(0L));
+        assertEquals(1, map.size());
+        assertEquals(5, map.put(0L, 6));
+        assertEquals(6, map.get(0L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void rehash() {
+        // start small so that the table grows several times; ids are
+        // 8 byte aligned addresses, as in heap dumps
+        LongIntHashMap map = new LongIntHashMap(1, MISSING);
+        int count = 100000;
+        for (int i = 0; i < count; i++) {
+            map.put(i * 8L, i);
+        }
+        assertEquals(count, map.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, map.get(i * 8L));
+        }
+        assertEquals(MISSING, map.get(count * 8L));
+        assertEquals(MISSING, map.get(4L));
+    }
+
+    @Test
+    public void ensureCapacity() {
+        LongIntHashMap map = new LongIntHashMap(1, MISSING);
+        map.put(0L, 1);
+        map.put(8L, 2);
+        map.ensureCapacity(1000);
+        assertEquals(2, map.size());
+        assertEquals(1, map.get(0L));
+        assertEquals(2, map.get(8L));
+    }
+}
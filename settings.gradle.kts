@@ -1,4 +1,5 @@
 rootProject.name = "lobster"
 include("lobster-core")
 include("jhat")
+include("jhat-jmh")
 include("lobster-utils")